@@ -90,6 +90,7 @@ import org.maxgamer.quickshop.listener.InternalListener;
 import org.maxgamer.quickshop.listener.LockListener;
 import org.maxgamer.quickshop.listener.PlayerListener;
 import org.maxgamer.quickshop.listener.PluginListener;
+import org.maxgamer.quickshop.listener.ShopInventoryListener;
 import org.maxgamer.quickshop.listener.ShopProtectionListener;
 import org.maxgamer.quickshop.listener.SignListener;
 import org.maxgamer.quickshop.listener.WorldListener;
@@ -1009,7 +1010,8 @@ public class QuickShop extends JavaPlugin implements QuickShopAPI {
         if (this.display && getConfig().getBoolean("shop.display-auto-despawn")) {
             this.displayAutoDespawnWatcher = new DisplayAutoDespawnWatcher(this);
             //BUKKIT METHOD SHOULD ALWAYS EXECUTE ON THE SERVER MAIN THEAD
-            timerTaskList.add(this.displayAutoDespawnWatcher.runTaskTimer(this, 20, getConfig().getInt("shop.display-check-time"))); // not worth async
+            // Runs every tick, display-check-time is handled by the watcher, so a round can be spread across ticks
+            timerTaskList.add(this.displayAutoDespawnWatcher.runTaskTimer(this, 20, 1)); // not worth async
         }
 
         getLogger().info("Registering commands...");
@@ -1058,6 +1060,7 @@ public class QuickShop extends JavaPlugin implements QuickShopAPI {
         // Register events
         // Listeners (These don't)
         new BlockListener(this, this.shopCache).register();
+        new ShopInventoryListener(this, this.shopCache).register();
         // SignChangeListener for 1.20+
         if (getGameVersion().ordinal() >= GameVersion.v1_20_R1.ordinal()) {
             new SignListener(this, this.shopCache).register();
@@ -1073,7 +1076,9 @@ public class QuickShop extends JavaPlugin implements QuickShopAPI {
         InternalListener internalListener = new InternalListener(this);
         internalListener.register();
 
-        if (this.display && AbstractDisplayItem.getNowUsing() != DisplayType.VIRTUALITEM) {
+        // Virtual items only exist on the client, dropped items and ItemDisplay entities can be removed by others
+        DisplayType displayType = AbstractDisplayItem.getNowUsing();
+        if (this.display && (displayType == DisplayType.REALITEM || displayType == DisplayType.ITEMDISPLAY)) {
             if (getDisplayItemCheckTicks() > 0) {
                 if (getConfig().getInt("shop.display-items-check-ticks") < 3000) {
                     getLogger().severe("Shop.display-items-check-ticks is too low! It may cause HUGE lag! Pick a number > 3000");
@@ -1095,16 +1100,19 @@ public class QuickShop extends JavaPlugin implements QuickShopAPI {
                     getLogger().severe("Shop.display-items-check-ticks is zero, display check is disabled");
                 }
             }
-            new DisplayProtectionListener(this, this.shopCache).register();
-            if (Bukkit.getPluginManager().getPlugin("ClearLag") != null) {
-                new ClearLaggListener(this).register();
+            // ItemDisplay entities can't be picked up or moved, only dropped items need guarding
+            if (displayType == DisplayType.REALITEM) {
+                new DisplayProtectionListener(this, this.shopCache).register();
+                if (Bukkit.getPluginManager().getPlugin("ClearLag") != null) {
+                    new ClearLaggListener(this).register();
+                }
             }
         }
         if (getConfig().getBoolean("shop.lock")) {
             new LockListener(this, this.shopCache).register();
         }
         getLogger().info("Cleaning MsgUtils...");
-        MsgUtil.loadTransactionMessages();
+        MsgUtil.initTransactionMessageStore();
         MsgUtil.clean();
         if (this.getConfig().getBoolean("updater", true)) {
             updateWatcher = new UpdateWatcher();
@@ -2237,6 +2245,62 @@ public class QuickShop extends JavaPlugin implements QuickShopAPI {
             getConfig().set("include-offlineplayer-for-command", false);
             getConfig().set("config-version", ++selectedVersion);
         }
+        if (selectedVersion == 163) {
+            getConfig().set("database.pool.min-size", 2);
+            getConfig().set("database.pool.max-size", 8);
+            getConfig().set("database.pool.connection-timeout", 30000);
+            getConfig().set("database.pool.keepalive-interval", 60);
+            getConfig().set("database.pool.idle-timeout", 600);
+            getConfig().set("database.pool.leak-detection-threshold", 0);
+            getConfig().set("config-version", ++selectedVersion);
+        }
+        if (selectedVersion == 164) {
+            getConfig().set("database.sqlite.wal", true);
+            getConfig().set("database.sqlite.read-connections", 3);
+            getConfig().set("config-version", ++selectedVersion);
+        }
+        if (selectedVersion == 165) {
+            getConfig().set("shop.loader.decode-threads", 0);
+            getConfig().set("shop.loader.attach-time-budget", 10);
+            getConfig().set("config-version", ++selectedVersion);
+        }
+        if (selectedVersion == 166) {
+            getConfig().set("shop.lazy-loading.enable", false);
+            getConfig().set("shop.lazy-loading.unload-grace-period", 300);
+            getConfig().set("config-version", ++selectedVersion);
+        }
+        if (selectedVersion == 167) {
+            getConfig().set("database.queue-capacity", 10000);
+            getConfig().set("database.queue-full-policy", "spill");
+            getConfig().set("database.spill-journal", true);
+            getConfig().set("config-version", ++selectedVersion);
+        }
+        if (selectedVersion == 168) {
+            getConfig().set("logging.database-retention-days", 0);
+            getConfig().set("config-version", ++selectedVersion);
+        }
+        if (selectedVersion == 169) {
+            getConfig().set("database.convert.chunk-size", 1000);
+            getConfig().set("database.convert.workers", 4);
+            getConfig().set("config-version", ++selectedVersion);
+        }
+        if (selectedVersion == 170) {
+            getConfig().set("shop.item-codec", "yaml");
+            getConfig().set("config-version", ++selectedVersion);
+        }
+        if (selectedVersion == 171) {
+            getConfig().set("shop.message-store.max-per-player", 500);
+            getConfig().set("shop.message-store.page-size", 20);
+            getConfig().set("config-version", ++selectedVersion);
+        }
+        if (selectedVersion == 172) {
+            getConfig().set("shop.display-despawn-time-budget", 2);
+            getConfig().set("config-version", ++selectedVersion);
+        }
+        if (selectedVersion == 173) {
+            getConfig().set("shop.virtual-display-view-range", 48);
+            getConfig().set("config-version", ++selectedVersion);
+        }
         //Fix broken maximum-digits-in-price option
         if (getConfig().isSet("maximum-digits-in-price")) {
             int maximumDigitsInPrice = getConfig().getInt("maximum-digits-in-price", -1);
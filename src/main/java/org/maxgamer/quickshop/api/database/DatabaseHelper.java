@@ -23,9 +23,11 @@ import org.bukkit.inventory.ItemStack;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.maxgamer.quickshop.api.shop.Shop;
+import org.maxgamer.quickshop.api.shop.ShopModerator;
 import org.maxgamer.quickshop.database.DataType;
 
 import java.sql.SQLException;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.function.Consumer;
 
@@ -104,6 +106,27 @@ public interface DatabaseHelper {
      */
     WarpedResultSet selectAllShops() throws SQLException;
 
+    /**
+     * Count the shops that saved in the database
+     *
+     * @return Shops amount
+     * @throws SQLException Any errors related to SQL Errors
+     */
+    int countShops() throws SQLException;
+
+    /**
+     * Select the shops in specific area that saved in the database
+     *
+     * @param world The world name
+     * @param minX  Min block X (inclusive)
+     * @param minZ  Min block Z (inclusive)
+     * @param maxX  Max block X (inclusive)
+     * @param maxZ  Max block Z (inclusive)
+     * @return Query result set
+     * @throws SQLException Any errors related to SQL Errors
+     */
+    WarpedResultSet selectShops(@NotNull String world, int minX, int minZ, int maxX, int maxZ) throws SQLException;
+
     /**
      * Create a transaction message record and save into database
      *
@@ -113,6 +136,35 @@ public interface DatabaseHelper {
      */
     void saveOfflineTransactionMessage(@NotNull UUID player, @NotNull String message, long time);
 
+    /**
+     * Select the newest transaction messages of specific player, newest first
+     *
+     * @param player The player
+     * @param limit  Max amount of messages
+     * @return Query result set, columns are message and time
+     * @throws SQLException Any errors related to SQL Errors
+     */
+    WarpedResultSet selectMessages(@NotNull UUID player, int limit) throws SQLException;
+
+    /**
+     * Remove the transaction messages of specific player with the same content
+     *
+     * @param player  The player
+     * @param message The message content
+     * @param until     Only the messages saved at or before this time
+     * @param onSuccess Success callback
+     * @param onFailed  Fails callback
+     */
+    void removeMessages(@NotNull UUID player, @NotNull String message, long until, @Nullable Runnable onSuccess, @Nullable Consumer<SQLException> onFailed);
+
+    /**
+     * Remove the older transaction messages of specific player, only keep the newest ones
+     *
+     * @param player The player
+     * @param keep   Amount of messages to keep
+     */
+    void trimMessages(@NotNull UUID player, int keep);
+
 
     /**
      * Upgrade legacy name based data record to uniqueId based record
@@ -128,10 +180,11 @@ public interface DatabaseHelper {
     /**
      * Update external cache data
      * (Used for Web UI or other something like that)
+     * The implementation may merge and delay the writes, only the latest values are guaranteed to be saved.
      *
      * @param shop  The shop
-     * @param space The shop remaining space
-     * @param stock The shop remaining stock
+     * @param space The shop remaining space, -1 if not calculated
+     * @param stock The shop remaining stock, -1 if not calculated
      */
     void updateExternalInventoryProfileCache(@NotNull Shop shop, int space, int stock);
 
@@ -157,7 +210,22 @@ public interface DatabaseHelper {
                     @Nullable String currency, boolean disableDisplay, @Nullable String taxAccount);
 
     /**
-     * Insert a history record into logs table
+     * Update a shop data into the database,
+     * implementation may delay and merge the writing.
+     *
+     * @param shop The shop
+     */
+    default void updateShop(@NotNull Shop shop) {
+        UUID taxAccount = shop.getTaxAccountActual();
+        updateShop(ShopModerator.serialize(shop.getModerator()), shop.getItem(), shop.isUnlimited() ? 1 : 0, shop.getShopType().toID(),
+                shop.getPrice(), shop.getLocation().getBlockX(), shop.getLocation().getBlockY(), shop.getLocation().getBlockZ(),
+                Objects.requireNonNull(shop.getLocation().getWorld()).getName(), shop.saveExtraToYaml(),
+                shop.getCurrency(), shop.isDisableDisplay(), taxAccount == null ? null : taxAccount.toString());
+        shop.setDirty(false);
+    }
+
+    /**
+     * Insert a history record into the history tables, it will be written in batch later
      *
      * @param rec Record object that can be serialized by Gson.
      */
@@ -49,6 +49,7 @@ public abstract class AbstractDisplayItem implements Reloadable {
 
     protected static final QuickShop PLUGIN = QuickShop.getInstance();
 
+    private static final boolean IS_SUPPORT_ITEM_DISPLAY = Util.isClassAvailable("org.bukkit.entity.ItemDisplay");
     private static boolean DISPLAY_ALLOW_STACKS;
     @Setter
     @Getter
@@ -186,6 +187,13 @@ public abstract class AbstractDisplayItem implements Reloadable {
             PLUGIN.getLogger().log(Level.WARNING, "Falling back to RealDisplayItem because " + displayType.name() + " type is unsupported");
             return DisplayType.REALITEM;
         }
+        //ItemDisplay was added in 1.19.4
+        if (!IS_SUPPORT_ITEM_DISPLAY && displayType == DisplayType.ITEMDISPLAY) {
+            PLUGIN.getConfig().set("shop.display-type", 0);
+            PLUGIN.saveConfiguration();
+            PLUGIN.getLogger().log(Level.WARNING, "Falling back to RealDisplayItem because " + displayType.name() + " type is unsupported");
+            return DisplayType.REALITEM;
+        }
         if (displayType == DisplayType.UNKNOWN) {
             if (isNotSupportVirtualItem) {
                 PLUGIN.getConfig().set("shop.display-type", 0);
@@ -21,6 +21,7 @@ package org.maxgamer.quickshop.api.shop;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.maxgamer.quickshop.shop.ItemDisplayItem;
 import org.maxgamer.quickshop.shop.RealDisplayItem;
 import org.maxgamer.quickshop.shop.VirtualDisplayItem;
 
@@ -33,11 +34,13 @@ public enum DisplayType {
      * REALITEM = USE REAL DROPPED ITEM
      * ARMORSTAND = USE ARMORSTAND DISPLAY
      * VIRTUALITEM = USE VIRTUAL DROPPED ITEM (CLIENT SIDE)
+     * ITEMDISPLAY = USE ITEM DISPLAY ENTITY
      * */
     UNKNOWN(-1),
     REALITEM(0),
     //  ARMORSTAND(1),
-    VIRTUALITEM(2);
+    VIRTUALITEM(2),
+    ITEMDISPLAY(3);
 
     private static final Map<Integer, DisplayType> TYPE_MAP;
 
@@ -70,6 +73,9 @@ public enum DisplayType {
         if (displayItem instanceof VirtualDisplayItem) {
             return VIRTUALITEM;
         }
+        if (displayItem instanceof ItemDisplayItem) {
+            return ITEMDISPLAY;
+        }
         return UNKNOWN;
     }
 
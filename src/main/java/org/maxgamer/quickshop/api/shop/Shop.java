@@ -38,6 +38,7 @@ import org.maxgamer.quickshop.shop.ShopSignPersistentDataType;
 import org.maxgamer.quickshop.shop.ShopSignStorage;
 
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -225,6 +226,14 @@ public interface Shop {
     @NotNull
     ItemStack getItem();
 
+    /**
+     * Get shop item's serialized string, it is cached until the item changed by {@link #setItem(ItemStack)}
+     *
+     * @return The serialized item, same as Util.serialize(getItem())
+     */
+    @NotNull
+    String getSerializedItem();
+
     /**
      * Set shop item's ItemStack
      *
@@ -407,10 +416,26 @@ public interface Shop {
     void setDirty(boolean isDirty);
 
     /**
-     * Sets shop is dirty
+     * Sets shop is dirty, all data will be saved
      */
     void setDirty();
 
+    /**
+     * Sets the data changed, only the changed data will be saved
+     *
+     * @param field The changed data
+     */
+    void setDirty(@NotNull ShopDataField field);
+
+    /**
+     * Gets the changed data and clears the dirty status,
+     * any changes after that will mark it dirty again.
+     *
+     * @return The changed data, all of them if shop was marked dirty without telling which one changed
+     */
+    @NotNull
+    Set<ShopDataField> takeDirtyFields();
+
 
     /**
      * Save the plugin extra data to Json format
@@ -133,6 +133,30 @@ public interface ShopManager {
      */
     @Nullable Shop getShop(@NotNull Location loc, boolean skipShopableChecking);
 
+    /**
+     * Gets a shop in a specific block position without loading the chunk
+     * ATTENTION: This not include attached shops (double-chest)
+     *
+     * @param world The world to get the shop from
+     * @param x     Block X
+     * @param y     Block Y
+     * @param z     Block Z
+     * @return The shop at that position
+     */
+    @Nullable Shop getShop(@NotNull World world, int x, int y, int z);
+
+    /**
+     * Gets a shop in a specific block position without loading the chunk
+     * ATTENTION: This not include attached shops (double-chest)
+     *
+     * @param world The name of world to get the shop from
+     * @param x     Block X
+     * @param y     Block Y
+     * @param z     Block Z
+     * @return The shop at that position
+     */
+    @Nullable Shop getShop(@NotNull String world, int x, int y, int z);
+
     /**
      * Gets a shop in a specific location Include the attached shop, e.g DoubleChest shop.
      *
@@ -208,6 +232,14 @@ public interface ShopManager {
      */
     @NotNull List<Shop> getPlayerAllShops(@NotNull UUID playerUUID);
 
+    /**
+     * Get the shops which the player is a staff of.
+     *
+     * @param playerUUID The player's uuid.
+     * @return The list have the shops this player is a staff of.
+     */
+    @NotNull List<Shop> getPlayerStaffShops(@NotNull UUID playerUUID);
+
     /**
      * Returns all shops in the whole database, include unloaded.
      *
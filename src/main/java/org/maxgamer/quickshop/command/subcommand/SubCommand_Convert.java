@@ -30,11 +30,13 @@ import org.maxgamer.quickshop.QuickShop;
 import org.maxgamer.quickshop.api.command.CommandHandler;
 import org.maxgamer.quickshop.database.AbstractDatabaseCore;
 import org.maxgamer.quickshop.database.DatabaseManager;
+import org.maxgamer.quickshop.database.DatabaseMigrator;
 import org.maxgamer.quickshop.database.MySQLCore;
 import org.maxgamer.quickshop.database.SQLiteCore;
 import org.maxgamer.quickshop.database.SimpleDatabaseHelper;
 
 import java.io.File;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -104,8 +106,12 @@ public class SubCommand_Convert implements CommandHandler<ConsoleCommandSender>
                     AbstractDatabaseCore dbCore = new MySQLCore(plugin, Objects.requireNonNull(host, "MySQL host can't be null"), Objects.requireNonNull(user, "MySQL username can't be null"), Objects.requireNonNull(pass, "MySQL password can't be null"), Objects.requireNonNull(databaseStr, "MySQL database name can't be null"), Objects.requireNonNull(port, "MySQL port can't be null"), finalPrefix, useSSL, optionsMap);
                     DatabaseManager databaseManager = new DatabaseManager(QuickShop.getInstance(), dbCore);
                     sender.sendMessage(ChatColor.GREEN + "Converting...");
-                    transferShops(new SimpleDatabaseHelper(plugin, databaseManager), sender);
+                    new SimpleDatabaseHelper(plugin, databaseManager);
+                    boolean succeed = transfer(databaseManager, sender);
                     databaseManager.unInit();
+                    if (!succeed) {
+                        return;
+                    }
                     sender.sendMessage(ChatColor.GREEN + "All done, please change your config.yml settings to mysql to apply the changes.");
                 } catch (Exception e) {
                     sender.sendMessage(ChatColor.RED + "Error in database conversion! Please check your console.");
@@ -125,8 +131,12 @@ public class SubCommand_Convert implements CommandHandler<ConsoleCommandSender>
                     AbstractDatabaseCore core = new SQLiteCore(plugin, new File(plugin.getDataFolder(), "shops.db"));
                     DatabaseManager databaseManager = new DatabaseManager(QuickShop.getInstance(), core);
                     sender.sendMessage(ChatColor.GREEN + "Converting...");
-                    transferShops(new SimpleDatabaseHelper(plugin, databaseManager), sender);
+                    new SimpleDatabaseHelper(plugin, databaseManager);
+                    boolean succeed = transfer(databaseManager, sender);
                     databaseManager.unInit();
+                    if (!succeed) {
+                        return;
+                    }
                     sender.sendMessage(ChatColor.GREEN + "All done, please change your config.yml settings to sqlite to apply the changes.");
                 } catch (Exception e) {
                     sender.sendMessage(ChatColor.RED + "Error in database conversion! Please check your console.");
@@ -141,11 +151,14 @@ public class SubCommand_Convert implements CommandHandler<ConsoleCommandSender>
         }
     }
 
-    private void transferShops(@NotNull SimpleDatabaseHelper helper, @NotNull CommandSender sender) {
-        plugin.getShopManager().getAllShops().forEach(shop -> {
-            helper.removeShop(shop);
-            helper.createShop(shop, null, (ignored) -> sender.sendMessage("Failed to convert shop " + shop));
-        });
+    private boolean transfer(@NotNull DatabaseManager target, @NotNull CommandSender sender) throws SQLException {
+        // Write everything still in queue, so the source is up to date
+        plugin.getDatabaseManager().flush();
+        DatabaseMigrator migrator = new DatabaseMigrator(plugin, plugin.getDatabaseManager().getDatabase(), target.getDatabase(),
+                plugin.getConfig().getInt("database.convert.chunk-size", 1000),
+                plugin.getConfig().getInt("database.convert.workers", 4),
+                message -> sender.sendMessage(ChatColor.GREEN + message));
+        return migrator.migrate(target);
     }
 
     /**
@@ -24,22 +24,27 @@ import lombok.AllArgsConstructor;
 import org.bukkit.Location;
 import org.bukkit.entity.Player;
 import org.bukkit.event.player.PlayerTeleportEvent;
-import org.bukkit.util.Vector;
 import org.jetbrains.annotations.NotNull;
 import org.maxgamer.quickshop.QuickShop;
 import org.maxgamer.quickshop.api.command.CommandHandler;
 import org.maxgamer.quickshop.api.shop.Shop;
+import org.maxgamer.quickshop.shop.ShopSearchIndex;
+import org.maxgamer.quickshop.shop.SimpleShopManager;
 import org.maxgamer.quickshop.util.MsgUtil;
 import org.maxgamer.quickshop.util.Util;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
 
 import static org.maxgamer.quickshop.chat.platform.minedown.BungeeQuickChat.toLegacyText;
 
 @AllArgsConstructor
 public class SubCommand_Find implements CommandHandler<Player> {
 
+    /* Stop searching more candidates when too many shops filtered out */
+    private static final int MAX_CANDIDATES = 10000;
     private final QuickShop plugin;
 
     @Override
@@ -50,11 +55,23 @@ public class SubCommand_Find implements CommandHandler<Player> {
         }
 
         final Location loc = sender.getLocation().clone();
-        final Vector playerVector = loc.toVector();
+
+        //Page is given as trailing #<page>, a plain number is a part of the item name, like "music disc 13"
+        int page = 1;
+        int typeArgs = cmdArg.length;
+        String lastArg = cmdArg[cmdArg.length - 1];
+        if (cmdArg.length > 1 && lastArg.length() > 1 && lastArg.charAt(0) == '#') {
+            try {
+                page = Math.max(1, Integer.parseInt(lastArg.substring(1)));
+                typeArgs--;
+            } catch (NumberFormatException ignored) {
+                // Part of the item name
+            }
+        }
 
         //Combing command args
         final StringBuilder sb = new StringBuilder(cmdArg[0]);
-        for (int i = 1; i < cmdArg.length; i++) {
+        for (int i = 1; i < typeArgs; i++) {
             sb.append("_").append(cmdArg[i]);
         }
 
@@ -62,73 +79,80 @@ public class SubCommand_Find implements CommandHandler<Player> {
         final String lookFor = sb.toString().toLowerCase();
         final double maxDistance = plugin.getConfig().getInt("shop.finding.distance");
         final boolean usingOldLogic = plugin.getConfig().getBoolean("shop.finding.oldLogic");
-        final int shopLimit = usingOldLogic ? 1 : plugin.getConfig().getInt("shop.finding.limit");
+        final int shopLimit = plugin.getConfig().getInt("shop.finding.limit");
         final boolean allShops = plugin.getConfig().getBoolean("shop.finding.all");
         final boolean excludeOutOfStock = plugin.getConfig().getBoolean("shop.finding.exclude-out-of-stock");
+        final int skip = usingOldLogic ? 0 : (page - 1) * shopLimit;
+        final String world = Objects.requireNonNull(loc.getWorld()).getName();
+        final ShopSearchIndex searchIndex = ((SimpleShopManager) plugin.getShopManager()).getSearchIndex();
 
-        //Rewrite by Ghost_chu - Use vector to replace old chunks finding.
-
-        Map<Shop, Double> aroundShops = new HashMap<>();
+        //Search the index off main thread, only the requested page returns to main thread
+        search(sender, searchIndex, world, loc, lookFor, maxDistance, skip, shopLimit, skip + shopLimit, !allShops, usingOldLogic, excludeOutOfStock);
+    }
 
-        //Choose finding source
-        Collection<Shop> scanPool;
-        if (allShops) {
-            scanPool = plugin.getShopManager().getAllShops();
-        } else {
-            scanPool = plugin.getShopManager().getLoadedShops();
-        }
-        //Calc distance between player and shop
-        for (Shop shop : scanPool) {
-            if (!Objects.equals(shop.getLocation().getWorld(), loc.getWorld())) {
-                continue;
-            }
-            if (aroundShops.size() == shopLimit) {
-                break;
-            }
-            Vector shopVector = shop.getLocation().toVector();
-            double distance = shopVector.distance(playerVector);
-            //Check distance
-            if (distance <= maxDistance) {
-                // Collect valid shop that trading items we want
-                if (!Util.getItemStackName(shop.getItem()).toLowerCase().contains(lookFor)
-                        && !shop.getItem().getType().name().toLowerCase().contains(lookFor)
-                        && !Util.isBookEnchantmentsMatched(shop.getItem(), lookFor)) {
-                    continue;
+    /**
+     * Search the candidates off main thread, then filter them on main thread before paging.
+     * If too many candidates filtered out, search again with more candidates.
+     */
+    private void search(@NotNull Player sender, @NotNull ShopSearchIndex searchIndex, @NotNull String world, @NotNull Location loc, @NotNull String lookFor,
+                        double maxDistance, int skip, int shopLimit, int candidates, boolean loadedOnly, boolean usingOldLogic, boolean excludeOutOfStock) {
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            List<ShopSearchIndex.Result> results = searchIndex.search(world, loc.getX(), loc.getY(), loc.getZ(), lookFor, maxDistance, candidates, loadedOnly);
+            Util.mainThreadRun(() -> {
+                if (!sender.isOnline()) {
+                    return;
                 }
-                if (excludeOutOfStock) {
-                    if ((shop.isSelling() && shop.getRemainingStock() == 0) || (shop.isBuying() && shop.getRemainingSpace() == 0)) {
+                //Filter before paging, so the pages won't be shorter or skip shops
+                List<ShopSearchIndex.Result> filtered = new ArrayList<>(Math.min(results.size(), skip + shopLimit));
+                for (ShopSearchIndex.Result result : results) {
+                    if (filtered.size() >= skip + shopLimit) {
+                        break;
+                    }
+                    Shop shop = result.getShop();
+                    if (shop.isDeleted()) {
                         continue;
                     }
+                    if (excludeOutOfStock) {
+                        if ((shop.isSelling() && shop.getRemainingStock() == 0) || (shop.isBuying() && shop.getRemainingSpace() == 0)) {
+                            continue;
+                        }
+                    }
+                    filtered.add(result);
                 }
-                aroundShops.put(shop, distance);
-            }
-        }
+                // Not enough left but there may be more candidates in range
+                if (filtered.size() < skip + shopLimit && results.size() >= candidates && candidates < MAX_CANDIDATES) {
+                    search(sender, searchIndex, world, loc, lookFor, maxDistance, skip, shopLimit, Math.min(MAX_CANDIDATES, candidates * 2), loadedOnly, usingOldLogic, excludeOutOfStock);
+                    return;
+                }
+                List<ShopSearchIndex.Result> pageResults = filtered.size() > skip ? filtered.subList(skip, filtered.size()) : Collections.emptyList();
+                sendResults(sender, lookFor, pageResults, usingOldLogic);
+            });
+        });
+    }
+
+    private void sendResults(@NotNull Player sender, @NotNull String lookFor, @NotNull List<ShopSearchIndex.Result> aroundShops, boolean usingOldLogic) {
         //Check if no shops found
         if (aroundShops.isEmpty()) {
             plugin.text().of(sender, "no-nearby-shop", lookFor).send();
             return;
         }
 
-        //Okay now all shops is our wanted shop in Map
-
-        List<Map.Entry<Shop, Double>> sortedShops = aroundShops.entrySet().stream().sorted(Map.Entry.<Shop, Double>comparingByValue(Double::compare).reversed())
-                .collect(Collectors.toList());
-
         //Function
         if (usingOldLogic) {
-            Map.Entry<Shop, Double> closest = sortedShops.get(0);
-            Location lookAt = closest.getKey().getLocation().clone().add(0.5, 0.5, 0.5);
+            ShopSearchIndex.Result closest = aroundShops.get(0);
+            Location lookAt = closest.getShop().getLocation().clone().add(0.5, 0.5, 0.5);
             PaperLib.teleportAsync(sender, Util.lookAt(sender.getEyeLocation(), lookAt).add(0, -1.62, 0),
                     PlayerTeleportEvent.TeleportCause.UNKNOWN);
-            plugin.text().of(sender, "nearby-shop-this-way", String.valueOf(closest.getValue().intValue())).send();
+            plugin.text().of(sender, "nearby-shop-this-way", String.valueOf((int) closest.getDistance())).send();
         } else {
             StringBuilder stringBuilder = new StringBuilder(plugin.text().of(sender, "nearby-shop-header", lookFor).forLocale()).append("\n");
-            for (Map.Entry<Shop, Double> shopDoubleEntry : sortedShops) {
-                Shop shop = shopDoubleEntry.getKey();
+            String locale = MsgUtil.getPlayerLocale(sender);
+            //Farthest first, so the nearest one is at the bottom of the chat
+            for (int i = aroundShops.size() - 1; i >= 0; i--) {
+                ShopSearchIndex.Result result = aroundShops.get(i);
+                Shop shop = result.getShop();
                 Location location = shop.getLocation();
 
-                String locale = MsgUtil.getPlayerLocale(sender);
-
                 //  "nearby-shop-entry": "&a- Info:{0} &aPrice:&b{1} &ax:&b{2} &ay:&b{3} &az:&b{4} &adistance: &b{5} &ablock(s)"
                 stringBuilder.append(plugin.text().of(sender, "nearby-shop-entry",
                         toLegacyText(shop.getSignText(locale).get(1).getComponents()),
@@ -136,7 +160,7 @@ public class SubCommand_Find implements CommandHandler<Player> {
                         String.valueOf(location.getBlockX()),
                         String.valueOf(location.getBlockY()),
                         String.valueOf(location.getBlockZ()),
-                        String.valueOf(shopDoubleEntry.getValue().intValue())
+                        String.valueOf((int) result.getDistance())
                 ).forLocale()).append("\n");
             }
             MsgUtil.sendDirectMessage(sender, stringBuilder.toString());
@@ -24,6 +24,7 @@ import org.bukkit.command.ConsoleCommandSender;
 import org.jetbrains.annotations.NotNull;
 import org.maxgamer.quickshop.QuickShop;
 import org.maxgamer.quickshop.api.command.CommandHandler;
+import org.maxgamer.quickshop.shop.ShopBackup;
 import org.maxgamer.quickshop.util.MsgUtil;
 import org.maxgamer.quickshop.util.Util;
 
@@ -37,15 +38,20 @@ public class SubCommand_Recovery implements CommandHandler<ConsoleCommandSender>
 
     @Override
     public void onCommand(@NotNull ConsoleCommandSender sender, @NotNull String commandLabel, @NotNull String[] cmdArg) {
-        File file = new File(plugin.getDataFolder(), "recovery.txt");
+        File file = new File(plugin.getDataFolder(), "recovery" + ShopBackup.FILE_EXTENSION);
         if (!file.exists()) {
-            MsgUtil.sendDirectMessage(sender, "recovery.txt doesn't exist! Do not execute this command unless you know what are you doing.");
+            // Legacy plain text backup
+            file = new File(plugin.getDataFolder(), "recovery.txt");
+        }
+        if (!file.exists()) {
+            MsgUtil.sendDirectMessage(sender, "recovery" + ShopBackup.FILE_EXTENSION + " or recovery.txt doesn't exist! Do not execute this command unless you know what are you doing.");
             return;
         }
+        File recoveryFile = file;
         plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
             try {
                 Util.backupDatabase();
-                plugin.getShopLoader().recoverFromFile(Util.readToString(file));
+                plugin.getShopLoader().recoverFromFile(recoveryFile);
             } catch (Exception e) {
                 plugin.getLogger().log(Level.WARNING, "Failed to recover the data because of the following error:", e);
             }
@@ -32,7 +32,6 @@ import org.maxgamer.quickshop.util.PlayerFinder;
 import org.maxgamer.quickshop.util.Util;
 import org.maxgamer.quickshop.util.logging.container.ShopRemoveLog;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -46,8 +45,6 @@ public class SubCommand_RemoveAll implements CommandHandler<CommandSender> {
     @Override
     public void onCommand(@NotNull CommandSender sender, @NotNull String commandLabel, @NotNull String[] cmdArg) {
         if (cmdArg.length == 1) {
-            //copy it first
-            List<Shop> tempList = new ArrayList<>(plugin.getShopManager().getAllShops());
             PlayerFinder.PlayerProfile shopOwner = PlayerFinder.findPlayerProfileByName(cmdArg[0], false, plugin.isIncludeOfflinePlayer());
             if (shopOwner == null) {
                 plugin.text().of(sender, "unknown-player").send();
@@ -60,7 +57,8 @@ public class SubCommand_RemoveAll implements CommandHandler<CommandSender> {
                     plugin.text().of(sender, "no-permission").send();
                     return;
                 }
-                for (Shop shop : tempList) {
+                // It is a copy, safe to delete while iterating
+                for (Shop shop : plugin.getShopManager().getPlayerAllShops(shopOwner.getUuid())) {
                     if (shop.getOwner().equals(shopOwner.getUuid())) {
                         plugin.logEvent(new ShopRemoveLog(Util.getSenderUniqueId(sender), "Deleting shop " + shop + " as requested by the /qs removeall command.", shop.saveToInfoStorage()));
                         shop.delete();
@@ -76,7 +74,7 @@ public class SubCommand_RemoveAll implements CommandHandler<CommandSender> {
                     sender.sendMessage(ChatColor.RED + "This command can't be run by the console!");
                     return;
                 }
-                for (Shop shop : tempList) {
+                for (Shop shop : plugin.getShopManager().getPlayerAllShops(((OfflinePlayer) sender).getUniqueId())) {
                     if (shop.getOwner().equals(((OfflinePlayer) sender).getUniqueId())) {
                         plugin.logEvent(new ShopRemoveLog(Util.getSenderUniqueId(sender), "Deleting shop " + shop + " as requested by the /qs removeall command.", shop.saveToInfoStorage()));
                         shop.delete();
@@ -48,7 +48,7 @@ public class SubCommand_RemoveWorld implements CommandHandler<CommandSender> {
             return;
         }
         int shopsDeleted = 0;
-        for (Shop shop : plugin.getShopManager().getAllShops()) {
+        for (Shop shop : plugin.getShopManager().getShopsInWorld(world)) {
             if (Objects.equals(shop.getLocation().getWorld(), world)) {
                 shop.delete();
                 shopsDeleted++;
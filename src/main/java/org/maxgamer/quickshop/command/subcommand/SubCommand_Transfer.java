@@ -26,6 +26,7 @@ import org.jetbrains.annotations.Nullable;
 import org.maxgamer.quickshop.QuickShop;
 import org.maxgamer.quickshop.api.command.CommandHandler;
 import org.maxgamer.quickshop.api.shop.Shop;
+import org.maxgamer.quickshop.shop.SimpleShopManager;
 import org.maxgamer.quickshop.util.PlayerFinder;
 import org.maxgamer.quickshop.util.Util;
 
@@ -121,16 +122,7 @@ public class SubCommand_Transfer implements CommandHandler<Player> {
 
     private boolean checkAndSendLimitMessage(Player checkingPlayer, CommandSender commandSender, int increment) {
         if (plugin.isLimit()) {
-            int owned = 0;
-            if (plugin.getConfig().getBoolean("limits.old-algorithm")) {
-                owned = plugin.getShopManager().getPlayerAllShops(checkingPlayer.getUniqueId()).size();
-            } else {
-                for (final Shop shop : plugin.getShopManager().getPlayerAllShops(checkingPlayer.getUniqueId())) {
-                    if (!shop.isUnlimited()) {
-                        owned++;
-                    }
-                }
-            }
+            int owned = ((SimpleShopManager) plugin.getShopManager()).getPlayerShopAmount(checkingPlayer.getUniqueId(), plugin.getConfig().getBoolean("limits.old-algorithm"));
             int max = plugin.getShopLimit(checkingPlayer);
             if (owned + increment <= max) {
                 plugin.text().of(commandSender, "reached-maximum-other-can-hold", String.valueOf(owned + increment), String.valueOf(max)).send();
@@ -57,6 +57,15 @@ public abstract class AbstractDatabaseCore {
 
     }
 
+    /**
+     * Calling when a connection released by user
+     *
+     * @param connection The released connection
+     */
+    void releaseConnection(@NotNull DatabaseConnection connection) {
+        signalForNewConnection();
+    }
+
     public String getTablePrefix() {
         return "";
     }
@@ -80,6 +89,16 @@ public abstract class AbstractDatabaseCore {
 
     abstract DatabaseConnection getConnection0();
 
+    /**
+     * Gets a database connection for read-only queries, core supports concurrent reading may hand out a separate connection.
+     *
+     * @return The database connection, PLEASE MAKE SURE USING DatabaseConnection#release to CLOSE THE CONNECTION
+     */
+    @NotNull
+    DatabaseConnection getReadConnection() {
+        return getConnection();
+    }
+
     /**
      * Getting DatabaseCore impl name
      *
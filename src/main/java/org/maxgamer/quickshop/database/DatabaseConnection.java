@@ -27,6 +27,7 @@ public class DatabaseConnection implements AutoCloseable {
     private final Connection connection;
     private final AbstractDatabaseCore databaseCore;
     private volatile boolean using;
+    private volatile long lastActiveTime = System.currentTimeMillis();
 
     public DatabaseConnection(AbstractDatabaseCore databaseCore, Connection connection) {
         this.databaseCore = databaseCore;
@@ -44,6 +45,35 @@ public class DatabaseConnection implements AutoCloseable {
         }
     }
 
+    /**
+     * Check the connection is closed without doing round trip
+     *
+     * @return Is closed
+     */
+    public boolean isClosed() {
+        try {
+            return connection.isClosed();
+        } catch (SQLException ignored) {
+            return true;
+        }
+    }
+
+    /**
+     * Close the underlying connection directly, used for discarding connection
+     */
+    synchronized void discard() {
+        try {
+            if (!connection.isClosed()) {
+                connection.close();
+            }
+        } catch (SQLException ignored) {
+        }
+    }
+
+    long getLastActiveTime() {
+        return lastActiveTime;
+    }
+
     @Override
     public synchronized void close() {
         try {
@@ -65,6 +95,7 @@ public class DatabaseConnection implements AutoCloseable {
     synchronized void markUsing() {
         if (!using) {
             using = true;
+            lastActiveTime = System.currentTimeMillis();
         } else {
             throw new ConnectionIsUsingException();
         }
@@ -81,7 +112,8 @@ public class DatabaseConnection implements AutoCloseable {
     public synchronized void release() {
         if (using) {
             using = false;
-            databaseCore.signalForNewConnection();
+            lastActiveTime = System.currentTimeMillis();
+            databaseCore.releaseConnection(this);
         } else {
             throw new ConnectionIsNotUsingException();
         }
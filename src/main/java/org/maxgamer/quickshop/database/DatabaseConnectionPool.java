@@ -0,0 +1,384 @@
+/*
+ * This file is a part of project QuickShop, the name is DatabaseConnectionPool.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.database;
+
+import lombok.Getter;
+import org.bukkit.plugin.IllegalPluginAccessException;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.maxgamer.quickshop.util.Util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Bounded database connection pool
+ * <p>
+ * Idle connections are checked out without locking, borrowers wait fairly when pool is exhausted,
+ * and idle connections are validated in background instead of on every checkout.
+ */
+public class DatabaseConnectionPool {
+    /**
+     * Upper bounds (exclusive, in milliseconds) of wait time histogram buckets, the last bucket has no upper bound
+     */
+    private static final long[] WAIT_TIME_BUCKETS = {1, 10, 100, 1000, 5000};
+    @NotNull
+    private final AbstractDatabaseCore databaseCore;
+    @NotNull
+    private final ConnectionFactory connectionFactory;
+    @Getter
+    private final int minSize;
+    @Getter
+    private final int maxSize;
+    private final long connectionTimeout;
+    private final long idleTimeout;
+    private final long leakDetectionThreshold;
+    private final Semaphore permits;
+    private final Deque<DatabaseConnection> idleConnections = new ConcurrentLinkedDeque<>();
+    private final Map<DatabaseConnection, BorrowRecord> borrowedConnections = new ConcurrentHashMap<>();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final AtomicLongArray waitTimeHistogram = new AtomicLongArray(WAIT_TIME_BUCKETS.length + 1);
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder leakCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    @Nullable
+    private BukkitTask maintainTask;
+    private volatile boolean closed;
+
+    /**
+     * Create a connection pool
+     *
+     * @param databaseCore           The database core owns this pool
+     * @param connectionFactory      The factory to open new physical connection
+     * @param minSize                The connections should be kept even idle
+     * @param maxSize                The max connections can be opened
+     * @param connectionTimeout      How long to wait for a free connection (ms)
+     * @param idleTimeout            How long an idle connection above min size will be kept (ms)
+     * @param leakDetectionThreshold How long a connection can be borrowed before reported as leak (ms), 0 to disable
+     */
+    public DatabaseConnectionPool(@NotNull AbstractDatabaseCore databaseCore, @NotNull ConnectionFactory connectionFactory,
+                                  int minSize, int maxSize, long connectionTimeout, long idleTimeout, long leakDetectionThreshold) {
+        this.databaseCore = databaseCore;
+        this.connectionFactory = connectionFactory;
+        this.maxSize = Math.max(1, maxSize);
+        this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+        this.connectionTimeout = connectionTimeout;
+        this.idleTimeout = idleTimeout;
+        this.leakDetectionThreshold = leakDetectionThreshold;
+        this.permits = new Semaphore(this.maxSize, true);
+    }
+
+    /**
+     * Start background keep-alive task
+     *
+     * @param intervalSeconds The interval between each validation
+     */
+    public void start(long intervalSeconds) {
+        try {
+            fillToMinSize();
+        } catch (RuntimeException e) {
+            databaseCore.getPlugin().getLogger().log(Level.WARNING, "Failed to open initial database connections for pool", e);
+        }
+        long ticks = Math.max(1, intervalSeconds) * 20;
+        try {
+            maintainTask = databaseCore.getPlugin().getServer().getScheduler().runTaskTimerAsynchronously(databaseCore.getPlugin(), this::maintain, ticks, ticks);
+        } catch (IllegalPluginAccessException e) {
+            Util.debugLog("Plugin is disabled but trying create connection pool maintain task, skipping...");
+        }
+    }
+
+    /**
+     * Borrow a connection from pool, caller must mark it using and release it after used.
+     *
+     * @return The connection
+     * @throws IllegalStateException If timed out or pool closed
+     */
+    @NotNull
+    DatabaseConnection borrow() {
+        if (closed) {
+            throw new IllegalStateException("Database connection pool already closed");
+        }
+        long beginTime = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(connectionTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a database connection", e);
+        }
+        recordWaitTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginTime));
+        if (!acquired) {
+            timeoutCount.increment();
+            throw new IllegalStateException("Timed out after " + connectionTimeout + "ms waiting for a database connection, all " + maxSize + " connections are in use");
+        }
+        try {
+            DatabaseConnection connection = idleConnections.pollFirst();
+            while (connection != null && connection.isClosed()) {
+                discard(connection);
+                connection = idleConnections.pollFirst();
+            }
+            if (connection == null) {
+                connection = create();
+            }
+            // Capturing the stack is costly on every borrow, only do it in dev mode
+            borrowedConnections.put(connection, new BorrowRecord(Thread.currentThread().getName(),
+                    leakDetectionThreshold > 0 && Util.isDevMode() ? new Exception("Connection borrowed by thread " + Thread.currentThread().getName()) : null));
+            return connection;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Give back a borrowed connection
+     *
+     * @param connection The connection
+     */
+    void giveBack(@NotNull DatabaseConnection connection) {
+        BorrowRecord borrowRecord = borrowedConnections.remove(connection);
+        if (borrowRecord == null) {
+            //Not borrowed from this pool or already returned
+            return;
+        }
+        if (borrowRecord.leakReported) {
+            databaseCore.getPlugin().getLogger().info("Previously reported leaked database connection was returned after " + (System.currentTimeMillis() - borrowRecord.borrowTime) + "ms.");
+        }
+        if (closed || connection.isClosed()) {
+            discard(connection);
+        } else {
+            //LIFO, so the most recently used connections stay warm and the rest can expire
+            idleConnections.offerFirst(connection);
+        }
+        permits.release();
+    }
+
+    /**
+     * Validate idle connections, expire connections above min size, and report leaked connections
+     */
+    void maintain() {
+        if (closed) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int idleCount = idleConnections.size();
+        List<DatabaseConnection> checking = new ArrayList<>(idleCount);
+        // Take permits for the connections we are checking, so borrowers can't exceed the max size
+        while (checking.size() < idleCount && permits.tryAcquire()) {
+            DatabaseConnection connection = idleConnections.pollLast();
+            if (connection == null) {
+                permits.release();
+                break;
+            }
+            checking.add(connection);
+        }
+        for (DatabaseConnection connection : checking) {
+            try {
+                if (totalConnections.get() > minSize && now - connection.getLastActiveTime() > idleTimeout) {
+                    discard(connection);
+                } else if (!connection.isValid()) {
+                    Util.debugLog("Discarding invalid database connection from pool.");
+                    discard(connection);
+                } else {
+                    idleConnections.offerLast(connection);
+                }
+            } finally {
+                permits.release();
+            }
+        }
+        try {
+            fillToMinSize();
+        } catch (RuntimeException e) {
+            databaseCore.getPlugin().getLogger().log(Level.WARNING, "Failed to open database connection for pool", e);
+        }
+        if (leakDetectionThreshold > 0) {
+            for (BorrowRecord borrowRecord : borrowedConnections.values()) {
+                if (!borrowRecord.leakReported && now - borrowRecord.borrowTime > leakDetectionThreshold) {
+                    borrowRecord.leakReported = true;
+                    leakCount.increment();
+                    databaseCore.getPlugin().getLogger().log(Level.WARNING, "Possible database connection leak, a connection was borrowed by thread " + borrowRecord.threadName + " " + (now - borrowRecord.borrowTime) + "ms ago and never released"
+                            + (borrowRecord.borrowTrace == null ? ", enable dev-mode to see where it was borrowed" : ""), borrowRecord.borrowTrace);
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the pool, wait for borrowed connections a while then close all connections
+     */
+    void close() {
+        if (maintainTask != null && !maintainTask.isCancelled()) {
+            maintainTask.cancel();
+        }
+        boolean allReturned = false;
+        try {
+            allReturned = permits.tryAcquire(maxSize, 10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closed = true;
+        if (!allReturned) {
+            databaseCore.getPlugin().getLogger().warning(borrowedConnections.size() + " database connection(s) still in use when closing, closing anyway.");
+            borrowedConnections.keySet().forEach(this::discard);
+            borrowedConnections.clear();
+        }
+        DatabaseConnection connection;
+        while ((connection = idleConnections.pollFirst()) != null) {
+            discard(connection);
+        }
+    }
+
+    private void fillToMinSize() {
+        while (!closed && totalConnections.get() < minSize && permits.tryAcquire()) {
+            try {
+                idleConnections.offerLast(create());
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    @NotNull
+    private DatabaseConnection create() {
+        try {
+            DatabaseConnection connection = new DatabaseConnection(databaseCore, connectionFactory.create());
+            totalConnections.incrementAndGet();
+            createdCount.increment();
+            return connection;
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to create a new connection", e);
+        }
+    }
+
+    private void discard(@NotNull DatabaseConnection connection) {
+        totalConnections.decrementAndGet();
+        connection.discard();
+    }
+
+    private void recordWaitTime(long waitMillis) {
+        int bucket = 0;
+        while (bucket < WAIT_TIME_BUCKETS.length && waitMillis >= WAIT_TIME_BUCKETS[bucket]) {
+            bucket++;
+        }
+        waitTimeHistogram.incrementAndGet(bucket);
+    }
+
+    /**
+     * Gets the amount of connections being used
+     *
+     * @return Active connections
+     */
+    public int getActiveCount() {
+        return borrowedConnections.size();
+    }
+
+    /**
+     * Gets the amount of connections waiting for use
+     *
+     * @return Idle connections
+     */
+    public int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    /**
+     * Gets the amount of opened connections
+     *
+     * @return Total connections
+     */
+    public int getTotalCount() {
+        return totalConnections.get();
+    }
+
+    /**
+     * Gets the estimated amount of threads waiting for a connection
+     *
+     * @return Waiting threads
+     */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    public long getLeakCount() {
+        return leakCount.sum();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    /**
+     * Gets the checkout wait time histogram
+     *
+     * @return Bucket name to checkout count
+     */
+    @NotNull
+    public Map<String, Long> getWaitTimeHistogram() {
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < WAIT_TIME_BUCKETS.length; i++) {
+            histogram.put("<" + WAIT_TIME_BUCKETS[i] + "ms", waitTimeHistogram.get(i));
+        }
+        histogram.put(">=" + WAIT_TIME_BUCKETS[WAIT_TIME_BUCKETS.length - 1] + "ms", waitTimeHistogram.get(WAIT_TIME_BUCKETS.length));
+        return histogram;
+    }
+
+    interface ConnectionFactory {
+        /**
+         * Open a new physical connection
+         *
+         * @return The connection
+         * @throws SQLException Throws if connect failed
+         */
+        @NotNull
+        Connection create() throws SQLException;
+    }
+
+    private static class BorrowRecord {
+        private final long borrowTime = System.currentTimeMillis();
+        @NotNull
+        private final String threadName;
+        @Nullable
+        private final Exception borrowTrace;
+        private volatile boolean leakReported;
+
+        private BorrowRecord(@NotNull String threadName, @Nullable Exception borrowTrace) {
+            this.threadName = threadName;
+            this.borrowTrace = borrowTrace;
+        }
+    }
+}
@@ -0,0 +1,528 @@
+/*
+ * This file is a part of project QuickShop, the name is DatabaseJournal.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.database;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only local journal for the queued database tasks which can't be written for now.
+ * <p>
+ * Tasks are stored as the SQL and the parameters they bound, each record is length prefixed and CRC checked,
+ * so a record torn by crash is discarded when opening. The header keeps the offset already written back
+ * to database, the file is truncated once everything written back.
+ * Only used by the database writer thread.
+ */
+class DatabaseJournal {
+    private static final int MAGIC = 0x51534A4C; // QSJL
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_BYTES = 6;
+
+    private final File file;
+    private final Logger logger;
+    private FileChannel channel;
+    /* Records before this offset are already written back to database */
+    private long replayedOffset;
+
+    DatabaseJournal(@NotNull File file, @NotNull Logger logger) throws IOException {
+        this.file = file;
+        this.logger = logger;
+        open();
+    }
+
+    /**
+     * Capture the SQL and parameters of the task, by letting it bind to a recording statement.
+     * The recording statement has no connection, getConnection returns null.
+     *
+     * @param task The task
+     * @return The record
+     * @throws SQLException Throws if the task failed to bind or bound something can't be stored
+     */
+    @NotNull
+    static Record capture(@NotNull DatabaseTask task) throws SQLException {
+        List<Parameter> parameters = new ArrayList<>();
+        PreparedStatement recorder = (PreparedStatement) Proxy.newProxyInstance(DatabaseJournal.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+            String name = method.getName();
+            switch (name) {
+                case "toString":
+                    return "JournalRecorder";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "clearParameters":
+                    parameters.clear();
+                    return null;
+                case "getConnection":
+                    return null;
+                default:
+                    break;
+            }
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                parameters.add(Parameter.of(name, (Integer) args[0], args[1]));
+                return null;
+            }
+            throw new SQLFeatureNotSupportedException("Unsupported statement operation when journaling: " + name);
+        });
+        task.bind(recorder);
+        return new Record(task.getStatement(), parameters);
+    }
+
+    private void open() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create the directory for " + file);
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_SIZE) {
+            writeHeader(HEADER_SIZE);
+            channel.truncate(HEADER_SIZE);
+            channel.force(true);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Unknown database journal format: " + file);
+        }
+        replayedOffset = Math.max(HEADER_SIZE, header.getLong());
+        if (replayedOffset > channel.size()) {
+            // Crashed after truncated but before the header reset, everything was written back
+            writeHeader(HEADER_SIZE);
+            channel.force(true);
+            replayedOffset = HEADER_SIZE;
+            return;
+        }
+        // Drop the torn records at tail
+        long validEnd = replayedOffset;
+        while (true) {
+            long next = skipRecord(validEnd);
+            if (next < 0) {
+                break;
+            }
+            validEnd = next;
+        }
+        if (validEnd < channel.size()) {
+            logger.warning("Discarded " + (channel.size() - validEnd) + " bytes of incomplete records in database journal.");
+            channel.truncate(validEnd);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Check if there are records not written back yet
+     *
+     * @return has pending records
+     */
+    boolean hasPending() {
+        try {
+            return channel.size() > replayedOffset;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    long getPendingBytes() {
+        try {
+            return Math.max(0, channel.size() - replayedOffset);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Append the records and sync them to disk once
+     *
+     * @param records The records
+     * @throws IOException Throws if failed to write
+     */
+    void append(@NotNull List<Record> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        long position = channel.size();
+        CRC32 crc32 = new CRC32();
+        for (Record record : records) {
+            byte[] payload = record.encode();
+            crc32.reset();
+            crc32.update(payload, 0, payload.length);
+            ByteBuffer buffer = ByteBuffer.allocate(8 + payload.length);
+            buffer.putInt(payload.length);
+            buffer.putInt((int) crc32.getValue());
+            buffer.put(payload);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Read the records not written back yet
+     *
+     * @param max Max records to read
+     * @return The chunk of records
+     * @throws IOException Throws if failed to read
+     */
+    @NotNull
+    Chunk read(int max) throws IOException {
+        List<Record> records = new ArrayList<>(Math.min(max, 512));
+        long position = replayedOffset;
+        while (records.size() < max) {
+            ByteBuffer prefix = ByteBuffer.allocate(8);
+            if (position + 8 > channel.size()) {
+                break;
+            }
+            readFully(prefix, position);
+            prefix.flip();
+            int length = prefix.getInt();
+            int crc = prefix.getInt();
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + 8);
+            byte[] bytes = payload.array();
+            CRC32 crc32 = new CRC32();
+            crc32.update(bytes, 0, bytes.length);
+            if ((int) crc32.getValue() != crc) {
+                throw new IOException("Database journal corrupted at " + position);
+            }
+            records.add(Record.decode(bytes));
+            position += 8 + length;
+        }
+        return new Chunk(records, position);
+    }
+
+    /**
+     * Mark records before the offset as written back, the file will be truncated if nothing left
+     *
+     * @param offset The end offset of written back records
+     * @throws IOException Throws if failed to write
+     */
+    void markReplayed(long offset) throws IOException {
+        if (offset >= channel.size()) {
+            // Mark everything replayed before truncating, so a crash at any step won't replay again
+            writeHeader(channel.size());
+            channel.force(false);
+            channel.truncate(HEADER_SIZE);
+            channel.force(true);
+            writeHeader(HEADER_SIZE);
+            channel.force(false);
+            replayedOffset = HEADER_SIZE;
+            return;
+        }
+        writeHeader(offset);
+        channel.force(false);
+        replayedOffset = offset;
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to close the database journal", e);
+        }
+    }
+
+    private void writeHeader(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(offset);
+        header.flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+    }
+
+    /**
+     * @return The offset after the record, or -1 if the record is incomplete or broken
+     */
+    private long skipRecord(long position) throws IOException {
+        if (position + 8 > channel.size()) {
+            return -1;
+        }
+        ByteBuffer prefix = ByteBuffer.allocate(8);
+        readFully(prefix, position);
+        prefix.flip();
+        int length = prefix.getInt();
+        int crc = prefix.getInt();
+        if (length < 0 || length > MAX_RECORD_SIZE || position + 8 + length > channel.size()) {
+            return -1;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(payload, position + 8);
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload.array(), 0, length);
+        return (int) crc32.getValue() == crc ? position + 8 + length : -1;
+    }
+
+    private void readFully(@NotNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of database journal");
+            }
+            position += read;
+        }
+    }
+
+    @Getter
+    static class Chunk {
+        private final List<Record> records;
+        private final long endOffset;
+
+        private Chunk(@NotNull List<Record> records, long endOffset) {
+            this.records = records;
+            this.endOffset = endOffset;
+        }
+    }
+
+    /**
+     * A SQL with its parameters
+     */
+    static class Record {
+        @Getter
+        private final String statement;
+        private final List<Parameter> parameters;
+
+        private Record(@NotNull String statement, @NotNull List<Parameter> parameters) {
+            this.statement = statement;
+            this.parameters = parameters;
+        }
+
+        @NotNull
+        private static Record decode(@NotNull byte[] bytes) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            String statement = readString(buffer);
+            int size = buffer.getInt();
+            List<Parameter> parameters = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                int index = buffer.getInt();
+                byte type = buffer.get();
+                Object value;
+                switch (type) {
+                    case TYPE_NULL:
+                        value = buffer.getInt();
+                        break;
+                    case TYPE_STRING:
+                        value = readString(buffer);
+                        break;
+                    case TYPE_INT:
+                        value = buffer.getInt();
+                        break;
+                    case TYPE_LONG:
+                        value = buffer.getLong();
+                        break;
+                    case TYPE_DOUBLE:
+                        value = buffer.getDouble();
+                        break;
+                    case TYPE_BOOLEAN:
+                        value = buffer.get() != 0;
+                        break;
+                    case TYPE_BYTES:
+                        byte[] data = new byte[buffer.getInt()];
+                        buffer.get(data);
+                        value = data;
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown parameter type " + type);
+                }
+                parameters.add(new Parameter(index, type, value));
+            }
+            return new Record(statement, Collections.unmodifiableList(parameters));
+        }
+
+        @NotNull
+        private static String readString(@NotNull ByteBuffer buffer) {
+            byte[] data = new byte[buffer.getInt()];
+            buffer.get(data);
+            return new String(data, StandardCharsets.UTF_8);
+        }
+
+        private static void writeString(@NotNull DataOutputStream out, @NotNull String string) throws IOException {
+            byte[] data = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+
+        @NotNull
+        private byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(statement.length() + parameters.size() * 16);
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, statement);
+            out.writeInt(parameters.size());
+            for (Parameter parameter : parameters) {
+                out.writeInt(parameter.index);
+                out.writeByte(parameter.type);
+                switch (parameter.type) {
+                    case TYPE_NULL:
+                    case TYPE_INT:
+                        out.writeInt((Integer) parameter.value);
+                        break;
+                    case TYPE_STRING:
+                        writeString(out, (String) parameter.value);
+                        break;
+                    case TYPE_LONG:
+                        out.writeLong((Long) parameter.value);
+                        break;
+                    case TYPE_DOUBLE:
+                        out.writeDouble((Double) parameter.value);
+                        break;
+                    case TYPE_BOOLEAN:
+                        out.writeBoolean((Boolean) parameter.value);
+                        break;
+                    case TYPE_BYTES:
+                        byte[] data = (byte[]) parameter.value;
+                        out.writeInt(data.length);
+                        out.write(data);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown parameter type " + parameter.type);
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Create a task binds the recorded parameters
+         *
+         * @param onFailed Calling when failed to write
+         * @return The task
+         */
+        @NotNull
+        DatabaseTask toTask(@NotNull Consumer<SQLException> onFailed) {
+            return new DatabaseTask(statement, new DatabaseTask.Task() {
+                @Override
+                public void edit(PreparedStatement ps) throws SQLException {
+                    for (Parameter parameter : parameters) {
+                        parameter.bind(ps);
+                    }
+                }
+
+                @Override
+                public void onFailed(SQLException e) {
+                    onFailed.accept(e);
+                }
+            });
+        }
+    }
+
+    private static class Parameter {
+        private final int index;
+        private final byte type;
+        private final Object value;
+
+        private Parameter(int index, byte type, @NotNull Object value) {
+            this.index = index;
+            this.type = type;
+            this.value = value;
+        }
+
+        @NotNull
+        private static Parameter of(@NotNull String method, int index, Object value) throws SQLException {
+            if ("setNull".equals(method)) {
+                return new Parameter(index, TYPE_NULL, value instanceof Integer ? value : Types.NULL);
+            }
+            if (value == null) {
+                return new Parameter(index, TYPE_NULL, "setString".equals(method) ? Types.VARCHAR : Types.NULL);
+            }
+            if (value instanceof String) {
+                return new Parameter(index, TYPE_STRING, value);
+            }
+            if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                return new Parameter(index, TYPE_INT, ((Number) value).intValue());
+            }
+            if (value instanceof Long) {
+                return new Parameter(index, TYPE_LONG, value);
+            }
+            if (value instanceof Double || value instanceof Float) {
+                return new Parameter(index, TYPE_DOUBLE, ((Number) value).doubleValue());
+            }
+            if (value instanceof Boolean) {
+                return new Parameter(index, TYPE_BOOLEAN, value);
+            }
+            if (value instanceof byte[]) {
+                return new Parameter(index, TYPE_BYTES, value);
+            }
+            throw new SQLFeatureNotSupportedException("Unsupported parameter type when journaling: " + value.getClass().getName());
+        }
+
+        private void bind(@NotNull PreparedStatement ps) throws SQLException {
+            switch (type) {
+                case TYPE_NULL:
+                    ps.setNull(index, (Integer) value);
+                    break;
+                case TYPE_STRING:
+                    ps.setString(index, (String) value);
+                    break;
+                case TYPE_INT:
+                    ps.setInt(index, (Integer) value);
+                    break;
+                case TYPE_LONG:
+                    ps.setLong(index, (Long) value);
+                    break;
+                case TYPE_DOUBLE:
+                    ps.setDouble(index, (Double) value);
+                    break;
+                case TYPE_BOOLEAN:
+                    ps.setBoolean(index, (Boolean) value);
+                    break;
+                case TYPE_BYTES:
+                    ps.setBytes(index, (byte[]) value);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown parameter type " + type);
+            }
+        }
+    }
+}
@@ -20,8 +20,7 @@
 package org.maxgamer.quickshop.database;
 
 import lombok.Getter;
-import org.bukkit.plugin.IllegalPluginAccessException;
-import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.Bukkit;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.maxgamer.quickshop.QuickShop;
@@ -32,13 +31,29 @@ import org.maxgamer.quickshop.util.reload.ReloadResult;
 import org.maxgamer.quickshop.util.reload.ReloadStatus;
 import org.maxgamer.quickshop.util.reload.Reloadable;
 
+import java.io.File;
+import java.io.IOException;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 /**
@@ -46,7 +61,21 @@ import java.util.logging.Level;
  */
 public class DatabaseManager implements Reloadable {
 
-    private final Queue<DatabaseTask> sqlQueue = new LinkedBlockingQueue<>();
+    private static final int MAX_BATCH_SIZE = 500;
+    /* How long to wait for more tasks before draining a small queue */
+    private static final long DRAIN_LINGER_MILLIS = 50;
+
+    private final BlockingDeque<DatabaseTask> sqlQueue = new LinkedBlockingDeque<>();
+
+    /* Priority lane, the writer picks them up before the next batch */
+    private final Queue<DatabaseTask> instantQueue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    private final Object queueNotFull = new Object();
+
+    /* Only accessed by writer thread */
+    private final PreparedStatementCache statementCache = new PreparedStatementCache();
 
     @NotNull
     @Getter
@@ -57,9 +86,42 @@ public class DatabaseManager implements Reloadable {
 
     @NotNull
     private final WarningSender warningSender;
+
+    @NotNull
+    @Getter
+    private final ShopUpdateBuffer shopUpdateBuffer;
+
+    @NotNull
+    @Getter
+    private final ExternalCacheBuffer externalCacheBuffer;
+
+    @NotNull
+    @Getter
+    private final HistoryLogStore historyLogStore;
+
+    @NotNull
+    @Getter
+    private final ItemDictionary itemDictionary;
+    /**
+     * All mutations are executed by this thread, so there is only one writer at a time
+     */
+    @NotNull
+    private final ScheduledExecutorService writerExecutor;
+    @Nullable
+    private volatile Thread writerThread;
     private boolean useQueue;
+    private int queueCapacity;
+    private boolean blockWhenFull;
+    private long commitInterval;
+    /* Continuous draining is paused until this time after the connection was lost, periodic commit still retries */
+    private volatile long drainPausedUntil;
+    @Nullable
+    private ScheduledFuture<?> task;
     @Nullable
-    private BukkitTask task;
+    private ScheduledFuture<?> historyRetentionTask;
+    /* Tasks which can't be written for now are spilled into it, null if disabled */
+    @Nullable
+    private DatabaseJournal journal;
 
     /**
      * Queued database manager. Use queue to solve run SQL make server lagg issue.
@@ -72,6 +134,27 @@ public class DatabaseManager implements Reloadable {
         this.plugin = plugin;
         this.warningSender = new WarningSender(plugin, 600000);
         this.database = dbCore;
+        this.shopUpdateBuffer = new ShopUpdateBuffer(this);
+        this.externalCacheBuffer = new ExternalCacheBuffer(this);
+        this.historyLogStore = new HistoryLogStore(this);
+        this.itemDictionary = new ItemDictionary(this);
+        this.writerExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "QuickShop Database Writer");
+            thread.setDaemon(true);
+            writerThread = thread;
+            return thread;
+        });
+        // Only the main database owns the journal, not the temporary ones like conversion target
+        if (plugin.getConfig().getBoolean("database.spill-journal", true) && plugin.getDatabaseManager() == null) {
+            try {
+                this.journal = new DatabaseJournal(new File(plugin.getDataFolder(), "database-journal.bin"), plugin.getLogger());
+                if (journal.hasPending()) {
+                    plugin.getLogger().info("Found " + journal.getPendingBytes() + " bytes of unwritten database tasks in journal, they will be written back soon.");
+                }
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to open the database journal, unwritten tasks will be kept in memory only.", e);
+            }
+        }
         plugin.getReloadManager().register(this);
         init();
 
@@ -79,9 +162,12 @@ public class DatabaseManager implements Reloadable {
 
     private void init() throws ConnectionException {
         this.useQueue = plugin.getConfig().getBoolean("database.queue");
+        this.queueCapacity = Math.max(MAX_BATCH_SIZE, plugin.getConfig().getInt("database.queue-capacity", 10000));
+        this.blockWhenFull = "block".equalsIgnoreCase(plugin.getConfig().getString("database.queue-full-policy", "spill"));
+        historyLogStore.setCapacity(queueCapacity);
         if (task != null) {
-            task.cancel();
-            plugin.getDatabaseManager().runTask();
+            task.cancel(false);
+            runOnWriterThreadLater(this::runTask);
         }
         DatabaseConnection connection = database.getConnection();
         try {
@@ -91,17 +177,119 @@ public class DatabaseManager implements Reloadable {
         } finally {
             connection.release();
         }
-        if (useQueue) {
+        // Shop updates are always write-behind, so the commit task is needed even queue is disabled
+        long interval = Math.max(1, plugin.getConfig().getLong("database.queue-commit-interval")) * 1000;
+        this.commitInterval = interval;
+        task = writerExecutor.scheduleWithFixedDelay(() -> {
             try {
-                task = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, () -> {
-                    if (!task.isCancelled()) {
-                        plugin.getDatabaseManager().runTask();
-                    }
-                }, 1, plugin.getConfig().getLong("database.queue-commit-interval") * 20);
-            } catch (IllegalPluginAccessException e) {
-                Util.debugLog("Plugin is disabled but trying create database task, move to Main Thread...");
-                plugin.getDatabaseManager().runTask();
+                runTask();
+            } catch (Throwable throwable) {
+                // Don't let the exception cancel the scheduled commit
+                plugin.getLogger().log(Level.WARNING, "Error when committing the database queue", throwable);
             }
+        }, 50, interval, TimeUnit.MILLISECONDS);
+        if (historyRetentionTask != null) {
+            historyRetentionTask.cancel(false);
+            historyRetentionTask = null;
+        }
+        int retentionDays = plugin.getConfig().getInt("logging.database-retention-days", 0);
+        if (retentionDays > 0) {
+            historyRetentionTask = writerExecutor.scheduleWithFixedDelay(() -> purgeHistory(retentionDays), 1, 360, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Remove the expired history logs, runs on writer thread
+     *
+     * @param retentionDays Keep records in these days
+     */
+    private void purgeHistory(int retentionDays) {
+        DatabaseConnection dbconnection = this.database.getConnection();
+        try {
+            historyLogStore.purge(dbconnection.get(), retentionDays);
+        } catch (Throwable throwable) {
+            plugin.getLogger().log(Level.WARNING, "Failed to purge expired history logs, it will retry later.", throwable);
+        } finally {
+            dbconnection.release();
+        }
+    }
+
+    /**
+     * Write all queued tasks and buffered changes now, and wait for it finished
+     */
+    public void flush() {
+        runOnWriterThread(() -> {
+            externalCacheBuffer.flushOnNextCommit();
+            runTask();
+        });
+    }
+
+    /**
+     * Link the items stored in shops rows to item dictionary, runs on writer thread in background
+     */
+    void normalizeItems() {
+        runOnWriterThreadLater(() -> {
+            DatabaseConnection dbconnection = this.database.getConnection();
+            try {
+                int moved = itemDictionary.normalize(dbconnection.get());
+                if (moved > 0) {
+                    plugin.getLogger().info("Linked " + moved + " shop item(s) to the item dictionary.");
+                }
+            } catch (SQLException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to link shop items to the item dictionary, the remaining will retry at next startup.", e);
+            } finally {
+                dbconnection.release();
+            }
+        });
+    }
+
+    /**
+     * Run the action on writer thread without waiting
+     *
+     * @param runnable The action
+     */
+    private void runOnWriterThreadLater(@NotNull Runnable runnable) {
+        try {
+            writerExecutor.execute(() -> {
+                try {
+                    runnable.run();
+                } catch (Throwable throwable) {
+                    plugin.getLogger().log(Level.WARNING, "Error when running the database task", throwable);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Writer already shutdown, nobody else is writing now
+            runnable.run();
+        }
+    }
+
+    /**
+     * Run the action on writer thread and wait for it finished.
+     * Don't call it from main thread except shutting down, use {@link #runOnWriterThreadLater(Runnable)} instead.
+     *
+     * @param runnable The action
+     */
+    private void runOnWriterThread(@NotNull Runnable runnable) {
+        if (Thread.currentThread() == writerThread) {
+            runnable.run();
+            return;
+        }
+        try {
+            writerExecutor.submit(runnable).get();
+        } catch (RejectedExecutionException e) {
+            // Writer already shutdown, nobody else is writing now
+            runnable.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
         }
     }
 
@@ -113,7 +301,7 @@ public class DatabaseManager implements Reloadable {
      * @throws SQLException Throw exception when failed execute somethins on SQL
      */
     boolean hasTable(@NotNull String table) throws SQLException {
-        DatabaseConnection connection = database.getConnection();
+        DatabaseConnection connection = database.getReadConnection();
         boolean match = false;
         try (ResultSet rs = connection.get().getMetaData().getTables(null, null, "%", null)) {
             while (rs.next()) {
@@ -141,7 +329,7 @@ public class DatabaseManager implements Reloadable {
             return false;
         }
 
-        DatabaseConnection connection = database.getConnection();
+        DatabaseConnection connection = database.getReadConnection();
         String query = "SELECT * FROM " + table + " LIMIT 1";
         boolean match = false;
         try (PreparedStatement ps = connection.get().prepareStatement(query); ResultSet rs = ps.executeQuery()) {
@@ -164,29 +352,53 @@ public class DatabaseManager implements Reloadable {
      * Internal method, runTasks in queue.
      */
     private synchronized void runTask() { // synchronized for QUICKSHOP-WX
-        if (sqlQueue.isEmpty()) {
+        if (sqlQueue.isEmpty() && instantQueue.isEmpty() && shopUpdateBuffer.isEmpty() && historyLogStore.isEmpty() && !externalCacheBuffer.isFlushDue(commitInterval) && (journal == null || !journal.hasPending())) {
             return;
         }
         DatabaseConnection dbconnection = this.database.getConnection();
         //We do not close the connection since is reusable
         Connection connection = dbconnection.get();
         try {
+            // CREATE TABLE commits implicitly on MySQL, so it must not be in the transaction
+            historyLogStore.prepareTables(connection);
             //start our commit
             connection.setAutoCommit(false);
             Timer ctimer = new Timer(true);
+            // Journaled tasks are older than everything else, including the instant ones
+            replayJournal(connection);
+            runInstantTasks(connection);
             while (true) {
                 if (!dbconnection.isValid()) {
                     warningSender.sendWarn("Database connection may lost, we are trying reconnecting, if this message appear too many times, you should check your database file(sqlite) and internet connection(mysql).");
+                    drainPausedUntil = System.currentTimeMillis() + commitInterval;
+                    // Move them to disk, so the heap won't grow while database is unavailable
+                    spillQueue();
                     return; // Waiting next crycle and hope it success reconnected.
                 }
+                if (sqlQueue.size() > queueCapacity && spillQueue()) {
+                    // Database is slower than the producers, keep the heap bounded
+                    replayJournal(connection);
+                    continue;
+                }
 
                 Timer timer = new Timer(true);
-                DatabaseTask task = sqlQueue.poll();
-                if (task == null) {
+                List<DatabaseTask> batch = pollBatch();
+                if (batch.isEmpty()) {
                     break;
                 }
 
-                task.run(connection);
+                try {
+                    executeBatch(connection, batch);
+                } catch (BatchAbortedException e) {
+                    // Put them back to the head in original order, they will be spilled below
+                    List<DatabaseTask> pending = e.getPending();
+                    for (int i = pending.size() - 1; i >= 0; i--) {
+                        sqlQueue.addFirst(pending.get(i));
+                    }
+                    throw e;
+                }
+                // Instant tasks won't wait for the whole queue
+                runInstantTasks(connection);
                 long tookTime = timer.stopAndGetTimePassed();
                 if (tookTime > 300) {
                     warningSender.sendWarn(
@@ -195,10 +407,18 @@ public class DatabaseManager implements Reloadable {
                                     + "ms) to execute the task, it may cause the network connection with MySQL server or just MySQL server too slow, change to a better MySQL server or switch to a local SQLite database!");
                 }
             }
+            //Shop rows go after queued tasks, so the INSERTs and DELETEs they depend on are already applied
+            shopUpdateBuffer.flush(connection);
+            historyLogStore.flush(connection);
+            // Only for Web UI, written at most once per commit interval no matter how often the queue drains
+            if (externalCacheBuffer.isFlushDue(commitInterval)) {
+                externalCacheBuffer.flush(connection);
+            }
             if (!connection.getAutoCommit()) {
                 connection.commit();
                 connection.setAutoCommit(true);
             }
+            onBuffersCommitted();
             long tookTime = ctimer.stopAndGetTimePassed();
             if (tookTime > 5500) {
                 warningSender.sendWarn(
@@ -208,57 +428,468 @@ public class DatabaseManager implements Reloadable {
             }
 
         } catch (SQLException sqle) {
+            statementCache.invalidate(connection);
+            // Items inserted in this transaction may not be committed
+            itemDictionary.invalidate();
+            drainPausedUntil = System.currentTimeMillis() + commitInterval;
+            spillQueue();
             plugin.getSentryErrorReporter().ignoreThrow();
             this.plugin
                     .getLogger()
                     .log(Level.WARNING, "Database connection may lost, we are trying reconnecting, if this message appear too many times, you should check your database file(sqlite) and internet connection(mysql).", sqle);
         } finally {
+            // Every exit path gives back the connection in auto commit mode, with nothing left uncommitted
+            boolean rolledBack = false;
+            try {
+                if (!connection.getAutoCommit()) {
+                    rolledBack = true;
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                Util.debugLog("Failed to restore the database connection: " + e.getMessage());
+            }
+            if (rolledBack) {
+                onBuffersRolledBack();
+            }
             dbconnection.release();
         }
+    }
+
+    /**
+     * The buffered rows flushed in this transaction are committed, the buffers can forget them
+     */
+    private void onBuffersCommitted() {
+        shopUpdateBuffer.onCommitted();
+        historyLogStore.onCommitted();
+        externalCacheBuffer.onCommitted();
+    }
+
+    /**
+     * The transaction rolled back, the buffered rows flushed in it are put back to be written at next commit
+     */
+    private void onBuffersRolledBack() {
+        shopUpdateBuffer.onRolledBack();
+        historyLogStore.onRolledBack();
+        externalCacheBuffer.onRolledBack();
+        // Items inserted in this transaction are gone
+        itemDictionary.invalidate();
+    }
+
+    /**
+     * Move every task in queue into the journal, keeping their order.
+     * Tasks stay in queue if journal is disabled or failed to write.
+     *
+     * @return true if spilled
+     */
+    private boolean spillQueue() {
+        if (journal == null || sqlQueue.isEmpty()) {
+            return false;
+        }
+        List<DatabaseTask> tasks = new ArrayList<>(sqlQueue.size());
+        sqlQueue.drainTo(tasks);
+        notifyQueueNotFull();
+        List<DatabaseJournal.Record> records = new ArrayList<>(tasks.size());
+        List<DatabaseTask> spilled = new ArrayList<>(tasks.size());
+        for (DatabaseTask task : tasks) {
+            try {
+                records.add(DatabaseJournal.capture(task));
+                spilled.add(task);
+            } catch (SQLException e) {
+                task.onFailed(e);
+            }
+        }
+        try {
+            journal.append(records);
+            Util.debugLog("Spilled " + records.size() + " database task(s) into journal.");
+            return true;
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to write the database journal, tasks will be kept in memory.", e);
+            // Put them back to the head in original order
+            for (int i = spilled.size() - 1; i >= 0; i--) {
+                sqlQueue.addFirst(spilled.get(i));
+            }
+            return false;
+        }
+    }
 
-//        try {
-//            this.database.getConnection().commit();
-//        } catch (SQLException e) {
-//            try {
-//                this.database.getConnection().rollback();
-//            } catch (SQLException ignored) {
-//            }
-//        }
+    /**
+     * Move the history records into the journal when there are more than the queue capacity,
+     * so the heap won't grow while database is unavailable or slower than the producers.
+     * The records stay in memory if journal is disabled.
+     */
+    void spillHistory() {
+        runOnWriterThreadLater(() -> {
+            if (journal == null) {
+                return;
+            }
+            sqlQueue.addAll(historyLogStore.drainAsTasks());
+            spillQueue();
+        });
     }
 
     /**
-     * Add DatabaseTask to queue waiting flush to database,
+     * Write the journaled tasks back to database, chunk by chunk
      *
-     * @param task The DatabaseTask you want add in queue.
+     * @param connection The connection, auto commit should be disabled
+     * @throws SQLException Throws if connection lost, the remaining will be replayed next time
+     */
+    private void replayJournal(@NotNull Connection connection) throws SQLException {
+        if (journal == null) {
+            return;
+        }
+        int replayed = 0;
+        while (journal.hasPending()) {
+            DatabaseJournal.Chunk chunk;
+            try {
+                chunk = journal.read(MAX_BATCH_SIZE);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to read the database journal, stop writing it back.", e);
+                return;
+            }
+            List<DatabaseTask> tasks = new ArrayList<>(chunk.getRecords().size());
+            List<DatabaseTask> schemaTasks = new ArrayList<>();
+            for (DatabaseJournal.Record record : chunk.getRecords()) {
+                DatabaseTask task = record.toTask(e -> plugin.getLogger().log(Level.WARNING, "Failed to write back journaled database task: " + record.getStatement(), e));
+                if (isSchemaStatement(record.getStatement())) {
+                    schemaTasks.add(task);
+                } else {
+                    tasks.add(task);
+                }
+            }
+            if (!schemaTasks.isEmpty()) {
+                // They commit implicitly on MySQL, so run them before the chunk transaction, they are all "IF NOT EXISTS"
+                connection.setAutoCommit(true);
+                try {
+                    schemaTasks.forEach(task -> task.run(connection));
+                } finally {
+                    connection.setAutoCommit(false);
+                }
+            }
+            // Same grouping as queue, but the whole chunk is one transaction.
+            // If connection lost nothing of the chunk is committed, it stays in journal and will be replayed again
+            List<DatabaseTask> succeed = new ArrayList<>(tasks.size());
+            int start = 0;
+            for (int i = 1; i <= tasks.size(); i++) {
+                if (i == tasks.size() || !tasks.get(i).getStatement().equals(tasks.get(start).getStatement())) {
+                    succeed.addAll(executeBatchUncommitted(connection, tasks.subList(start, i)));
+                    start = i;
+                }
+            }
+            connection.commit();
+            succeed.forEach(DatabaseTask::onSuccess);
+            try {
+                journal.markReplayed(chunk.getEndOffset());
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to update the database journal, stop writing it back.", e);
+                return;
+            }
+            replayed += tasks.size() + schemaTasks.size();
+        }
+        if (replayed > 0) {
+            plugin.getLogger().info("Written back " + replayed + " journaled database task(s).");
+        }
+    }
+
+    private static boolean isSchemaStatement(@NotNull String sql) {
+        return sql.regionMatches(true, 0, "CREATE ", 0, 7);
+    }
+
+    /**
+     * Drain the queue on writer thread soon, small queue waits a moment so more tasks can join the batch
+     */
+    private void scheduleDrain() {
+        if (System.currentTimeMillis() < drainPausedUntil) {
+            return;
+        }
+        if (!drainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        // Without queue the tasks are written as soon as possible, only sharing the batch with the ones arrived together
+        long linger = !useQueue || sqlQueue.size() >= MAX_BATCH_SIZE ? 0 : DRAIN_LINGER_MILLIS;
+        try {
+            writerExecutor.schedule(() -> {
+                drainScheduled.set(false);
+                try {
+                    runTask();
+                } catch (Throwable throwable) {
+                    plugin.getLogger().log(Level.WARNING, "Error when committing the database queue", throwable);
+                }
+            }, linger, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down, unInit will flush it
+            drainScheduled.set(false);
+        }
+    }
+
+    private void notifyQueueNotFull() {
+        synchronized (queueNotFull) {
+            queueNotFull.notifyAll();
+        }
+    }
+
+    /**
+     * Poll the consecutive tasks sharing the same SQL from queue
+     *
+     * @return The tasks, empty if queue is empty
+     */
+    @NotNull
+    private List<DatabaseTask> pollBatch() {
+        DatabaseTask first = sqlQueue.poll();
+        if (first == null) {
+            return Collections.emptyList();
+        }
+        List<DatabaseTask> batch = new ArrayList<>();
+        batch.add(first);
+        // Only writer thread polls the queue, so the peeked task won't be taken by others
+        while (batch.size() < MAX_BATCH_SIZE) {
+            DatabaseTask next = sqlQueue.peek();
+            if (next == null || !next.getStatement().equals(first.getStatement())) {
+                break;
+            }
+            batch.add(sqlQueue.poll());
+        }
+        if (blockWhenFull) {
+            notifyQueueNotFull();
+        }
+        return batch;
+    }
+
+    /**
+     * Execute the tasks sharing the same SQL with one batched PreparedStatement and commit them.
+     * Every task will get either onSuccess or onFailed.
+     *
+     * @param connection The connection, auto commit should be disabled
+     * @param batch      The tasks
+     * @throws BatchAbortedException Throws if connection lost, the tasks not written yet won't get any callback
+     */
+    private void executeBatch(@NotNull Connection connection, @NotNull List<DatabaseTask> batch) throws BatchAbortedException {
+        List<DatabaseTask> succeed = executeBatchUncommitted(connection, batch);
+        try {
+            connection.commit();
+        } catch (SQLException e) {
+            throw new BatchAbortedException(succeed, e);
+        }
+        succeed.forEach(DatabaseTask::onSuccess);
+    }
+
+    /**
+     * Execute the tasks sharing the same SQL with one batched PreparedStatement without committing.
+     * Failed tasks get onFailed, the caller should call onSuccess on the returned tasks once committed.
+     *
+     * @param connection The connection, auto commit should be disabled
+     * @param batch      The tasks
+     * @return The tasks executed successfully
+     * @throws BatchAbortedException Throws if connection lost, the tasks not written yet won't get any callback
+     */
+    @NotNull
+    private List<DatabaseTask> executeBatchUncommitted(@NotNull Connection connection, @NotNull List<DatabaseTask> batch) throws BatchAbortedException {
+        PreparedStatement ps;
+        try {
+            ps = statementCache.prepare(connection, batch.get(0).getStatement());
+        } catch (SQLException e) {
+            if (!isConnectionValid(connection)) {
+                throw new BatchAbortedException(batch, e);
+            }
+            batch.forEach(task -> task.onFailed(e));
+            return Collections.emptyList();
+        }
+        List<DatabaseTask> bound = new ArrayList<>(batch.size());
+        for (DatabaseTask task : batch) {
+            try {
+                task.bind(ps);
+                ps.addBatch();
+                bound.add(task);
+            } catch (SQLException e) {
+                // Only drop the parameters of this task, the batch added before is kept
+                try {
+                    ps.clearParameters();
+                } catch (SQLException ignored) {
+                }
+                task.onFailed(e);
+            }
+        }
+        List<DatabaseTask> succeed = new ArrayList<>(bound.size());
+        if (!bound.isEmpty()) {
+            try {
+                ps.executeBatch();
+                succeed.addAll(bound);
+            } catch (BatchUpdateException e) {
+                int[] updateCounts = e.getUpdateCounts() == null ? new int[0] : e.getUpdateCounts();
+                clearQuietly(ps);
+                for (int i = 0; i < bound.size(); i++) {
+                    DatabaseTask task = bound.get(i);
+                    if (i < updateCounts.length) {
+                        if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                            task.onFailed(e);
+                        } else {
+                            succeed.add(task);
+                        }
+                    } else if (i == updateCounts.length) {
+                        // The driver stopped at this one
+                        task.onFailed(e);
+                    } else {
+                        // Not executed yet since the driver stopped at the failed one
+                        try {
+                            task.bind(ps);
+                            ps.execute();
+                            succeed.add(task);
+                        } catch (SQLException ex) {
+                            task.onFailed(ex);
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (!isConnectionValid(connection)) {
+                    throw new BatchAbortedException(bound, e);
+                }
+                bound.forEach(task -> task.onFailed(e));
+            }
+        }
+        return succeed;
+    }
+
+    private boolean isConnectionValid(@NotNull Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(5);
+        } catch (SQLException e) {
+            return false;
+        } catch (AbstractMethodError ignored) {
+            //driver not supported
+            return true;
+        }
+    }
+
+    private void clearQuietly(@NotNull PreparedStatement ps) {
+        try {
+            ps.clearParameters();
+            ps.clearBatch();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * Run the DatabaseTask on writer thread as soon as possible, skipping the queue.
+     * It doesn't wait for the task finished, use the callbacks of task instead.
+     *
+     * @param task The DatabaseTask you want to run.
      */
     public void runInstantTask(DatabaseTask task) {
+        // Writer thread queues it too, it may be holding the connection in a transaction now
+        instantQueue.offer(task);
+        runOnWriterThreadLater(() -> {
+            if (instantQueue.isEmpty()) {
+                // Already picked up between batches
+                return;
+            }
+            if (journal != null && journal.hasPending()) {
+                // The journaled tasks must be written back first
+                runTask();
+                return;
+            }
+            DatabaseConnection connection = database.getConnection();
+            try {
+                runInstantTasks(connection.get());
+            } catch (SQLException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to commit the instant database tasks", e);
+            } finally {
+                connection.release();
+            }
+        });
+    }
+
+    /**
+     * Run the DatabaseTask on the calling thread and wait for it finished, only for schema setup,
+     * since the following setup steps and shops loading need the tables and columns exist.
+     * On SQLite the writer connection is exclusive, so it won't race with the writer thread.
+     *
+     * @param task The DatabaseTask you want to run.
+     */
+    void runSetupTask(@NotNull DatabaseTask task) {
         DatabaseConnection connection = database.getConnection();
-        task.run(connection.get());
-        connection.release();
+        try {
+            task.run(connection.get());
+        } finally {
+            connection.release();
+        }
+    }
+
+    /**
+     * Run the tasks in priority lane, runs on writer thread
+     *
+     * @param connection The connection
+     * @throws SQLException Throws if failed to commit
+     */
+    private void runInstantTasks(@NotNull Connection connection) throws SQLException {
+        DatabaseTask instant;
+        boolean executed = false;
+        while ((instant = instantQueue.poll()) != null) {
+            instant.run(connection);
+            executed = true;
+        }
+        if (executed && !connection.getAutoCommit()) {
+            connection.commit();
+        }
     }
 
     /**
-     * Add DatabaseTask to queue waiting flush to database,
+     * Add DatabaseTask to queue waiting flush to database.
+     * If queue is disabled, the queue is drained without waiting, but still bounded and journaled in the same way.
      *
      * @param task The DatabaseTask you want add in queue.
      */
     public void addDelayTask(DatabaseTask task) {
-        if (useQueue) {
-            sqlQueue.offer(task);
-        } else {
-            runInstantTask(task);
+        // Main thread and writer thread never wait, the writer will spill the queue instead
+        if (blockWhenFull && sqlQueue.size() >= queueCapacity && !Bukkit.isPrimaryThread() && Thread.currentThread() != writerThread) {
+            synchronized (queueNotFull) {
+                try {
+                    while (sqlQueue.size() >= queueCapacity && !writerExecutor.isShutdown()) {
+                        scheduleDrain();
+                        queueNotFull.wait(commitInterval);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
         }
+        sqlQueue.offer(task);
+        scheduleDrain();
     }
 
     /**
      * Unload the DatabaseManager, run at onDisable()
      */
-    public synchronized void unInit() {
-        if (task != null && !task.isCancelled()) {
-            task.cancel();
+    public void unInit() {
+        if (task != null) {
+            task.cancel(false);
+        }
+        if (historyRetentionTask != null) {
+            historyRetentionTask.cancel(false);
         }
         plugin.getLogger().info("Please wait for the data to flush its data...");
-        runTask();
+        runOnWriterThread(() -> {
+            externalCacheBuffer.flushOnNextCommit();
+            runTask();
+            if (!shopUpdateBuffer.isEmpty()) {
+                // Retry once, the first commit may fail due to lost connection
+                runTask();
+                if (!shopUpdateBuffer.isEmpty()) {
+                    plugin.getLogger().warning("Failed to save " + shopUpdateBuffer.getPendingAmount() + " shop(s) into database, the changes will revert after restart!");
+                }
+            }
+            // Anything still in queue is kept in journal for next startup
+            sqlQueue.addAll(historyLogStore.drainAsTasks());
+            spillQueue();
+            if (!sqlQueue.isEmpty()) {
+                plugin.getLogger().warning("Failed to save " + sqlQueue.size() + " queued database task(s), the changes will revert after restart!");
+            }
+            statementCache.clear();
+            if (journal != null) {
+                journal.close();
+            }
+        });
+        writerExecutor.shutdown();
+        notifyQueueNotFull();
         database.close();
     }
 
@@ -274,6 +905,20 @@ public class DatabaseManager implements Reloadable {
     }
 
 
+    /**
+     * Thrown when connection lost in the middle of a batch
+     */
+    private static final class BatchAbortedException extends SQLException {
+        private static final long serialVersionUID = -2297346415209271384L;
+        @Getter
+        private final transient List<DatabaseTask> pending;
+
+        private BatchAbortedException(@NotNull List<DatabaseTask> pending, @NotNull SQLException cause) {
+            super(cause.getMessage(), cause.getSQLState(), cause.getErrorCode(), cause);
+            this.pending = pending;
+        }
+    }
+
     /**
      * Represents a connection error, generally when the server can't connect to MySQL or something.
      */
@@ -0,0 +1,495 @@
+/*
+ * This file is a part of project QuickShop, the name is DatabaseMigrator.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.database;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.maxgamer.quickshop.QuickShop;
+import org.maxgamer.quickshop.util.JsonUtil;
+import org.maxgamer.quickshop.util.Timer;
+import org.maxgamer.quickshop.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Copies every QuickShop table from one database to another.
+ * <p>
+ * Rows are streamed from the source and written by a few workers with multi-row INSERTs, each chunk in its own transaction.
+ * Every table is verified by row count and an order independent checksum after copied.
+ * Verified tables are recorded in a progress file, so an interrupted migration only copies the unfinished tables again.
+ */
+public class DatabaseMigrator {
+    /* Old SQLite allows 999 parameters in one statement */
+    private static final int MAX_PARAMETERS = 999;
+    private static final String PROGRESS_FILE = "convert-progress.json";
+    private final QuickShop plugin;
+    private final AbstractDatabaseCore source;
+    private final AbstractDatabaseCore target;
+    private final int chunkSize;
+    private final int workers;
+    private final File progressFile;
+    private final Consumer<String> reporter;
+
+    /**
+     * Create a migrator
+     *
+     * @param plugin    The plugin
+     * @param source    The database copy from
+     * @param target    The database copy to, tables should be created already
+     * @param chunkSize Rows per transaction
+     * @param workers   Parallel writers, SQLite target always uses one
+     * @param reporter  Progress messages receiver
+     */
+    public DatabaseMigrator(@NotNull QuickShop plugin, @NotNull AbstractDatabaseCore source, @NotNull AbstractDatabaseCore target, int chunkSize, int workers, @NotNull Consumer<String> reporter) {
+        this.plugin = plugin;
+        this.source = source;
+        this.target = target;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.workers = target instanceof SQLiteCore ? 1 : Math.max(1, workers);
+        this.progressFile = new File(plugin.getDataFolder(), PROGRESS_FILE);
+        this.reporter = reporter;
+    }
+
+    /**
+     * Run the migration on current thread
+     *
+     * @param targetManager The manager of target database, used for creating the history tables
+     * @return true if all tables copied and verified
+     * @throws SQLException Failed to access the database
+     */
+    public boolean migrate(@NotNull DatabaseManager targetManager) throws SQLException {
+        Timer timer = new Timer(true);
+        String progressKey = source.getName() + "/" + source.getTablePrefix() + " -> " + target.getName() + "/" + target.getTablePrefix();
+        Map<String, TableResult> completed = loadProgress(progressKey);
+        if (!completed.isEmpty()) {
+            reporter.accept("Resuming the previous conversion, " + completed.size() + " table(s) already copied.");
+        }
+        List<String> tables = listTables();
+        boolean allSucceed = true;
+        ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "QuickShop Database Migrator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (String table : tables) {
+                if (completed.containsKey(table)) {
+                    continue;
+                }
+                if (table.startsWith("history_")) {
+                    createHistoryTable(targetManager, table);
+                }
+                TableResult result = copyTable(table, executor);
+                if (result == null) {
+                    allSucceed = false;
+                    continue;
+                }
+                completed.put(table, result);
+                saveProgress(progressKey, completed);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (allSucceed) {
+            try {
+                Files.deleteIfExists(progressFile.toPath());
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to delete " + PROGRESS_FILE, e);
+            }
+            reporter.accept("Converted " + tables.size() + " table(s) in " + timer.stopAndGetTimePassed() + "ms.");
+        } else {
+            reporter.accept("Some tables failed to convert, run the command again to retry them, the copied tables will be skipped.");
+        }
+        return allSucceed;
+    }
+
+    /**
+     * List the tables to copy in source database, without prefix
+     *
+     * @return The table names
+     * @throws SQLException Failed to access the database
+     */
+    @NotNull
+    private List<String> listTables() throws SQLException {
+        List<String> tables = new ArrayList<>();
+        String prefix = source.getTablePrefix().toLowerCase(Locale.ROOT);
+        Pattern history = Pattern.compile("history_\\d{6}");
+        DatabaseConnection connection = source.getReadConnection();
+        try (ResultSet rs = connection.get().getMetaData().getTables(connection.get().getCatalog(), null, "%", new String[]{"TABLE"})) {
+            while (rs.next()) {
+                String name = rs.getString("TABLE_NAME").toLowerCase(Locale.ROOT);
+                if (!name.startsWith(prefix)) {
+                    continue;
+                }
+                String table = name.substring(prefix.length());
+                if ("shops".equals(table) || "messages".equals(table) || "logs".equals(table) || "external_cache".equals(table) || "items".equals(table) || history.matcher(table).matches()) {
+                    tables.add(table);
+                }
+            }
+        } finally {
+            connection.release();
+        }
+        // Shops first, they matter the most
+        tables.sort((a, b) -> "shops".equals(a) ? -1 : "shops".equals(b) ? 1 : a.compareTo(b));
+        return tables;
+    }
+
+    private void createHistoryTable(@NotNull DatabaseManager targetManager, @NotNull String table) throws SQLException {
+        DatabaseConnection connection = target.getConnection();
+        try (Statement statement = connection.get().createStatement()) {
+            for (String sql : targetManager.getHistoryLogStore().getCreateTableStatements(target.getTablePrefix() + table)) {
+                statement.execute(sql);
+            }
+        } finally {
+            connection.release();
+        }
+    }
+
+    @NotNull
+    private List<String> getColumns(@NotNull AbstractDatabaseCore core, @NotNull String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        DatabaseConnection connection = core.getReadConnection();
+        try (Statement statement = connection.get().createStatement();
+             ResultSet rs = statement.executeQuery("SELECT * FROM " + core.getTablePrefix() + table + " WHERE 1 = 0")) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                columns.add(metaData.getColumnLabel(i).toLowerCase(Locale.ROOT));
+            }
+        } finally {
+            connection.release();
+        }
+        return columns;
+    }
+
+    /**
+     * Copy and verify a table
+     *
+     * @param table    The table name without prefix
+     * @param executor The writers
+     * @return The verified result, null if failed
+     */
+    @Nullable
+    private TableResult copyTable(@NotNull String table, @NotNull ExecutorService executor) throws SQLException {
+        Timer timer = new Timer(true);
+        // Only the columns both sides have, the target may be created by a newer version
+        List<String> columns = getColumns(source, table);
+        columns.retainAll(getColumns(target, table));
+        if (columns.isEmpty()) {
+            reporter.accept("Skipped table " + table + ", no columns in common.");
+            return new TableResult(0, 0);
+        }
+        String columnList = String.join(", ", columns);
+        int rowsPerStatement = Math.max(1, Math.min(chunkSize, MAX_PARAMETERS / columns.size()));
+        clearTarget(table);
+
+        // Bounded, so the reader never runs too far ahead of the writers
+        Semaphore inFlight = new Semaphore(workers * 2);
+        List<Future<?>> futures = new ArrayList<>();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        AtomicInteger written = new AtomicInteger();
+        long sourceRows = 0;
+        long sourceChecksum = 0;
+        DatabaseConnection connection = source.getReadConnection();
+        try (Statement statement = createStreamingStatement(connection.get());
+             ResultSet rs = statement.executeQuery("SELECT " + columnList + " FROM " + source.getTablePrefix() + table)) {
+            List<Object[]> chunk = new ArrayList<>(chunkSize);
+            while (rs.next() && failure.get() == null) {
+                Object[] row = new Object[columns.size()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                sourceRows++;
+                sourceChecksum += checksum(row);
+                chunk.add(row);
+                if (chunk.size() >= chunkSize) {
+                    submit(executor, inFlight, futures, failure, written, table, columnList, rowsPerStatement, chunk);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty() && failure.get() == null) {
+                submit(executor, inFlight, futures, failure, written, table, columnList, rowsPerStatement, chunk);
+            }
+        } finally {
+            connection.release();
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+        if (failure.get() != null) {
+            plugin.getLogger().log(Level.WARNING, "Failed to convert table " + table, failure.get());
+            reporter.accept("Failed to convert table " + table + ": " + failure.get().getMessage());
+            return null;
+        }
+        TableResult targetResult = scan(target, table, columnList);
+        if (targetResult.rows != sourceRows || targetResult.checksum != sourceChecksum) {
+            reporter.accept("Verification failed for table " + table + ": source " + sourceRows + " rows (checksum " + Long.toHexString(sourceChecksum) + "), target " + targetResult.rows + " rows (checksum " + Long.toHexString(targetResult.checksum) + ").");
+            return null;
+        }
+        reporter.accept("Converted table " + table + ": " + sourceRows + " rows verified, used " + timer.stopAndGetTimePassed() + "ms.");
+        return targetResult;
+    }
+
+    private void submit(@NotNull ExecutorService executor, @NotNull Semaphore inFlight, @NotNull List<Future<?>> futures, @NotNull AtomicReference<Exception> failure,
+                        @NotNull AtomicInteger written, @NotNull String table, @NotNull String columnList, int rowsPerStatement, @NotNull List<Object[]> chunk) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+            return;
+        }
+        futures.add(executor.submit(() -> {
+            try {
+                writeChunk(table, columnList, rowsPerStatement, chunk);
+                int total = written.addAndGet(chunk.size());
+                if (total / 50000 != (total - chunk.size()) / 50000) {
+                    reporter.accept("Converting table " + table + "... " + total + " rows written");
+                }
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                inFlight.release();
+            }
+        }));
+    }
+
+    /**
+     * Write a chunk in one transaction
+     */
+    private void writeChunk(@NotNull String table, @NotNull String columnList, int rowsPerStatement, @NotNull List<Object[]> chunk) throws SQLException {
+        int columnCount = chunk.get(0).length;
+        DatabaseConnection databaseConnection = target.getConnection();
+        Connection connection = databaseConnection.get();
+        try {
+            connection.setAutoCommit(false);
+            PreparedStatement full = null;
+            try {
+                for (int from = 0; from < chunk.size(); from += rowsPerStatement) {
+                    int rows = Math.min(rowsPerStatement, chunk.size() - from);
+                    PreparedStatement ps;
+                    if (rows == rowsPerStatement) {
+                        if (full == null) {
+                            full = connection.prepareStatement(getInsertStatement(table, columnList, columnCount, rows));
+                        }
+                        ps = full;
+                    } else {
+                        ps = connection.prepareStatement(getInsertStatement(table, columnList, columnCount, rows));
+                    }
+                    try {
+                        int index = 1;
+                        for (int i = from; i < from + rows; i++) {
+                            for (Object value : chunk.get(i)) {
+                                ps.setObject(index++, value);
+                            }
+                        }
+                        ps.executeUpdate();
+                    } finally {
+                        if (ps != full) {
+                            ps.close();
+                        }
+                    }
+                }
+            } finally {
+                if (full != null) {
+                    full.close();
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {
+            }
+            throw e;
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException ignored) {
+            }
+            databaseConnection.release();
+        }
+    }
+
+    @NotNull
+    private String getInsertStatement(@NotNull String table, @NotNull String columnList, int columnCount, int rows) {
+        StringBuilder row = new StringBuilder("(");
+        for (int i = 0; i < columnCount; i++) {
+            row.append(i == 0 ? "?" : ", ?");
+        }
+        row.append(")");
+        StringBuilder builder = new StringBuilder("INSERT INTO ").append(target.getTablePrefix()).append(table).append(" (").append(columnList).append(") VALUES ");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(row);
+        }
+        return builder.toString();
+    }
+
+    private void clearTarget(@NotNull String table) throws SQLException {
+        DatabaseConnection connection = target.getConnection();
+        try (Statement statement = connection.get().createStatement()) {
+            statement.executeUpdate("DELETE FROM " + target.getTablePrefix() + table);
+        } finally {
+            connection.release();
+        }
+    }
+
+    @NotNull
+    private TableResult scan(@NotNull AbstractDatabaseCore core, @NotNull String table, @NotNull String columnList) throws SQLException {
+        long rows = 0;
+        long checksum = 0;
+        DatabaseConnection connection = core.getReadConnection();
+        try (Statement statement = createStreamingStatement(connection.get());
+             ResultSet rs = statement.executeQuery("SELECT " + columnList + " FROM " + core.getTablePrefix() + table)) {
+            int columnCount = rs.getMetaData().getColumnCount();
+            Object[] row = new Object[columnCount];
+            while (rs.next()) {
+                for (int i = 0; i < columnCount; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                rows++;
+                checksum += checksum(row);
+            }
+        } finally {
+            connection.release();
+        }
+        return new TableResult(rows, checksum);
+    }
+
+    @NotNull
+    private Statement createStreamingStatement(@NotNull Connection connection) throws SQLException {
+        Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        if (connection.getMetaData().getURL().startsWith("jdbc:mysql:")) {
+            // MySQL driver buffers the whole result unless fetch size is MIN_VALUE
+            statement.setFetchSize(Integer.MIN_VALUE);
+        } else {
+            statement.setFetchSize(chunkSize);
+        }
+        return statement;
+    }
+
+    /**
+     * Checksum of a row, the values are normalized so the same row gets the same checksum in both databases.
+     * Row checksums are summed up, so the order of rows doesn't matter.
+     */
+    private static long checksum(@NotNull Object[] row) {
+        CRC32 crc32 = new CRC32();
+        for (Object value : row) {
+            crc32.update(normalize(value).getBytes(StandardCharsets.UTF_8));
+            crc32.update(0);
+        }
+        return crc32.getValue();
+    }
+
+    @NotNull
+    private static String normalize(@Nullable Object value) {
+        if (value == null) {
+            return "\u0000null";
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? "1" : "0";
+        }
+        if (value instanceof Number) {
+            return new BigDecimal(value.toString()).stripTrailingZeros().toPlainString();
+        }
+        if (value instanceof byte[]) {
+            return Base64.getEncoder().encodeToString((byte[]) value);
+        }
+        return value.toString();
+    }
+
+    @NotNull
+    private Map<String, TableResult> loadProgress(@NotNull String progressKey) {
+        Map<String, TableResult> completed = new LinkedHashMap<>();
+        if (!progressFile.exists()) {
+            return completed;
+        }
+        try (Reader reader = Files.newBufferedReader(progressFile.toPath(), StandardCharsets.UTF_8)) {
+            Progress progress = JsonUtil.getGson().fromJson(reader, Progress.class);
+            if (progress != null && Objects.equals(progress.key, progressKey) && progress.completed != null) {
+                completed.putAll(progress.completed);
+            }
+        } catch (Exception e) {
+            Util.debugLog("Failed to read " + PROGRESS_FILE + ", starting over: " + e.getMessage());
+        }
+        return completed;
+    }
+
+    private void saveProgress(@NotNull String progressKey, @NotNull Map<String, TableResult> completed) {
+        Progress progress = new Progress();
+        progress.key = progressKey;
+        progress.completed = completed;
+        try (Writer writer = Files.newBufferedWriter(progressFile.toPath(), StandardCharsets.UTF_8)) {
+            JsonUtil.getGson().toJson(progress, writer);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to save " + PROGRESS_FILE + ", the conversion can't be resumed", e);
+        }
+    }
+
+    private static class Progress {
+        private String key;
+        private Map<String, TableResult> completed;
+    }
+
+    private static class TableResult {
+        private final long rows;
+        private final long checksum;
+
+        private TableResult(long rows, long checksum) {
+            this.rows = rows;
+            this.checksum = checksum;
+        }
+    }
+}
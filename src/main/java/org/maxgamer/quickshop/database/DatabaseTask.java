@@ -47,7 +47,7 @@ public class DatabaseTask {
 
 
     public void run(@NotNull Connection connection) {
-        try (PreparedStatement ps = connection.prepareStatement(statement)) { //TODO Use addBatch to improve performance
+        try (PreparedStatement ps = connection.prepareStatement(statement)) {
             task.edit(ps);
             ps.execute();
             task.onSuccess();
@@ -56,7 +56,29 @@ public class DatabaseTask {
         }
     }
 
-    interface Task {
+    /**
+     * Gets the SQL, tasks with same SQL can share one PreparedStatement
+     *
+     * @return The SQL
+     */
+    @NotNull
+    String getStatement() {
+        return statement;
+    }
+
+    void bind(@NotNull PreparedStatement ps) throws SQLException {
+        task.edit(ps);
+    }
+
+    void onSuccess() {
+        task.onSuccess();
+    }
+
+    void onFailed(@NotNull SQLException e) {
+        task.onFailed(e);
+    }
+
+    public interface Task {
         /**
          * Edit action before commit the PreparedStatement
          *
@@ -0,0 +1,249 @@
+/*
+ * This file is a part of project QuickShop, the name is ExternalCacheBuffer.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.database;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+import org.maxgamer.quickshop.api.shop.Shop;
+import org.maxgamer.quickshop.util.Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalescing buffer for the external_cache table.
+ * Remembers the last space and stock written for every shop, the row only be written again when one of them changed,
+ * space-only and stock-only calculations are merged into the same row, and all changed rows are written
+ * with a batched upsert when DatabaseManager commits.
+ */
+public class ExternalCacheBuffer {
+    private static final int MAX_BATCH_SIZE = 500;
+    // Keyed by runtime id since shop equality changes with its content
+    private final Map<UUID, CacheEntry> entries = new ConcurrentHashMap<>();
+    private final Map<UUID, CacheEntry> pendingEntries = new ConcurrentHashMap<>();
+    /* Rows written in current transaction, writer thread only */
+    private final List<Written> inFlight = new ArrayList<>();
+    @NotNull
+    private final DatabaseManager manager;
+    private volatile long lastFlush;
+
+    public ExternalCacheBuffer(@NotNull DatabaseManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Record the calculated space and stock of a shop, the row will be written in next flush if changed
+     *
+     * @param shop  The shop
+     * @param space The shop remaining space, -1 if not calculated
+     * @param stock The shop remaining stock, -1 if not calculated
+     */
+    public void update(@NotNull Shop shop, int space, int stock) {
+        UUID runtimeId = shop.getRuntimeRandomUniqueId();
+        CacheEntry entry = entries.computeIfAbsent(runtimeId, k -> new CacheEntry(shop));
+        // Keep the last known value of the side which wasn't calculated
+        if (space >= 0) {
+            entry.space = space;
+        }
+        if (stock >= 0) {
+            entry.stock = stock;
+        }
+        if (entry.space != entry.publishedSpace || entry.stock != entry.publishedStock) {
+            pendingEntries.put(runtimeId, entry);
+        }
+    }
+
+    /**
+     * Forget the last written values of an unloaded shop, so the memory won't grow with every shop ever loaded.
+     * The pending row of it is still written at next flush.
+     *
+     * @param shop The shop
+     */
+    public void remove(@NotNull Shop shop) {
+        entries.remove(shop.getRuntimeRandomUniqueId());
+    }
+
+    /**
+     * Gets the amount of shops waiting for flush
+     *
+     * @return Pending shops amount
+     */
+    public int getPendingAmount() {
+        return pendingEntries.size();
+    }
+
+    public boolean isEmpty() {
+        return pendingEntries.isEmpty();
+    }
+
+    /**
+     * Check if the interval passed since last flush
+     *
+     * @param interval The interval in milliseconds
+     * @return Should flush now
+     */
+    boolean isFlushDue(long interval) {
+        return !pendingEntries.isEmpty() && System.currentTimeMillis() - lastFlush >= interval;
+    }
+
+    /**
+     * Make the pending rows to be written at next commit, ignoring the interval
+     */
+    void flushOnNextCommit() {
+        lastFlush = 0;
+    }
+
+    /**
+     * Flush all changed rows into database by using batched statement,
+     * caller should handle the transaction, and call {@link #onCommitted()} or {@link #onRolledBack()} after that.
+     *
+     * @param connection The connection to use
+     * @return The amount of rows written
+     * @throws SQLException Throws if batch execute failed, the rows will be re-scheduled once rolled back
+     */
+    int flush(@NotNull Connection connection) throws SQLException {
+        lastFlush = System.currentTimeMillis();
+        if (pendingEntries.isEmpty()) {
+            return 0;
+        }
+        String sqlString;
+        if (manager.getDatabase() instanceof MySQLCore) {
+            sqlString = "INSERT INTO " + manager.getDatabase().getTablePrefix() + "external_cache (x,y,z,world,space,stock) VALUES (?,?,?,?,?,?) ON DUPLICATE KEY UPDATE space = VALUES(space), stock = VALUES(stock)";
+        } else {
+            // Only the primary key and these two columns in table, replace is the same as upsert
+            sqlString = "INSERT OR REPLACE INTO " + manager.getDatabase().getTablePrefix() + "external_cache (x,y,z,world,space,stock) VALUES (?,?,?,?,?,?)";
+        }
+        int written = 0;
+        List<Written> batch = new ArrayList<>(Math.min(pendingEntries.size(), MAX_BATCH_SIZE));
+        try (PreparedStatement ps = connection.prepareStatement(sqlString)) {
+            Iterator<CacheEntry> iterator = pendingEntries.values().iterator();
+            while (iterator.hasNext()) {
+                CacheEntry entry = iterator.next();
+                // Remove before snapshot, any changes after that will mark it pending again
+                iterator.remove();
+                if (entry.shop.isDeleted()) {
+                    entries.remove(entry.shop.getRuntimeRandomUniqueId());
+                    continue;
+                }
+                Location location = entry.shop.getLocation();
+                World world = location.getWorld();
+                if (world == null) {
+                    continue;
+                }
+                Written row = new Written(entry, entry.space, entry.stock);
+                ps.setInt(1, location.getBlockX());
+                ps.setInt(2, location.getBlockY());
+                ps.setInt(3, location.getBlockZ());
+                ps.setString(4, world.getName());
+                ps.setInt(5, row.space);
+                ps.setInt(6, row.stock);
+                ps.addBatch();
+                batch.add(row);
+                if (batch.size() >= MAX_BATCH_SIZE) {
+                    executeBatch(ps, batch);
+                    written += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                executeBatch(ps, batch);
+                written += batch.size();
+            }
+        }
+        Util.debugLog("Flushed " + written + " external cache row(s) into database.");
+        return written;
+    }
+
+    private void executeBatch(@NotNull PreparedStatement ps, @NotNull List<Written> batch) throws SQLException {
+        try {
+            ps.executeBatch();
+        } catch (SQLException e) {
+            // Put them back, so they can be written at next commit
+            for (Written written : batch) {
+                pendingEntries.put(written.entry.shop.getRuntimeRandomUniqueId(), written.entry);
+            }
+            throw e;
+        }
+        inFlight.addAll(batch);
+    }
+
+    /**
+     * The transaction containing the flushed rows committed, they are the values in database now
+     */
+    void onCommitted() {
+        for (Written written : inFlight) {
+            CacheEntry entry = written.entry;
+            entry.publishedSpace = written.space;
+            entry.publishedStock = written.stock;
+            UUID runtimeId = entry.shop.getRuntimeRandomUniqueId();
+            if (entry.space != entry.publishedSpace || entry.stock != entry.publishedStock) {
+                // Changed again while it was being written, it may have been compared with the old values
+                pendingEntries.put(runtimeId, entry);
+            } else if (!entry.shop.isLoaded()) {
+                // Unloaded after it was updated, nothing left to coalesce with
+                entries.remove(runtimeId, entry);
+            }
+        }
+        inFlight.clear();
+    }
+
+    /**
+     * The transaction containing the flushed rows rolled back, put them back to be written at next commit
+     */
+    void onRolledBack() {
+        for (Written written : inFlight) {
+            pendingEntries.put(written.entry.shop.getRuntimeRandomUniqueId(), written.entry);
+        }
+        inFlight.clear();
+    }
+
+    private static class CacheEntry {
+        private final Shop shop;
+        private volatile int space = -1;
+        private volatile int stock = -1;
+        /* The values in database, Integer.MIN_VALUE means never written */
+        private volatile int publishedSpace = Integer.MIN_VALUE;
+        private volatile int publishedStock = Integer.MIN_VALUE;
+
+        private CacheEntry(@NotNull Shop shop) {
+            this.shop = shop;
+        }
+    }
+
+    private static class Written {
+        private final CacheEntry entry;
+        private final int space;
+        private final int stock;
+
+        private Written(@NotNull CacheEntry entry, int space, int stock) {
+            this.entry = entry;
+            this.space = space;
+            this.stock = stock;
+        }
+    }
+}
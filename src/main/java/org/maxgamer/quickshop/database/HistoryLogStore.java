@@ -0,0 +1,523 @@
+/*
+ * This file is a part of project QuickShop, the name is HistoryLogStore.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.database;
+
+import lombok.Setter;
+import me.lucko.helper.serialize.BlockPosition;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.maxgamer.quickshop.api.shop.ShopInfoStorage;
+import org.maxgamer.quickshop.util.JsonUtil;
+import org.maxgamer.quickshop.util.Util;
+import org.maxgamer.quickshop.util.logging.container.EconomyTransactionLog;
+import org.maxgamer.quickshop.util.logging.container.PlayerEconomyPreCheckLog;
+import org.maxgamer.quickshop.util.logging.container.ShopCreationLog;
+import org.maxgamer.quickshop.util.logging.container.ShopModeratorChangedLog;
+import org.maxgamer.quickshop.util.logging.container.ShopPriceChangedLog;
+import org.maxgamer.quickshop.util.logging.container.ShopPurchaseLog;
+import org.maxgamer.quickshop.util.logging.container.ShopRemoveLog;
+import org.maxgamer.quickshop.util.logging.container.ShopStackingStatusChangeLog;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * History log storage in database.
+ * <p>
+ * Records are buffered and written with multi-row INSERTs when DatabaseManager commits.
+ * Every month (UTC) has its own table named {@code <prefix>history_yyyyMM}, the searchable fields are stored
+ * in typed columns (indexed by time, shop position and actor) and the full record is kept as JSON.
+ * Old months are simply dropped by the retention job, so the table being written never grows forever.
+ * The legacy {@code logs} table is kept for reading only.
+ * <p>
+ * The monthly tables are created by {@link #prepareTables(Connection)} out of the writer transaction,
+ * since CREATE TABLE commits implicitly on MySQL. Records more than the capacity are spilled into the database journal.
+ */
+public class HistoryLogStore {
+    /* 12 parameters per row, stay below the 999 parameters limit of old SQLite */
+    private static final int ROWS_PER_STATEMENT = 80;
+    private static final String COLUMNS = "time, type, world, x, y, z, actor, amount, price, tax, classname, data";
+    private static final String ROW_PLACEHOLDER = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM", Locale.ROOT);
+    private final Deque<HistoryRow> pendingRows = new ConcurrentLinkedDeque<>();
+    /* Size of pendingRows, the size() of ConcurrentLinkedDeque walks the whole deque */
+    private final AtomicInteger pendingAmount = new AtomicInteger();
+    private final AtomicBoolean spillRequested = new AtomicBoolean();
+    /* Rows written in current transaction, writer thread only */
+    private final List<HistoryRow> inFlight = new ArrayList<>();
+    /* Tables known to exist, writer thread only */
+    private final Set<String> createdTables = new HashSet<>();
+    @NotNull
+    private final Supplier<String> tablePrefix;
+    private final boolean mysql;
+    @NotNull
+    private final Logger logger;
+    /* Called once the pending records exceeded the capacity, until they are drained */
+    @NotNull
+    private final Runnable onFull;
+    @Setter
+    private volatile int capacity = Integer.MAX_VALUE;
+
+    public HistoryLogStore(@NotNull DatabaseManager manager) {
+        this(() -> manager.getDatabase().getTablePrefix(), manager.getDatabase() instanceof MySQLCore, manager.getDatabase().getPlugin().getLogger(), manager::spillHistory);
+    }
+
+    HistoryLogStore(@NotNull Supplier<String> tablePrefix, boolean mysql, @NotNull Logger logger, @NotNull Runnable onFull) {
+        this.tablePrefix = tablePrefix;
+        this.mysql = mysql;
+        this.logger = logger;
+        this.onFull = onFull;
+    }
+
+    /**
+     * Add a record, it will be written in next flush
+     *
+     * @param record The log record object
+     */
+    public void add(@NotNull Object record) {
+        pendingRows.offer(HistoryRow.of(System.currentTimeMillis(), record));
+        if (pendingAmount.incrementAndGet() > capacity && spillRequested.compareAndSet(false, true)) {
+            onFull.run();
+        }
+    }
+
+    /**
+     * Gets the amount of records waiting for flush
+     *
+     * @return Pending records amount
+     */
+    public int getPendingAmount() {
+        return pendingAmount.get();
+    }
+
+    public boolean isEmpty() {
+        return pendingRows.isEmpty();
+    }
+
+    @NotNull
+    private String getTableName(long time) {
+        return tablePrefix.get() + "history_" + YearMonth.from(Instant.ofEpochMilli(time).atZone(ZoneOffset.UTC)).format(MONTH_FORMAT);
+    }
+
+    @NotNull
+    List<String> getCreateTableStatements(@NotNull String table) {
+        List<String> statements = new ArrayList<>(4);
+        if (mysql) {
+            statements.add("CREATE TABLE IF NOT EXISTS " + table + " (time BIGINT NOT NULL, type SMALLINT NOT NULL, world VARCHAR(128), x INT, y INT, z INT, actor BINARY(16)," +
+                    " amount INT, price DOUBLE, tax DOUBLE, classname VARCHAR(255), data LONGTEXT CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci," +
+                    " INDEX idx_time (time), INDEX idx_shop (world, x, y, z, time), INDEX idx_actor (actor, time))");
+        } else {
+            statements.add("CREATE TABLE IF NOT EXISTS " + table + " (time BIGINT NOT NULL, type SMALLINT NOT NULL, world VARCHAR(128), x INTEGER, y INTEGER, z INTEGER, actor BLOB," +
+                    " amount INTEGER, price DOUBLE, tax DOUBLE, classname VARCHAR(255), data TEXT)");
+            statements.add("CREATE INDEX IF NOT EXISTS " + table + "_time ON " + table + " (time)");
+            statements.add("CREATE INDEX IF NOT EXISTS " + table + "_shop ON " + table + " (world, x, y, z, time)");
+            statements.add("CREATE INDEX IF NOT EXISTS " + table + "_actor ON " + table + " (actor, time)");
+        }
+        return statements;
+    }
+
+    /**
+     * Create the tables of the months pending records belong to, should be called out of the transaction.
+     *
+     * @param connection The connection to use, in auto commit mode
+     * @throws SQLException Throws if failed to create
+     */
+    void prepareTables(@NotNull Connection connection) throws SQLException {
+        Set<String> tables = new HashSet<>();
+        for (HistoryRow row : pendingRows) {
+            tables.add(getTableName(row.time));
+        }
+        tables.removeAll(createdTables);
+        if (tables.isEmpty()) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (String table : tables) {
+                for (String sql : getCreateTableStatements(table)) {
+                    statement.execute(sql);
+                }
+                createdTables.add(table);
+            }
+        }
+    }
+
+    @NotNull
+    private static String getInsertStatement(@NotNull String table, int rows) {
+        StringBuilder builder = new StringBuilder(64 + rows * (ROW_PLACEHOLDER.length() + 2));
+        builder.append("INSERT INTO ").append(table).append(" (").append(COLUMNS).append(") VALUES ");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(ROW_PLACEHOLDER);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Flush pending records into database by using multi-row statements,
+     * the records of the months not prepared by {@link #prepareTables(Connection)} are kept for next flush.
+     * Caller should handle the transaction, and call {@link #onCommitted()} or {@link #onRolledBack()} after that.
+     *
+     * @param connection The connection to use
+     * @return The amount of records written
+     * @throws SQLException Throws if execute failed, the records will be put back once rolled back
+     */
+    int flush(@NotNull Connection connection) throws SQLException {
+        spillRequested.set(false);
+        int written = 0;
+        List<HistoryRow> chunk = new ArrayList<>(ROWS_PER_STATEMENT);
+        PreparedStatement fullChunkStatement = null;
+        String fullChunkTable = null;
+        try {
+            while (!pendingRows.isEmpty()) {
+                // Rows in one statement must belong to the same month
+                chunk.clear();
+                String table = null;
+                HistoryRow row;
+                while (chunk.size() < ROWS_PER_STATEMENT && (row = pendingRows.peek()) != null) {
+                    String rowTable = getTableName(row.time);
+                    if ((table != null && !table.equals(rowTable)) || !createdTables.contains(rowTable)) {
+                        break;
+                    }
+                    table = rowTable;
+                    chunk.add(pendingRows.poll());
+                }
+                if (chunk.isEmpty()) {
+                    // A new month started after the tables prepared
+                    break;
+                }
+                pendingAmount.addAndGet(-chunk.size());
+                try {
+                    if (chunk.size() == ROWS_PER_STATEMENT) {
+                        // Reuse the statement for the full chunks
+                        if (fullChunkStatement == null || !table.equals(fullChunkTable)) {
+                            if (fullChunkStatement != null) {
+                                fullChunkStatement.close();
+                            }
+                            fullChunkStatement = connection.prepareStatement(getInsertStatement(table, ROWS_PER_STATEMENT));
+                            fullChunkTable = table;
+                        }
+                        bind(fullChunkStatement, chunk);
+                        fullChunkStatement.executeUpdate();
+                    } else {
+                        try (PreparedStatement ps = connection.prepareStatement(getInsertStatement(table, chunk.size()))) {
+                            bind(ps, chunk);
+                            ps.executeUpdate();
+                        }
+                    }
+                } catch (SQLException e) {
+                    // Put them back to the head in original order, so they can be written at next commit
+                    createdTables.remove(table);
+                    putBack(chunk);
+                    throw e;
+                }
+                inFlight.addAll(chunk);
+                written += chunk.size();
+            }
+        } finally {
+            if (fullChunkStatement != null) {
+                fullChunkStatement.close();
+            }
+        }
+        if (written > 0) {
+            Util.debugLog("Flushed " + written + " history record(s) into database.");
+        }
+        return written;
+    }
+
+    /**
+     * The transaction containing the flushed records committed, forget them
+     */
+    void onCommitted() {
+        inFlight.clear();
+    }
+
+    /**
+     * The transaction containing the flushed records rolled back,
+     * put them back before the pending records, so they are written at next commit in original order
+     */
+    void onRolledBack() {
+        putBack(inFlight);
+        inFlight.clear();
+    }
+
+    private void putBack(@NotNull List<HistoryRow> rows) {
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            pendingRows.addFirst(rows.get(i));
+        }
+        pendingAmount.addAndGet(rows.size());
+    }
+
+    private static void bind(@NotNull PreparedStatement ps, @NotNull List<HistoryRow> rows) throws SQLException {
+        int index = 1;
+        for (HistoryRow row : rows) {
+            index = row.bind(ps, index);
+        }
+    }
+
+    /**
+     * Take all pending records as single row tasks, used for keeping them in the database journal
+     * at shutdown or when there are too many of them
+     *
+     * @return The tasks, creating the tables first
+     */
+    @NotNull
+    List<DatabaseTask> drainAsTasks() {
+        spillRequested.set(false);
+        List<DatabaseTask> tasks = new ArrayList<>();
+        Set<String> tables = new HashSet<>();
+        HistoryRow row;
+        while ((row = pendingRows.poll()) != null) {
+            pendingAmount.decrementAndGet();
+            String table = getTableName(row.time);
+            if (tables.add(table)) {
+                for (String sql : getCreateTableStatements(table)) {
+                    tasks.add(new DatabaseTask(sql));
+                }
+            }
+            HistoryRow finalRow = row;
+            tasks.add(new DatabaseTask(getInsertStatement(table, 1), ps -> finalRow.bind(ps, 1)));
+        }
+        return tasks;
+    }
+
+    /**
+     * Remove the records older than the retention,
+     * tables of the expired months are dropped, the month containing the cutoff is trimmed.
+     *
+     * @param connection    The connection to use, in auto commit mode
+     * @param retentionDays Keep records in these days
+     * @throws SQLException Throws if failed to access the database
+     */
+    void purge(@NotNull Connection connection, int retentionDays) throws SQLException {
+        long cutoff = System.currentTimeMillis() - retentionDays * 86400000L;
+        YearMonth cutoffMonth = YearMonth.from(Instant.ofEpochMilli(cutoff).atZone(ZoneOffset.UTC));
+        String prefix = tablePrefix.get();
+        Pattern tablePattern = Pattern.compile(Pattern.quote(prefix.toLowerCase(Locale.ROOT)) + "history_(\\d{6})");
+        String legacyTable = (prefix + "logs").toLowerCase(Locale.ROOT);
+        List<String> expired = new ArrayList<>();
+        String trimming = null;
+        boolean hasLegacyTable = false;
+        try (ResultSet rs = connection.getMetaData().getTables(connection.getCatalog(), null, "%", new String[]{"TABLE"})) {
+            while (rs.next()) {
+                String table = rs.getString("TABLE_NAME");
+                if (table.equalsIgnoreCase(legacyTable)) {
+                    hasLegacyTable = true;
+                    continue;
+                }
+                Matcher matcher = tablePattern.matcher(table.toLowerCase(Locale.ROOT));
+                if (!matcher.matches()) {
+                    continue;
+                }
+                YearMonth month = YearMonth.parse(matcher.group(1), MONTH_FORMAT);
+                if (month.isBefore(cutoffMonth)) {
+                    expired.add(table);
+                } else if (month.equals(cutoffMonth)) {
+                    trimming = table;
+                }
+            }
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (String table : expired) {
+                statement.execute("DROP TABLE " + table);
+                createdTables.remove(table);
+            }
+        }
+        int trimmed = 0;
+        if (trimming != null) {
+            try (PreparedStatement ps = connection.prepareStatement("DELETE FROM " + trimming + " WHERE time < ?")) {
+                ps.setLong(1, cutoff);
+                trimmed = ps.executeUpdate();
+            }
+        }
+        if (hasLegacyTable) {
+            try (PreparedStatement ps = connection.prepareStatement("DELETE FROM " + prefix + "logs WHERE time < ?")) {
+                ps.setLong(1, cutoff);
+                trimmed += ps.executeUpdate();
+            }
+        }
+        if (!expired.isEmpty() || trimmed > 0) {
+            logger.info("Purged history logs older than " + retentionDays + " days: dropped " + expired.size() + " monthly table(s) and " + trimmed + " record(s).");
+        }
+    }
+
+    private static class HistoryRow {
+        private final long time;
+        private final HistoryLogType type;
+        private final Object record;
+        @Nullable
+        private String world;
+        @Nullable
+        private Integer x;
+        @Nullable
+        private Integer y;
+        @Nullable
+        private Integer z;
+        @Nullable
+        private UUID actor;
+        @Nullable
+        private Integer amount;
+        @Nullable
+        private Double price;
+        @Nullable
+        private Double tax;
+
+        private HistoryRow(long time, @NotNull HistoryLogType type, @NotNull Object record) {
+            this.time = time;
+            this.type = type;
+            this.record = record;
+        }
+
+        @NotNull
+        private static HistoryRow of(long time, @NotNull Object record) {
+            HistoryRow row = new HistoryRow(time, HistoryLogType.of(record), record);
+            if (record instanceof ShopPurchaseLog) {
+                ShopPurchaseLog log = (ShopPurchaseLog) record;
+                row.shop(log.getShop());
+                row.actor = log.getTrader();
+                row.amount = log.getAmount();
+                row.price = log.getBalance();
+                row.tax = log.getTax();
+            } else if (record instanceof EconomyTransactionLog) {
+                EconomyTransactionLog log = (EconomyTransactionLog) record;
+                row.actor = log.getFrom() == null ? log.getTo() : log.getFrom();
+                row.price = log.getAmount();
+                row.tax = log.getTax();
+            } else if (record instanceof PlayerEconomyPreCheckLog) {
+                PlayerEconomyPreCheckLog log = (PlayerEconomyPreCheckLog) record;
+                row.actor = log.getPlayer();
+                row.price = log.getHolding();
+            } else if (record instanceof ShopCreationLog) {
+                ShopCreationLog log = (ShopCreationLog) record;
+                row.shop(log.getShop());
+                row.actor = log.getCreator();
+            } else if (record instanceof ShopRemoveLog) {
+                ShopRemoveLog log = (ShopRemoveLog) record;
+                row.shop(log.getShop());
+                row.actor = log.getPlayer();
+            } else if (record instanceof ShopPriceChangedLog) {
+                ShopPriceChangedLog log = (ShopPriceChangedLog) record;
+                row.shop(log.getShop());
+                row.price = log.getNewPrice();
+            } else if (record instanceof ShopModeratorChangedLog) {
+                ShopModeratorChangedLog log = (ShopModeratorChangedLog) record;
+                row.shop(log.getShop());
+                row.actor = log.getModerator() == null ? null : log.getModerator().getOwner();
+            } else if (record instanceof ShopStackingStatusChangeLog) {
+                ShopStackingStatusChangeLog log = (ShopStackingStatusChangeLog) record;
+                if (log.getRawDatabaseInfo() != null) {
+                    row.world = log.getRawDatabaseInfo().getWorld();
+                    row.x = log.getRawDatabaseInfo().getX();
+                    row.y = log.getRawDatabaseInfo().getY();
+                    row.z = log.getRawDatabaseInfo().getZ();
+                }
+            }
+            return row;
+        }
+
+        private void shop(@Nullable ShopInfoStorage shop) {
+            if (shop == null) {
+                return;
+            }
+            this.world = shop.getWorld();
+            BlockPosition position = shop.getPosition();
+            if (position != null) {
+                this.x = position.getX();
+                this.y = position.getY();
+                this.z = position.getZ();
+            }
+        }
+
+        @Nullable
+        private static byte[] toBytes(@Nullable UUID uuid) {
+            if (uuid == null) {
+                return null;
+            }
+            return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+        }
+
+        private static void setNullableInt(@NotNull PreparedStatement ps, int index, @Nullable Integer value) throws SQLException {
+            if (value == null) {
+                ps.setNull(index, Types.INTEGER);
+            } else {
+                ps.setInt(index, value);
+            }
+        }
+
+        private static void setNullableDouble(@NotNull PreparedStatement ps, int index, @Nullable Double value) throws SQLException {
+            if (value == null) {
+                ps.setNull(index, Types.DOUBLE);
+            } else {
+                ps.setDouble(index, value);
+            }
+        }
+
+        /**
+         * Bind this row from the index
+         *
+         * @return The next index
+         */
+        private int bind(@NotNull PreparedStatement ps, int index) throws SQLException {
+            ps.setLong(index++, time);
+            ps.setInt(index++, type.toID());
+            ps.setString(index++, world);
+            setNullableInt(ps, index++, x);
+            setNullableInt(ps, index++, y);
+            setNullableInt(ps, index++, z);
+            byte[] actorBytes = toBytes(actor);
+            if (actorBytes == null) {
+                ps.setNull(index++, Types.BINARY);
+            } else {
+                ps.setBytes(index++, actorBytes);
+            }
+            setNullableInt(ps, index++, amount);
+            setNullableDouble(ps, index++, price);
+            setNullableDouble(ps, index++, tax);
+            // The type already tells what it is
+            ps.setString(index++, type == HistoryLogType.OTHER ? record.getClass().getName() : null);
+            ps.setString(index++, JsonUtil.getGson().toJson(record));
+            return index;
+        }
+    }
+}
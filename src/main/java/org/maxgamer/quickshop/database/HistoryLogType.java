@@ -0,0 +1,99 @@
+/*
+ * This file is a part of project QuickShop, the name is HistoryLogType.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.database;
+
+import org.jetbrains.annotations.NotNull;
+import org.maxgamer.quickshop.api.shop.ShopType;
+import org.maxgamer.quickshop.util.logging.container.EconomyTransactionLog;
+import org.maxgamer.quickshop.util.logging.container.PlayerEconomyPreCheckLog;
+import org.maxgamer.quickshop.util.logging.container.PluginGlobalAlertLog;
+import org.maxgamer.quickshop.util.logging.container.ShopCreationLog;
+import org.maxgamer.quickshop.util.logging.container.ShopModeratorChangedLog;
+import org.maxgamer.quickshop.util.logging.container.ShopPriceChangedLog;
+import org.maxgamer.quickshop.util.logging.container.ShopPurchaseLog;
+import org.maxgamer.quickshop.util.logging.container.ShopRemoveLog;
+import org.maxgamer.quickshop.util.logging.container.ShopStackingStatusChangeLog;
+
+/**
+ * The type column of history tables, ids are stored in database so never change them.
+ */
+public enum HistoryLogType {
+    OTHER(0),
+    PURCHASE_SELLING_SHOP(1),
+    PURCHASE_BUYING_SHOP(2),
+    ECONOMY_TRANSACTION(3),
+    ECONOMY_PRE_CHECK(4),
+    SHOP_CREATION(5),
+    SHOP_REMOVE(6),
+    SHOP_PRICE_CHANGED(7),
+    SHOP_MODERATOR_CHANGED(8),
+    SHOP_STACKING_CHANGED(9),
+    GLOBAL_ALERT(10);
+
+    private final int id;
+
+    HistoryLogType(int id) {
+        this.id = id;
+    }
+
+    public static @NotNull HistoryLogType fromID(int id) {
+        for (HistoryLogType type : HistoryLogType.values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+        return OTHER;
+    }
+
+    public static @NotNull HistoryLogType of(@NotNull Object record) {
+        if (record instanceof ShopPurchaseLog) {
+            return ((ShopPurchaseLog) record).getType() == ShopType.BUYING ? PURCHASE_BUYING_SHOP : PURCHASE_SELLING_SHOP;
+        }
+        if (record instanceof EconomyTransactionLog) {
+            return ECONOMY_TRANSACTION;
+        }
+        if (record instanceof PlayerEconomyPreCheckLog) {
+            return ECONOMY_PRE_CHECK;
+        }
+        if (record instanceof ShopCreationLog) {
+            return SHOP_CREATION;
+        }
+        if (record instanceof ShopRemoveLog) {
+            return SHOP_REMOVE;
+        }
+        if (record instanceof ShopPriceChangedLog) {
+            return SHOP_PRICE_CHANGED;
+        }
+        if (record instanceof ShopModeratorChangedLog) {
+            return SHOP_MODERATOR_CHANGED;
+        }
+        if (record instanceof ShopStackingStatusChangeLog) {
+            return SHOP_STACKING_CHANGED;
+        }
+        if (record instanceof PluginGlobalAlertLog) {
+            return GLOBAL_ALERT;
+        }
+        return OTHER;
+    }
+
+    public int toID() {
+        return id;
+    }
+}
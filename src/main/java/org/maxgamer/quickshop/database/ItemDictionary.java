@@ -0,0 +1,217 @@
+/*
+ * This file is a part of project QuickShop, the name is ItemDictionary.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.database;
+
+import org.jetbrains.annotations.NotNull;
+import org.maxgamer.quickshop.util.Util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The items table, every distinct serialized item is stored once and keyed by its content hash,
+ * shops rows reference it by the itemId column.
+ * <p>
+ * The itemId is an extra reference, shops rows always keep the item in their own itemConfig column too,
+ * so downgrading and the external tools reading the shops table still work.
+ * Shops rows which itemId is null are linked to dictionary by {@link #normalize(Connection)} when plugin starting up.
+ * Only used by the writer thread.
+ */
+public class ItemDictionary {
+    private static final int NORMALIZE_CHUNK_SIZE = 1000;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    /* Content hash to item id */
+    private final Map<String, Long> ids = new ConcurrentHashMap<>();
+    @NotNull
+    private final DatabaseManager manager;
+
+    public ItemDictionary(@NotNull DatabaseManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Gets the content hash of the serialized item
+     *
+     * @param itemConfig The serialized item
+     * @return SHA-256 in hex
+     */
+    @NotNull
+    public static String hash(@NotNull String itemConfig) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(itemConfig.getBytes(StandardCharsets.UTF_8));
+            char[] chars = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                chars[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                chars[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+        }
+    }
+
+    /**
+     * Gets the id of the item, insert it into dictionary if not exists,
+     * it will be rolled back together if the caller's transaction failed, so {@link #invalidate()} must be called then.
+     * Must be called on the database writer thread, by binding a task for example.
+     *
+     * @param connection The connection
+     * @param itemConfig The serialized item
+     * @return The item id
+     * @throws SQLException Failed to query or insert
+     */
+    public long resolve(@NotNull Connection connection, @NotNull String itemConfig) throws SQLException {
+        String hash = hash(itemConfig);
+        Long id = ids.get(hash);
+        if (id != null) {
+            return id;
+        }
+        String table = manager.getDatabase().getTablePrefix() + "items";
+        long found = find(connection, table, hash);
+        if (found < 0) {
+            String insertSql = (manager.getDatabase() instanceof MySQLCore ? "INSERT IGNORE INTO " : "INSERT OR IGNORE INTO ") + table + " (hash, itemConfig) VALUES (?, ?)";
+            try (PreparedStatement ps = connection.prepareStatement(insertSql)) {
+                ps.setString(1, hash);
+                ps.setString(2, itemConfig);
+                ps.executeUpdate();
+            }
+            found = find(connection, table, hash);
+            if (found < 0) {
+                throw new SQLException("Failed to insert item " + hash + " into dictionary");
+            }
+        }
+        ids.put(hash, found);
+        return found;
+    }
+
+    private long find(@NotNull Connection connection, @NotNull String table, @NotNull String hash) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT id FROM " + table + " WHERE hash = ?")) {
+            ps.setString(1, hash);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : -1;
+            }
+        }
+    }
+
+    /**
+     * Forget the cached ids, since the rows inserted in a failed transaction are gone
+     */
+    void invalidate() {
+        ids.clear();
+    }
+
+    /**
+     * Link the items stored in shops rows to dictionary and remove the items no shop using,
+     * committed chunk by chunk.
+     *
+     * @param connection The connection
+     * @return The amount of shops linked
+     * @throws SQLException Failed to link, the committed chunks are kept
+     */
+    int normalize(@NotNull Connection connection) throws SQLException {
+        String prefix = manager.getDatabase().getTablePrefix();
+        String selectSql = "SELECT x, y, z, world, itemConfig FROM " + prefix + "shops WHERE itemId IS NULL AND itemConfig IS NOT NULL AND itemConfig <> '' LIMIT " + NORMALIZE_CHUNK_SIZE;
+        String updateSql = "UPDATE " + prefix + "shops SET itemId = ? WHERE x = ? AND y = ? AND z = ? AND world = ?";
+        int moved = 0;
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            // Rows written by the builds which only kept the itemId, fill their itemConfig back
+            try (Statement st = connection.createStatement()) {
+                int restored = st.executeUpdate("UPDATE " + prefix + "shops SET itemConfig = (SELECT i.itemConfig FROM " + prefix + "items i WHERE i.id = " + prefix + "shops.itemId)" +
+                        " WHERE itemId IS NOT NULL AND (itemConfig IS NULL OR itemConfig = '')");
+                if (restored > 0) {
+                    Util.debugLog("Filled the itemConfig of " + restored + " shop(s) from dictionary.");
+                }
+            }
+            connection.commit();
+            while (true) {
+                List<PendingRow> chunk = new ArrayList<>(NORMALIZE_CHUNK_SIZE);
+                try (Statement st = connection.createStatement(); ResultSet rs = st.executeQuery(selectSql)) {
+                    while (rs.next()) {
+                        chunk.add(new PendingRow(rs.getInt("x"), rs.getInt("y"), rs.getInt("z"), rs.getString("world"), rs.getString("itemConfig")));
+                    }
+                }
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                try (PreparedStatement ps = connection.prepareStatement(updateSql)) {
+                    for (PendingRow row : chunk) {
+                        ps.setLong(1, resolve(connection, row.itemConfig));
+                        ps.setInt(2, row.x);
+                        ps.setInt(3, row.y);
+                        ps.setInt(4, row.z);
+                        ps.setString(5, row.world);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+                connection.commit();
+                moved += chunk.size();
+                if (chunk.size() < NORMALIZE_CHUNK_SIZE) {
+                    break;
+                }
+            }
+            int removed;
+            try (Statement st = connection.createStatement()) {
+                removed = st.executeUpdate("DELETE FROM " + prefix + "items WHERE id NOT IN (SELECT itemId FROM " + prefix + "shops WHERE itemId IS NOT NULL)");
+            }
+            connection.commit();
+            if (removed > 0) {
+                // Removed ids may be still cached
+                invalidate();
+            }
+            Util.debugLog("Linked " + moved + " shop item(s) to dictionary, removed " + removed + " unused item(s).");
+        } catch (SQLException e) {
+            connection.rollback();
+            invalidate();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return moved;
+    }
+
+    private static class PendingRow {
+        private final int x;
+        private final int y;
+        private final int z;
+        private final String world;
+        private final String itemConfig;
+
+        private PendingRow(int x, int y, int z, @NotNull String world, @NotNull String itemConfig) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.world = world;
+            this.itemConfig = itemConfig;
+        }
+    }
+}
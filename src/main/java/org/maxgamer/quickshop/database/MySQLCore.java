@@ -19,21 +19,22 @@
 
 package org.maxgamer.quickshop.database;
 
+import lombok.Getter;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
 import org.bukkit.plugin.Plugin;
 import org.jetbrains.annotations.NotNull;
 import org.maxgamer.quickshop.QuickShop;
 
 import java.sql.DriverManager;
-import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
 public class MySQLCore extends AbstractDatabaseCore {
 
-    private static final int MAX_CONNECTIONS = 8;
-    private final List<DatabaseConnection> POOL = new ArrayList<>();
+    @NotNull
+    @Getter
+    private final DatabaseConnectionPool pool;
     /**
      * The connection properties... user, pass, autoReconnect..
      */
@@ -66,19 +67,26 @@ public class MySQLCore extends AbstractDatabaseCore {
         info.setProperty("password", pass);
         info.setProperty("useUnicode", "true");
         info.setProperty("characterEncoding", "utf8");
+        //Let driver merge batched shop updates into multi-statements, can be overridden by connect options
+        info.setProperty("rewriteBatchedStatements", "true");
         for (Map.Entry<String, String> entry : options.entrySet()) {
             info.setProperty(entry.getKey(), entry.getValue());
         }
         //info.setProperty("maxReconnects", "65535");
         // info.setProperty("failOverReadOnly", "false");
         info.setProperty("useSSL", String.valueOf(useSSL));
-        if (false) { //TODO Option for addBatch to improve performance
-            info.setProperty("rewriteBatchedStatements", "true");
-        }
         this.url = "jdbc:mysql://" + host + ":" + port + "/" + database;
-        for (int i = 0; i < MAX_CONNECTIONS; i++) {
-            POOL.add(null);
+        ConfigurationSection poolConfig = plugin.getConfig().getConfigurationSection("database.pool");
+        if (poolConfig == null) {
+            poolConfig = new MemoryConfiguration();
         }
+        this.pool = new DatabaseConnectionPool(this, () -> DriverManager.getConnection(this.url, info),
+                poolConfig.getInt("min-size", 2),
+                poolConfig.getInt("max-size", 8),
+                poolConfig.getLong("connection-timeout", 30000),
+                poolConfig.getLong("idle-timeout", 600) * 1000,
+                poolConfig.getLong("leak-detection-threshold", 0) * 1000);
+        this.pool.start(poolConfig.getLong("keepalive-interval", 60));
     }
 
     @Override
@@ -87,56 +95,31 @@ public class MySQLCore extends AbstractDatabaseCore {
     }
 
     @Override
-    synchronized void close() {
-        for (DatabaseConnection databaseConnection : POOL) {
-            if (databaseConnection == null || !databaseConnection.isValid()) {
-                continue;
-            }
-            if (!databaseConnection.isUsing()) {
-                databaseConnection.close();
-            } else {
-                //Wait until the connection is finished
-                try {
-                    Thread.sleep(2000);
-                } catch (InterruptedException ignored) {
-                } finally {
-                    close();
-                }
-            }
-        }
+    void close() {
+        pool.close();
     }
 
+    /**
+     * Gets the database connection from the pool, pool handles the concurrency so no need to lock the whole core.
+     *
+     * @return The database connection, PLEASE MAKE SURE USING DatabaseConnection#release to CLOSE THE CONNECTION
+     */
     @Override
-    synchronized protected DatabaseConnection getConnection0() {
-        for (int i = 0; i < MAX_CONNECTIONS; i++) {
-            DatabaseConnection connection = POOL.get(i);
-            // If we have a current connection, fetch it
-            if (connection == null) {
-                return genConnection(i);
-            } else if (!connection.isUsing()) {
-                if (connection.isValid()) {
-                    return connection;
-                } else {
-                    // Else, it is invalid, return another connection.
-                    connection.close();
-                    return genConnection(i);
-                }
-            }
+    @NotNull
+    DatabaseConnection getConnection() {
+        DatabaseConnection databaseConnection = getConnection0();
+        databaseConnection.markUsing();
+        return databaseConnection;
+    }
 
-        }
-        //If all connection is unusable, wait a moment
-        waitForConnection();
-        return getConnection0();
+    @Override
+    protected DatabaseConnection getConnection0() {
+        return pool.borrow();
     }
 
-    synchronized private DatabaseConnection genConnection(int index) {
-        try {
-            DatabaseConnection connection = new DatabaseConnection(this, DriverManager.getConnection(this.url, info));
-            POOL.set(index, connection);
-            return connection;
-        } catch (SQLException e) {
-            throw new RuntimeException("Unable to create a new connection", e);
-        }
+    @Override
+    void releaseConnection(@NotNull DatabaseConnection connection) {
+        pool.giveBack(connection);
     }
 
     @Override
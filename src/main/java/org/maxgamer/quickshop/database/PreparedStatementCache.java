@@ -0,0 +1,95 @@
+/*
+ * This file is a part of project QuickShop, the name is PreparedStatementCache.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.database;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps the prepared statements opened per connection, so the same SQL only be prepared once.
+ * Not thread-safe, only used by the database writer thread.
+ */
+class PreparedStatementCache {
+    private static final int MAX_STATEMENTS_PER_CONNECTION = 64;
+    private final Map<Connection, Map<String, PreparedStatement>> caches = new WeakHashMap<>();
+
+    private static void close(@NotNull PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * Gets the cached prepared statement for the SQL, or prepare a new one
+     *
+     * @param connection The connection
+     * @param sql        The SQL
+     * @return The prepared statement with parameters and batch cleared, DO NOT close it
+     * @throws SQLException Throws if failed to prepare
+     */
+    @NotNull
+    PreparedStatement prepare(@NotNull Connection connection, @NotNull String sql) throws SQLException {
+        Map<String, PreparedStatement> statements = caches.computeIfAbsent(connection, k -> new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > MAX_STATEMENTS_PER_CONNECTION) {
+                    close(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        });
+        PreparedStatement ps = statements.get(sql);
+        if (ps != null && !ps.isClosed()) {
+            ps.clearParameters();
+            ps.clearBatch();
+            return ps;
+        }
+        ps = connection.prepareStatement(sql);
+        statements.put(sql, ps);
+        return ps;
+    }
+
+    /**
+     * Close and forget all statements of the connection, used when the connection is broken
+     *
+     * @param connection The connection
+     */
+    void invalidate(@NotNull Connection connection) {
+        Map<String, PreparedStatement> statements = caches.remove(connection);
+        if (statements != null) {
+            statements.values().forEach(PreparedStatementCache::close);
+        }
+    }
+
+    void clear() {
+        caches.values().forEach(statements -> statements.values().forEach(PreparedStatementCache::close));
+        caches.clear();
+    }
+}
@@ -19,6 +19,7 @@
 
 package org.maxgamer.quickshop.database;
 
+import lombok.Getter;
 import org.bukkit.plugin.Plugin;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -26,25 +27,54 @@ import org.maxgamer.quickshop.QuickShop;
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 public class SQLiteCore extends AbstractDatabaseCore {
     private final File dbFile;
 
     @NotNull
     private final QuickShop plugin;
-    private DatabaseConnection connection;
+    /**
+     * The only connection allowed to write, owned by DatabaseManager writer thread
+     */
+    private volatile DatabaseConnection connection;
+    /**
+     * Read-only connections, only available in WAL mode since rollback journal blocks readers while writing
+     */
+    @Nullable
+    @Getter
+    private final DatabaseConnectionPool readPool;
+    private final boolean walMode;
 
     public SQLiteCore(@NotNull QuickShop plugin, @NotNull File dbFile) {
         this.plugin = plugin;
         this.dbFile = dbFile;
+        this.walMode = plugin.getConfig().getBoolean("database.sqlite.wal", true);
+        int readConnections = plugin.getConfig().getInt("database.sqlite.read-connections", 3);
+        if (walMode && readConnections > 0) {
+            // Same leak detection as the MySQL pool, disabled by default
+            long leakDetectionThreshold = plugin.getConfig().getLong("database.pool.leak-detection-threshold", 0) * 1000;
+            this.readPool = new DatabaseConnectionPool(this, this::genReadConnection, 0, readConnections, 30000, 600000, leakDetectionThreshold);
+            this.readPool.start(60);
+        } else {
+            this.readPool = null;
+        }
     }
 
     @Override
     synchronized void close() {
+        if (readPool != null) {
+            readPool.close();
+        }
+        if (connection == null) {
+            return;
+        }
         if (!connection.isUsing()) {
-            if (connection != null && !connection.isValid()) {
+            // Close it properly, so WAL file will be checkpointed into the database
+            if (!connection.isClosed()) {
                 connection.close();
             }
         } else {
@@ -74,12 +104,41 @@ public class SQLiteCore extends AbstractDatabaseCore {
         return getConnection0();
     }
 
+    @Override
+    @NotNull
+    DatabaseConnection getReadConnection() {
+        if (readPool == null) {
+            return getConnection();
+        }
+        DatabaseConnection databaseConnection = readPool.borrow();
+        databaseConnection.markUsing();
+        return databaseConnection;
+    }
+
+    @Override
+    void releaseConnection(@NotNull DatabaseConnection connection) {
+        if (readPool != null && connection != this.connection) {
+            readPool.giveBack(connection);
+        } else {
+            super.releaseConnection(connection);
+        }
+    }
+
     @Nullable
     private synchronized DatabaseConnection genConnection() {
         if (this.dbFile.exists()) {
             try {
                 Class.forName("org.sqlite.JDBC");
-                this.connection = new DatabaseConnection(this, DriverManager.getConnection("jdbc:sqlite:" + this.dbFile));
+                Connection sqliteConnection = DriverManager.getConnection("jdbc:sqlite:" + this.dbFile);
+                try (Statement statement = sqliteConnection.createStatement()) {
+                    if (walMode) {
+                        // Readers no longer block the writer and vice versa, NORMAL is durable enough under WAL
+                        statement.execute("PRAGMA journal_mode=WAL");
+                        statement.execute("PRAGMA synchronous=NORMAL");
+                    }
+                    statement.execute("PRAGMA busy_timeout=5000");
+                }
+                this.connection = new DatabaseConnection(this, sqliteConnection);
                 return this.connection;
             } catch (ClassNotFoundException e) {
                 throw new IllegalStateException("Sqlite driver is not found", e);
@@ -101,6 +160,20 @@ public class SQLiteCore extends AbstractDatabaseCore {
         }
     }
 
+    @NotNull
+    private Connection genReadConnection() throws SQLException {
+        if (this.connection == null) {
+            // Writer must switch the database into WAL mode before any reader opened
+            getConnection().release();
+        }
+        Connection sqliteConnection = DriverManager.getConnection("jdbc:sqlite:" + this.dbFile);
+        try (Statement statement = sqliteConnection.createStatement()) {
+            statement.execute("PRAGMA query_only=ON");
+            statement.execute("PRAGMA busy_timeout=5000");
+        }
+        return sqliteConnection;
+    }
+
     @Override
     public @NotNull String getName() {
         return "BuiltIn-SQLite";
@@ -0,0 +1,312 @@
+/*
+ * This file is a part of project QuickShop, the name is ShopUpdateBuffer.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.database;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+import org.maxgamer.quickshop.api.shop.Shop;
+import org.maxgamer.quickshop.api.shop.ShopDataField;
+import org.maxgamer.quickshop.api.shop.ShopModerator;
+import org.maxgamer.quickshop.util.Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind buffer for shop rows.
+ * Shops are only marked as pending here, no matter how many times they changed,
+ * the changed columns will be serialized once and written with a batched UPDATE when DatabaseManager commits.
+ * The item is written into {@link ItemDictionary}, the row only keeps its id.
+ * <p>
+ * Flushed shops are kept until the transaction committed, if it rolled back they are marked dirty and pending again.
+ */
+public class ShopUpdateBuffer {
+    private static final int MAX_BATCH_SIZE = 500;
+    // Keyed by runtime id since shop equality changes with its content
+    private final Map<UUID, Shop> pendingShops = new ConcurrentHashMap<>();
+    /* UPDATE statement for each set of changed fields */
+    private final Map<Set<ShopDataField>, String> updateSqls = new ConcurrentHashMap<>();
+    /* Shops written in the transaction not committed yet, writer thread only */
+    private final List<Flushed> inFlight = new ArrayList<>();
+    @NotNull
+    private final Supplier<String> tablePrefix;
+    @NotNull
+    private final Supplier<ItemDictionary> itemDictionary;
+    @NotNull
+    private final Logger logger;
+
+    public ShopUpdateBuffer(@NotNull DatabaseManager manager) {
+        this(() -> manager.getDatabase().getTablePrefix(), manager::getItemDictionary, manager.getDatabase().getPlugin().getLogger());
+    }
+
+    ShopUpdateBuffer(@NotNull Supplier<String> tablePrefix, @NotNull Supplier<ItemDictionary> itemDictionary, @NotNull Logger logger) {
+        this.tablePrefix = tablePrefix;
+        this.itemDictionary = itemDictionary;
+        this.logger = logger;
+    }
+
+    /**
+     * Mark a shop as pending, the shop will be written in next flush
+     *
+     * @param shop The shop
+     */
+    public void schedule(@NotNull Shop shop) {
+        pendingShops.put(shop.getRuntimeRandomUniqueId(), shop);
+    }
+
+    /**
+     * Gets the amount of shops waiting for flush
+     *
+     * @return Pending shops amount
+     */
+    public int getPendingAmount() {
+        return pendingShops.size();
+    }
+
+    public boolean isEmpty() {
+        return pendingShops.isEmpty();
+    }
+
+    /**
+     * Flush all pending shops into database by using batched statement,
+     * only the changed columns are written, shops changed the same columns share one statement.
+     * Caller should handle the transaction, and call {@link #onCommitted()} or {@link #onRolledBack()} after that.
+     *
+     * @param connection The connection to use
+     * @return The amount of rows written
+     * @throws SQLException Throws if batch execute failed, the shops will be re-scheduled once rolled back
+     */
+    int flush(@NotNull Connection connection) throws SQLException {
+        if (pendingShops.isEmpty()) {
+            return 0;
+        }
+        int written = 0;
+        Map<Set<ShopDataField>, Batch> batches = new HashMap<>();
+        List<Shop> failed = new ArrayList<>();
+        try {
+            Iterator<Shop> iterator = pendingShops.values().iterator();
+            while (iterator.hasNext()) {
+                Shop shop = iterator.next();
+                iterator.remove();
+                if (shop.isDeleted()) {
+                    continue;
+                }
+                // Take before snapshot, any changes after that will mark it dirty again
+                Set<ShopDataField> fields = shop.takeDirtyFields();
+                Batch batch = batches.get(fields);
+                if (batch == null) {
+                    try {
+                        batch = new Batch(fields, connection.prepareStatement(getUpdateSql(fields)));
+                    } catch (SQLException e) {
+                        fields.forEach(shop::setDirty);
+                        schedule(shop);
+                        throw e;
+                    }
+                    batches.put(fields, batch);
+                }
+                try {
+                    bind(connection, batch.statement, shop, fields);
+                } catch (Exception e) {
+                    fields.forEach(shop::setDirty);
+                    logger.log(Level.WARNING, "Could not snapshot shop " + shop + " for saving, it will retry at next commit.", e);
+                    failed.add(shop);
+                    continue;
+                }
+                // Tracked from now, the batch may be executed but rolled back by any later failure
+                inFlight.add(new Flushed(shop, fields));
+                batch.statement.addBatch();
+                batch.size++;
+                if (batch.size >= MAX_BATCH_SIZE) {
+                    written += executeBatch(batch);
+                }
+            }
+            for (Batch batch : batches.values()) {
+                if (batch.size > 0) {
+                    written += executeBatch(batch);
+                }
+            }
+        } finally {
+            for (Batch batch : batches.values()) {
+                try {
+                    batch.statement.close();
+                } catch (SQLException ignored) {
+                }
+            }
+            failed.forEach(this::schedule);
+        }
+        Util.debugLog("Flushed " + written + " shop(s) into database by " + batches.size() + " statement(s).");
+        return written;
+    }
+
+    private int executeBatch(@NotNull Batch batch) throws SQLException {
+        batch.statement.executeBatch();
+        int executed = batch.size;
+        batch.size = 0;
+        return executed;
+    }
+
+    /**
+     * The transaction containing the flushed shops committed, forget them
+     */
+    void onCommitted() {
+        inFlight.clear();
+    }
+
+    /**
+     * The transaction containing the flushed shops rolled back,
+     * mark the written fields of every shop in it dirty again (merged with the fields changed since)
+     * and re-schedule them, so nothing changed is lost
+     */
+    void onRolledBack() {
+        for (Flushed flushed : inFlight) {
+            if (flushed.shop.isDeleted()) {
+                continue;
+            }
+            flushed.fields.forEach(flushed.shop::setDirty);
+            schedule(flushed.shop);
+        }
+        inFlight.clear();
+    }
+
+    @NotNull
+    private String getUpdateSql(@NotNull Set<ShopDataField> fields) {
+        return updateSqls.computeIfAbsent(fields, key -> {
+            StringJoiner columns = new StringJoiner(", ");
+            for (ShopDataField field : key) {
+                columns.add(getColumnAssignment(field));
+            }
+            return "UPDATE " + tablePrefix.get() + "shops SET " + columns +
+                    " WHERE x = ? AND y = ? and z = ? and world = ?";
+        });
+    }
+
+    @NotNull
+    private String getColumnAssignment(@NotNull ShopDataField field) {
+        switch (field) {
+            case MODERATOR:
+                return "owner = ?";
+            case ITEM:
+                return "itemConfig = ?, itemId = ?";
+            case UNLIMITED:
+                return "unlimited = ?";
+            case TYPE:
+                return "type = ?";
+            case PRICE:
+                return "price = ?";
+            case EXTRA:
+                return "extra = ?";
+            case CURRENCY:
+                return "currency = ?";
+            case DISABLE_DISPLAY:
+                return "disableDisplay = ?";
+            case TAX_ACCOUNT:
+                return "taxAccount = ?";
+            default:
+                throw new IllegalArgumentException("Unknown shop data field " + field);
+        }
+    }
+
+    private void bind(@NotNull Connection connection, @NotNull PreparedStatement ps, @NotNull Shop shop, @NotNull Set<ShopDataField> fields) throws SQLException {
+        Location location = shop.getLocation();
+        World world = location.getWorld();
+        if (world == null) {
+            throw new IllegalStateException("Shop world is not loaded");
+        }
+        int index = 1;
+        // Same order as getUpdateSql, EnumSet iterates by ordinal
+        for (ShopDataField field : fields) {
+            switch (field) {
+                case MODERATOR:
+                    ps.setString(index++, ShopModerator.serialize(shop.getModerator()));
+                    break;
+                case ITEM:
+                    // The row keeps the item itself too, the id is only the link to dictionary
+                    String itemConfig = shop.getSerializedItem();
+                    ps.setString(index++, itemConfig);
+                    ps.setLong(index++, itemDictionary.get().resolve(connection, itemConfig));
+                    break;
+                case UNLIMITED:
+                    ps.setInt(index++, shop.isUnlimited() ? 1 : 0);
+                    break;
+                case TYPE:
+                    ps.setInt(index++, shop.getShopType().toID());
+                    break;
+                case PRICE:
+                    ps.setDouble(index++, shop.getPrice());
+                    break;
+                case EXTRA:
+                    ps.setString(index++, shop.saveExtraToYaml());
+                    break;
+                case CURRENCY:
+                    ps.setString(index++, shop.getCurrency());
+                    break;
+                case DISABLE_DISPLAY:
+                    ps.setInt(index++, shop.isDisableDisplay() ? 1 : 0);
+                    break;
+                case TAX_ACCOUNT:
+                    UUID taxAccount = shop.getTaxAccountActual();
+                    ps.setString(index++, taxAccount == null ? null : taxAccount.toString());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown shop data field " + field);
+            }
+        }
+        ps.setInt(index++, location.getBlockX());
+        ps.setInt(index++, location.getBlockY());
+        ps.setInt(index++, location.getBlockZ());
+        ps.setString(index, world.getName());
+    }
+
+    private static class Batch {
+        private final Set<ShopDataField> fields;
+        private final PreparedStatement statement;
+        /* Rows added but not executed yet */
+        private int size;
+
+        private Batch(@NotNull Set<ShopDataField> fields, @NotNull PreparedStatement statement) {
+            this.fields = fields;
+            this.statement = statement;
+        }
+    }
+
+    private static class Flushed {
+        private final Shop shop;
+        private final Set<ShopDataField> fields;
+
+        private Flushed(@NotNull Shop shop, @NotNull Set<ShopDataField> fields) {
+            this.shop = shop;
+            this.fields = fields;
+        }
+    }
+}
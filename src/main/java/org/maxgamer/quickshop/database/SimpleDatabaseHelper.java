@@ -27,16 +27,17 @@ import org.maxgamer.quickshop.QuickShop;
 import org.maxgamer.quickshop.api.database.DatabaseHelper;
 import org.maxgamer.quickshop.api.shop.Shop;
 import org.maxgamer.quickshop.api.shop.ShopModerator;
-import org.maxgamer.quickshop.util.JsonUtil;
 import org.maxgamer.quickshop.util.Util;
 import org.maxgamer.quickshop.util.reload.ReloadResult;
 import org.maxgamer.quickshop.util.reload.ReloadStatus;
 import org.maxgamer.quickshop.util.reload.Reloadable;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.UUID;
 import java.util.function.Consumer;
 import java.util.logging.Level;
@@ -73,7 +74,11 @@ public class SimpleDatabaseHelper implements DatabaseHelper, Reloadable {
         if (!manager.hasTable(manager.getDatabase().getTablePrefix() + "external_cache")) {
             createExternalCacheTable();
         }
+        if (!manager.hasTable(manager.getDatabase().getTablePrefix() + "items")) {
+            createItemsTable();
+        }
         checkColumns();
+        manager.normalizeItems();
     }
 
     /**
@@ -85,7 +90,7 @@ public class SimpleDatabaseHelper implements DatabaseHelper, Reloadable {
         if (manager.getDatabase() instanceof MySQLCore) {
             sqlString = "CREATE TABLE " + manager.getDatabase().getTablePrefix() + "shops (owner  VARCHAR(255) NOT NULL, price  double(32, 2) NOT NULL, itemConfig TEXT CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci, x  INTEGER(32) NOT NULL, y  INTEGER(32) NOT NULL, z  INTEGER(32) NOT NULL, world VARCHAR(128) NOT NULL, unlimited  boolean, type  boolean, PRIMARY KEY (x, y, z, world) );";
         }
-        manager.runInstantTask(new DatabaseTask(sqlString));
+        manager.runSetupTask(new DatabaseTask(sqlString));
     }
 
     /**
@@ -98,13 +103,13 @@ public class SimpleDatabaseHelper implements DatabaseHelper, Reloadable {
             createTable = "CREATE TABLE " + manager.getDatabase().getTablePrefix()
                     + "messages (owner  VARCHAR(255) NOT NULL, message  TEXT(25) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL , time  BIGINT(32) NOT NULL );";
         }
-        manager.runInstantTask(new DatabaseTask(createTable));
+        manager.runSetupTask(new DatabaseTask(createTable));
     }
 
     private void createLogsTable() {
         String createTable = "CREATE TABLE " + manager.getDatabase().getTablePrefix()
                 + "logs (time BIGINT(32) NOT NULL);";
-        manager.runInstantTask(new DatabaseTask(createTable));
+        manager.runSetupTask(new DatabaseTask(createTable));
         createColumn("logs", "classname", new DataType(DataTypeMapping.TEXT, null, ""));
         createColumn("logs", "data", new DataType(DataTypeMapping.LONGTEXT, null, ""));
     }
@@ -112,11 +117,24 @@ public class SimpleDatabaseHelper implements DatabaseHelper, Reloadable {
     private void createExternalCacheTable() {
         String createTable = "CREATE TABLE " + manager.getDatabase().getTablePrefix()
                 + "external_cache  (x INTEGER(32) NOT NULL, y  INTEGER(32) NOT NULL, z  INTEGER(32) NOT NULL, world VARCHAR(128) NOT NULL, PRIMARY KEY (x, y, z, world));";
-        manager.runInstantTask(new DatabaseTask(createTable));
+        manager.runSetupTask(new DatabaseTask(createTable));
         createColumn("external_cache", "space", new DataType(DataTypeMapping.INT, null));
         createColumn("external_cache", "stock", new DataType(DataTypeMapping.INT, null));
     }
 
+    /**
+     * Creates the item dictionary table 'items'
+     */
+    private void createItemsTable() {
+        String createTable = "CREATE TABLE " + manager.getDatabase().getTablePrefix()
+                + "items (id INTEGER PRIMARY KEY AUTOINCREMENT, hash CHAR(64) NOT NULL UNIQUE, itemConfig TEXT NOT NULL);";
+        if (manager.getDatabase() instanceof MySQLCore) {
+            createTable = "CREATE TABLE " + manager.getDatabase().getTablePrefix()
+                    + "items (id BIGINT NOT NULL AUTO_INCREMENT, hash CHAR(64) NOT NULL, itemConfig TEXT CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL, PRIMARY KEY (id), UNIQUE KEY (hash));";
+        }
+        manager.runSetupTask(new DatabaseTask(createTable));
+    }
+
 
     /**
      * Verifies that all required columns exist.
@@ -135,25 +153,30 @@ public class SimpleDatabaseHelper implements DatabaseHelper, Reloadable {
             }
         };
         // V3.4.2
-        manager.runInstantTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "shops MODIFY COLUMN price double(32,2) NOT NULL AFTER owner", checkTask));
+        manager.runSetupTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "shops MODIFY COLUMN price double(32,2) NOT NULL AFTER owner", checkTask));
         // V3.4.3
-        manager.runInstantTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "messages MODIFY COLUMN time BIGINT(32) NOT NULL AFTER message", checkTask));
+        manager.runSetupTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "messages MODIFY COLUMN time BIGINT(32) NOT NULL AFTER message", checkTask));
         //Extra column
         createColumn("shops", "extra", new DataType(DataTypeMapping.LONGTEXT, null, ""));
         createColumn("shops", "currency", new DataType(DataTypeMapping.TEXT));
         createColumn("shops", "disableDisplay", new DataType(DataTypeMapping.INT, null, -1));
         createColumn("shops", "taxAccount", new DataType(DataTypeMapping.VARCHAR, 255));
+        createColumn("shops", "itemId", new DataType(DataTypeMapping.BIGINT));
 
 
         if (manager.getDatabase() instanceof MySQLCore) {
-            manager.runInstantTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "messages MODIFY COLUMN message text CHARACTER SET utf8mb4 NOT NULL AFTER owner", checkTask));
-            manager.runInstantTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "shops MODIFY COLUMN itemConfig text CHARACTER SET utf8mb4 NOT NULL AFTER price", checkTask));
-            manager.runInstantTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "shops TO CHARACTER SET uft8mb4 COLLATE utf8mb4_general_ci", checkTask));
-            manager.runInstantTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "messages TO CHARACTER SET uft8mb4 COLLATE utf8mb4_general_ci", checkTask));
-            manager.runInstantTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "history TO CHARACTER SET uft8mb4 COLLATE utf8mb4_general_ci", checkTask));
+            manager.runSetupTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "messages MODIFY COLUMN message text CHARACTER SET utf8mb4 NOT NULL AFTER owner", checkTask));
+            manager.runSetupTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "shops MODIFY COLUMN itemConfig text CHARACTER SET utf8mb4 NOT NULL AFTER price", checkTask));
+            manager.runSetupTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "shops TO CHARACTER SET uft8mb4 COLLATE utf8mb4_general_ci", checkTask));
+            manager.runSetupTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "messages TO CHARACTER SET uft8mb4 COLLATE utf8mb4_general_ci", checkTask));
+            manager.runSetupTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "history TO CHARACTER SET uft8mb4 COLLATE utf8mb4_general_ci", checkTask));
             //Using varchar 128 for world name
-            manager.runInstantTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "shops MODIFY COLUMN world VARCHAR(128)", checkTask));
-            manager.runInstantTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "external_cache MODIFY COLUMN world VARCHAR(128)", checkTask));
+            manager.runSetupTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "shops MODIFY COLUMN world VARCHAR(128)", checkTask));
+            manager.runSetupTask(new DatabaseTask("ALTER TABLE " + manager.getDatabase().getTablePrefix() + "external_cache MODIFY COLUMN world VARCHAR(128)", checkTask));
+            // Fails if already exists
+            manager.runSetupTask(new DatabaseTask("CREATE INDEX " + manager.getDatabase().getTablePrefix() + "messages_owner ON " + manager.getDatabase().getTablePrefix() + "messages (owner, time)", checkTask));
+        } else {
+            manager.runSetupTask(new DatabaseTask("CREATE INDEX IF NOT EXISTS " + manager.getDatabase().getTablePrefix() + "messages_owner ON " + manager.getDatabase().getTablePrefix() + "messages (owner, time)", checkTask));
         }
         plugin.getLogger().info("Finished!");
     }
@@ -176,7 +199,7 @@ public class SimpleDatabaseHelper implements DatabaseHelper, Reloadable {
                 sqlString += "(" + type.getLength() + ") ";
             }
             Util.debugLog("Append sql for creating column is " + sqlString);
-            manager.runInstantTask(new DatabaseTask(sqlString, new DatabaseTask.Task() {
+            manager.runSetupTask(new DatabaseTask(sqlString, new DatabaseTask.Task() {
                 @Override
                 public void edit(PreparedStatement ps) {
                 }
@@ -210,15 +233,16 @@ public class SimpleDatabaseHelper implements DatabaseHelper, Reloadable {
     @Override
     public void createShop(@NotNull Shop shop, @Nullable Runnable onSuccess, @Nullable Consumer<SQLException> onFailed) {
         removeShop(shop); //First purge old exist shop before create new shop.
-        String sqlString = "INSERT INTO " + manager.getDatabase().getTablePrefix() + "shops (owner, price, itemConfig, x, y, z, world, unlimited, type, extra) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        String sqlString = "INSERT INTO " + manager.getDatabase().getTablePrefix() + "shops (owner, price, itemConfig, x, y, z, world, unlimited, type, extra, itemId) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
         manager.addDelayTask(new DatabaseTask(sqlString, new DatabaseTask.Task() {
             @Override
             public void edit(PreparedStatement ps) throws SQLException {
                 Location location = shop.getLocation();
                 //plugin.getDB().execute(q, owner, price, Util.serialize(item), x, y, z, world, unlimited, shopType);
+                String itemConfig = shop.getSerializedItem();
                 ps.setString(1, ShopModerator.serialize(shop.getModerator()));
                 ps.setDouble(2, shop.getPrice());
-                ps.setString(3, Util.serialize(shop.getItem()));
+                ps.setString(3, itemConfig);
                 ps.setInt(4, location.getBlockX());
                 ps.setInt(5, location.getBlockY());
                 ps.setInt(6, location.getBlockZ());
@@ -232,6 +256,14 @@ public class SimpleDatabaseHelper implements DatabaseHelper, Reloadable {
                 ps.setInt(8, shop.isUnlimited() ? 1 : 0);
                 ps.setInt(9, shop.getShopType().toID());
                 ps.setString(10, shop.saveExtraToYaml());
+                // Bound on writer thread, the item is linked to dictionary in the same statement
+                Connection connection = ps.getConnection();
+                if (connection == null) {
+                    // Kept in database journal, it will be linked by normalizing at next startup
+                    ps.setNull(11, Types.BIGINT);
+                } else {
+                    ps.setLong(11, manager.getItemDictionary().resolve(connection, itemConfig));
+                }
             }
 
             @Override
@@ -290,7 +322,7 @@ public class SimpleDatabaseHelper implements DatabaseHelper, Reloadable {
 
     @Override
     public SimpleWarpedResultSet selectTable(String table) throws SQLException {
-        DatabaseConnection databaseConnection = manager.getDatabase().getConnection();
+        DatabaseConnection databaseConnection = manager.getDatabase().getReadConnection();
         Statement st = databaseConnection.get().createStatement();
         String sql = "SELECT * FROM " + manager.getDatabase().getTablePrefix() + table;
         ResultSet resultSet = st.executeQuery(sql);
@@ -300,7 +332,49 @@ public class SimpleDatabaseHelper implements DatabaseHelper, Reloadable {
 
     @Override
     public SimpleWarpedResultSet selectAllShops() throws SQLException {
-        return selectTable("shops");
+        DatabaseConnection databaseConnection = manager.getDatabase().getReadConnection();
+        Statement st = databaseConnection.get().createStatement();
+        ResultSet resultSet = st.executeQuery(selectShopsSql(""));
+        //Resource closes will complete in this class
+        return new SimpleWarpedResultSet(st, resultSet, databaseConnection);
+    }
+
+    /**
+     * The shops rows with the item from dictionary, as column dictionaryItemConfig
+     *
+     * @param condition The where clause, columns should be prefixed with "s."
+     * @return The query
+     */
+    @NotNull
+    private String selectShopsSql(@NotNull String condition) {
+        String prefix = manager.getDatabase().getTablePrefix();
+        return "SELECT s.*, i.itemConfig AS dictionaryItemConfig FROM " + prefix + "shops s LEFT JOIN " + prefix + "items i ON i.id = s.itemId" + condition;
+    }
+
+    @Override
+    public int countShops() throws SQLException {
+        DatabaseConnection databaseConnection = manager.getDatabase().getReadConnection();
+        try (Statement st = databaseConnection.get().createStatement();
+             ResultSet resultSet = st.executeQuery("SELECT COUNT(*) FROM " + manager.getDatabase().getTablePrefix() + "shops")) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        } finally {
+            databaseConnection.release();
+        }
+    }
+
+    @Override
+    public SimpleWarpedResultSet selectShops(@NotNull String world, int minX, int minZ, int maxX, int maxZ) throws SQLException {
+        DatabaseConnection databaseConnection = manager.getDatabase().getReadConnection();
+        String sql = selectShopsSql(" WHERE s.x >= ? AND s.x <= ? AND s.z >= ? AND s.z <= ? AND s.world = ?");
+        PreparedStatement ps = databaseConnection.get().prepareStatement(sql);
+        ps.setInt(1, minX);
+        ps.setInt(2, maxX);
+        ps.setInt(3, minZ);
+        ps.setInt(4, maxZ);
+        ps.setString(5, world);
+        ResultSet resultSet = ps.executeQuery();
+        //Resource closes will complete in this class
+        return new SimpleWarpedResultSet(ps, resultSet, databaseConnection);
     }
 
     @Override
@@ -317,6 +391,57 @@ public class SimpleDatabaseHelper implements DatabaseHelper, Reloadable {
                         }));
     }
 
+    @Override
+    public SimpleWarpedResultSet selectMessages(@NotNull UUID player, int limit) throws SQLException {
+        DatabaseConnection databaseConnection = manager.getDatabase().getReadConnection();
+        String sql = "SELECT message, time FROM " + manager.getDatabase().getTablePrefix() + "messages WHERE owner = ? ORDER BY time DESC LIMIT " + Math.max(1, limit);
+        PreparedStatement ps = databaseConnection.get().prepareStatement(sql);
+        ps.setString(1, player.toString());
+        ResultSet resultSet = ps.executeQuery();
+        //Resource closes will complete in this class
+        return new SimpleWarpedResultSet(ps, resultSet, databaseConnection);
+    }
+
+    @Override
+    public void removeMessages(@NotNull UUID player, @NotNull String message, long until, @Nullable Runnable onSuccess, @Nullable Consumer<SQLException> onFailed) {
+        String sqlString = "DELETE FROM " + manager.getDatabase().getTablePrefix() + "messages WHERE owner = ? AND message = ? AND time <= ?";
+        manager.addDelayTask(new DatabaseTask(sqlString, new DatabaseTask.Task() {
+            @Override
+            public void edit(PreparedStatement ps) throws SQLException {
+                ps.setString(1, player.toString());
+                ps.setString(2, message);
+                ps.setLong(3, until);
+            }
+
+            @Override
+            public void onSuccess() {
+                if (onSuccess != null) {
+                    onSuccess.run();
+                }
+            }
+
+            @Override
+            public void onFailed(SQLException e) {
+                if (onFailed != null) {
+                    onFailed.accept(e);
+                }
+            }
+        }));
+    }
+
+    @Override
+    public void trimMessages(@NotNull UUID player, int keep) {
+        String table = manager.getDatabase().getTablePrefix() + "messages";
+        // Wrapped by derived table, MySQL doesn't allow the deleting table in subquery directly
+        String sqlString = "DELETE FROM " + table + " WHERE owner = ? AND time < (SELECT cutoff FROM (SELECT time AS cutoff FROM " + table +
+                " WHERE owner = ? ORDER BY time DESC LIMIT 1 OFFSET ?) AS newest)";
+        manager.addDelayTask(new DatabaseTask(sqlString, ps -> {
+            ps.setString(1, player.toString());
+            ps.setString(2, player.toString());
+            ps.setInt(3, Math.max(0, keep - 1));
+        }));
+    }
+
     @Override
     public void updateOwner2UUID(@NotNull String ownerUUID, int x, int y, int z, @NotNull String worldName) {
         String sqlString = "UPDATE " + manager.getDatabase().getTablePrefix() + "shops SET owner = ? WHERE x = ? AND y = ? AND z = ? AND world = ?" + (
@@ -333,50 +458,14 @@ public class SimpleDatabaseHelper implements DatabaseHelper, Reloadable {
 
     @Override
     public void updateExternalInventoryProfileCache(@NotNull Shop shop, int space, int stock) {
-
-        if (manager.getDatabase() instanceof MySQLCore) {
-            String sqlString = "INSERT INTO " + manager.getDatabase().getTablePrefix() + "external_cache (x,y,z,world,space,stock) VALUES (?,?,?,?,?,?) ON DUPLICATE KEY UPDATE space = ?, stock = ?";
-            manager.addDelayTask(
-                    new DatabaseTask(sqlString, ps -> {
-                        ps.setInt(1, shop.getLocation().getBlockX());
-                        ps.setInt(2, shop.getLocation().getBlockY());
-                        ps.setInt(3, shop.getLocation().getBlockZ());
-                        ps.setString(4, shop.getLocation().getWorld().getName());
-                        ps.setInt(5, space);
-                        ps.setInt(6, stock);
-                        ps.setInt(7, space);
-                        ps.setInt(8, stock);
-                    }));
-        } else {
-            String createString = "INSERT OR IGNORE INTO " + manager.getDatabase().getTablePrefix() + "external_cache (x,y,z,world,space,stock) VALUES (?,?,?,?,?,?)";
-            manager.addDelayTask(
-                    new DatabaseTask(createString, ps -> {
-                        ps.setInt(1, shop.getLocation().getBlockX());
-                        ps.setInt(2, shop.getLocation().getBlockY());
-                        ps.setInt(3, shop.getLocation().getBlockZ());
-                        ps.setString(4, shop.getLocation().getWorld().getName());
-                        ps.setInt(5, space);
-                        ps.setInt(6, stock);
-                    }));
-            String updateString = "UPDATE " + manager.getDatabase().getTablePrefix() + "external_cache SET space = ?, stock = ? WHERE x = ? AND y = ? AND z = ? AND world =?";
-            manager.addDelayTask(
-                    new DatabaseTask(updateString, ps -> {
-                        ps.setInt(1, space);
-                        ps.setInt(2, stock);
-                        ps.setInt(3, shop.getLocation().getBlockX());
-                        ps.setInt(4, shop.getLocation().getBlockY());
-                        ps.setInt(5, shop.getLocation().getBlockZ());
-                        ps.setString(6, shop.getLocation().getWorld().getName());
-                    }));
-        }
-
+        manager.getExternalCacheBuffer().update(shop, space, stock);
     }
 
     @Override
     public void updateShop(@NotNull String owner, @NotNull ItemStack item, int unlimited, int shopType,
                            double price, int x, int y, int z, @NotNull String world, @NotNull String extra,
                            @Nullable String currency, boolean disableDisplay, @Nullable String taxAccount) {
-        String sqlString = "UPDATE " + manager.getDatabase().getTablePrefix() + "shops SET owner = ?, itemConfig = ?, unlimited = ?, type = ?, price = ?," +
+        String sqlString = "UPDATE " + manager.getDatabase().getTablePrefix() + "shops SET owner = ?, itemConfig = ?, itemId = NULL, unlimited = ?, type = ?, price = ?," +
                 " extra = ?, currency = ?, disableDisplay = ?, taxAccount = ?" +
                 " WHERE x = ? AND y = ? and z = ? and world = ?";
         manager.addDelayTask(new DatabaseTask(sqlString, ps -> {
@@ -398,17 +487,14 @@ public class SimpleDatabaseHelper implements DatabaseHelper, Reloadable {
 
     }
 
+    @Override
+    public void updateShop(@NotNull Shop shop) {
+        manager.getShopUpdateBuffer().schedule(shop);
+    }
+
     @Override
     public void insertHistoryRecord(Object rec) {
-        String sqlString = "INSERT INTO " + manager.getDatabase().getTablePrefix() + "logs (time, classname, data) VALUES (?, ?, ?)";
-        manager.addDelayTask(
-                new DatabaseTask(
-                        sqlString,
-                        (ps) -> {
-                            ps.setLong(1, System.currentTimeMillis());
-                            ps.setString(2, rec.getClass().getName());
-                            ps.setString(3, JsonUtil.getGson().toJson(rec));
-                        }));
+        manager.getHistoryLogStore().add(rec);
     }
 
     /**
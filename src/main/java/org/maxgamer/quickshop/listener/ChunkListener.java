@@ -19,6 +19,7 @@
 
 package org.maxgamer.quickshop.listener;
 
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -26,6 +27,7 @@ import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.event.world.ChunkUnloadEvent;
 import org.maxgamer.quickshop.QuickShop;
 import org.maxgamer.quickshop.api.shop.Shop;
+import org.maxgamer.quickshop.shop.LazyShopLoader;
 import org.maxgamer.quickshop.util.reload.ReloadResult;
 import org.maxgamer.quickshop.util.reload.ReloadStatus;
 
@@ -43,7 +45,16 @@ public class ChunkListener extends AbstractQSListener {
         if (e.isNewChunk()) {
             return;
         }
-        final Map<Location, Shop> inChunk = plugin.getShopManager().getShops(e.getChunk());
+        final Map<Location, Shop> inChunk;
+        final LazyShopLoader lazyShopLoader = plugin.getShopLoader().getLazyShopLoader();
+        if (lazyShopLoader != null) {
+            final Chunk chunk = e.getChunk();
+            // Shops only in database will be fetched by region and loaded when ready
+            lazyShopLoader.prefetch(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+            inChunk = lazyShopLoader.getResidentShops(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+        } else {
+            inChunk = plugin.getShopManager().getShops(e.getChunk());
+        }
         if (inChunk == null) {
             return;
         }
@@ -56,7 +67,14 @@ public class ChunkListener extends AbstractQSListener {
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onChunkUnload(ChunkUnloadEvent e) {
-        final Map<Location, Shop> inChunk = plugin.getShopManager().getShops(e.getChunk());
+        final Map<Location, Shop> inChunk;
+        final LazyShopLoader lazyShopLoader = plugin.getShopLoader().getLazyShopLoader();
+        if (lazyShopLoader != null) {
+            // Don't load the shops from database just for unloading
+            inChunk = lazyShopLoader.getResidentShops(e.getChunk().getWorld().getName(), e.getChunk().getX(), e.getChunk().getZ());
+        } else {
+            inChunk = plugin.getShopManager().getShops(e.getChunk());
+        }
         if (inChunk == null) {
             return;
         }
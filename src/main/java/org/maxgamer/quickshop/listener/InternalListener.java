@@ -127,7 +127,7 @@ public class InternalListener extends AbstractQSListener {
                     event.getShop().getShopType(),
                     event.getPurchaser(),
                     Util.getItemStackName(event.getShop().getItem()),
-                    Util.serialize(event.getShop().getItem()),
+                    event.getShop().getSerializedItem(),
                     event.getAmount(),
                     event.getBalance(),
                     event.getTax()));
@@ -0,0 +1,140 @@
+/*
+ * This file is a part of project QuickShop, the name is ShopInventoryListener.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.listener;
+
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.event.inventory.InventoryOpenEvent;
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.maxgamer.quickshop.Cache;
+import org.maxgamer.quickshop.QuickShop;
+import org.maxgamer.quickshop.api.shop.Shop;
+import org.maxgamer.quickshop.shop.ContainerShop;
+import org.maxgamer.quickshop.util.Util;
+import org.maxgamer.quickshop.util.reload.ReloadResult;
+import org.maxgamer.quickshop.util.reload.ReloadStatus;
+
+/**
+ * Invalidates the cached stock and space of the shops when their containers changed outside the shop.
+ */
+public class ShopInventoryListener extends AbstractProtectionListener {
+    private static final BlockFace[] HORIZONTAL_FACES = {BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST};
+
+    public ShopInventoryListener(@NotNull QuickShop plugin, @Nullable Cache cache) {
+        super(plugin, cache);
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onInventoryMove(InventoryMoveItemEvent event) {
+        invalidate(event.getSource());
+        invalidate(event.getDestination());
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onInventoryClick(InventoryClickEvent event) {
+        // Shift-click and number keys in the player inventory may move items into the container as well
+        invalidate(event.getView().getTopInventory());
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onInventoryDrag(InventoryDragEvent event) {
+        invalidate(event.getView().getTopInventory());
+    }
+
+    /*
+     * Recount on open and close, whatever changed the container without an event is corrected once someone looks at it
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onInventoryOpen(InventoryOpenEvent event) {
+        invalidate(event.getView().getTopInventory());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onInventoryClose(InventoryCloseEvent event) {
+        invalidate(event.getView().getTopInventory());
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onPlace(BlockPlaceEvent event) {
+        invalidateNearby(event.getBlock());
+    }
+
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onBreak(BlockBreakEvent event) {
+        Block block = event.getBlock();
+        // The block is still there until the event finished
+        plugin.getServer().getScheduler().runTask(plugin, () -> invalidateNearby(block));
+    }
+
+    /*
+     * Placing or breaking a chest half changes the container size of the shop next to it
+     */
+    private void invalidateNearby(@NotNull Block block) {
+        if (!block.getType().name().endsWith("CHEST")) {
+            return;
+        }
+        for (BlockFace face : HORIZONTAL_FACES) {
+            Shop shop = getShopNature(block.getRelative(face).getLocation(), false);
+            if (shop instanceof ContainerShop) {
+                ((ContainerShop) shop).invalidateInventoryCounter();
+            }
+        }
+    }
+
+    private void invalidate(@Nullable Inventory inventory) {
+        if (inventory == null) {
+            return;
+        }
+        InventoryType type = inventory.getType();
+        if (type == InventoryType.PLAYER || type == InventoryType.CRAFTING || type == InventoryType.CREATIVE) {
+            return;
+        }
+        Location location = inventory.getLocation();
+        if (location == null) {
+            return;
+        }
+        Shop shop = getShopRedstone(Util.getBlockLocation(location), true);
+        if (shop instanceof ContainerShop) {
+            ((ContainerShop) shop).invalidateInventoryCounter();
+        }
+    }
+
+    /**
+     * Callback for reloading
+     *
+     * @return Reloading success
+     */
+    @Override
+    public ReloadResult reloadModule() {
+        return ReloadResult.builder().status(ReloadStatus.SUCCESS).build();
+    }
+}
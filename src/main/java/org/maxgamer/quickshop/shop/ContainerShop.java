@@ -67,9 +67,11 @@ import org.maxgamer.quickshop.api.event.ShopTypeChangeEvent;
 import org.maxgamer.quickshop.api.event.ShopUnloadEvent;
 import org.maxgamer.quickshop.api.event.ShopUpdateEvent;
 import org.maxgamer.quickshop.api.shop.AbstractDisplayItem;
+import org.maxgamer.quickshop.api.shop.ItemMatcher;
 import org.maxgamer.quickshop.api.shop.PriceLimiterCheckResult;
 import org.maxgamer.quickshop.api.shop.PriceLimiterStatus;
 import org.maxgamer.quickshop.api.shop.Shop;
+import org.maxgamer.quickshop.api.shop.ShopDataField;
 import org.maxgamer.quickshop.api.shop.ShopInfoStorage;
 import org.maxgamer.quickshop.api.shop.ShopModerator;
 import org.maxgamer.quickshop.api.shop.ShopType;
@@ -80,14 +82,18 @@ import org.maxgamer.quickshop.util.MsgUtil;
 import org.maxgamer.quickshop.util.PlayerFinder;
 import org.maxgamer.quickshop.util.Util;
 import org.maxgamer.quickshop.util.logging.container.ShopRemoveLog;
+import org.maxgamer.quickshop.util.matcher.item.QuickShopItemMatcherImpl;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import static org.maxgamer.quickshop.chat.platform.minedown.BungeeQuickChat.fromLegacyText;
@@ -98,6 +104,7 @@ import static org.maxgamer.quickshop.chat.platform.minedown.BungeeQuickChat.toLe
  */
 @EqualsAndHashCode
 public class ContainerShop implements Shop {
+    private static final int ALL_FIELDS = (1 << ShopDataField.values().length) - 1;
     @EqualsAndHashCode.Exclude
     @Deprecated
     private static final String SHOP_SIGN_PREFIX = "§d§o §r";
@@ -134,8 +141,20 @@ public class ContainerShop implements Shop {
     private volatile boolean isDisplayItemChanged = false;
     @EqualsAndHashCode.Exclude
     private volatile boolean dirty;
+    /* Bits of ShopDataField ordinal which changed since last saved */
+    @EqualsAndHashCode.Exclude
+    private final AtomicInteger dirtyFields = new AtomicInteger();
     @EqualsAndHashCode.Exclude
     private volatile boolean updating = false;
+    @EqualsAndHashCode.Exclude
+    private final ShopInventoryCounter inventoryCounter = new ShopInventoryCounter();
+    @Nullable
+    @EqualsAndHashCode.Exclude
+    private volatile QuickShopItemMatcherImpl.PrototypeMatcher prototypeMatcher;
+    /* Cache of Util.serialize(item), invalidated by setItem */
+    @Nullable
+    @EqualsAndHashCode.Exclude
+    private volatile String serializedItem;
     @Nullable
     private String currency;
     private boolean disableDisplay;
@@ -146,6 +165,7 @@ public class ContainerShop implements Shop {
         Util.ensureThread(false);
         this.shopType = s.shopType;
         this.item = s.item.clone();
+        this.serializedItem = s.serializedItem;
         this.location = s.location.clone();
         this.plugin = s.plugin;
         this.unlimited = s.unlimited;
@@ -190,13 +210,34 @@ public class ContainerShop implements Shop {
             @Nullable String currency,
             boolean disableDisplay,
             @Nullable UUID taxAccount) {
+        this(plugin, location, price, item, moderator, unlimited, type, extra, currency, disableDisplay, taxAccount, false);
+    }
+
+    /**
+     * Adds a new shop, the item can be taken over without another copy.
+     *
+     * @param ownedItem The item is a copy made for this shop, use it directly instead of a copy
+     */
+    ContainerShop(
+            @NotNull QuickShop plugin,
+            @NotNull Location location,
+            double price,
+            @NotNull ItemStack item,
+            @NotNull ShopModerator moderator,
+            boolean unlimited,
+            @NotNull ShopType type,
+            @NotNull YamlConfiguration extra,
+            @Nullable String currency,
+            boolean disableDisplay,
+            @Nullable UUID taxAccount,
+            boolean ownedItem) {
         Util.ensureThread(false);
         this.location = location;
         this.price = price;
         this.moderator = moderator;
-        this.item = item.clone();
+        this.item = ownedItem ? item : item.clone();
         this.plugin = plugin;
-        if (!plugin.isAllowStack()) {
+        if (!plugin.isAllowStack() && this.item.getAmount() != 1) {
             this.item.setAmount(1);
         }
         if (item.hasItemMeta()) {
@@ -227,9 +268,11 @@ public class ContainerShop implements Shop {
             this.currency = section.getString("currency");
             section.set("currency", null);
             Util.debugLog("Shop " + this + " currency data upgrade successful.");
+            // Only write back when the data actually changed
+            setDirty(ShopDataField.CURRENCY);
+            setDirty(ShopDataField.EXTRA);
+            this.update();
         }
-        setDirty();
-        this.update();
     }
 
     @Override
@@ -240,7 +283,7 @@ public class ContainerShop implements Shop {
     @Override
     public void setDisableDisplay(boolean disabled) {
         this.disableDisplay = disabled;
-        setDirty();
+        setDirty(ShopDataField.DISABLE_DISPLAY);
         update();
         checkDisplay();
     }
@@ -265,7 +308,7 @@ public class ContainerShop implements Shop {
     @Override
     public void setTaxAccount(@Nullable UUID taxAccount) {
         this.taxAccount = taxAccount;
-        setDirty();
+        setDirty(ShopDataField.TAX_ACCOUNT);
         update();
     }
 
@@ -285,6 +328,9 @@ public class ContainerShop implements Shop {
                 case VIRTUALITEM:
                     this.displayItem = new VirtualDisplayItem(this);
                     break;
+                case ITEMDISPLAY:
+                    this.displayItem = new ItemDisplayItem(this);
+                    break;
                 default:
                     //Tips will be raised in AbstractDisplayItem#getNowUsing
                     if (AbstractDisplayItem.isNotSupportVirtualItem()) {
@@ -313,20 +359,29 @@ public class ContainerShop implements Shop {
         int itemMaxStackSize = Util.getItemMaxStackSize(item.getType());
         Inventory inv = this.getInventory();
         int remains = amount;
+        boolean matches = matches(item);
         while (remains > 0) {
             int stackSize = Math.min(remains, itemMaxStackSize);
             item.setAmount(stackSize);
-            Objects.requireNonNull(inv).addItem(item);
+            int added = stackSize - countAmount(Objects.requireNonNull(inv).addItem(item));
+            if (matches) {
+                inventoryCounter.added(added);
+            }
             remains -= stackSize;
         }
+        if (!matches) {
+            inventoryCounter.invalidate();
+        }
+        invalidateAttachedInventoryCounter();
         this.setSignText();
     }
 
     @Override
     public boolean addStaff(@NotNull UUID player) {
         Util.ensureThread(false);
-        setDirty();
+        setDirty(ShopDataField.MODERATOR);
         boolean result = this.moderator.addStaff(player);
+        updateModeratorIndex();
         update();
         if (result) {
             Util.mainThreadRun(() -> plugin.getServer().getPluginManager()
@@ -397,13 +452,14 @@ public class ContainerShop implements Shop {
                     // We can modify this, it is a copy.
                     item.setAmount(stackSize);
                     // Add the items to the players inventory
-                    Objects.requireNonNull(chestInv).addItem(item);
+                    inventoryCounter.added(stackSize - countAmount(Objects.requireNonNull(chestInv).addItem(item)));
                     amount -= stackSize;
                 }
             }
             // Now update the players inventory.
             buyerInventory.setContents(contents);
 
+            invalidateAttachedInventoryCounter();
             //Update sign
             this.setSignText();
             if (attachedShop != null) {
@@ -462,8 +518,9 @@ public class ContainerShop implements Shop {
 
     @Override
     public void clearStaffs() {
-        setDirty();
+        setDirty(ShopDataField.MODERATOR);
         this.moderator.clearStaffs();
+        updateModeratorIndex();
         Util.mainThreadRun(() -> plugin.getServer().getPluginManager()
                 .callEvent(new ShopModeratorChangedEvent(this, this.moderator)));
         update();
@@ -472,8 +529,9 @@ public class ContainerShop implements Shop {
     @Override
     public boolean delStaff(@NotNull UUID player) {
         Util.ensureThread(false);
-        setDirty();
+        setDirty(ShopDataField.MODERATOR);
         boolean result = this.moderator.delStaff(player);
+        updateModeratorIndex();
         update();
         if (result) {
             Util.mainThreadRun(() -> plugin.getServer().getPluginManager().callEvent(new ShopModeratorChangedEvent(this, this.moderator)));
@@ -571,11 +629,20 @@ public class ContainerShop implements Shop {
         if (item == null) {
             return false;
         }
+        ItemMatcher itemMatcher = plugin.getItemMatcher();
+        if (itemMatcher instanceof QuickShopItemMatcherImpl) {
+            QuickShopItemMatcherImpl.PrototypeMatcher matcher = this.prototypeMatcher;
+            if (matcher == null || !matcher.isValid(itemMatcher)) {
+                matcher = ((QuickShopItemMatcherImpl) itemMatcher).compile(this.item);
+                this.prototypeMatcher = matcher;
+            }
+            return matcher.matches(item);
+        }
         ItemStack givenItem = item.clone();
         givenItem.setAmount(1);
         ItemStack shopItem = this.item.clone();
         shopItem.setAmount(1);
-        return plugin.getItemMatcher().matches(shopItem, givenItem);
+        return itemMatcher.matches(shopItem, givenItem);
     }
 
     @Override
@@ -608,9 +675,12 @@ public class ContainerShop implements Shop {
         if (this.displayItem != null) {
             this.displayItem.remove();
         }
-        update();
+        if (this.dirty) {
+            update();
+        }
         this.isLoaded = false;
         plugin.getShopManager().getLoadedShops().remove(this);
+        plugin.getDatabaseManager().getExternalCacheBuffer().remove(this);
         ShopUnloadEvent shopUnloadEvent = new ShopUnloadEvent(this);
         plugin.getServer().getPluginManager().callEvent(shopUnloadEvent);
     }
@@ -643,7 +713,7 @@ public class ContainerShop implements Shop {
     public void setAlwaysCountingContainer(boolean value) {
         isAlwaysCountingContainer = value;
         getExtra(plugin).set("is-always-counting-container", value);
-        setDirty();
+        setDirty(ShopDataField.EXTRA);
         update();
     }
 
@@ -668,12 +738,20 @@ public class ContainerShop implements Shop {
         int itemMaxStackSize = Util.getItemMaxStackSize(item.getType());
         Inventory inv = this.getInventory();
         int remains = amount;
+        boolean matches = matches(item);
         while (remains > 0) {
             int stackSize = Math.min(remains, itemMaxStackSize);
             item.setAmount(stackSize);
-            Objects.requireNonNull(inv).removeItem(item);
+            int removed = stackSize - countAmount(Objects.requireNonNull(inv).removeItem(item));
+            if (matches) {
+                inventoryCounter.removed(removed);
+            }
             remains -= stackSize;
         }
+        if (!matches) {
+            inventoryCounter.invalidate();
+        }
+        invalidateAttachedInventoryCounter();
         this.setSignText();
     }
 
@@ -724,11 +802,13 @@ public class ContainerShop implements Shop {
                     item.setAmount(stackSize);
                     // Add the items to the players inventory
                     floor.addAll(sellerInventory.addItem(item).values());
+                    inventoryCounter.removed(stackSize);
                     amount -= stackSize;
                 }
             }
             // We now have to update the chests inventory manually.
             this.getInventory().setContents(chestContents);
+            invalidateAttachedInventoryCounter();
             //Update sign
             this.setSignText();
             if (attachedShop != null) {
@@ -923,10 +1003,10 @@ public class ContainerShop implements Shop {
 
     /**
      * Updates the shop into the database.
+     * The row is written behind, multiple updates before next commit will be merged into one.
      */
     @Override
     public void update() {
-        //TODO: check isDirty()
         Util.ensureThread(false);
         if (updating) {
             return;
@@ -937,17 +1017,10 @@ public class ContainerShop implements Shop {
             return;
         }
         updating = true;
-        int x = this.getLocation().getBlockX();
-        int y = this.getLocation().getBlockY();
-        int z = this.getLocation().getBlockZ();
-        String world = Objects.requireNonNull(this.getLocation().getWorld()).getName();
-        int unlimited = this.isUnlimited() ? 1 : 0;
         try {
-            plugin.getDatabaseHelper()
-                    .updateShop(SimpleShopModerator.serialize(this.moderator), this.getItem(),
-                            unlimited, shopType.toID(), this.getPrice(), x, y, z, world,
-                            this.saveExtraToYaml(), this.currency, this.disableDisplay, this.taxAccount == null ? null : this.taxAccount.toString());
-            this.dirty = false;
+            //Explicit update call always means something changed, even the setter didn't mark it
+            this.dirty = true;
+            plugin.getDatabaseHelper().updateShop(this);
         } catch (Exception e) {
             plugin.getLogger().log(Level.WARNING,
                     "Could not update a shop in the database! Changes will revert after a reboot!", e);
@@ -979,6 +1052,16 @@ public class ContainerShop implements Shop {
         return item;
     }
 
+    @Override
+    public @NotNull String getSerializedItem() {
+        String serialized = serializedItem;
+        if (serialized == null) {
+            serialized = Util.serialize(item);
+            serializedItem = serialized;
+        }
+        return serialized;
+    }
+
     @Override
     public void setItem(@NotNull ItemStack item) {
         Util.ensureThread(false);
@@ -988,6 +1071,11 @@ public class ContainerShop implements Shop {
             return;
         }
         this.item = item;
+        this.serializedItem = null;
+        setDirty(ShopDataField.ITEM);
+        this.prototypeMatcher = null;
+        inventoryCounter.invalidate();
+        ((SimpleShopManager) plugin.getShopManager()).updateShopItem(this);
         notifyDisplayItemChange();
         update();
         refresh();
@@ -1024,6 +1112,8 @@ public class ContainerShop implements Shop {
                 displayItem.spawn();
             }
         }
+        // Container may become a double chest or a single chest
+        inventoryCounter.invalidate();
         setSignText();
     }
 
@@ -1037,9 +1127,9 @@ public class ContainerShop implements Shop {
             Util.debugLog("Dupe load request, canceled.");
             return;
         }
-        Map<Location, Shop> shopsInChunk = plugin.getShopManager().getShops(getLocation().getChunk());
+        Shop registered = plugin.getShopManager().getShop(Objects.requireNonNull(location.getWorld()), location.getBlockX(), location.getBlockY(), location.getBlockZ());
 
-        if (shopsInChunk == null || !shopsInChunk.containsValue(this)) {
+        if (!this.equals(registered)) {
             throw new IllegalStateException("Shop must register into ShopManager before loading.");
         }
 
@@ -1080,12 +1170,17 @@ public class ContainerShop implements Shop {
     @Override
     public void setModerator(@NotNull ShopModerator shopModerator) {
         Util.ensureThread(false);
-        setDirty();
+        setDirty(ShopDataField.MODERATOR);
         this.moderator = shopModerator;
+        updateModeratorIndex();
         update();
         plugin.getServer().getPluginManager().callEvent(new ShopModeratorChangedEvent(this, this.moderator));
     }
 
+    private void updateModeratorIndex() {
+        ((SimpleShopManager) plugin.getShopManager()).updateShopModerator(this);
+    }
+
     /**
      * @return The name of the player who owns the shop.
      */
@@ -1103,6 +1198,8 @@ public class ContainerShop implements Shop {
     public void setOwner(@NotNull UUID owner) {
         Util.ensureThread(false);
         this.moderator.setOwner(owner);
+        setDirty(ShopDataField.MODERATOR);
+        updateModeratorIndex();
         setSignText();
         update();
         plugin.getServer().getPluginManager().callEvent(new ShopModeratorChangedEvent(this, this.moderator));
@@ -1129,7 +1226,7 @@ public class ContainerShop implements Shop {
             Util.debugLog("A plugin cancelled the price change event.");
             return;
         }
-        setDirty();
+        setDirty(ShopDataField.PRICE);
         this.price = price;
         setSignText();
         update();
@@ -1146,7 +1243,7 @@ public class ContainerShop implements Shop {
         if (this.unlimited && !isAlwaysCountingContainer()) {
             return -1;
         }
-        int space = Util.countSpace(this.getInventory(), this);
+        int space = countInventory() ? inventoryCounter.getSpace() / item.getAmount() : 0;
         new ShopInventoryCalculateEvent(this, space, -1).callEvent();
         return space;
     }
@@ -1162,11 +1259,64 @@ public class ContainerShop implements Shop {
         if (this.unlimited && !isAlwaysCountingContainer()) {
             return -1;
         }
-        int stock = Util.countItems(this.getInventory(), this);
+        int stock = countInventory() ? inventoryCounter.getStock() / item.getAmount() : 0;
         new ShopInventoryCalculateEvent(this, -1, stock).callEvent();
         return stock;
     }
 
+    /**
+     * Recount the shop items and free space in the container if the cached counts are no longer valid,
+     * both are counted within one scan.
+     *
+     * @return false if the inventory is unavailable
+     */
+    private boolean countInventory() {
+        if (inventoryCounter.isValid()) {
+            return true;
+        }
+        Inventory inventory = this.getInventory();
+        if (inventory == null) {
+            return false;
+        }
+        int stock = 0;
+        int space = 0;
+        int itemMaxStackSize = Util.getItemMaxStackSize(item.getType());
+        for (ItemStack iStack : inventory.getStorageContents()) {
+            if (iStack == null || iStack.getType() == Material.AIR) {
+                space += itemMaxStackSize;
+            } else if (matches(iStack)) {
+                stock += iStack.getAmount();
+                space += iStack.getAmount() >= itemMaxStackSize ? 0 : itemMaxStackSize - iStack.getAmount();
+            }
+        }
+        inventoryCounter.set(stock, space);
+        return true;
+    }
+
+    /**
+     * Drop the cached stock and space of this shop, and the shop sharing the same container.
+     * Should be called when something not tracked by the shop touched the container.
+     */
+    public void invalidateInventoryCounter() {
+        inventoryCounter.invalidate();
+        invalidateAttachedInventoryCounter();
+    }
+
+    private void invalidateAttachedInventoryCounter() {
+        ContainerShop attached = this.attachedShop;
+        if (attached != null) {
+            attached.inventoryCounter.invalidate();
+        }
+    }
+
+    private static int countAmount(@NotNull Map<Integer, ItemStack> leftovers) {
+        int amount = 0;
+        for (ItemStack leftover : leftovers.values()) {
+            amount += leftover.getAmount();
+        }
+        return amount;
+    }
+
     @Override
     public @NotNull ShopType getShopType() {
         return this.shopType;
@@ -1183,7 +1333,7 @@ public class ContainerShop implements Shop {
         if (this.shopType == newShopType) {
             return; //Ignore if there actually no changes
         }
-        setDirty();
+        setDirty(ShopDataField.TYPE);
         if (Util.fireCancellableEvent(new ShopTypeChangeEvent(this, this.shopType, newShopType))) {
             Util.debugLog(
                     "Some addon cancelled shop type changes, target shop: " + this);
@@ -1271,6 +1421,7 @@ public class ContainerShop implements Shop {
     public void setUnlimited(boolean unlimited) {
         Util.ensureThread(false);
         this.unlimited = unlimited;
+        setDirty(ShopDataField.UNLIMITED);
         this.setSignText();
         update();
     }
@@ -1301,9 +1452,33 @@ public class ContainerShop implements Shop {
 
     @Override
     public void setDirty() {
+        this.dirtyFields.set(ALL_FIELDS);
+        this.dirty = true;
+    }
+
+    @Override
+    public void setDirty(@NotNull ShopDataField field) {
+        this.dirtyFields.getAndUpdate(fields -> fields | (1 << field.ordinal()));
         this.dirty = true;
     }
 
+    @Override
+    public @NotNull Set<ShopDataField> takeDirtyFields() {
+        this.dirty = false;
+        int fields = this.dirtyFields.getAndSet(0);
+        // Explicit update call without telling what changed
+        if (fields == 0) {
+            return EnumSet.allOf(ShopDataField.class);
+        }
+        EnumSet<ShopDataField> changed = EnumSet.noneOf(ShopDataField.class);
+        for (ShopDataField field : ShopDataField.values()) {
+            if ((fields & (1 << field.ordinal())) != 0) {
+                changed.add(field);
+            }
+        }
+        return changed;
+    }
+
     @Override
     public boolean isDirty() {
         return this.dirty;
@@ -1311,6 +1486,7 @@ public class ContainerShop implements Shop {
 
     @Override
     public void setDirty(boolean isDirty) {
+        this.dirtyFields.set(isDirty ? ALL_FIELDS : 0);
         this.dirty = isDirty;
     }
 
@@ -1586,7 +1762,7 @@ public class ContainerShop implements Shop {
     @Override
     public void setExtra(@NotNull Plugin plugin, @NotNull ConfigurationSection data) {
         extra.set(plugin.getName(), data);
-        setDirty();
+        setDirty(ShopDataField.EXTRA);
         update();
     }
 
@@ -1632,7 +1808,7 @@ public class ContainerShop implements Shop {
     @Override
     public void setCurrency(@Nullable String currency) {
         this.currency = currency;
-        setDirty();
+        setDirty(ShopDataField.CURRENCY);
         this.update();
     }
 
@@ -1647,6 +1823,6 @@ public class ContainerShop implements Shop {
 
     @Override
     public ShopInfoStorage saveToInfoStorage() {
-        return new ShopInfoStorage(getLocation().getWorld().getName(), BlockPosition.of(getLocation()), SimpleShopModerator.serialize(getModerator()), getPrice(), Util.serialize(getItem()), isUnlimited() ? 1 : 0, getShopType().toID(), saveExtraToYaml(), getCurrency(), isDisableDisplay(), getTaxAccount());
+        return new ShopInfoStorage(getLocation().getWorld().getName(), BlockPosition.of(getLocation()), SimpleShopModerator.serialize(getModerator()), getPrice(), getSerializedItem(), isUnlimited() ? 1 : 0, getShopType().toID(), saveExtraToYaml(), getCurrency(), isDisableDisplay(), getTaxAccount());
     }
 }
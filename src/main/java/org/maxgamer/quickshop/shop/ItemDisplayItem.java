@@ -0,0 +1,211 @@
+/*
+ * This file is a part of project QuickShop, the name is ItemDisplayItem.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.shop;
+
+import lombok.ToString;
+import org.bukkit.Location;
+import org.bukkit.NamespacedKey;
+import org.bukkit.entity.Display;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.ItemDisplay;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.maxgamer.quickshop.api.event.ShopDisplayItemDespawnEvent;
+import org.maxgamer.quickshop.api.event.ShopDisplayItemSpawnEvent;
+import org.maxgamer.quickshop.api.shop.AbstractDisplayItem;
+import org.maxgamer.quickshop.api.shop.DisplayType;
+import org.maxgamer.quickshop.api.shop.Shop;
+import org.maxgamer.quickshop.util.MsgUtil;
+import org.maxgamer.quickshop.util.Util;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Display the item by an ItemDisplay entity.
+ * <p>
+ * ItemDisplay has no physics, can't be picked up, merged or moved by hoppers, water and portals,
+ * and it is not saved with the chunk, so it needs none of the protection listeners or dupe checks
+ * the dropped item display needs.
+ */
+@ToString
+public class ItemDisplayItem extends AbstractDisplayItem {
+    private static final NamespacedKey DISPLAY_KEY = new NamespacedKey(PLUGIN, "display");
+
+    @Nullable
+    private ItemDisplay display;
+
+    ItemDisplayItem(@NotNull Shop shop) {
+        super(shop);
+    }
+
+    @Override
+    public boolean checkDisplayIsMoved() {
+        // Nothing can move it
+        return false;
+    }
+
+    @Override
+    public boolean checkDisplayNeedRegen() {
+        Util.ensureThread(false);
+        if (this.display == null) {
+            return false;
+        }
+        return !this.display.isValid();
+    }
+
+    @Override
+    public boolean checkIsShopEntity(@NotNull Entity entity) {
+        Util.ensureThread(false);
+        if (!(entity instanceof ItemDisplay)) {
+            return false;
+        }
+        return entity.getPersistentDataContainer().has(DISPLAY_KEY, PersistentDataType.STRING);
+    }
+
+    @Override
+    public void fixDisplayMoved() {
+        Util.ensureThread(false);
+        Location location = this.getDisplayLocation();
+        if (this.display != null && location != null) {
+            this.display.teleport(location);
+        }
+    }
+
+    @Override
+    public void fixDisplayNeedRegen() {
+        Util.ensureThread(false);
+        respawn();
+    }
+
+    @Override
+    public void remove() {
+        Util.ensureThread(false);
+        if (this.display == null) {
+            Util.debugLog("Ignore the ItemDisplay removing because the ItemDisplay is already gone or it's a left shop.");
+            return;
+        }
+        this.display.remove();
+        this.display = null;
+        ShopDisplayItemDespawnEvent shopDisplayItemDespawnEvent = new ShopDisplayItemDespawnEvent(
+                shop, originalItemStack, DisplayType.ITEMDISPLAY);
+        PLUGIN.getServer().getPluginManager().callEvent(shopDisplayItemDespawnEvent);
+    }
+
+    @Override
+    public boolean removeDupe() {
+        // Not saved with the chunk and never spawned twice, no dupes to remove
+        return false;
+    }
+
+    @Override
+    public void respawn() {
+        Util.ensureThread(false);
+        remove();
+        spawn();
+    }
+
+    @Override
+    public void safeGuard(@NotNull Entity entity) {
+        Util.ensureThread(false);
+        if (!(entity instanceof ItemDisplay)) {
+            Util.debugLog("Failed to safeGuard " + entity.getLocation() + ", cause target not a ItemDisplay");
+            return;
+        }
+        ItemDisplay itemDisplay = (ItemDisplay) entity;
+        if (PLUGIN.getConfig().getBoolean("shop.display-item-use-name")) {
+            itemDisplay.setCustomName(Util.getItemStackName(this.originalItemStack));
+            itemDisplay.setCustomNameVisible(true);
+        } else {
+            itemDisplay.setCustomNameVisible(false);
+        }
+        itemDisplay.setItemStack(this.originalItemStack);
+        itemDisplay.setItemDisplayTransform(ItemDisplay.ItemDisplayTransform.GROUND);
+        itemDisplay.setBillboard(Display.Billboard.VERTICAL);
+        itemDisplay.setPersistent(false);
+        itemDisplay.setInvulnerable(true);
+        itemDisplay.setSilent(true);
+        itemDisplay.getPersistentDataContainer().set(DISPLAY_KEY, PersistentDataType.STRING, shop.getLocation().toString());
+    }
+
+    @Override
+    public void spawn() {
+        Util.ensureThread(false);
+        if (shop.isLeftShop()) {
+            return;
+        }
+        if (shop.isDeleted() || !shop.isLoaded()) {
+            return;
+        }
+        if (shop.getLocation().getWorld() == null) {
+            Util.debugLog("Canceled the displayItem spawning because the location in the world is null.");
+            return;
+        }
+        if (originalItemStack == null) {
+            Util.debugLog("Canceled the displayItem spawning because the ItemStack is null.");
+            return;
+        }
+        if (display != null && display.isValid()) {
+            Util.debugLog("Warning: Spawning the ItemDisplay for DisplayItem when there is already an existing ItemDisplay, May cause a duplicated ItemDisplay!");
+            MsgUtil.debugStackTrace(Thread.currentThread().getStackTrace());
+        }
+        Location location = getDisplayLocation();
+        if (!Util.isDisplayAllowBlock(Objects.requireNonNull(location).getBlock().getType())) {
+            Util.debugLog("Can't spawn the displayItem because there is not an AIR block above the shopblock.");
+            return;
+        }
+
+        ShopDisplayItemSpawnEvent shopDisplayItemSpawnEvent = new ShopDisplayItemSpawnEvent(shop,
+                originalItemStack, DisplayType.ITEMDISPLAY);
+        PLUGIN.getServer().getPluginManager().callEvent(shopDisplayItemSpawnEvent);
+        if (shopDisplayItemSpawnEvent.isCancelled()) {
+            Util.debugLog("Canceled the displayItem spawning because a plugin setCancelled the spawning event, usually this is a QuickShop Add on");
+            return;
+        }
+        // Set up before added to the world, so the client receives the complete entity in one go
+        Consumer<ItemDisplay> setup = this::safeGuard;
+        this.display = this.shop.getLocation().getWorld().spawn(location, ItemDisplay.class, setup);
+    }
+
+    @Override
+    public @Nullable Entity getDisplay() {
+        return this.display;
+    }
+
+    @Override
+    public boolean isSpawned() {
+        if (this.display == null) {
+            return false;
+        }
+        // If it's a left shop, check the attached shop's display instead.
+        if (shop.isLeftShop()) {
+            Shop attachedShop = shop.getAttachedShop();
+            if (attachedShop instanceof ContainerShop) {
+                ContainerShop shop = (ContainerShop) attachedShop;
+                if (shop.getDisplayItem() == null) {
+                    return false;
+                }
+                return shop.getDisplayItem().isSpawned();
+            }
+        }
+        return this.display.isValid();
+    }
+}
@@ -0,0 +1,633 @@
+/*
+ * This file is a part of project QuickShop, the name is LazyShopLoader.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.shop;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.maxgamer.quickshop.QuickShop;
+import org.maxgamer.quickshop.api.database.WarpedResultSet;
+import org.maxgamer.quickshop.api.shop.Shop;
+import org.maxgamer.quickshop.api.shop.ShopChunk;
+import org.maxgamer.quickshop.util.Util;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+
+/**
+ * Lazy shop loading, shops in unloaded chunks only keep their positions in memory,
+ * the shop objects will be created from the database when their chunk is loaded
+ * (prefetched by region), and dropped again after the chunk has been unloaded for a while.
+ */
+public class LazyShopLoader {
+    private static final int REGION_SHIFT = 5;
+    private static final long SWEEP_INTERVAL_TICKS = 600;
+    private final QuickShop plugin;
+    private final ShopLoader shopLoader;
+    /* World -> Chunk -> Positions and owners of the shops which only exist in the database */
+    private final Map<String, Map<Long, IndexedChunk>> index = new ConcurrentHashMap<>();
+    /* Owner -> [all shops, limited shops] in the index, so the shop limit checks needn't the database */
+    private final Map<UUID, int[]> ownerCounts = new ConcurrentHashMap<>();
+    /* Deduplicate the owner UUIDs kept by the index */
+    private final Map<UUID, UUID> owners = new ConcurrentHashMap<>();
+    /* World -> Chunk -> Shops fetched by region prefetch, main thread only */
+    private final Map<String, Map<Long, PrefetchedChunk>> prefetched = new HashMap<>();
+    /* World -> Regions being fetched, main thread only */
+    private final Map<String, Set<Long>> fetchingRegions = new HashMap<>();
+    /* World -> Chunk -> Last time the chunk seen loaded, for the chunks which have shops in memory */
+    private final Map<String, Map<Long, Long>> residentChunks = new ConcurrentHashMap<>();
+    private final long gracePeriod;
+
+    public LazyShopLoader(@NotNull QuickShop plugin, @NotNull ShopLoader shopLoader) {
+        this.plugin = plugin;
+        this.shopLoader = shopLoader;
+        this.gracePeriod = Math.max(0, plugin.getConfig().getLong("shop.lazy-loading.unload-grace-period", 300)) * 1000;
+    }
+
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ShopPositionIndex.chunkKey(chunkX, chunkZ);
+    }
+
+    public static int chunkX(long chunkKey) {
+        return (int) (chunkKey >> 32);
+    }
+
+    public static int chunkZ(long chunkKey) {
+        return (int) chunkKey;
+    }
+
+    public static long blockKey(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    /**
+     * Start the task which drops the shops in unloaded chunks
+     */
+    void start() {
+        Bukkit.getScheduler().runTaskTimer(plugin, this::sweep, SWEEP_INTERVAL_TICKS, SWEEP_INTERVAL_TICKS);
+    }
+
+    /**
+     * Clear the index before (re)loading shops
+     *
+     * @param world The world, null for all worlds
+     */
+    void clearIndex(@Nullable String world) {
+        if (world == null) {
+            index.clear();
+            ownerCounts.clear();
+            owners.clear();
+            prefetched.clear();
+        } else {
+            Map<Long, IndexedChunk> inWorld = index.remove(world);
+            if (inWorld != null) {
+                for (IndexedChunk chunk : inWorld.values()) {
+                    count(chunk, -1);
+                }
+            }
+            prefetched.remove(world);
+        }
+    }
+
+    /**
+     * Put the shop into the index if its chunk is not loaded
+     *
+     * @param origin The raw shop data
+     * @return true if indexed, false if the shop should be loaded now
+     */
+    boolean index(@NotNull ShopLoader.ShopRawDatabaseInfo origin) {
+        World world = plugin.getServer().getWorld(origin.getWorld());
+        if (world == null) {
+            return false;
+        }
+        int chunkX = origin.getX() >> 4;
+        int chunkZ = origin.getZ() >> 4;
+        if (world.isChunkLoaded(chunkX, chunkZ)) {
+            return false;
+        }
+        IndexedChunk chunk = new IndexedChunk(1);
+        chunk.set(0, blockKey(origin.getX(), origin.getY(), origin.getZ()), parseOwner(origin.getModerators()), origin.isUnlimited());
+        addToIndex(origin.getWorld(), chunkKey(chunkX, chunkZ), chunk);
+        return true;
+    }
+
+    @Nullable
+    private UUID parseOwner(@NotNull String moderators) {
+        try {
+            UUID owner = Util.isUUID(moderators) ? UUID.fromString(moderators) : SimpleShopModerator.deserialize(moderators).getOwner();
+            return owner == null ? null : owners.computeIfAbsent(owner, k -> k);
+        } catch (Exception e) {
+            // Legacy data, will be fixed when the shop loaded
+            return null;
+        }
+    }
+
+    private void addToIndex(@NotNull String world, long chunkKey, @NotNull IndexedChunk chunk) {
+        index.computeIfAbsent(world, k -> new ConcurrentHashMap<>()).merge(chunkKey, chunk, IndexedChunk::merge);
+        count(chunk, 1);
+    }
+
+    @Nullable
+    private IndexedChunk removeFromIndex(@NotNull Map<Long, IndexedChunk> inWorld, long chunkKey) {
+        IndexedChunk chunk = inWorld.remove(chunkKey);
+        if (chunk != null) {
+            count(chunk, -1);
+        }
+        return chunk;
+    }
+
+    private void count(@NotNull IndexedChunk chunk, int delta) {
+        for (int i = 0; i < chunk.positions.length; i++) {
+            UUID owner = chunk.owners[i];
+            if (owner == null) {
+                continue;
+            }
+            boolean limited = !chunk.unlimited[i];
+            ownerCounts.compute(owner, (k, counts) -> {
+                if (counts == null) {
+                    counts = new int[2];
+                }
+                counts[0] += delta;
+                if (limited) {
+                    counts[1] += delta;
+                }
+                return counts[0] <= 0 ? null : counts;
+            });
+        }
+    }
+
+    /**
+     * Gets the amount of shops of the owner which only exist in the database
+     *
+     * @param owner            The owner
+     * @param includeUnlimited Include the unlimited shops
+     * @return The amount of shops
+     */
+    public int getIndexedAmount(@NotNull UUID owner, boolean includeUnlimited) {
+        int[] counts = ownerCounts.get(owner);
+        if (counts == null) {
+            return 0;
+        }
+        return includeUnlimited ? counts[0] : counts[1];
+    }
+
+    public boolean isIndexed(@NotNull String world, int chunkX, int chunkZ) {
+        Map<Long, IndexedChunk> inWorld = index.get(world);
+        return inWorld != null && inWorld.containsKey(chunkKey(chunkX, chunkZ));
+    }
+
+    /**
+     * Gets the amount of shops which only exist in the database
+     *
+     * @return The amount of shops
+     */
+    public int getIndexedAmount() {
+        int amount = 0;
+        for (Map<Long, IndexedChunk> inWorld : index.values()) {
+            for (IndexedChunk chunk : inWorld.values()) {
+                amount += chunk.positions.length;
+            }
+        }
+        return amount;
+    }
+
+    /**
+     * Mark the chunk has shops in memory, so it can be dropped after unloaded
+     *
+     * @param world  The world name
+     * @param chunkX The chunk X
+     * @param chunkZ The chunk Z
+     */
+    public void markResident(@NotNull String world, int chunkX, int chunkZ) {
+        residentChunks.computeIfAbsent(world, k -> new ConcurrentHashMap<>()).put(chunkKey(chunkX, chunkZ), System.currentTimeMillis());
+    }
+
+    /**
+     * Called when a chunk loaded, fetch the whole region of the chunk asynchronously
+     *
+     * @param world  The world name
+     * @param chunkX The chunk X
+     * @param chunkZ The chunk Z
+     */
+    public void prefetch(@NotNull String world, int chunkX, int chunkZ) {
+        Util.ensureThread(false);
+        if (!isIndexed(world, chunkX, chunkZ)) {
+            return;
+        }
+        Map<Long, PrefetchedChunk> prefetchedInWorld = prefetched.get(world);
+        if (prefetchedInWorld != null && prefetchedInWorld.containsKey(chunkKey(chunkX, chunkZ))) {
+            // Already there, load it in next tick like ChunkListener does
+            Bukkit.getScheduler().runTask(plugin, () -> materialize(world, chunkX, chunkZ));
+            return;
+        }
+        int regionX = chunkX >> REGION_SHIFT;
+        int regionZ = chunkZ >> REGION_SHIFT;
+        if (!fetchingRegions.computeIfAbsent(world, k -> new HashSet<>()).add(chunkKey(regionX, regionZ))) {
+            return;
+        }
+        int minX = regionX << (REGION_SHIFT + 4);
+        int minZ = regionZ << (REGION_SHIFT + 4);
+        int maxX = minX + (1 << (REGION_SHIFT + 4)) - 1;
+        int maxZ = minZ + (1 << (REGION_SHIFT + 4)) - 1;
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            Map<Long, List<ShopLoader.ShopDatabaseInfo>> fetched = fetch(world, minX, minZ, maxX, maxZ);
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                Set<Long> fetching = fetchingRegions.get(world);
+                if (fetching != null) {
+                    fetching.remove(chunkKey(regionX, regionZ));
+                }
+                long now = System.currentTimeMillis();
+                Map<Long, PrefetchedChunk> inWorld = prefetched.computeIfAbsent(world, k -> new HashMap<>());
+                World bukkitWorld = plugin.getServer().getWorld(world);
+                for (Map.Entry<Long, List<ShopLoader.ShopDatabaseInfo>> entry : fetched.entrySet()) {
+                    long chunkKey = entry.getKey();
+                    if (!isIndexed(world, chunkX(chunkKey), chunkZ(chunkKey))) {
+                        continue;
+                    }
+                    inWorld.put(chunkKey, new PrefetchedChunk(entry.getValue(), now));
+                    if (bukkitWorld != null && bukkitWorld.isChunkLoaded(chunkX(chunkKey), chunkZ(chunkKey))) {
+                        materialize(world, chunkX(chunkKey), chunkZ(chunkKey));
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * Create and register the shops in the chunk if it is in the index and has been prefetched.
+     * The database is never touched here, a prefetch is started instead if it wasn't prefetched.
+     *
+     * @param world  The world name
+     * @param chunkX The chunk X
+     * @param chunkZ The chunk Z
+     */
+    public void materialize(@NotNull String world, int chunkX, int chunkZ) {
+        Util.ensureThread(false);
+        Map<Long, IndexedChunk> indexInWorld = index.get(world);
+        if (indexInWorld == null || !indexInWorld.containsKey(chunkKey(chunkX, chunkZ))) {
+            return;
+        }
+        long chunkKey = chunkKey(chunkX, chunkZ);
+        Map<Long, PrefetchedChunk> prefetchedInWorld = prefetched.get(world);
+        PrefetchedChunk prefetchedChunk = prefetchedInWorld == null ? null : prefetchedInWorld.remove(chunkKey);
+        if (prefetchedChunk == null) {
+            Util.debugLog("Chunk " + world + "," + chunkX + "," + chunkZ + " wasn't prefetched, prefetching it.");
+            prefetch(world, chunkX, chunkZ);
+            return;
+        }
+        World bukkitWorld = plugin.getServer().getWorld(world);
+        if (bukkitWorld == null) {
+            return;
+        }
+        IndexedChunk indexed = removeFromIndex(indexInWorld, chunkKey);
+        if (indexed == null) {
+            return;
+        }
+        long[] positions = indexed.positions;
+        List<ShopLoader.ShopDatabaseInfo> shops = prefetchedChunk.shops;
+        boolean chunkLoaded = bukkitWorld.isChunkLoaded(chunkX, chunkZ);
+        Map<Location, Shop> resident = getResidentShops(world, chunkX, chunkZ);
+        List<Shop> created = new ArrayList<>(shops.size());
+        for (ShopLoader.ShopDatabaseInfo data : shops) {
+            if (!contains(positions, blockKey(data.getX(), data.getY(), data.getZ()))) {
+                continue;
+            }
+            data.resolveLocation();
+            if (shopLoader.shopNullCheck(data) || (resident != null && resident.containsKey(data.getLocation()))) {
+                continue;
+            }
+            ContainerShop shop = shopLoader.buildShop(data);
+            if (shop == null) {
+                continue;
+            }
+            if (chunkLoaded && !Util.canBeShop(shop.getLocation().getBlock())) {
+                Util.debugLog("Target block can't be a shop, skip loading it...");
+                continue;
+            }
+            plugin.getShopManager().loadShop(world, shop);
+            created.add(shop);
+        }
+        markResident(world, chunkX, chunkZ);
+        Util.debugLog("Loaded " + created.size() + " shop(s) in chunk " + world + "," + chunkX + "," + chunkZ + " from the database.");
+        if (chunkLoaded) {
+            for (Shop shop : created) {
+                try {
+                    shop.onLoad();
+                } catch (Exception e) {
+                    plugin.getLogger().log(Level.WARNING, "Failed to load shop " + shop, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the shops of chunk in the memory without loading from the index
+     *
+     * @param world  The world name
+     * @param chunkX The chunk X
+     * @param chunkZ The chunk Z
+     * @return The shops in memory
+     */
+    @Nullable
+    public Map<Location, Shop> getResidentShops(@NotNull String world, int chunkX, int chunkZ) {
+        Map<ShopChunk, Map<Location, Shop>> inWorld = plugin.getShopManager().getShops(world);
+        if (inWorld == null) {
+            return null;
+        }
+        return inWorld.get(new SimpleShopChunk(world, chunkX, chunkZ));
+    }
+
+    @NotNull
+    private Map<Long, List<ShopLoader.ShopDatabaseInfo>> fetch(@NotNull String world, int minX, int minZ, int maxX, int maxZ) {
+        Map<Long, List<ShopLoader.ShopDatabaseInfo>> fetched = new HashMap<>();
+        try (WarpedResultSet warpRS = plugin.getDatabaseHelper().selectShops(world, minX, minZ, maxX, maxZ); ResultSet rs = warpRS.getResultSet()) {
+            while (rs.next()) {
+                ShopLoader.ShopRawDatabaseInfo origin = new ShopLoader.ShopRawDatabaseInfo(rs);
+                fetched.computeIfAbsent(chunkKey(origin.getX() >> 4, origin.getZ() >> 4), k -> new ArrayList<>()).add(shopLoader.decode(origin));
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to fetch shops in " + world + " (" + minX + "," + minZ + " -> " + maxX + "," + maxZ + ") from the database.", e);
+        }
+        return fetched;
+    }
+
+    /**
+     * Drop the shops in the chunks which have been unloaded for longer than grace period
+     */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        int dropped = 0;
+        for (Map.Entry<String, Map<Long, Long>> worldEntry : residentChunks.entrySet()) {
+            String world = worldEntry.getKey();
+            World bukkitWorld = plugin.getServer().getWorld(world);
+            if (bukkitWorld == null) {
+                continue;
+            }
+            Iterator<Map.Entry<Long, Long>> iterator = worldEntry.getValue().entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Long> entry = iterator.next();
+                int chunkX = chunkX(entry.getKey());
+                int chunkZ = chunkZ(entry.getKey());
+                if (bukkitWorld.isChunkLoaded(chunkX, chunkZ)) {
+                    entry.setValue(now);
+                    continue;
+                }
+                if (now - entry.getValue() < gracePeriod) {
+                    continue;
+                }
+                int amount = evict(world, chunkX, chunkZ);
+                if (amount >= 0) {
+                    dropped += amount;
+                    iterator.remove();
+                }
+            }
+        }
+        for (Map<Long, PrefetchedChunk> inWorld : prefetched.values()) {
+            inWorld.values().removeIf(prefetchedChunk -> now - prefetchedChunk.time > gracePeriod);
+        }
+        if (dropped > 0) {
+            Util.debugLog("Dropped " + dropped + " shop(s) in unloaded chunks from the memory.");
+        }
+    }
+
+    /**
+     * Drop the shops in the chunk from the memory and put them back to the index
+     *
+     * @return The amount of shops dropped, -1 if the chunk can't be dropped now
+     */
+    private int evict(@NotNull String world, int chunkX, int chunkZ) {
+        Map<Location, Shop> inChunk = getResidentShops(world, chunkX, chunkZ);
+        if (inChunk == null || inChunk.isEmpty()) {
+            return 0;
+        }
+        List<Shop> shops = new ArrayList<>(inChunk.values());
+        for (Shop shop : shops) {
+            // Still in use or the changes haven't been saved yet
+            if (shop.isLoaded() || shop.isDirty()) {
+                return -1;
+            }
+        }
+        IndexedChunk indexed = new IndexedChunk(shops.size());
+        for (int i = 0; i < shops.size(); i++) {
+            Shop shop = shops.get(i);
+            Location location = shop.getLocation();
+            indexed.set(i, blockKey(location.getBlockX(), location.getBlockY(), location.getBlockZ()), owners.computeIfAbsent(shop.getOwner(), k -> k), shop.isUnlimited());
+            plugin.getShopManager().removeShop(shop);
+        }
+        Map<ShopChunk, Map<Location, Shop>> inWorld = plugin.getShopManager().getShops(world);
+        if (inWorld != null) {
+            inWorld.remove(new SimpleShopChunk(world, chunkX, chunkZ));
+        }
+        addToIndex(world, chunkKey(chunkX, chunkZ), indexed);
+        return shops.size();
+    }
+
+    /**
+     * Create a cursor over all shops, including the shops which only exist in the database.
+     * Shops not in memory will be created from the database page by page (region by region),
+     * they are not registered into ShopManager.
+     * <p>
+     * The database is never touched on the main thread, a cursor used on main thread only iterates the shops in memory.
+     *
+     * @param world The world name, null for all worlds
+     * @return The cursor
+     */
+    @NotNull
+    public Iterator<Shop> cursor(@Nullable String world) {
+        return new ShopCursor(world);
+    }
+
+    private static boolean contains(@NotNull long[] positions, long position) {
+        for (long p : positions) {
+            if (p == position) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Shops of a chunk in the index, stored in parallel arrays
+     */
+    private static class IndexedChunk {
+        private final long[] positions;
+        private final UUID[] owners;
+        private final boolean[] unlimited;
+
+        private IndexedChunk(int size) {
+            this.positions = new long[size];
+            this.owners = new UUID[size];
+            this.unlimited = new boolean[size];
+        }
+
+        private void set(int i, long position, @Nullable UUID owner, boolean unlimited) {
+            this.positions[i] = position;
+            this.owners[i] = owner;
+            this.unlimited[i] = unlimited;
+        }
+
+        @NotNull
+        private static IndexedChunk merge(@NotNull IndexedChunk a, @NotNull IndexedChunk b) {
+            IndexedChunk merged = new IndexedChunk(a.positions.length + b.positions.length);
+            int offset = a.positions.length;
+            System.arraycopy(a.positions, 0, merged.positions, 0, offset);
+            System.arraycopy(b.positions, 0, merged.positions, offset, b.positions.length);
+            System.arraycopy(a.owners, 0, merged.owners, 0, offset);
+            System.arraycopy(b.owners, 0, merged.owners, offset, b.owners.length);
+            System.arraycopy(a.unlimited, 0, merged.unlimited, 0, offset);
+            System.arraycopy(b.unlimited, 0, merged.unlimited, offset, b.unlimited.length);
+            return merged;
+        }
+    }
+
+    private static class PrefetchedChunk {
+        private final List<ShopLoader.ShopDatabaseInfo> shops;
+        private final long time;
+
+        private PrefetchedChunk(@NotNull List<ShopLoader.ShopDatabaseInfo> shops, long time) {
+            this.shops = shops;
+            this.time = time;
+        }
+    }
+
+    private class ShopCursor implements Iterator<Shop> {
+        private final Iterator<Shop> resident;
+        /* World -> Regions that have shops only exist in the database */
+        private final Iterator<Map.Entry<String, Long>> regions;
+        private final Queue<Shop> page = new ArrayDeque<>();
+
+        private ShopCursor(@Nullable String world) {
+            List<Shop> residentShops = new ArrayList<>();
+            List<Map.Entry<String, Long>> regionList = new ArrayList<>();
+            for (Map.Entry<String, Map<ShopChunk, Map<Location, Shop>>> worldEntry : plugin.getShopManager().getShops().entrySet()) {
+                if (world != null && !world.equals(worldEntry.getKey())) {
+                    continue;
+                }
+                for (Map<Location, Shop> inChunk : worldEntry.getValue().values()) {
+                    residentShops.addAll(inChunk.values());
+                }
+            }
+            for (Map.Entry<String, Map<Long, IndexedChunk>> worldEntry : index.entrySet()) {
+                if (world != null && !world.equals(worldEntry.getKey())) {
+                    continue;
+                }
+                Set<Long> regionKeys = new HashSet<>();
+                for (Long chunkKey : worldEntry.getValue().keySet()) {
+                    regionKeys.add(chunkKey(chunkX(chunkKey) >> REGION_SHIFT, chunkZ(chunkKey) >> REGION_SHIFT));
+                }
+                for (Long regionKey : regionKeys) {
+                    regionList.add(new AbstractMap.SimpleImmutableEntry<>(worldEntry.getKey(), regionKey));
+                }
+            }
+            this.resident = residentShops.iterator();
+            // Never query the database on main thread
+            this.regions = Bukkit.isPrimaryThread() ? Collections.emptyIterator() : regionList.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (resident.hasNext()) {
+                return true;
+            }
+            while (page.isEmpty() && regions.hasNext()) {
+                Map.Entry<String, Long> region = regions.next();
+                String world = region.getKey();
+                int minX = chunkX(region.getValue()) << (REGION_SHIFT + 4);
+                int minZ = chunkZ(region.getValue()) << (REGION_SHIFT + 4);
+                // Fetch on this thread, but shops can only be created on main thread
+                Map<Long, List<ShopLoader.ShopDatabaseInfo>> fetched = fetch(world, minX, minZ, minX + (1 << (REGION_SHIFT + 4)) - 1, minZ + (1 << (REGION_SHIFT + 4)) - 1);
+                if (fetched.isEmpty()) {
+                    continue;
+                }
+                List<Shop> shops;
+                try {
+                    shops = Bukkit.getScheduler().callSyncMethod(plugin, () -> buildPage(world, fetched)).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } catch (ExecutionException e) {
+                    plugin.getLogger().log(Level.WARNING, "Failed to load shops from the database.", e);
+                    continue;
+                }
+                page.addAll(shops);
+            }
+            return !page.isEmpty();
+        }
+
+        @Override
+        public Shop next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more shops to iterate over!");
+            }
+            if (resident.hasNext()) {
+                return resident.next();
+            }
+            return page.poll();
+        }
+
+        @NotNull
+        private List<Shop> buildPage(@NotNull String world, @NotNull Map<Long, List<ShopLoader.ShopDatabaseInfo>> fetched) {
+            Map<Long, IndexedChunk> indexInWorld = index.get(world);
+            if (indexInWorld == null || plugin.getServer().getWorld(world) == null) {
+                return Collections.emptyList();
+            }
+            List<Shop> shops = new ArrayList<>();
+            for (Map.Entry<Long, List<ShopLoader.ShopDatabaseInfo>> entry : fetched.entrySet()) {
+                // Only the shops still in the index, the others are in memory and already iterated
+                IndexedChunk indexed = indexInWorld.get(entry.getKey());
+                if (indexed == null) {
+                    continue;
+                }
+                for (ShopLoader.ShopDatabaseInfo data : entry.getValue()) {
+                    if (!contains(indexed.positions, blockKey(data.getX(), data.getY(), data.getZ()))) {
+                        continue;
+                    }
+                    data.resolveLocation();
+                    if (shopLoader.shopNullCheck(data)) {
+                        continue;
+                    }
+                    Shop shop = shopLoader.buildShop(data);
+                    if (shop != null) {
+                        shops.add(shop);
+                    }
+                }
+            }
+            return shops;
+        }
+    }
+}
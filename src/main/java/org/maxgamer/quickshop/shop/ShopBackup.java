@@ -0,0 +1,211 @@
+/*
+ * This file is a part of project QuickShop, the name is ShopBackup.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.shop;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.maxgamer.quickshop.QuickShop;
+import org.maxgamer.quickshop.api.database.WarpedResultSet;
+import org.maxgamer.quickshop.util.JsonUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Shop data backup file, gzip compressed NDJSON.
+ * <p>
+ * The first line is the {@link Header}, then every line is a shop row in database.
+ * Both sides are streamed, the whole backup never has to be kept in memory.
+ * The legacy plain text backup (rows only, no header) can still be read.
+ */
+public final class ShopBackup {
+    public static final String FORMAT = "quickshop-shops";
+    public static final int SCHEMA_VERSION = 1;
+    public static final String FILE_EXTENSION = ".ndjson.gz";
+
+    private ShopBackup() {
+    }
+
+    /**
+     * Export all shops in database into the file, must not be called on main thread
+     *
+     * @param plugin The plugin
+     * @param file   The backup file
+     * @return The amount of exported shops
+     * @throws SQLException Failed to read the database
+     * @throws IOException  Failed to write the file
+     */
+    public static int export(@NotNull QuickShop plugin, @NotNull File file) throws SQLException, IOException {
+        Gson gson = JsonUtil.getGson();
+        int expected = plugin.getDatabaseHelper().countShops();
+        int written = 0;
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file), 65536), StandardCharsets.UTF_8));
+             WarpedResultSet warpRS = plugin.getDatabaseHelper().selectAllShops();
+             ResultSet rs = warpRS.getResultSet()) {
+            writer.write(gson.toJson(new Header(expected)));
+            writer.write('\n');
+            while (rs.next()) {
+                writer.write(gson.toJson(new ShopLoader.ShopRawDatabaseInfo(rs)));
+                writer.write('\n');
+                written++;
+            }
+        }
+        if (written != expected) {
+            plugin.getLogger().warning("Shops changed while exporting, the backup header says " + expected + " shop(s) but " + written + " shop(s) were written.");
+        }
+        return written;
+    }
+
+    /**
+     * Open a backup file for reading
+     *
+     * @param file The backup file, gzip compressed or not
+     * @return The reader
+     * @throws IOException Failed to open the file
+     */
+    @NotNull
+    public static BackupReader open(@NotNull File file) throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(file), 65536);
+        try {
+            input.mark(2);
+            int magic = input.read() | (input.read() << 8);
+            input.reset();
+            if (magic == GZIPInputStream.GZIP_MAGIC) {
+                input = new GZIPInputStream(input, 65536);
+            }
+            return new BackupReader(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    @Getter
+    public static class Header {
+        private String format;
+        private int schema;
+        private int rows;
+        private long created;
+
+        private Header(int rows) {
+            this.format = FORMAT;
+            this.schema = SCHEMA_VERSION;
+            this.rows = rows;
+            this.created = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Reads shop rows one by one
+     */
+    public static class BackupReader implements Closeable {
+        private final BufferedReader reader;
+        private final Gson gson = JsonUtil.getGson();
+        /* Read ahead when checking the header of legacy backup */
+        @Nullable
+        private String pendingLine;
+        /**
+         * The header, null if it is a legacy backup
+         */
+        @Getter
+        @Nullable
+        private final Header header;
+        @Getter
+        private int invalidRows;
+
+        private BackupReader(@NotNull BufferedReader reader) throws IOException {
+            this.reader = reader;
+            Header header = null;
+            String firstLine = reader.readLine();
+            if (firstLine != null && firstLine.contains("\"format\"")) {
+                try {
+                    header = gson.fromJson(firstLine, Header.class);
+                } catch (JsonSyntaxException ignored) {
+                }
+            }
+            if (header != null && FORMAT.equals(header.getFormat())) {
+                if (header.getSchema() > SCHEMA_VERSION) {
+                    throw new IOException("Unsupported backup schema version " + header.getSchema() + ", this version only supports up to " + SCHEMA_VERSION);
+                }
+                this.header = header;
+            } else {
+                this.header = null;
+                this.pendingLine = firstLine;
+            }
+        }
+
+        /**
+         * Read next valid shop row, the invalid rows are skipped and counted
+         *
+         * @return The row, null if reached the end
+         * @throws IOException Failed to read the file
+         */
+        @Nullable
+        public ShopLoader.ShopRawDatabaseInfo next() throws IOException {
+            while (true) {
+                String line;
+                if (pendingLine != null) {
+                    line = pendingLine;
+                    pendingLine = null;
+                } else {
+                    line = reader.readLine();
+                }
+                if (line == null) {
+                    return null;
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    ShopLoader.ShopRawDatabaseInfo row = gson.fromJson(line, ShopLoader.ShopRawDatabaseInfo.class);
+                    if (row != null) {
+                        return row;
+                    }
+                } catch (JsonSyntaxException ignored) {
+                }
+                invalidRows++;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * This file is a part of project QuickShop, the name is ShopInventoryCounter.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.shop;
+
+/**
+ * Caches the amount of shop items and the free space (both in single items) of a shop container.
+ * <p>
+ * The shop's own inventory operations update it with the exact amount moved,
+ * everything else touching the container invalidates it and the next read recounts.
+ * Changes made without any event (other plugins editing the container directly) are seen after {@link #MAX_AGE} at most,
+ * or once the container is opened or closed.
+ * Main thread only.
+ */
+class ShopInventoryCounter {
+    /* Recount even if nothing invalidated it, other plugins may change the container directly */
+    private static final long MAX_AGE = 5_000L;
+    private boolean valid;
+    private int stock;
+    private int space;
+    private long countedAt;
+
+    boolean isValid() {
+        return valid && System.currentTimeMillis() - countedAt < MAX_AGE;
+    }
+
+    void set(int stock, int space) {
+        this.stock = stock;
+        this.space = space;
+        this.countedAt = System.currentTimeMillis();
+        this.valid = true;
+    }
+
+    void invalidate() {
+        this.valid = false;
+    }
+
+    /**
+     * Shop items were put into the container
+     *
+     * @param amount The amount of single items
+     */
+    void added(int amount) {
+        stock += amount;
+        space -= amount;
+        if (space < 0) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Shop items were taken from the container
+     *
+     * @param amount The amount of single items
+     */
+    void removed(int amount) {
+        stock -= amount;
+        space += amount;
+        if (stock < 0) {
+            invalidate();
+        }
+    }
+
+    int getStock() {
+        return stock;
+    }
+
+    int getSpace() {
+        return space;
+    }
+}
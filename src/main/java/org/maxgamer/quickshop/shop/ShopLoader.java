@@ -20,7 +20,6 @@
 package org.maxgamer.quickshop.shop;
 
 import com.dumptruckman.bukkit.configuration.json.JsonConfiguration;
-import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import lombok.Getter;
 import lombok.Setter;
@@ -32,6 +31,8 @@ import org.bukkit.World;
 import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.maxgamer.quickshop.QuickShop;
@@ -39,19 +40,38 @@ import org.maxgamer.quickshop.api.database.WarpedResultSet;
 import org.maxgamer.quickshop.api.shop.Shop;
 import org.maxgamer.quickshop.api.shop.ShopModerator;
 import org.maxgamer.quickshop.api.shop.ShopType;
+import org.maxgamer.quickshop.database.DatabaseManager;
+import org.maxgamer.quickshop.database.DatabaseTask;
 import org.maxgamer.quickshop.util.JsonUtil;
 import org.maxgamer.quickshop.util.PlayerFinder;
 import org.maxgamer.quickshop.util.Timer;
 import org.maxgamer.quickshop.util.Util;
 import org.maxgamer.quickshop.util.logging.container.ShopStackingStatusChangeLog;
 
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,9 +83,21 @@ public class ShopLoader {
 //
 //    private final Map<Timer, Double> timeCostCache = new HashMap<>();
 
+    private static final int DECODE_BATCH_SIZE = 256;
+    private static final int RECOVER_HANDOFF_SIZE = 4096;
     private final QuickShop plugin;
     /* This may contains broken shop, must use null check before load it. */
-    private int errors;
+    private final AtomicInteger errors = new AtomicInteger();
+    /* Shops registered in memory and waiting to be loaded into the world, main thread only */
+    private final Queue<Shop> attachQueue = new ArrayDeque<>();
+    @Nullable
+    private BukkitTask attachTask;
+    /**
+     * The lazy loader, null if lazy loading is disabled
+     */
+    @Getter
+    @Nullable
+    private final LazyShopLoader lazyShopLoader;
     //private final WarningSender warningSender;
 
     /**
@@ -75,6 +107,12 @@ public class ShopLoader {
      */
     public ShopLoader(@NotNull QuickShop plugin) {
         this.plugin = plugin;
+        if (plugin.getConfig().getBoolean("shop.lazy-loading.enable", false)) {
+            this.lazyShopLoader = new LazyShopLoader(plugin, this);
+            this.lazyShopLoader.start();
+        } else {
+            this.lazyShopLoader = null;
+        }
         //this.warningSender = new WarningSender(plugin, 15000);
     }
 
@@ -84,6 +122,10 @@ public class ShopLoader {
 
     /**
      * Load all shops in the specified world
+     * <p>
+     * Rows are streamed from the database and decoded by worker threads in parallel,
+     * the shops are created and registered on the main thread, then loaded into the world
+     * a few each tick to avoid freezing the server.
      *
      * @param worldName The world name, null if load all shops
      */
@@ -92,126 +134,237 @@ public class ShopLoader {
         this.plugin.getLogger().info("Fetching shops from the database...If plugin stuck there, check your database connection.");
         int loadAfterChunkLoaded = 0;
         int loadAfterWorldLoaded = 0;
+        int indexed = 0;
         int loaded = 0;
         int total = 0;
         int valid = 0;
-        List<Shop> pendingLoading = new ArrayList<>();
+        int decodeThreads = getDecodeThreads();
+        ForkJoinPool decodePool = new ForkJoinPool(decodeThreads, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("QuickShop Shop Loader-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+        List<ForkJoinTask<List<ShopDatabaseInfo>>> decodeTasks = new ArrayList<>();
 
         try (WarpedResultSet warpRS = plugin.getDatabaseHelper().selectAllShops(); ResultSet rs = warpRS.getResultSet()) {
             Timer timer = new Timer();
             timer.start();
             boolean deleteCorruptShops = plugin.getConfig().getBoolean("debug.delete-corrupt-shops", false);
             this.plugin.getLogger().info("Loading shops from the database...");
+            if (lazyShopLoader != null) {
+                lazyShopLoader.clearIndex(worldName);
+            }
+            List<ShopRawDatabaseInfo> batch = new ArrayList<>(DECODE_BATCH_SIZE);
             while (rs.next()) {
                 ++total;
                 ShopRawDatabaseInfo origin = new ShopRawDatabaseInfo(rs);
                 if (worldName != null && !origin.getWorld().equals(worldName)) {
                     continue;
                 }
-                ShopDatabaseInfo data;
-                try {
-                    data = new ShopDatabaseInfo(origin);
-                } catch (Exception e) {
-                    exceptionHandler(e, null);
-                    continue;
-                }
-                if (shopNullCheck(data)) {
-                    if (deleteCorruptShops) {
-                        plugin.getLogger().warning("Deleting shop " + data + " caused by corrupted.");
-                        plugin.getDatabaseHelper().removeShop(origin.getWorld(), origin.getX(), origin.getY(), origin.getZ());
-                    } else {
-                        Util.debugLog("Trouble database loading debug: " + data);
-                        Util.debugLog("Somethings gone wrong, skipping the loading...");
-                    }
+                // Shops in unloaded chunks only keep their position in lazy mode
+                if (lazyShopLoader != null && lazyShopLoader.index(origin)) {
+                    ++indexed;
                     continue;
                 }
-                //World unloaded and not found
-                if (data.getWorld() == null) {
-                    ++loadAfterWorldLoaded;
-                    continue;
+                batch.add(origin);
+                if (batch.size() >= DECODE_BATCH_SIZE) {
+                    decodeTasks.add(decodePool.submit(new DecodeTask(batch)));
+                    batch = new ArrayList<>(DECODE_BATCH_SIZE);
                 }
-                Shop shop;
-                try {
-                    double price = data.getPrice();
-                    if (!plugin.isAllowStack() && data.item.getAmount() > 1) {
-                        //Shop stack changed, logging for backup
-                        plugin.logEvent(new ShopStackingStatusChangeLog(origin));
-                        //Update the actual price
-                        price = price / data.item.getAmount();
-                        //Setting item amount
-                        data.item.setAmount(1);
+            }
+            if (!batch.isEmpty()) {
+                decodeTasks.add(decodePool.submit(new DecodeTask(batch)));
+            }
+            long fetchTime = timer.getPassedTime();
+            for (ForkJoinTask<List<ShopDatabaseInfo>> decodeTask : decodeTasks) {
+                for (ShopDatabaseInfo data : decodeTask.join()) {
+                    ShopRawDatabaseInfo origin = data.getOrigin();
+                    data.resolveLocation();
+                    if (shopNullCheck(data)) {
+                        if (deleteCorruptShops) {
+                            plugin.getLogger().warning("Deleting shop " + data + " caused by corrupted.");
+                            plugin.getDatabaseHelper().removeShop(origin.getWorld(), origin.getX(), origin.getY(), origin.getZ());
+                        } else {
+                            Util.debugLog("Trouble database loading debug: " + data);
+                            Util.debugLog("Somethings gone wrong, skipping the loading...");
+                        }
+                        continue;
                     }
-                    shop =
-                            new ContainerShop(plugin,
-                                    data.getLocation(),
-                                    price,
-                                    data.getItem(),
-                                    data.getModerators(),
-                                    data.isUnlimited(),
-                                    data.getType(),
-                                    data.getExtra(),
-                                    data.getCurrency(),
-                                    data.isDisableDisplay(),
-                                    data.getTaxAccount());
-                } catch (Exception e) {
-                    exceptionHandler(e, data.location);
-                    continue;
-                }
-                if (data.needUpdate.get()) {
-                    shop.setDirty();
-                }
-                ++valid;
+                    //World unloaded and not found
+                    if (data.getWorld() == null) {
+                        ++loadAfterWorldLoaded;
+                        continue;
+                    }
+                    Shop shop = buildShop(data);
+                    if (shop == null) {
+                        continue;
+                    }
+                    ++valid;
 
-                Location shopLocation = shop.getLocation();
-                //World unloaded but found
-                if (!shopLocation.isWorldLoaded()) {
-                    ++loadAfterWorldLoaded;
-                    continue;
-                }
-                // Load to RAM
-                plugin.getShopManager().loadShop(shopLocation.getWorld().getName(), shop);
-
-                if (Util.isLoaded(shopLocation)) {
-                    // Load to World
-                    if (!Util.canBeShop(shopLocation.getBlock())) {
-                        Util.debugLog("Target block can't be a shop, removing it from the memory...");
-                        // shop.delete();
-                        valid--;
-                        plugin.getShopManager().removeShop(shop); // Remove from Mem
-                        //TODO: Only remove from memory, so if it actually is a bug, user won't lost all shops.
-                        //TODO: Old shop will be deleted when in same location creating new shop.
+                    Location shopLocation = shop.getLocation();
+                    //World unloaded but found
+                    if (!shopLocation.isWorldLoaded()) {
+                        ++loadAfterWorldLoaded;
+                        continue;
+                    }
+                    // Load to RAM
+                    plugin.getShopManager().loadShop(shopLocation.getWorld().getName(), shop);
+
+                    if (Util.isLoaded(shopLocation)) {
+                        // Load to World
+                        if (!Util.canBeShop(shopLocation.getBlock())) {
+                            Util.debugLog("Target block can't be a shop, removing it from the memory...");
+                            // shop.delete();
+                            valid--;
+                            plugin.getShopManager().removeShop(shop); // Remove from Mem
+                            //TODO: Only remove from memory, so if it actually is a bug, user won't lost all shops.
+                            //TODO: Old shop will be deleted when in same location creating new shop.
+                        } else {
+                            attachQueue.add(shop);
+                            ++loaded;
+                        }
                     } else {
-                        pendingLoading.add(shop);
-                        ++loaded;
+                        loadAfterChunkLoaded++;
                     }
-                } else {
-                    loadAfterChunkLoaded++;
                 }
             }
-            Bukkit.getScheduler().runTaskLater(plugin, () -> {
-                for (Shop shop : pendingLoading) {
-                    try {
-                        shop.onLoad();
-                    } catch (Throwable throwable) {
-                        exceptionHandler(throwable, shop.getLocation());
-                    }
-                    shop.update();
-                }
-            }, 1);
+            startAttaching();
             this.plugin.getLogger().info(">> Shop Loader Information");
             this.plugin.getLogger().info("Total           shops: " + total);
             this.plugin.getLogger().info("Valid           shops: " + valid);
             this.plugin.getLogger().info("Pending              : " + loaded);
             this.plugin.getLogger().info("Waiting worlds loaded: " + loadAfterWorldLoaded);
             this.plugin.getLogger().info("Waiting chunks loaded: " + loadAfterChunkLoaded);
+            if (lazyShopLoader != null) {
+                this.plugin.getLogger().info("Lazy loading (index): " + indexed);
+            }
+            this.plugin.getLogger().info("Decoded by " + decodeThreads + " thread(s), fetching used " + fetchTime + "ms.");
             this.plugin.getLogger().info("Done! Used " + timer.stopAndGetTimePassed() + "ms to loaded shops in database.");
         } catch (Exception e) {
             exceptionHandler(e, null);
+        } finally {
+            decodePool.shutdownNow();
+        }
+    }
+
+    /**
+     * Decode the raw shop data, the location is not resolved, this can be called from any thread.
+     *
+     * @param origin The raw data
+     * @return The decoded data
+     */
+    @NotNull
+    ShopDatabaseInfo decode(@NotNull ShopRawDatabaseInfo origin) {
+        return new ShopDatabaseInfo(origin, false);
+    }
+
+    /**
+     * Create the shop object from the decoded data, the shop is not registered into ShopManager.
+     *
+     * @param data The decoded data with resolved location
+     * @return The shop, or null if failed to create
+     */
+    @Nullable
+    ContainerShop buildShop(@NotNull ShopDatabaseInfo data) {
+        ContainerShop shop;
+        try {
+            double price = data.getPrice();
+            if (!plugin.isAllowStack() && data.item.getAmount() > 1) {
+                //Shop stack changed, logging for backup
+                plugin.logEvent(new ShopStackingStatusChangeLog(data.getOrigin()));
+                //Update the actual price
+                price = price / data.item.getAmount();
+                //Setting item amount
+                data.item.setAmount(1);
+                data.needUpdate.set(true);
+            }
+            shop =
+                    new ContainerShop(plugin,
+                            data.getLocation(),
+                            price,
+                            data.getItem(),
+                            data.getModerators(),
+                            data.isUnlimited(),
+                            data.getType(),
+                            data.getExtra(),
+                            data.getCurrency(),
+                            data.isDisableDisplay(),
+                            data.getTaxAccount(),
+                            true);
+        } catch (Exception e) {
+            exceptionHandler(e, data.location);
+            return null;
+        }
+        // Only write back the shops which data got upgraded
+        if (data.needUpdate.get()) {
+            shop.update();
+        }
+        return shop;
+    }
+
+    private int getDecodeThreads() {
+        int threads = plugin.getConfig().getInt("shop.loader.decode-threads", 0);
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors() - 1;
+        }
+        return Math.max(1, threads);
+    }
+
+    /**
+     * Start the task which loads pending shops into the world, the shops will be loaded
+     * in several ticks if it is over the time budget.
+     */
+    private void startAttaching() {
+        if (attachQueue.isEmpty() || attachTask != null) {
+            return;
+        }
+        long budget = TimeUnit.MILLISECONDS.toNanos(Math.max(1, plugin.getConfig().getLong("shop.loader.attach-time-budget", 10)));
+        Timer timer = new Timer(true);
+        attachTask = new BukkitRunnable() {
+            private int ticks;
+            private int attached;
+
+            @Override
+            public void run() {
+                ticks++;
+                long deadline = System.nanoTime() + budget;
+                Shop shop;
+                while ((shop = attachQueue.poll()) != null) {
+                    attach(shop);
+                    attached++;
+                    if (System.nanoTime() > deadline) {
+                        break;
+                    }
+                }
+                if (attachQueue.isEmpty()) {
+                    cancel();
+                    attachTask = null;
+                    plugin.getLogger().info("Loaded " + attached + " shop(s) into the world in " + ticks + " tick(s), used " + timer.stopAndGetTimePassed() + "ms.");
+                } else if (ticks % 100 == 0) {
+                    plugin.getLogger().info("Loading shops into the world... " + attached + "/" + (attached + attachQueue.size()));
+                }
+            }
+        }.runTaskTimer(plugin, 1, 1);
+    }
+
+    private void attach(@NotNull Shop shop) {
+        // Deleted or already loaded by ChunkListener while waiting
+        if (shop.isDeleted() || shop.isLoaded()) {
+            return;
+        }
+        // Chunk unloaded while waiting, ChunkListener will load it later
+        if (!Util.isLoaded(shop.getLocation())) {
+            return;
+        }
+        try {
+            shop.onLoad();
+        } catch (Throwable throwable) {
+            exceptionHandler(throwable, shop.getLocation());
         }
     }
 
     @SuppressWarnings("ConstantConditions")
-    private boolean shopNullCheck(@Nullable ShopDatabaseInfo databaseInfo) {
+    boolean shopNullCheck(@Nullable ShopDatabaseInfo databaseInfo) {
         if (databaseInfo == null) {
             Util.debugLog("Shop object is null");
             return true;
@@ -273,7 +426,7 @@ public class ShopLoader {
     }
 
     private void exceptionHandler(@NotNull Throwable ex, @Nullable Location shopLocation) {
-        errors++;
+        int errors = this.errors.incrementAndGet();
         Logger logger = plugin.getLogger();
         logger.warning("##########FAILED TO LOAD SHOP##########");
         logger.warning("  >> Error Info:");
@@ -286,8 +439,11 @@ public class ShopLoader {
         ex.printStackTrace();
         logger.warning("  >> Target Location Info");
         logger.warning("Location: " + ((shopLocation == null) ? "NULL" : shopLocation.toString()));
-        logger.warning(
-                "Block: " + ((shopLocation == null) ? "NULL" : shopLocation.getBlock().getType().name()));
+        // Block can't be accessed from the loader workers
+        if (Bukkit.isPrimaryThread()) {
+            logger.warning(
+                    "Block: " + ((shopLocation == null) ? "NULL" : shopLocation.getBlock().getType().name()));
+        }
         logger.warning("#######################################");
         if (errors > 10) {
             logger.severe(
@@ -295,60 +451,58 @@ public class ShopLoader {
         }
     }
 
-    public synchronized void recoverFromFile(@NotNull String fileContent) {
-        plugin.getLogger().info("Processing the shop data...");
-        String[] shopsPlain = fileContent.split("\n");
-        plugin.getLogger().info("Recovering shops...");
-        Gson gson = JsonUtil.getGson();
-        int total = shopsPlain.length;
-        List<ShopRawDatabaseInfo> list = new ArrayList<>(total);
-        for (String s : shopsPlain) {
-            String shopStr = s.trim();
-            try {
-                list.add(gson.fromJson(shopStr, ShopRawDatabaseInfo.class));
-            } catch (JsonSyntaxException ignore) {
-            }
-        }
-        plugin.getLogger().info("Processed " + total + "/" + total + " - [ Valid " + list.size() + "]");
-        // Load to RAM
-        Util.mainThreadRun(() -> {
-            plugin.getLogger().info("Loading recovered shops...");
-            for (ShopRawDatabaseInfo rawDatabaseInfo : list) {
-                ShopDatabaseInfo data = new ShopDatabaseInfo(rawDatabaseInfo);
-                if (shopNullCheck(data)) {
-                    continue;
-                }
-                Shop shop;
+    /**
+     * Recover the shops from the backup file, must not be called on main thread.
+     * <p>
+     * The file is streamed and decoded on the calling thread, the shops are written into database
+     * and registered on main thread in tick-budgeted chunks, the calling thread waits when main thread is behind.
+     *
+     * @param file The backup file, can be the streaming backup or legacy plain text backup
+     * @throws IOException          Failed to read the file
+     * @throws InterruptedException Interrupted while waiting main thread, or the plugin disabled before finished
+     */
+    public synchronized void recoverFromFile(@NotNull File file) throws IOException, InterruptedException {
+        Util.ensureThread(true);
+        Timer timer = new Timer(true);
+        BlockingQueue<ShopDatabaseInfo> handoff = new ArrayBlockingQueue<>(RECOVER_HANDOFF_SIZE);
+        RecoverTask recoverTask = new RecoverTask(handoff);
+        int read = 0;
+        try (ShopBackup.BackupReader reader = ShopBackup.open(file)) {
+            ShopBackup.Header header = reader.getHeader();
+            int expected = header == null ? -1 : header.getRows();
+            plugin.getLogger().info("Recovering shops from " + file.getName() + (header == null ? " (legacy format)" : " (" + expected + " shops, schema " + header.getSchema() + ")") + "...");
+            recoverTask.runTaskTimer(plugin, 1, 1);
+            ShopRawDatabaseInfo origin;
+            while ((origin = reader.next()) != null) {
+                ShopDatabaseInfo data;
                 try {
-                    shop = new ContainerShop(plugin,
-                            data.getLocation(),
-                            data.getPrice(),
-                            data.getItem(),
-                            data.getModerators(),
-                            data.isUnlimited(),
-                            data.getType(),
-                            data.getExtra(),
-                            data.getCurrency(),
-                            data.isDisableDisplay(),
-                            data.getTaxAccount());
-                } catch (Exception exception) {
-                    exceptionHandler(exception, data.location);
+                    data = decode(origin);
+                } catch (Exception e) {
+                    exceptionHandler(e, null);
                     continue;
                 }
-                plugin.getDatabaseHelper().createShop(shop, null, null);
-                plugin.getShopManager().loadShop(data.getWorld().getName(), shop);
-                shop.update();
-                if (Util.isLoaded(shop.getLocation()) && !shop.isLoaded()) {
-                    shop.onLoad();
+                // Never wait forever while holding the monitor, main thread stops taking them once the plugin disabled
+                while (!handoff.offer(data, 1, TimeUnit.SECONDS)) {
+                    recoverTask.checkAborted();
+                }
+                if (++read % 10000 == 0) {
+                    plugin.getLogger().info("Recovering shops... read " + read + (expected < 0 ? "" : "/" + expected));
                 }
             }
-            plugin.getLogger().info("Finished!");
-        });
+            if (expected >= 0 && read + reader.getInvalidRows() != expected) {
+                plugin.getLogger().warning("The backup header says " + expected + " shop(s) but " + (read + reader.getInvalidRows()) + " row(s) found, the backup may be truncated.");
+            }
+            plugin.getLogger().info("Processed " + (read + reader.getInvalidRows()) + " - [ Valid " + read + "]");
+        } finally {
+            recoverTask.finishReading();
+        }
+        recoverTask.awaitFinished();
+        plugin.getLogger().info("Finished! Recovered " + recoverTask.recovered + " shop(s), used " + timer.stopAndGetTimePassed() + "ms.");
     }
 
     @NotNull
     public List<ShopRawDatabaseInfo> getOriginShopsInDatabase() {
-        errors = 0;
+        errors.set(0);
         List<ShopRawDatabaseInfo> shopRawDatabaseInfoList = new ArrayList<>();
         try (WarpedResultSet warpRS = plugin.getDatabaseHelper().selectAllShops(); ResultSet rs = warpRS.getResultSet()) {
            // this.plugin.getLogger().info("Getting shops from the database...");
@@ -391,12 +545,17 @@ public class ShopLoader {
         private boolean disableDisplay;
 
         private String taxAccount;
+
+        /* The item id in dictionary, 0 if the item is stored in the row itself, not a part of backup */
+        private transient long itemId;
         ShopRawDatabaseInfo(ResultSet rs) throws SQLException {
             this.x = rs.getInt("x");
             this.y = rs.getInt("y");
             this.z = rs.getInt("z");
             this.world = rs.getString("world");
-            this.item = rs.getString("itemConfig");
+            this.itemId = rs.getLong("itemId");
+            String dictionaryItem = rs.getString("dictionaryItemConfig");
+            this.item = dictionaryItem != null ? dictionaryItem : rs.getString("itemConfig");
             this.moderators = rs.getString("owner");
             this.price = rs.getDouble("price");
             this.type = rs.getInt("type");
@@ -450,13 +609,27 @@ public class ShopLoader {
 
         private boolean disableDisplay;
 
+        private final ShopRawDatabaseInfo origin;
+
         ShopDatabaseInfo(ShopRawDatabaseInfo origin) {
+            this(origin, true);
+        }
+
+        /**
+         * Decode the shop data
+         *
+         * @param origin          The raw data
+         * @param resolveLocation Resolve the world and location now, or later by {@link #resolveLocation()} on main thread
+         */
+        private ShopDatabaseInfo(ShopRawDatabaseInfo origin, boolean resolveLocation) {
+            this.origin = origin;
             try {
                 this.x = origin.getX();
                 this.y = origin.getY();
                 this.z = origin.getZ();
-                this.world = plugin.getServer().getWorld(origin.getWorld());
-                this.location = new Location(world, x, y, z);
+                if (resolveLocation) {
+                    resolveLocation();
+                }
                 this.price = origin.getPrice();
                 this.unlimited = origin.isUnlimited();
                 this.moderators = deserializeModerator(origin.getModerators(), needUpdate);
@@ -470,6 +643,12 @@ public class ShopLoader {
                 exceptionHandler(ex, this.location);
             }
         }
+
+        void resolveLocation() {
+            this.world = plugin.getServer().getWorld(origin.getWorld());
+            this.location = new Location(world, x, y, z);
+        }
+
         private @Nullable ItemStack deserializeItem(@NotNull String itemConfig) throws RuntimeException {
             try {
                 return Util.deserialize(itemConfig);
@@ -501,4 +680,146 @@ public class ShopLoader {
 
     }
 
+    /**
+     * Decode a batch of raw shop data on the loader worker, anything touching the world is not allowed here.
+     */
+    private class DecodeTask implements Callable<List<ShopDatabaseInfo>> {
+        private final List<ShopRawDatabaseInfo> batch;
+
+        private DecodeTask(@NotNull List<ShopRawDatabaseInfo> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public List<ShopDatabaseInfo> call() {
+            List<ShopDatabaseInfo> decoded = new ArrayList<>(batch.size());
+            for (ShopRawDatabaseInfo origin : batch) {
+                try {
+                    decoded.add(decode(origin));
+                } catch (Exception e) {
+                    exceptionHandler(e, null);
+                }
+            }
+            return decoded;
+        }
+    }
+
+    /**
+     * Writes the recovered shops into database and registers them, runs on main thread every tick within the time budget.
+     */
+    private class RecoverTask extends BukkitRunnable {
+        private final BlockingQueue<ShopDatabaseInfo> handoff;
+        private final long budget = TimeUnit.MILLISECONDS.toNanos(Math.max(1, plugin.getConfig().getLong("shop.loader.attach-time-budget", 10)));
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile boolean readingFinished;
+        private volatile int recovered;
+
+        private RecoverTask(@NotNull BlockingQueue<ShopDatabaseInfo> handoff) {
+            this.handoff = handoff;
+        }
+
+        private void finishReading() {
+            readingFinished = true;
+        }
+
+        private void awaitFinished() throws InterruptedException {
+            while (!finished.await(1, TimeUnit.SECONDS)) {
+                checkAborted();
+            }
+        }
+
+        /**
+         * @throws InterruptedException If the task will never finish, because the plugin disabled or the task cancelled
+         */
+        private void checkAborted() throws InterruptedException {
+            if (!plugin.isEnabled() || (isCancelled() && finished.getCount() > 0)) {
+                throw new InterruptedException("Recovering aborted, the plugin is disabled");
+            }
+        }
+
+        @Override
+        public void run() {
+            // Checked before draining, so nothing put before it can be missed
+            boolean lastRun = readingFinished;
+            long deadline = System.nanoTime() + budget;
+            String prefix = plugin.getDatabaseManager().getDatabase().getTablePrefix();
+            String deleteSql = "DELETE FROM " + prefix + "shops WHERE x = ? AND y = ? AND z = ? AND world = ?";
+            String insertSql = "INSERT INTO " + prefix + "shops (owner, price, itemConfig, x, y, z, world, unlimited, type, extra, currency, disableDisplay, taxAccount, itemId)" +
+                    " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+            // Keyed by position, the last one wins if the backup has duplicates, or the INSERT batch would violate the primary key
+            Map<String, ShopRawDatabaseInfo> rows = new LinkedHashMap<>();
+            ShopDatabaseInfo data;
+            while (System.nanoTime() < deadline && (data = handoff.poll()) != null) {
+                data.resolveLocation();
+                if (shopNullCheck(data)) {
+                    continue;
+                }
+                ShopRawDatabaseInfo origin = data.getOrigin();
+                if (rows.put(origin.getWorld() + ";" + origin.getX() + ";" + origin.getY() + ";" + origin.getZ(), origin) == null) {
+                    recovered++;
+                }
+                // World not loaded, the shop will be loaded with the world
+                if (data.getWorld() == null) {
+                    continue;
+                }
+                Shop old = plugin.getShopManager().getShop(data.getLocation());
+                if (old != null) {
+                    if (old.isLoaded()) {
+                        old.onUnload();
+                    }
+                    plugin.getShopManager().removeShop(old);
+                }
+                Shop shop = buildShop(data);
+                if (shop == null) {
+                    continue;
+                }
+                plugin.getShopManager().loadShop(data.getWorld().getName(), shop);
+                if (Util.isLoaded(shop.getLocation())) {
+                    attachQueue.add(shop);
+                }
+            }
+            // Grouped by statement, so the database writer executes them as two batches.
+            // Replace the existing shop at the same position, the raw data is written as is
+            DatabaseManager databaseManager = plugin.getDatabaseManager();
+            for (ShopRawDatabaseInfo origin : rows.values()) {
+                databaseManager.addDelayTask(new DatabaseTask(deleteSql, ps -> {
+                    ps.setInt(1, origin.getX());
+                    ps.setInt(2, origin.getY());
+                    ps.setInt(3, origin.getZ());
+                    ps.setString(4, origin.getWorld());
+                }));
+            }
+            for (ShopRawDatabaseInfo origin : rows.values()) {
+                databaseManager.addDelayTask(new DatabaseTask(insertSql, ps -> {
+                    ps.setString(1, origin.getModerators());
+                    ps.setDouble(2, origin.getPrice());
+                    ps.setString(3, origin.getItem());
+                    ps.setInt(4, origin.getX());
+                    ps.setInt(5, origin.getY());
+                    ps.setInt(6, origin.getZ());
+                    ps.setString(7, origin.getWorld());
+                    ps.setInt(8, origin.isUnlimited() ? 1 : 0);
+                    ps.setInt(9, origin.getType());
+                    ps.setString(10, origin.getExtra());
+                    ps.setString(11, origin.getCurrency());
+                    ps.setInt(12, origin.isDisableDisplay() ? 1 : 0);
+                    ps.setString(13, origin.getTaxAccount());
+                    // Bound on writer thread, no connection if it is kept in journal, then it will be linked at next startup
+                    Connection connection = ps.getConnection();
+                    if (connection == null) {
+                        ps.setNull(14, Types.BIGINT);
+                    } else {
+                        ps.setLong(14, databaseManager.getItemDictionary().resolve(connection, origin.getItem()));
+                    }
+                }));
+            }
+            startAttaching();
+            if (lastRun && handoff.isEmpty()) {
+                // Count down first, so the reading thread won't take the cancellation as aborted
+                finished.countDown();
+                cancel();
+            }
+        }
+    }
+
 }
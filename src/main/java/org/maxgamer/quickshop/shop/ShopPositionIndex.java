@@ -0,0 +1,281 @@
+/*
+ * This file is a part of project QuickShop, the name is ShopPositionIndex.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.shop;
+
+import org.bukkit.Location;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.maxgamer.quickshop.api.shop.Shop;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Block position to shop index, lookups don't allocate anything and never touch the chunks.
+ * <p>
+ * World names are interned to int ids, chunks are keyed by packed long, and the block
+ * inside the chunk by packed int, all backed by open-addressing primitive maps.
+ * Writes should happen on main thread, reads are allowed from any thread.
+ */
+public class ShopPositionIndex {
+    private final Map<String, Integer> worldIds = new ConcurrentHashMap<>();
+    private final StampedLock lock = new StampedLock();
+    /* World id -> Chunk key -> Block in chunk -> Shop */
+    private volatile LongObjectMap[] worlds = new LongObjectMap[0];
+
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    public static int blockInChunkKey(int x, int y, int z) {
+        return (y << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    /**
+     * Gets the shop at the position
+     *
+     * @param world The world name
+     * @param x     Block X
+     * @param y     Block Y
+     * @param z     Block Z
+     * @return The shop, null if not exists
+     */
+    @Nullable
+    public Shop get(@NotNull String world, int x, int y, int z) {
+        long stamp = lock.tryOptimisticRead();
+        Shop shop = null;
+        try {
+            shop = get0(world, x, y, z);
+        } catch (RuntimeException ignored) {
+            // Inconsistent read, will retry below
+        }
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                shop = get0(world, x, y, z);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return shop;
+    }
+
+    @Nullable
+    private Shop get0(@NotNull String world, int x, int y, int z) {
+        Integer worldId = worldIds.get(world);
+        if (worldId == null) {
+            return null;
+        }
+        LongObjectMap[] worlds = this.worlds;
+        if (worldId >= worlds.length || worlds[worldId] == null) {
+            return null;
+        }
+        LongObjectMap inChunk = (LongObjectMap) worlds[worldId].get(chunkKey(x >> 4, z >> 4));
+        if (inChunk == null) {
+            return null;
+        }
+        return (Shop) inChunk.get(blockInChunkKey(x, y, z));
+    }
+
+    /**
+     * Put the shop into the index
+     *
+     * @param world The world name
+     * @param shop  The shop
+     */
+    public void put(@NotNull String world, @NotNull Shop shop) {
+        Location location = shop.getLocation();
+        int x = location.getBlockX();
+        int y = location.getBlockY();
+        int z = location.getBlockZ();
+        long stamp = lock.writeLock();
+        try {
+            int worldId = worldIds.computeIfAbsent(world, k -> worldIds.size());
+            LongObjectMap[] worlds = this.worlds;
+            if (worldId >= worlds.length) {
+                worlds = Arrays.copyOf(worlds, worldId + 1);
+                this.worlds = worlds;
+            }
+            if (worlds[worldId] == null) {
+                worlds[worldId] = new LongObjectMap();
+            }
+            long chunkKey = chunkKey(x >> 4, z >> 4);
+            LongObjectMap inChunk = (LongObjectMap) worlds[worldId].get(chunkKey);
+            if (inChunk == null) {
+                inChunk = new LongObjectMap();
+                worlds[worldId].put(chunkKey, inChunk);
+            }
+            inChunk.put(blockInChunkKey(x, y, z), shop);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove the shop at the position from the index
+     *
+     * @param world The world name
+     * @param x     Block X
+     * @param y     Block Y
+     * @param z     Block Z
+     */
+    public void remove(@NotNull String world, int x, int y, int z) {
+        long stamp = lock.writeLock();
+        try {
+            Integer worldId = worldIds.get(world);
+            if (worldId == null) {
+                return;
+            }
+            LongObjectMap[] worlds = this.worlds;
+            if (worldId >= worlds.length || worlds[worldId] == null) {
+                return;
+            }
+            long chunkKey = chunkKey(x >> 4, z >> 4);
+            LongObjectMap inChunk = (LongObjectMap) worlds[worldId].get(chunkKey);
+            if (inChunk == null) {
+                return;
+            }
+            inChunk.remove(blockInChunkKey(x, y, z));
+            if (inChunk.size() == 0) {
+                worlds[worldId].remove(chunkKey);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            this.worlds = new LongObjectMap[0];
+            worldIds.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * A minimal open-addressing map with primitive long keys, linear probing and backward shift deletion.
+     */
+    static class LongObjectMap {
+        private long[] keys = new long[8];
+        private Object[] values = new Object[8];
+        private int size;
+
+        static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        int size() {
+            return size;
+        }
+
+        @Nullable
+        Object get(long key) {
+            long[] keys = this.keys;
+            Object[] values = this.values;
+            int mask = Math.min(keys.length, values.length) - 1;
+            int i = mix(key) & mask;
+            // Load factor is at most 0.5, there's always an empty slot
+            for (int probe = 0; probe <= mask; probe++) {
+                Object value = values[i];
+                if (value == null) {
+                    return null;
+                }
+                if (keys[i] == key) {
+                    return value;
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        void put(long key, @NotNull Object value) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (values[i] != null) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            if (++size * 2 > keys.length) {
+                resize(keys.length << 1);
+            }
+        }
+
+        void remove(long key) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (values[i] != null) {
+                if (keys[i] == key) {
+                    values[i] = null;
+                    size--;
+                    shiftBack(i);
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        private void shiftBack(int hole) {
+            int mask = keys.length - 1;
+            int i = (hole + 1) & mask;
+            while (values[i] != null) {
+                int home = mix(keys[i]) & mask;
+                // Move the entry into the hole if the hole is between its home slot and current slot
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    values[hole] = values[i];
+                    values[i] = null;
+                    hole = i;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            long[] newKeys = new long[capacity];
+            Object[] newValues = new Object[capacity];
+            int mask = capacity - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] == null) {
+                    continue;
+                }
+                int i = mix(oldKeys[j]) & mask;
+                while (newValues[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                newKeys[i] = oldKeys[j];
+                newValues[i] = oldValues[j];
+            }
+            this.values = newValues;
+            this.keys = newKeys;
+        }
+    }
+}
@@ -27,6 +27,7 @@ import org.maxgamer.quickshop.api.shop.Shop;
 import org.maxgamer.quickshop.util.PlayerFinder;
 import org.maxgamer.quickshop.util.Util;
 
+import java.io.File;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -59,9 +60,13 @@ public class ShopPurger {
         executing = true;
         try {
             if (plugin.getConfig().getBoolean("purge.backup")) {
-                String backupFileName = "shop-purge-backup-" + UUID.randomUUID() + ".txt";
-                Util.makeExportBackup(backupFileName);
-                plugin.getLogger().info("[Shop Purger] We have backup shop data as " + backupFileName + ", if you ran into any trouble, please rename it to recovery.txt then use /qs recovery in console to rollback!");
+                String backupFileName = "shop-purge-backup-" + UUID.randomUUID() + ShopBackup.FILE_EXTENSION;
+                // Already async, export before removing anything
+                if (!Util.makeExportBackupNow(new File(plugin.getDataFolder(), backupFileName))) {
+                    plugin.getLogger().warning("[Shop Purger] Failed to backup shop data, purge cancelled!");
+                    return;
+                }
+                plugin.getLogger().info("[Shop Purger] We have backup shop data as " + backupFileName + ", if you ran into any trouble, please rename it to recovery" + ShopBackup.FILE_EXTENSION + " then use /qs recovery in console to rollback!");
             }
             plugin.getLogger().info("[Shop Purger] Scanning and removing shops....");
             List<Shop> pendingRemovalShops = new ArrayList<>();
@@ -69,7 +74,9 @@ public class ShopPurger {
             boolean deleteBanned = plugin.getConfig().getBoolean("purge.banned");
             boolean skipOp = plugin.getConfig().getBoolean("purge.skip-op");
             boolean returnCreationFee = plugin.getConfig().getBoolean("purge.return-create-fee");
-            for (Shop shop : plugin.getShopManager().getAllShops()) {
+            Iterator<Shop> shops = plugin.getShopManager().getShopIterator();
+            while (shops.hasNext()) {
+                Shop shop = shops.next();
                 OfflinePlayer player = PlayerFinder.findOfflinePlayerByUUID(shop.getOwner());
                 if (!player.hasPlayedBefore()) {
                     Util.debugLog("Shop " + shop + " detection skipped: Owner never played before.");
@@ -0,0 +1,161 @@
+/*
+ * This file is a part of project QuickShop, the name is ShopRegistryIndex.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.shop;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.maxgamer.quickshop.api.shop.Shop;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary indexes of the shops in ShopManager: by owner, by staff, by runtime unique id and by world.
+ * <p>
+ * Shops are keyed by runtime unique id inside the indexes, since shop equality changes with its content.
+ * Writes are synchronized so every index changes together, reads are lock-free.
+ */
+public class ShopRegistryIndex {
+    private final Map<UUID, Shop> byRuntimeId = new ConcurrentHashMap<>();
+    private final Map<UUID, Map<UUID, Shop>> byOwner = new ConcurrentHashMap<>();
+    private final Map<UUID, Map<UUID, Shop>> byStaff = new ConcurrentHashMap<>();
+    private final Map<String, Map<UUID, Shop>> byWorld = new ConcurrentHashMap<>();
+    /* Runtime id -> The keys the shop indexed with, used to remove the old keys */
+    private final Map<UUID, IndexedKeys> indexedKeys = new ConcurrentHashMap<>();
+
+    public synchronized void add(@NotNull String world, @NotNull Shop shop) {
+        remove(shop);
+        IndexedKeys keys = new IndexedKeys(world, shop.getOwner(), new ArrayList<>(shop.getModerator().getStaffs()));
+        UUID runtimeId = shop.getRuntimeRandomUniqueId();
+        indexedKeys.put(runtimeId, keys);
+        byRuntimeId.put(runtimeId, shop);
+        put(byWorld, world, runtimeId, shop);
+        put(byOwner, keys.owner, runtimeId, shop);
+        for (UUID staff : keys.staffs) {
+            put(byStaff, staff, runtimeId, shop);
+        }
+    }
+
+    public synchronized void remove(@NotNull Shop shop) {
+        UUID runtimeId = shop.getRuntimeRandomUniqueId();
+        IndexedKeys keys = indexedKeys.remove(runtimeId);
+        if (keys == null) {
+            return;
+        }
+        byRuntimeId.remove(runtimeId);
+        remove(byWorld, keys.world, runtimeId);
+        remove(byOwner, keys.owner, runtimeId);
+        for (UUID staff : keys.staffs) {
+            remove(byStaff, staff, runtimeId);
+        }
+    }
+
+    /**
+     * Re-index the owner and staffs of the shop after its moderator changed
+     *
+     * @param shop The shop
+     */
+    public synchronized void updateModerator(@NotNull Shop shop) {
+        UUID runtimeId = shop.getRuntimeRandomUniqueId();
+        IndexedKeys keys = indexedKeys.get(runtimeId);
+        if (keys == null) {
+            // Not registered
+            return;
+        }
+        UUID owner = shop.getOwner();
+        if (!Objects.equals(keys.owner, owner)) {
+            remove(byOwner, keys.owner, runtimeId);
+            put(byOwner, owner, runtimeId, shop);
+        }
+        List<UUID> staffs = new ArrayList<>(shop.getModerator().getStaffs());
+        if (!keys.staffs.equals(staffs)) {
+            for (UUID staff : keys.staffs) {
+                remove(byStaff, staff, runtimeId);
+            }
+            for (UUID staff : staffs) {
+                put(byStaff, staff, runtimeId, shop);
+            }
+        }
+        indexedKeys.put(runtimeId, new IndexedKeys(keys.world, owner, staffs));
+    }
+
+    public synchronized void clear() {
+        indexedKeys.clear();
+        byRuntimeId.clear();
+        byWorld.clear();
+        byOwner.clear();
+        byStaff.clear();
+    }
+
+    @Nullable
+    public Shop getByRuntimeId(@NotNull UUID runtimeId) {
+        return byRuntimeId.get(runtimeId);
+    }
+
+    @NotNull
+    public Collection<Shop> getByOwner(@NotNull UUID owner) {
+        return values(byOwner, owner);
+    }
+
+    @NotNull
+    public Collection<Shop> getByStaff(@NotNull UUID staff) {
+        return values(byStaff, staff);
+    }
+
+    @NotNull
+    public Collection<Shop> getByWorld(@NotNull String world) {
+        return values(byWorld, world);
+    }
+
+    @NotNull
+    private static <K> Collection<Shop> values(@NotNull Map<K, Map<UUID, Shop>> index, @NotNull K key) {
+        Map<UUID, Shop> shops = index.get(key);
+        return shops == null ? Collections.emptyList() : Collections.unmodifiableCollection(shops.values());
+    }
+
+    private static <K> void put(@NotNull Map<K, Map<UUID, Shop>> index, @NotNull K key, @NotNull UUID runtimeId, @NotNull Shop shop) {
+        index.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(runtimeId, shop);
+    }
+
+    private static <K> void remove(@NotNull Map<K, Map<UUID, Shop>> index, @NotNull K key, @NotNull UUID runtimeId) {
+        index.computeIfPresent(key, (k, shops) -> {
+            shops.remove(runtimeId);
+            return shops.isEmpty() ? null : shops;
+        });
+    }
+
+    private static class IndexedKeys {
+        private final String world;
+        private final UUID owner;
+        private final List<UUID> staffs;
+
+        private IndexedKeys(@NotNull String world, @NotNull UUID owner, @NotNull List<UUID> staffs) {
+            this.world = world;
+            this.owner = owner;
+            this.staffs = staffs;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * This file is a part of project QuickShop, the name is ShopSearchIndex.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.shop;
+
+import lombok.Getter;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.EnchantmentStorageMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.jetbrains.annotations.NotNull;
+import org.maxgamer.quickshop.api.shop.Shop;
+import org.maxgamer.quickshop.util.MsgUtil;
+import org.maxgamer.quickshop.util.Util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Search index for finding shops by item, contains a per-world grid of shop positions
+ * and an inverted index of the normalized item names.
+ * <p>
+ * Updates happen on main thread, searching can be done on any thread.
+ */
+public class ShopSearchIndex {
+    private static final int CELL_SHIFT = 5;
+    /* Below this amount, distances of matched shops are calculated directly instead of walking the grid */
+    private static final int DIRECT_SCAN_THRESHOLD = 256;
+    private final Map<UUID, SearchEntry> entries = new ConcurrentHashMap<>();
+    /* World -> Cell -> Runtime id -> Entry */
+    private final Map<String, Map<Long, Map<UUID, SearchEntry>>> grid = new ConcurrentHashMap<>();
+    /* Token -> Runtime ids */
+    private final Map<String, Set<UUID>> tokens = new ConcurrentHashMap<>();
+
+    private static long cellKey(int cellX, int cellZ) {
+        return ShopPositionIndex.chunkKey(cellX, cellZ);
+    }
+
+    @NotNull
+    private static Set<String> tokenize(@NotNull ItemStack item) {
+        Set<String> result = new HashSet<>();
+        result.add(item.getType().name().toLowerCase(Locale.ROOT));
+        result.add(Util.getItemStackName(item).toLowerCase(Locale.ROOT));
+        if (item.getType() == Material.ENCHANTED_BOOK) {
+            ItemMeta itemMeta = item.getItemMeta();
+            if (itemMeta instanceof EnchantmentStorageMeta) {
+                for (Enchantment enchantment : ((EnchantmentStorageMeta) itemMeta).getStoredEnchants().keySet()) {
+                    result.add(enchantment.getKey().getKey().toLowerCase(Locale.ROOT));
+                    result.add(MsgUtil.getEnchi18n(enchantment).toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return result;
+    }
+
+    public void add(@NotNull String world, @NotNull Shop shop) {
+        remove(shop);
+        Location location = shop.getLocation();
+        SearchEntry entry = new SearchEntry(shop, world, location.getBlockX(), location.getBlockY(), location.getBlockZ(), tokenize(shop.getItem()));
+        entries.put(entry.runtimeId, entry);
+        grid.computeIfAbsent(world, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(cellKey(entry.x >> CELL_SHIFT, entry.z >> CELL_SHIFT), k -> new ConcurrentHashMap<>())
+                .put(entry.runtimeId, entry);
+        for (String token : entry.tokens) {
+            tokens.computeIfAbsent(token, k -> ConcurrentHashMap.newKeySet()).add(entry.runtimeId);
+        }
+    }
+
+    public void remove(@NotNull Shop shop) {
+        SearchEntry entry = entries.remove(shop.getRuntimeRandomUniqueId());
+        if (entry == null) {
+            return;
+        }
+        Map<Long, Map<UUID, SearchEntry>> inWorld = grid.get(entry.world);
+        if (inWorld != null) {
+            inWorld.computeIfPresent(cellKey(entry.x >> CELL_SHIFT, entry.z >> CELL_SHIFT), (k, inCell) -> {
+                inCell.remove(entry.runtimeId);
+                return inCell.isEmpty() ? null : inCell;
+            });
+        }
+        for (String token : entry.tokens) {
+            tokens.computeIfPresent(token, (k, ids) -> {
+                ids.remove(entry.runtimeId);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    /**
+     * Re-index the item tokens of the shop
+     *
+     * @param shop The shop
+     */
+    public void updateItem(@NotNull Shop shop) {
+        SearchEntry entry = entries.get(shop.getRuntimeRandomUniqueId());
+        if (entry != null) {
+            add(entry.world, shop);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        grid.clear();
+        tokens.clear();
+    }
+
+    /**
+     * Find the nearest shops trading the item matching the keyword
+     *
+     * @param world       The world name
+     * @param x           The X of search center
+     * @param y           The Y of search center
+     * @param z           The Z of search center
+     * @param keyword     The keyword, matched with material, item name and enchantments
+     * @param maxDistance Max distance to the search center
+     * @param limit       How many results at most
+     * @param loadedOnly  Only search the loaded shops
+     * @return The results sorted by distance, nearest first
+     */
+    @NotNull
+    public List<Result> search(@NotNull String world, double x, double y, double z, @NotNull String keyword, double maxDistance, int limit, boolean loadedOnly) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        String normalized = keyword.toLowerCase(Locale.ROOT);
+        Set<UUID> matched = new HashSet<>();
+        for (Map.Entry<String, Set<UUID>> token : tokens.entrySet()) {
+            if (token.getKey().contains(normalized)) {
+                matched.addAll(token.getValue());
+            }
+        }
+        if (matched.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // Max-heap, the farthest result on top so it can be replaced
+        PriorityQueue<Result> nearest = new PriorityQueue<>(limit + 1, Comparator.comparingDouble(Result::getDistance).reversed());
+        double maxDistanceSquared = maxDistance * maxDistance;
+        if (matched.size() <= DIRECT_SCAN_THRESHOLD) {
+            for (UUID runtimeId : matched) {
+                SearchEntry entry = entries.get(runtimeId);
+                if (entry != null && entry.world.equals(world)) {
+                    offer(nearest, entry, x, y, z, maxDistanceSquared, limit, loadedOnly);
+                }
+            }
+        } else {
+            Map<Long, Map<UUID, SearchEntry>> inWorld = grid.get(world);
+            if (inWorld == null) {
+                return Collections.emptyList();
+            }
+            int centerX = (int) Math.floor(x) >> CELL_SHIFT;
+            int centerZ = (int) Math.floor(z) >> CELL_SHIFT;
+            int maxRing = (int) Math.ceil(maxDistance / (1 << CELL_SHIFT)) + 1;
+            for (int ring = 0; ring <= maxRing; ring++) {
+                // Every cell in this ring is at least (ring - 1) cells away
+                if (nearest.size() >= limit) {
+                    double ringDistance = (double) (ring - 1) * (1 << CELL_SHIFT);
+                    if (ringDistance > 0 && ringDistance * ringDistance > nearest.peek().distance * nearest.peek().distance) {
+                        break;
+                    }
+                }
+                for (int cellX = centerX - ring; cellX <= centerX + ring; cellX++) {
+                    for (int cellZ = centerZ - ring; cellZ <= centerZ + ring; cellZ++) {
+                        // Only the border of the ring
+                        if (Math.abs(cellX - centerX) != ring && Math.abs(cellZ - centerZ) != ring) {
+                            continue;
+                        }
+                        Map<UUID, SearchEntry> inCell = inWorld.get(cellKey(cellX, cellZ));
+                        if (inCell == null) {
+                            continue;
+                        }
+                        for (SearchEntry entry : inCell.values()) {
+                            if (matched.contains(entry.runtimeId)) {
+                                offer(nearest, entry, x, y, z, maxDistanceSquared, limit, loadedOnly);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        List<Result> results = new ArrayList<>(nearest);
+        results.sort(Comparator.comparingDouble(Result::getDistance));
+        return results;
+    }
+
+    private void offer(@NotNull PriorityQueue<Result> nearest, @NotNull SearchEntry entry, double x, double y, double z, double maxDistanceSquared, int limit, boolean loadedOnly) {
+        if (loadedOnly && !entry.shop.isLoaded()) {
+            return;
+        }
+        double dx = entry.x - x;
+        double dy = entry.y - y;
+        double dz = entry.z - z;
+        double distanceSquared = dx * dx + dy * dy + dz * dz;
+        if (distanceSquared > maxDistanceSquared) {
+            return;
+        }
+        if (nearest.size() < limit) {
+            nearest.add(new Result(entry.shop, Math.sqrt(distanceSquared)));
+        } else if (distanceSquared < nearest.peek().distance * nearest.peek().distance) {
+            nearest.poll();
+            nearest.add(new Result(entry.shop, Math.sqrt(distanceSquared)));
+        }
+    }
+
+    @Getter
+    public static class Result {
+        private final Shop shop;
+        private final double distance;
+
+        private Result(@NotNull Shop shop, double distance) {
+            this.shop = shop;
+            this.distance = distance;
+        }
+    }
+
+    private static class SearchEntry {
+        private final Shop shop;
+        private final UUID runtimeId;
+        private final String world;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final Set<String> tokens;
+
+        private SearchEntry(@NotNull Shop shop, @NotNull String world, int x, int y, int z, @NotNull Set<String> tokens) {
+            this.shop = shop;
+            this.runtimeId = shop.getRuntimeRandomUniqueId();
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.tokens = tokens;
+        }
+    }
+}
@@ -104,6 +104,16 @@ public class SimpleShopManager implements ShopManager, Reloadable {
 
     private final Map<String, Map<ShopChunk, Map<Location, Shop>>> shops = Maps.newConcurrentMap();
 
+    /* Fast lookup by block position, the map above is kept as the view for API */
+    private final ShopPositionIndex positionIndex = new ShopPositionIndex();
+
+    /* Lookup by owner, staff, runtime id and world */
+    private final ShopRegistryIndex registryIndex = new ShopRegistryIndex();
+
+    /* Search by item and distance, used by /qs find */
+    @Getter
+    private final ShopSearchIndex searchIndex = new ShopSearchIndex();
+
     private final Set<Shop> loadedShops = Sets.newConcurrentHashSet();
 
     private final Map<UUID, Info> actions = Maps.newConcurrentMap();
@@ -183,16 +193,7 @@ public class SimpleShopManager implements ShopManager, Reloadable {
     public boolean canBuildShop(@NotNull Player p, @NotNull Block b, @NotNull BlockFace bf) {
         Util.ensureThread(false);
         if (plugin.isLimit()) {
-            int owned = 0;
-            if (useOldCanBuildAlgorithm) {
-                owned = getPlayerAllShops(p.getUniqueId()).size();
-            } else {
-                for (final Shop shop : getPlayerAllShops(p.getUniqueId())) {
-                    if (!shop.isUnlimited()) {
-                        owned++;
-                    }
-                }
-            }
+            int owned = getPlayerShopAmount(p.getUniqueId(), useOldCanBuildAlgorithm);
             int max = plugin.getShopLimit(p);
             if (owned + 1 > max) {
                 plugin.text().of(p, "reached-maximum-can-create", String.valueOf(owned), String.valueOf(max)).send();
@@ -221,9 +222,19 @@ public class SimpleShopManager implements ShopManager, Reloadable {
      */
     @Override
     public @NotNull Iterator<Shop> getShopIterator() {
+        LazyShopLoader lazyShopLoader = getLazyShopLoader();
+        if (lazyShopLoader != null) {
+            return lazyShopLoader.cursor(null);
+        }
         return new ShopIterator();
     }
 
+    @Nullable
+    private LazyShopLoader getLazyShopLoader() {
+        ShopLoader shopLoader = plugin.getShopLoader();
+        return shopLoader == null ? null : shopLoader.getLazyShopLoader();
+    }
+
     /**
      * Removes all shops from memory and the world. Does not delete them from the database. Call
      * this on plugin disable ONLY.
@@ -248,6 +259,9 @@ public class SimpleShopManager implements ShopManager, Reloadable {
         }
         this.actions.clear();
         this.shops.clear();
+        this.positionIndex.clear();
+        this.registryIndex.clear();
+        this.searchIndex.clear();
     }
 
     /**
@@ -264,6 +278,11 @@ public class SimpleShopManager implements ShopManager, Reloadable {
 
     @Override
     public @Nullable Map<Location, Shop> getShops(@NotNull String world, int chunkX, int chunkZ) {
+        LazyShopLoader lazyShopLoader = getLazyShopLoader();
+        if (lazyShopLoader != null && Bukkit.isPrimaryThread()) {
+            // Shops in this chunk may still only exist in the database, they will be loaded when fetched
+            lazyShopLoader.prefetch(world, chunkX, chunkZ);
+        }
         final Map<ShopChunk, Map<Location, Shop>> inWorld = this.getShops(world);
         if (inWorld == null) {
             return null;
@@ -410,18 +429,47 @@ public class SimpleShopManager implements ShopManager, Reloadable {
         if (!skipShopableChecking && !Util.isShoppables(loc.getBlock().getType())) {
             return null;
         }
-        final Map<Location, Shop> inChunk = getShops(loc.getChunk());
-        if (inChunk == null) {
+        final World world = loc.getWorld();
+        if (world == null) {
             return null;
         }
-        loc = loc.clone();
-        // Fix double chest XYZ issue
-        loc.setX(loc.getBlockX());
-        loc.setY(loc.getBlockY());
-        loc.setZ(loc.getBlockZ());
-        // We can do this because WorldListener updates the world reference so
-        // the world in loc is the same as world in inChunk.get(loc)
-        return inChunk.get(loc);
+        // Block coordinates, also fix double chest XYZ issue
+        return getShop(world.getName(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+    }
+
+    /**
+     * Gets a shop in a specific block position, this never loads the chunk
+     * ATTENTION: This not include attached shops (double-chest)
+     *
+     * @param world The world to get the shop from
+     * @param x     Block X
+     * @param y     Block Y
+     * @param z     Block Z
+     * @return The shop at that position
+     */
+    @Override
+    public @Nullable Shop getShop(@NotNull World world, int x, int y, int z) {
+        return getShop(world.getName(), x, y, z);
+    }
+
+    /**
+     * Gets a shop in a specific block position, this never loads the chunk
+     * ATTENTION: This not include attached shops (double-chest)
+     *
+     * @param world The name of world to get the shop from
+     * @param x     Block X
+     * @param y     Block Y
+     * @param z     Block Z
+     * @return The shop at that position
+     */
+    @Override
+    public @Nullable Shop getShop(@NotNull String world, int x, int y, int z) {
+        LazyShopLoader lazyShopLoader = getLazyShopLoader();
+        if (lazyShopLoader != null && Bukkit.isPrimaryThread()) {
+            // Shops in this chunk may still only exist in the database, they will be loaded when fetched
+            lazyShopLoader.prefetch(world, x >> 4, z >> 4);
+        }
+        return positionIndex.get(world, x, y, z);
     }
 
     /**
@@ -473,10 +521,9 @@ public class SimpleShopManager implements ShopManager, Reloadable {
             @NotNull UUID runtimeRandomUniqueId, boolean includeInvalid) {
         Shop shop = shopRuntimeUUIDCaching.getIfPresent(runtimeRandomUniqueId);
         if (shop == null) {
-            for (Shop shopWithoutCache : this.getLoadedShops()) {
-                if (shopWithoutCache.getRuntimeRandomUniqueId().equals(runtimeRandomUniqueId)) {
-                    return shopWithoutCache;
-                }
+            Shop shopWithoutCache = registryIndex.getByRuntimeId(runtimeRandomUniqueId);
+            if (shopWithoutCache != null && shopWithoutCache.isLoaded()) {
+                return shopWithoutCache;
             }
             return null;
         }
@@ -598,12 +645,21 @@ public class SimpleShopManager implements ShopManager, Reloadable {
         // Put it in the world
         // Put the shop in its location in the chunk list.
         Shop duplicatedShop = inChunk.put(shop.getLocation(), shop);
+        positionIndex.put(world, shop);
         if (duplicatedShop != null) {
+            registryIndex.remove(duplicatedShop);
+            searchIndex.remove(duplicatedShop);
             if (duplicatedShop.isLoaded()) {
                 duplicatedShop.onUnload();
             }
             plugin.getLogger().warning("Found duplicated shop in " + shop.getLocation() + ", it shouldn't happened!");
         }
+        registryIndex.add(world, shop);
+        searchIndex.add(world, shop);
+        LazyShopLoader lazyShopLoader = getLazyShopLoader();
+        if (lazyShopLoader != null) {
+            lazyShopLoader.markResident(world, x, z);
+        }
         // shop.onLoad();
 
     }
@@ -626,7 +682,30 @@ public class SimpleShopManager implements ShopManager, Reloadable {
         if (inChunk == null) {
             return;
         }
-        inChunk.remove(loc);
+        Shop removed = inChunk.remove(loc);
+        if (removed != null) {
+            positionIndex.remove(world, loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+            registryIndex.remove(removed);
+            searchIndex.remove(removed);
+        }
+    }
+
+    /**
+     * Re-index the shop after its owner or staffs changed
+     *
+     * @param shop The shop
+     */
+    public void updateShopModerator(@NotNull Shop shop) {
+        registryIndex.updateModerator(shop);
+    }
+
+    /**
+     * Re-index the shop after its item changed
+     *
+     * @param shop The shop
+     */
+    public void updateShopItem(@NotNull Shop shop) {
+        searchIndex.updateItem(shop);
     }
 
     /**
@@ -650,26 +729,53 @@ public class SimpleShopManager implements ShopManager, Reloadable {
     /**
      * Get a players all shops.
      *
-     * <p>Make sure you have caching this, because this need a while to get player's all shops
+     * <p>When lazy loading enabled, only the shops in memory will be returned.
      *
      * @param playerUUID The player's uuid.
      * @return The list have this player's all shops.
      */
     @Override
     public @NotNull List<Shop> getPlayerAllShops(@NotNull UUID playerUUID) {
-        final List<Shop> playerShops = new ArrayList<>(10);
-        for (final Shop shop : getAllShops()) {
-            if (shop.getOwner().equals(playerUUID)) {
-                playerShops.add(shop);
+        return new ArrayList<>(registryIndex.getByOwner(playerUUID));
+    }
+
+    /**
+     * Gets the amount of shops the player owns, including the shops which only exist in the database when lazy loading enabled.
+     *
+     * @param playerUUID       The player's uuid.
+     * @param includeUnlimited Count the unlimited shops
+     * @return The amount of shops
+     */
+    public int getPlayerShopAmount(@NotNull UUID playerUUID, boolean includeUnlimited) {
+        int owned = 0;
+        for (Shop shop : registryIndex.getByOwner(playerUUID)) {
+            if (includeUnlimited || !shop.isUnlimited()) {
+                owned++;
             }
         }
-        return playerShops;
+        LazyShopLoader lazyShopLoader = getLazyShopLoader();
+        if (lazyShopLoader != null) {
+            owned += lazyShopLoader.getIndexedAmount(playerUUID, includeUnlimited);
+        }
+        return owned;
+    }
+
+    /**
+     * Get the shops which the player is a staff of.
+     *
+     * @param playerUUID The player's uuid.
+     * @return The shops, only the shops in memory are included when lazy loading enabled.
+     */
+    @Override
+    public @NotNull List<Shop> getPlayerStaffShops(@NotNull UUID playerUUID) {
+        return new ArrayList<>(registryIndex.getByStaff(playerUUID));
     }
 
     /**
      * Returns all shops in the whole database, include unloaded.
      *
      * <p>Make sure you have caching this, because this need a while to get all shops
+     * <p>When lazy loading enabled, only the shops in memory will be returned, use {@link #getShopIterator()} instead.
      *
      * @return All shop in the database
      */
@@ -692,8 +798,14 @@ public class SimpleShopManager implements ShopManager, Reloadable {
      */
     @Override
     public @NotNull List<Shop> getShopsInWorld(@NotNull World world) {
+        LazyShopLoader lazyShopLoader = getLazyShopLoader();
+        if (lazyShopLoader == null) {
+            return new ArrayList<>(registryIndex.getByWorld(world.getName()));
+        }
         final List<Shop> worldShops = new ArrayList<>();
-        for (final Shop shop : getAllShops()) {
+        final Iterator<Shop> iterator = lazyShopLoader.cursor(world.getName());
+        while (iterator.hasNext()) {
+            Shop shop = iterator.next();
             Location location = shop.getLocation();
             if (location.isWorldLoaded() && Objects.equals(location.getWorld(), world)) {
                 worldShops.add(shop);
@@ -791,7 +903,7 @@ public class SimpleShopManager implements ShopManager, Reloadable {
                 String.valueOf(amount),
                 MsgUtil.getTranslateText(shop.getItem()));
 
-        ShopTransactionMessageContainer shopTransactionMessage = ShopTransactionMessageContainer.ofLocalizedMessageWithItem(msg, Util.serialize(shop.getItem()), null);
+        ShopTransactionMessageContainer shopTransactionMessage = ShopTransactionMessageContainer.ofLocalizedMessageWithItem(msg, shop.getSerializedItem(), null);
 
         if (plugin.getConfig().getBoolean("shop.sending-stock-message-to-staffs")) {
             for (UUID staff : shop.getModerator().getStaffs()) {
@@ -805,7 +917,7 @@ public class SimpleShopManager implements ShopManager, Reloadable {
                     Integer.toString(shop.getLocation().getBlockX()),
                     Integer.toString(shop.getLocation().getBlockY()),
                     Integer.toString(shop.getLocation().getBlockZ()));
-            shopTransactionMessage = ShopTransactionMessageContainer.ofLocalizedMessageWithItem(msg, Util.serialize(shop.getItem()), null);
+            shopTransactionMessage = ShopTransactionMessageContainer.ofLocalizedMessageWithItem(msg, shop.getSerializedItem(), null);
 
             if (plugin.getConfig().getBoolean("shop.sending-stock-message-to-staffs")) {
                 for (UUID staff : shop.getModerator().getStaffs()) {
@@ -1165,7 +1277,7 @@ public class SimpleShopManager implements ShopManager, Reloadable {
                     this.formatter.format(CalculateUtil.multiply(CalculateUtil.subtract(1, taxModifier), total), shop));
         }
 
-        ShopTransactionMessageContainer shopTransactionMessage = ShopTransactionMessageContainer.ofLocalizedMessageWithItem(msg, Util.serialize(shop.getItem()), null);
+        ShopTransactionMessageContainer shopTransactionMessage = ShopTransactionMessageContainer.ofLocalizedMessageWithItem(msg, shop.getSerializedItem(), null);
 
         MsgUtil.send(shop, shop.getOwner(), shopTransactionMessage);
         if (plugin.getConfig().getBoolean("shop.sending-stock-message-to-staffs")) {
@@ -1180,7 +1292,7 @@ public class SimpleShopManager implements ShopManager, Reloadable {
                     Integer.toString(shop.getLocation().getBlockY()),
                     Integer.toString(shop.getLocation().getBlockZ()),
                     MsgUtil.getTranslateText(shop.getItem()));
-            shopTransactionMessage = ShopTransactionMessageContainer.ofLocalizedMessageWithItem(msg, Util.serialize(shop.getItem()), null);
+            shopTransactionMessage = ShopTransactionMessageContainer.ofLocalizedMessageWithItem(msg, shop.getSerializedItem(), null);
 
             MsgUtil.send(shop, shop.getOwner(), shopTransactionMessage);
             if (plugin.getConfig().getBoolean("shop.sending-stock-message-to-staffs")) {
@@ -1545,7 +1657,7 @@ public class SimpleShopManager implements ShopManager, Reloadable {
                     }
                     @Nullable final Block half = Util.getSecondHalf(currentBlock);
                     if (half != null) {
-                        shop = getShop(half.getLocation());
+                        shop = getShop(half.getWorld(), half.getX(), half.getY(), half.getZ());
                     }
                 }
             }
@@ -27,10 +27,13 @@ import com.comphenix.protocol.events.PacketContainer;
 import com.comphenix.protocol.events.PacketEvent;
 import com.comphenix.protocol.reflect.StructureModifier;
 import com.comphenix.protocol.utility.MinecraftVersion;
+import com.comphenix.protocol.wrappers.ChunkCoordIntPair;
 import com.comphenix.protocol.wrappers.WrappedChatComponent;
 import com.comphenix.protocol.wrappers.WrappedDataValue;
 import com.comphenix.protocol.wrappers.WrappedDataWatcher;
 import com.comphenix.protocol.wrappers.WrappedWatchableObject;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -49,9 +52,8 @@ import org.maxgamer.quickshop.util.GameVersion;
 import org.maxgamer.quickshop.util.Util;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -59,9 +61,12 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 public class VirtualDisplayItem extends AbstractDisplayItem {
@@ -71,10 +76,14 @@ public class VirtualDisplayItem extends AbstractDisplayItem {
     private static PacketAdapter packetAdapter = null;
     //unique EntityID
     private final int entityID = COUNTER.decrementAndGet();
-    //The List which store packet sender
-    private final Set<UUID> packetSenders = new ConcurrentSkipListSet<>();
+    //Players whose client has the chunk of this display
+    private final Set<Player> chunkReceivers = ConcurrentHashMap.newKeySet();
+    //Players who can see this display, maintained by the tracker
+    private final Set<Player> viewers = ConcurrentHashMap.newKeySet();
     //cache chunk x and z
     private SimpleShopChunk chunkLocation;
+    //cache display location, the range checks run on netty threads
+    private volatile Location displayLocation;
     private volatile boolean isDisplay;
     //If packet initialized
     private volatile boolean initialized = false;
@@ -96,13 +105,16 @@ public class VirtualDisplayItem extends AbstractDisplayItem {
         //some time shop can be loaded when world isn't loaded
         Chunk chunk = shop.getLocation().getChunk();
         chunkLocation = new SimpleShopChunk(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+        displayLocation = getDisplayLocation();
         VirtualDisplayItemManager.put(chunkLocation, this);
         if (Util.isLoaded(shop.getLocation())) {
-            //Let nearby player can saw fake item
-            Collection<Entity> entityCollection = shop.getLocation().getWorld().getNearbyEntities(shop.getLocation(), PLUGIN.getServer().getViewDistance() * 16, shop.getLocation().getWorld().getMaxHeight(), PLUGIN.getServer().getViewDistance() * 16);
-            for (Entity entity : entityCollection) {
-                if (entity instanceof Player) {
-                    packetSenders.add(entity.getUniqueId());
+            //The chunk was sent before, assume the players in view distance have it
+            int viewDistance = PLUGIN.getServer().getViewDistance();
+            for (Player player : chunk.getWorld().getPlayers()) {
+                Location location = player.getLocation();
+                if (Math.abs((location.getBlockX() >> 4) - chunk.getX()) <= viewDistance
+                        && Math.abs((location.getBlockZ() >> 4) - chunk.getZ()) <= viewDistance) {
+                    chunkReceivers.add(player);
                 }
             }
         }
@@ -110,7 +122,7 @@ public class VirtualDisplayItem extends AbstractDisplayItem {
 
     private void initFakeDropItemPacket() {
         fakeItemSpawnPacket = PacketFactory.createFakeItemSpawnPacket(entityID, getDisplayLocation());
-        fakeItemMetaPacket = PacketFactory.createFakeItemMetaPacket(entityID, getOriginalItemStack().clone());
+        fakeItemMetaPacket = PacketFactory.getFakeItemMetaPacket(entityID, getOriginalItemStack());
         fakeItemVelocityPacket = PacketFactory.createFakeItemVelocityPacket(entityID);
         fakeItemDestroyPacket = PacketFactory.createFakeItemDestroyPacket(entityID);
         initialized = true;
@@ -144,27 +156,66 @@ public class VirtualDisplayItem extends AbstractDisplayItem {
     @Override
     public void remove() {
         if (isDisplay) {
-            sendPacketToAll(fakeItemDestroyPacket);
-            unload();
             isDisplay = false;
+            VirtualDisplayItemManager.getTracker().onDisplayRemove(this);
+            unload();
         }
     }
 
-    private void sendPacketToAll(@NotNull PacketContainer packet) {
-        Iterator<UUID> iterator = packetSenders.iterator();
-        while (iterator.hasNext()) {
-            Player nextPlayer = PLUGIN.getServer().getPlayer(iterator.next());
-            if (nextPlayer == null) {
-                iterator.remove();
-            } else {
-                sendPacket(nextPlayer, packet);
-            }
+    /**
+     * Check the display should be shown to the player at the location
+     *
+     * @param location      The player location
+     * @param rangeSquared  The squared view range
+     * @return In range
+     */
+    boolean isInRange(@NotNull Location location, double rangeSquared) {
+        Location displayLocation = this.displayLocation;
+        if (!isDisplay || displayLocation == null || !shop.isLoaded() || shop.isLeftShop()) {
+            return false;
+        }
+        if (location.getWorld() != displayLocation.getWorld()) {
+            return false;
         }
+        return location.distanceSquared(displayLocation) <= rangeSquared;
+    }
+
+    boolean hasChunk(@NotNull Player player) {
+        return chunkReceivers.contains(player);
+    }
+
+    @NotNull
+    Set<Player> getChunkReceivers() {
+        return chunkReceivers;
+    }
+
+    @NotNull
+    Set<Player> getViewers() {
+        return viewers;
     }
 
-    private void sendPacket(@NotNull Player player, @NotNull PacketContainer packet) {
+    /**
+     * Send the packets to player in bundles if supported, the client handles a bundle in one tick.
+     * These packets are created by us, so the outbound packet listeners are bypassed.
+     *
+     * @param player  The player
+     * @param packets The packets
+     */
+    static void sendPackets(@NotNull Player player, @NotNull List<PacketContainer> packets) {
+        if (packets.isEmpty()) {
+            return;
+        }
         try {
-            PROTOCOL_MANAGER.sendServerPacket(player, packet);
+            if (!PacketFactory.BUNDLE_SUPPORTED || packets.size() == 1) {
+                for (PacketContainer packet : packets) {
+                    PROTOCOL_MANAGER.sendServerPacket(player, packet, false);
+                }
+                return;
+            }
+            for (int from = 0; from < packets.size(); from += PacketFactory.MAX_BUNDLE_SIZE) {
+                PROTOCOL_MANAGER.sendServerPacket(player, PacketFactory.createBundlePacket(
+                        packets.subList(from, Math.min(packets.size(), from + PacketFactory.MAX_BUNDLE_SIZE))), false);
+            }
         } catch (Exception e) {
             throw new RuntimeException("An error occurred when sending a packet", e);
         }
@@ -182,12 +233,6 @@ public class VirtualDisplayItem extends AbstractDisplayItem {
         spawn();
     }
 
-    public void sendFakeItemToAll() {
-        sendPacketToAll(fakeItemSpawnPacket);
-        sendPacketToAll(fakeItemMetaPacket);
-        sendPacketToAll(fakeItemVelocityPacket);
-    }
-
     @Override
     public void safeGuard(@Nullable Entity entity) {
 
@@ -221,19 +266,24 @@ public class VirtualDisplayItem extends AbstractDisplayItem {
         } catch (NullPointerException ignored) {
         }*/
 
-        sendFakeItemToAll();
         isDisplay = true;
+        VirtualDisplayItemManager.getTracker().onDisplaySpawn(this);
     }
 
     private void unload() {
-        packetSenders.clear();
+        chunkReceivers.clear();
+        viewers.clear();
         VirtualDisplayItemManager.remove(chunkLocation, this);
     }
 
-    public void sendFakeItem(@NotNull Player player) {
-        sendPacket(player, fakeItemSpawnPacket);
-        sendPacket(player, fakeItemMetaPacket);
-        sendPacket(player, fakeItemVelocityPacket);
+    void collectSpawnPackets(@NotNull List<PacketContainer> packets) {
+        packets.add(fakeItemSpawnPacket);
+        packets.add(fakeItemMetaPacket);
+        packets.add(fakeItemVelocityPacket);
+    }
+
+    void collectDestroyPackets(@NotNull List<PacketContainer> packets) {
+        packets.add(fakeItemDestroyPacket);
     }
 
     @Override
@@ -255,22 +305,52 @@ public class VirtualDisplayItem extends AbstractDisplayItem {
 
     public static class VirtualDisplayItemManager {
         private static final AtomicBoolean LOADED = new AtomicBoolean(false);
-        private static final Map<SimpleShopChunk, List<VirtualDisplayItem>> CHUNKS_MAPPING = new ConcurrentHashMap<>();
+        //World name -> displays by chunk, read by the packet threads without locking
+        private static final Map<String, WorldDisplays> WORLDS_MAPPING = new ConcurrentHashMap<>();
+        private static volatile VirtualDisplayTracker tracker = null;
 
         public static void put(@NotNull SimpleShopChunk key, @NotNull VirtualDisplayItem value) {
-            //Thread-safe was ensured by ONLY USE Map method to do something
-            List<VirtualDisplayItem> virtualDisplayItems = new ArrayList<>(Collections.singletonList(value));
-            CHUNKS_MAPPING.merge(key, virtualDisplayItems, (mapOldVal, mapNewVal) -> {
-                mapOldVal.addAll(mapNewVal);
-                return mapOldVal;
-            });
+            WORLDS_MAPPING.computeIfAbsent(key.getWorld(), world -> new WorldDisplays()).add(key.getX(), key.getZ(), value);
         }
 
         public static void remove(@NotNull SimpleShopChunk key, @NotNull VirtualDisplayItem value) {
-            CHUNKS_MAPPING.computeIfPresent(key, (mapOldKey, mapOldVal) -> {
-                mapOldVal.remove(value);
-                return mapOldVal;
-            });
+            WorldDisplays worldDisplays = WORLDS_MAPPING.get(key.getWorld());
+            if (worldDisplays != null) {
+                worldDisplays.remove(key.getX(), key.getZ(), value);
+            }
+        }
+
+        /**
+         * Gets the displays in the chunk, the array must not be modified
+         *
+         * @return The displays, null if there is none
+         */
+        @Nullable
+        static VirtualDisplayItem[] get(@NotNull String world, int x, int z) {
+            WorldDisplays worldDisplays = WORLDS_MAPPING.get(world);
+            if (worldDisplays == null) {
+                return null;
+            }
+            return worldDisplays.get(x, z);
+        }
+
+        /**
+         * Run the action for every display
+         */
+        static void forEach(@NotNull Consumer<VirtualDisplayItem> action) {
+            for (WorldDisplays worldDisplays : WORLDS_MAPPING.values()) {
+                for (VirtualDisplayItem[] displays : worldDisplays.chunks.values()) {
+                    for (VirtualDisplayItem display : displays) {
+                        action.accept(display);
+                    }
+                }
+            }
+        }
+
+        @NotNull
+        static VirtualDisplayTracker getTracker() {
+            load();
+            return tracker;
         }
 
         public static void load() {
@@ -280,10 +360,12 @@ public class VirtualDisplayItem extends AbstractDisplayItem {
             Util.debugLog("Loading VirtualDisplayItem chunks mapping manager...");
             if (packetAdapter == null) {
                 packetAdapter = new ChunkPacketAdapter();
-                Util.debugLog("Registering the packet listener...");
-                PROTOCOL_MANAGER.addPacketListener(packetAdapter);
-                LOADED.set(true);
             }
+            Util.debugLog("Registering the packet listener...");
+            PROTOCOL_MANAGER.addPacketListener(packetAdapter);
+            tracker = new VirtualDisplayTracker(PLUGIN);
+            tracker.register();
+            LOADED.set(true);
         }
 
         private static class ChunkPacketAdapter extends PacketAdapter {
@@ -291,7 +373,7 @@ public class VirtualDisplayItem extends AbstractDisplayItem {
             private final Class<?> temporaryPlayerClass;
 
             public ChunkPacketAdapter() {
-                super(PLUGIN, ListenerPriority.HIGH, PacketType.Play.Server.MAP_CHUNK);
+                super(PLUGIN, ListenerPriority.HIGH, PacketType.Play.Server.MAP_CHUNK, PacketType.Play.Server.UNLOAD_CHUNK);
                 Class<?> localTemporaryPlayerClass;
                 try {
                     localTemporaryPlayerClass = Class.forName("com.comphenix.protocol.injector.temporary.TemporaryPlayer");
@@ -308,6 +390,10 @@ public class VirtualDisplayItem extends AbstractDisplayItem {
 
             @Override
             public void onPacketSending(@NotNull PacketEvent event) {
+                if (event.getPacketType() == PacketType.Play.Server.UNLOAD_CHUNK) {
+                    onChunkUnload(event);
+                    return;
+                }
                 //is really full chunk data
                 //In 1.17, this value was removed, so read safely
                 Boolean boxedIsFull = event.getPacket().getBooleans().readSafely(0);
@@ -328,18 +414,126 @@ public class VirtualDisplayItem extends AbstractDisplayItem {
                 //chunk z
                 int z = integerStructureModifier.read(1);
 
-                CHUNKS_MAPPING.computeIfPresent(new SimpleShopChunk(player.getWorld().getName(), x, z), (chunkLocation, targetList) -> {
-                    for (VirtualDisplayItem target : targetList) {
-                        if (!target.shop.isLoaded() || !target.isDisplay || target.shop.isLeftShop()) {
-                            continue;
-                        }
-                        target.packetSenders.add(player.getUniqueId());
-                        target.sendFakeItem(player);
+                //Most chunks have no shop, return as early as possible
+                VirtualDisplayItem[] targets = get(player.getWorld().getName(), x, z);
+                VirtualDisplayTracker tracker = VirtualDisplayItemManager.tracker;
+                if (targets == null || tracker == null) {
+                    return;
+                }
+                //All displays of the chunk in one bundle
+                List<PacketContainer> packets = new ArrayList<>(targets.length * 3);
+                for (VirtualDisplayItem target : targets) {
+                    tracker.onChunkSent(player, target, packets);
+                }
+                sendPackets(player, packets);
+            }
+
+            private void onChunkUnload(@NotNull PacketEvent event) {
+                Player player = event.getPlayer();
+                if (player == null || temporaryPlayerClass.isInstance(player)) {
+                    return;
+                }
+                int x;
+                int z;
+                //1.20.2+ uses ChunkPos
+                ChunkCoordIntPair chunkPos = event.getPacket().getChunkCoordIntPairs().readSafely(0);
+                if (chunkPos != null) {
+                    x = chunkPos.getChunkX();
+                    z = chunkPos.getChunkZ();
+                } else {
+                    StructureModifier<Integer> integerStructureModifier = event.getPacket().getIntegers();
+                    x = integerStructureModifier.read(0);
+                    z = integerStructureModifier.read(1);
+                }
+                VirtualDisplayItem[] targets = get(player.getWorld().getName(), x, z);
+                VirtualDisplayTracker tracker = VirtualDisplayItemManager.tracker;
+                if (targets == null || tracker == null) {
+                    return;
+                }
+                List<PacketContainer> packets = new ArrayList<>(targets.length);
+                for (VirtualDisplayItem target : targets) {
+                    tracker.onChunkUnload(player, target, packets);
+                }
+                sendPackets(player, packets);
+            }
+
+        }
+
+        /**
+         * Displays of a world by chunk key.
+         * <p>
+         * The arrays are immutable and replaced on every change, so readers never lock.
+         * Changes are rare (display spawn and remove), they are synchronized per world.
+         */
+        private static class WorldDisplays {
+            private static final int FILTER_SIZE = 1 << 12;
+            private final Map<Long, VirtualDisplayItem[]> chunks = new ConcurrentHashMap<>();
+            //Count of the chunks with displays per hash slot, lets the readers skip the chunks without displays
+            //before boxing the chunk key
+            private final AtomicIntegerArray filter = new AtomicIntegerArray(FILTER_SIZE);
+
+            private static long chunkKey(int x, int z) {
+                return ((long) x << 32) | (z & 0xFFFFFFFFL);
+            }
+
+            private static int filterSlot(int x, int z) {
+                int hash = x * 0x9E3779B9 ^ z * 0x85EBCA6B;
+                return (hash ^ (hash >>> 16)) & (FILTER_SIZE - 1);
+            }
+
+            @Nullable
+            VirtualDisplayItem[] get(int x, int z) {
+                if (filter.get(filterSlot(x, z)) == 0) {
+                    return null;
+                }
+                return chunks.get(chunkKey(x, z));
+            }
+
+            synchronized void add(int x, int z, @NotNull VirtualDisplayItem display) {
+                long key = chunkKey(x, z);
+                VirtualDisplayItem[] displays = chunks.get(key);
+                if (displays == null) {
+                    //Mark the filter before the chunk is visible
+                    filter.incrementAndGet(filterSlot(x, z));
+                    chunks.put(key, new VirtualDisplayItem[]{display});
+                    return;
+                }
+                for (VirtualDisplayItem existing : displays) {
+                    if (existing == display) {
+                        return;
                     }
-                    return targetList;
-                });
+                }
+                VirtualDisplayItem[] newDisplays = Arrays.copyOf(displays, displays.length + 1);
+                newDisplays[displays.length] = display;
+                chunks.put(key, newDisplays);
             }
 
+            synchronized void remove(int x, int z, @NotNull VirtualDisplayItem display) {
+                long key = chunkKey(x, z);
+                VirtualDisplayItem[] displays = chunks.get(key);
+                if (displays == null) {
+                    return;
+                }
+                int index = -1;
+                for (int i = 0; i < displays.length; i++) {
+                    if (displays[i] == display) {
+                        index = i;
+                        break;
+                    }
+                }
+                if (index == -1) {
+                    return;
+                }
+                if (displays.length == 1) {
+                    chunks.remove(key);
+                    filter.decrementAndGet(filterSlot(x, z));
+                    return;
+                }
+                VirtualDisplayItem[] newDisplays = new VirtualDisplayItem[displays.length - 1];
+                System.arraycopy(displays, 0, newDisplays, 0, index);
+                System.arraycopy(displays, index + 1, newDisplays, index, displays.length - index - 1);
+                chunks.put(key, newDisplays);
+            }
         }
 
         public static void unload() {
@@ -347,12 +541,40 @@ public class VirtualDisplayItem extends AbstractDisplayItem {
             if (LOADED.get()) {
                 Util.debugLog("Unregistering the packet listener...");
                 PROTOCOL_MANAGER.removePacketListener(packetAdapter);
+                tracker.unregister();
+                tracker = null;
                 LOADED.set(false);
             }
         }
     }
 
     public static class PacketFactory {
+        //The client rejects the bundle which has more packets
+        static final int MAX_BUNDLE_SIZE = 4096;
+        static final boolean BUNDLE_SUPPORTED = isBundleSupported();
+        //Metadata packets only differ in entity id for the same item, share the built data among displays
+        private static final Cache<ItemStack, PacketContainer> META_PACKET_CACHE = CacheBuilder.newBuilder()
+                .expireAfterAccess(10, TimeUnit.MINUTES)
+                .maximumSize(1000)
+                .build();
+
+        private static boolean isBundleSupported() {
+            //Bundle packet was added in 1.19.4
+            if (VERSION.ordinal() < GameVersion.v1_19_R3.ordinal()) {
+                return false;
+            }
+            try {
+                return PacketType.Play.Server.BUNDLE.isSupported();
+            } catch (Throwable throwable) {
+                //Outdated ProtocolLib
+                return false;
+            }
+        }
+
+        static void invalidateMetaPacketCache() {
+            META_PACKET_CACHE.invalidateAll();
+        }
+
         public static Throwable testFakeItem() {
             try {
                 createFakeItemSpawnPacket(0, new Location(PLUGIN.getServer().getWorlds().get(0), 0, 0, 0));
@@ -432,6 +654,26 @@ public class VirtualDisplayItem extends AbstractDisplayItem {
             return fakeItemPacket;
         }
 
+        private static PacketContainer createBundlePacket(@NotNull List<PacketContainer> packets) {
+            PacketContainer bundlePacket = PROTOCOL_MANAGER.createPacket(PacketType.Play.Server.BUNDLE);
+            bundlePacket.getPacketBundles().write(0, packets);
+            return bundlePacket;
+        }
+
+        private static PacketContainer getFakeItemMetaPacket(int entityID, @NotNull ItemStack itemStack) {
+            ItemStack key = itemStack.clone();
+            PacketContainer template;
+            try {
+                template = META_PACKET_CACHE.get(key, () -> createFakeItemMetaPacket(0, key));
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Unable to initialize packet", e.getCause());
+            }
+            //The data values are shared, only entity id is changed
+            PacketContainer fakeItemMetaPacket = template.shallowClone();
+            fakeItemMetaPacket.getIntegers().write(0, entityID);
+            return fakeItemMetaPacket;
+        }
+
         private static PacketContainer createFakeItemMetaPacket(int entityID, ItemStack itemStack) {
             //Next, create a new packet to update item data (default is empty)
             PacketContainer fakeItemMetaPacket = PROTOCOL_MANAGER.createPacket(PacketType.Play.Server.ENTITY_METADATA);
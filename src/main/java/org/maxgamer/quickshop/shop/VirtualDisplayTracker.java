@@ -0,0 +1,231 @@
+/*
+ * This file is a part of project QuickShop, the name is VirtualDisplayTracker.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.shop;
+
+import com.comphenix.protocol.events.PacketContainer;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.jetbrains.annotations.NotNull;
+import org.maxgamer.quickshop.QuickShop;
+import org.maxgamer.quickshop.util.reload.ReloadResult;
+import org.maxgamer.quickshop.util.reload.ReloadStatus;
+import org.maxgamer.quickshop.util.reload.Reloadable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks which virtual displays every player can see.
+ * <p>
+ * A display is shown to a player when the client has the chunk of the display and the player is in the view range,
+ * and destroyed on the client when the player walks away or the client unloads the chunk.
+ * Chunk packets are handled on the netty threads, the range checks run on the main thread periodically.
+ * The player positions are only read on the main thread, the netty threads use the snapshot taken by the last check.
+ */
+class VirtualDisplayTracker extends BukkitRunnable implements Listener, Reloadable {
+    private final QuickShop plugin;
+    /* Displays shown to the player */
+    private final Map<Player, Set<VirtualDisplayItem>> visible = new ConcurrentHashMap<>();
+    /* Player positions taken on main thread, for the range checks on netty threads */
+    private final Map<Player, Location> positions = new ConcurrentHashMap<>();
+    private volatile double rangeSquared;
+    private volatile int chunkRange;
+
+    VirtualDisplayTracker(@NotNull QuickShop plugin) {
+        this.plugin = plugin;
+        plugin.getReloadManager().register(this);
+        init();
+    }
+
+    private void init() {
+        int range = Math.max(1, plugin.getConfig().getInt("shop.virtual-display-view-range", 48));
+        this.rangeSquared = (double) range * range;
+        this.chunkRange = (range >> 4) + 1;
+    }
+
+    @Override
+    public ReloadResult reloadModule() {
+        init();
+        // display-item-use-name may be changed
+        VirtualDisplayItem.PacketFactory.invalidateMetaPacketCache();
+        return ReloadResult.builder().status(ReloadStatus.SUCCESS).build();
+    }
+
+    void register() {
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+        // Items don't move, no need to check every tick
+        runTaskTimer(plugin, 10, 10);
+    }
+
+    void unregister() {
+        HandlerList.unregisterAll(this);
+        cancel();
+        visible.clear();
+        positions.clear();
+    }
+
+    @Override
+    public void run() {
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            Location location = player.getLocation();
+            positions.put(player, location);
+            List<PacketContainer> packets = new ArrayList<>();
+            Set<VirtualDisplayItem> displays = visible.get(player);
+            if (displays != null) {
+                for (VirtualDisplayItem display : displays) {
+                    if (!display.isInRange(location, rangeSquared)) {
+                        hide(player, display, packets);
+                    }
+                }
+            }
+            World world = location.getWorld();
+            if (world == null) {
+                VirtualDisplayItem.sendPackets(player, packets);
+                continue;
+            }
+            int chunkX = location.getBlockX() >> 4;
+            int chunkZ = location.getBlockZ() >> 4;
+            for (int x = chunkX - chunkRange; x <= chunkX + chunkRange; x++) {
+                for (int z = chunkZ - chunkRange; z <= chunkZ + chunkRange; z++) {
+                    VirtualDisplayItem[] chunkDisplays = VirtualDisplayItem.VirtualDisplayItemManager.get(world.getName(), x, z);
+                    if (chunkDisplays == null) {
+                        continue;
+                    }
+                    for (VirtualDisplayItem display : chunkDisplays) {
+                        if (display.hasChunk(player) && display.isInRange(location, rangeSquared)) {
+                            show(player, display, packets);
+                        }
+                    }
+                }
+            }
+            VirtualDisplayItem.sendPackets(player, packets);
+        }
+    }
+
+    /**
+     * Called when the display spawned, show it to the players nearby
+     *
+     * @param display The display
+     */
+    void onDisplaySpawn(@NotNull VirtualDisplayItem display) {
+        for (Player player : display.getChunkReceivers()) {
+            Location location = positions.get(player);
+            if (location != null && display.isInRange(location, rangeSquared)) {
+                List<PacketContainer> packets = new ArrayList<>(3);
+                show(player, display, packets);
+                VirtualDisplayItem.sendPackets(player, packets);
+            }
+        }
+    }
+
+    /**
+     * Called when the display removed, destroy it on the clients
+     *
+     * @param display The display
+     */
+    void onDisplayRemove(@NotNull VirtualDisplayItem display) {
+        for (Player player : display.getViewers()) {
+            List<PacketContainer> packets = new ArrayList<>(1);
+            hide(player, display, packets);
+            VirtualDisplayItem.sendPackets(player, packets);
+        }
+    }
+
+    /**
+     * Called on netty thread when the chunk of display sending to the player
+     *
+     * @param packets The packets to send, collected for the whole chunk
+     */
+    void onChunkSent(@NotNull Player player, @NotNull VirtualDisplayItem display, @NotNull List<PacketContainer> packets) {
+        display.getChunkReceivers().add(player);
+        // A fresh chunk, the display sent before was gone with the old one
+        forget(player, display);
+        // Not safe to get the location of player here, joined players without a snapshot yet will be handled in next check
+        Location location = positions.get(player);
+        if (location != null && display.isInRange(location, rangeSquared)) {
+            show(player, display, packets);
+        }
+    }
+
+    /**
+     * Called on netty thread when the chunk of display unloading from the player
+     *
+     * @param packets The packets to send, collected for the whole chunk
+     */
+    void onChunkUnload(@NotNull Player player, @NotNull VirtualDisplayItem display, @NotNull List<PacketContainer> packets) {
+        display.getChunkReceivers().remove(player);
+        hide(player, display, packets);
+    }
+
+    private void show(@NotNull Player player, @NotNull VirtualDisplayItem display, @NotNull List<PacketContainer> packets) {
+        if (display.getViewers().add(player)) {
+            visible.computeIfAbsent(player, k -> ConcurrentHashMap.newKeySet()).add(display);
+            display.collectSpawnPackets(packets);
+        }
+    }
+
+    private void hide(@NotNull Player player, @NotNull VirtualDisplayItem display, @NotNull List<PacketContainer> packets) {
+        if (forget(player, display)) {
+            display.collectDestroyPackets(packets);
+        }
+    }
+
+    private boolean forget(@NotNull Player player, @NotNull VirtualDisplayItem display) {
+        Set<VirtualDisplayItem> displays = visible.get(player);
+        if (displays != null) {
+            displays.remove(display);
+        }
+        return display.getViewers().remove(player);
+    }
+
+    private void forget(@NotNull Player player) {
+        Set<VirtualDisplayItem> displays = visible.remove(player);
+        if (displays != null) {
+            for (VirtualDisplayItem display : displays) {
+                display.getViewers().remove(player);
+            }
+        }
+        VirtualDisplayItem.VirtualDisplayItemManager.forEach(display -> display.getChunkReceivers().remove(player));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        forget(event.getPlayer());
+        positions.remove(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldChange(PlayerChangedWorldEvent event) {
+        // The client drops the whole world, the chunks of new world will be sent again
+        forget(event.getPlayer());
+        positions.put(event.getPlayer(), event.getPlayer().getLocation());
+    }
+}
@@ -19,7 +19,6 @@
 
 package org.maxgamer.quickshop.util;
 
-import com.google.common.collect.Maps;
 import lombok.Getter;
 import org.apache.commons.lang3.StringUtils;
 import org.bukkit.Bukkit;
@@ -27,7 +26,6 @@ import org.bukkit.ChatColor;
 import org.bukkit.Material;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.command.CommandSender;
-import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.enchantments.Enchantment;
 import org.bukkit.entity.Player;
@@ -40,7 +38,6 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.maxgamer.quickshop.QuickShop;
 import org.maxgamer.quickshop.ServiceInjector;
-import org.maxgamer.quickshop.api.database.WarpedResultSet;
 import org.maxgamer.quickshop.api.event.ShopControlPanelOpenEvent;
 import org.maxgamer.quickshop.api.shop.Shop;
 import org.maxgamer.quickshop.chat.QuickComponentImpl;
@@ -54,13 +51,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.text.DecimalFormat;
 import java.util.AbstractMap;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -70,7 +63,7 @@ import java.util.logging.Level;
 
 
 public class MsgUtil {
-    private static final Map<UUID, List<ShopTransactionMessageContainer>> OUTGOING_MESSAGES = Maps.newConcurrentMap();
+    private static TransactionMessageStore messageStore;
     public static GameLanguage gameLanguage;
     private static DecimalFormat decimalFormat;
     private static QuickShop plugin = QuickShop.getInstance();
@@ -93,38 +86,17 @@ public class MsgUtil {
     }
 
     /**
-     * Empties the queue of messages a player has and sends them to the player.
+     * Loads the messages a player has and sends them to the player, page by page.
      *
      * @param p The player to message
-     * @return True if success, False if the player is offline or null
+     * @return True if success, False if the player is offline or null, or already fetching
      */
     public static boolean flush(@NotNull OfflinePlayer p) {
         Player player = p.getPlayer();
-        if (player != null) {
-            UUID pName = player.getUniqueId();
-            List<ShopTransactionMessageContainer> msgs = OUTGOING_MESSAGES.get(pName);
-            if (msgs != null) {
-                for (ShopTransactionMessageContainer msg : msgs) {
-                    Util.debugLog("Accepted the msg for player " + player.getName() + " : " + msg);
-                    if (msg.getHoverItemStr() != null) {
-                        try {
-                            ItemStack data = Util.deserialize(msg.getHoverItemStr());
-                            if (data == null) {
-                                MsgUtil.sendDirectMessage(player, msg.getMessage(getPlayerLocale(player)));
-                            } else {
-                                plugin.getQuickChat().sendItemHologramChat(player, msg.getMessage(getPlayerLocale(player)), data);
-                            }
-                        } catch (InvalidConfigurationException e) {
-                            MsgUtil.sendDirectMessage(p.getPlayer(), msg.getMessage(getPlayerLocale(player)));
-                        }
-                        }
-                }
-                plugin.getDatabaseHelper().cleanMessageForPlayer(pName);
-                msgs.clear();
-                return true;
-            }
+        if (player == null || messageStore == null) {
+            return false;
         }
-        return false;
+        return messageStore.fetch(player);
     }
 
     /**
@@ -354,26 +326,10 @@ public class MsgUtil {
     }
 
     /**
-     * loads all player purchase messages from the database.
+     * Prepare the offline transaction message store, messages are loaded per player when fetching.
      */
-    public static void loadTransactionMessages() {
-        OUTGOING_MESSAGES.clear(); // Delete old messages
-        try (WarpedResultSet warpRS = plugin.getDatabaseHelper().selectAllMessages(); ResultSet rs = warpRS.getResultSet()) {
-            while (rs.next()) {
-                String owner = rs.getString("owner");
-                UUID ownerUUID;
-                if (Util.isUUID(owner)) {
-                    ownerUUID = UUID.fromString(owner);
-                } else {
-                    ownerUUID = PlayerFinder.findUUIDByName(owner, true, true);
-                }
-                String message = rs.getString("message");
-                List<ShopTransactionMessageContainer> msgs = OUTGOING_MESSAGES.computeIfAbsent(ownerUUID, k -> new LinkedList<>());
-                msgs.add(ShopTransactionMessageContainer.fromJson(message));
-            }
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.WARNING, "Could not load transaction messages from database. Skipping.", e);
-        }
+    public static void initTransactionMessageStore() {
+        messageStore = new TransactionMessageStore(plugin);
     }
 
     /**
@@ -392,10 +348,7 @@ public class MsgUtil {
         Util.debugLog(shopTransactionMessage.getMessage(null));
         OfflinePlayer p = PlayerFinder.findOfflinePlayerByUUID(uuid);
         if (!p.isOnline()) {
-            List<ShopTransactionMessageContainer> msgs = OUTGOING_MESSAGES.getOrDefault(uuid, new LinkedList<>());
-            msgs.add(shopTransactionMessage);
-            OUTGOING_MESSAGES.put(uuid, msgs);
-            plugin.getDatabaseHelper().saveOfflineTransactionMessage(uuid, shopTransactionMessage.toJson(), System.currentTimeMillis());
+            messageStore.save(uuid, shopTransactionMessage);
         } else {
             Player player = p.getPlayer();
             if (player != null) {
@@ -429,10 +382,7 @@ public class MsgUtil {
         }
         OfflinePlayer p = PlayerFinder.findOfflinePlayerByUUID(uuid);
         if (!p.isOnline()) {
-            List<ShopTransactionMessageContainer> msgs = OUTGOING_MESSAGES.getOrDefault(uuid, new LinkedList<>());
-            msgs.add(shopTransactionMessageContainer);
-            OUTGOING_MESSAGES.put(uuid, msgs);
-            plugin.getDatabaseHelper().saveOfflineTransactionMessage(uuid, shopTransactionMessageContainer.toJson(), System.currentTimeMillis());
+            messageStore.save(uuid, shopTransactionMessageContainer);
         } else {
             Player player = p.getPlayer();
             if (player != null) {
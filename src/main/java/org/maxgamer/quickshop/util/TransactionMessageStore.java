@@ -0,0 +1,237 @@
+/*
+ * This file is a part of project QuickShop, the name is TransactionMessageStore.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.util;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.maxgamer.quickshop.QuickShop;
+import org.maxgamer.quickshop.api.database.WarpedResultSet;
+import org.maxgamer.quickshop.shop.ShopTransactionMessageContainer;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Offline transaction messages, nothing is kept in memory.
+ * <p>
+ * Messages are appended into database by the database queue, and only the newest messages of a player are kept.
+ * When the player fetching, the messages are loaded asynchronously, the same messages are merged into one line,
+ * and delivered page by page.
+ */
+public class TransactionMessageStore {
+    /* Deleting tasks spilled into the journal lose their callbacks, don't block the player forever */
+    private static final long FETCH_TIMEOUT = 300000;
+    private final QuickShop plugin;
+    /* Saved messages since last trimmed, trim when reached the interval */
+    private final Map<UUID, AtomicInteger> savedSinceTrim = new ConcurrentHashMap<>();
+    /* Players who is fetching and the time started, kept until the delivered messages are deleted, to avoid delivering same messages twice */
+    private final Map<UUID, Long> fetching = new ConcurrentHashMap<>();
+    private final int maxPerPlayer;
+    private final int pageSize;
+    private final int trimInterval;
+
+    public TransactionMessageStore(@NotNull QuickShop plugin) {
+        this.plugin = plugin;
+        this.maxPerPlayer = Math.max(1, plugin.getConfig().getInt("shop.message-store.max-per-player", 500));
+        this.pageSize = Math.max(1, plugin.getConfig().getInt("shop.message-store.page-size", 20));
+        this.trimInterval = Math.max(1, maxPerPlayer / 10);
+    }
+
+    /**
+     * Save the message for the offline player
+     *
+     * @param player  The player
+     * @param message The message
+     */
+    public void save(@NotNull UUID player, @NotNull ShopTransactionMessageContainer message) {
+        long now = System.currentTimeMillis();
+        plugin.getDatabaseHelper().saveOfflineTransactionMessage(player, message.toJson(), now);
+        AtomicInteger saved = savedSinceTrim.computeIfAbsent(player, k -> new AtomicInteger());
+        if (saved.incrementAndGet() >= trimInterval) {
+            saved.set(0);
+            plugin.getDatabaseHelper().trimMessages(player, maxPerPlayer);
+        }
+    }
+
+    /**
+     * Load and deliver a page of messages to the player, must be called on main thread
+     *
+     * @param player The player
+     * @return false if the player is already fetching
+     */
+    public boolean fetch(@NotNull Player player) {
+        Util.ensureThread(false);
+        UUID uuid = player.getUniqueId();
+        long now = System.currentTimeMillis();
+        Long started = fetching.putIfAbsent(uuid, now);
+        if (started != null) {
+            if (now - started < FETCH_TIMEOUT || !fetching.replace(uuid, started, now)) {
+                return false;
+            }
+        }
+        String locale = MsgUtil.getPlayerLocale(player);
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            List<MessageGroup> groups;
+            try {
+                groups = load(uuid);
+            } catch (SQLException e) {
+                fetching.remove(uuid);
+                plugin.getLogger().log(Level.WARNING, "Could not load transaction messages of " + uuid + " from database.", e);
+                return;
+            }
+            List<MessageGroup> page = groups.subList(0, Math.min(pageSize, groups.size()));
+            decodeHoverItems(page);
+            int remaining = groups.size() - page.size();
+            Util.mainThreadRun(() -> {
+                boolean deleting = false;
+                try {
+                    deleting = deliver(uuid, locale, page, remaining);
+                } finally {
+                    if (!deleting) {
+                        fetching.remove(uuid);
+                    }
+                }
+            });
+        });
+        return true;
+    }
+
+    /**
+     * Load the newest messages of player, and merge the same messages, oldest first
+     */
+    @NotNull
+    private List<MessageGroup> load(@NotNull UUID player) throws SQLException {
+        Map<String, MessageGroup> groups = new LinkedHashMap<>();
+        int read = 0;
+        try (WarpedResultSet warpRS = plugin.getDatabaseHelper().selectMessages(player, maxPerPlayer); ResultSet rs = warpRS.getResultSet()) {
+            while (rs.next()) {
+                read++;
+                String json = rs.getString("message");
+                long time = rs.getLong("time");
+                MessageGroup group = groups.get(json);
+                if (group == null) {
+                    groups.put(json, new MessageGroup(json, time));
+                } else {
+                    group.count++;
+                }
+            }
+        }
+        if (read >= maxPerPlayer) {
+            // The older messages are over the cap
+            plugin.getDatabaseHelper().trimMessages(player, maxPerPlayer);
+        }
+        // Loaded newest first
+        List<MessageGroup> result = new ArrayList<>(groups.values());
+        Collections.reverse(result);
+        return result;
+    }
+
+    private void decodeHoverItems(@NotNull List<MessageGroup> page) {
+        // Most messages are about the same few shops, decode each item once
+        Map<String, ItemStack> decodedItems = new HashMap<>();
+        for (MessageGroup group : page) {
+            String hoverItemStr = group.message.getHoverItemStr();
+            if (hoverItemStr == null) {
+                continue;
+            }
+            ItemStack item = decodedItems.get(hoverItemStr);
+            if (item == null) {
+                try {
+                    item = Util.deserialize(hoverItemStr);
+                } catch (InvalidConfigurationException e) {
+                    Util.debugLog("Failed to decode the hover item of message, send by plain text: " + e.getMessage());
+                }
+                if (item != null) {
+                    decodedItems.put(hoverItemStr, item);
+                }
+            }
+            group.hoverItem = item;
+        }
+    }
+
+    /**
+     * Send the messages to player and delete them
+     *
+     * @return true if deleting, the player will be marked fetching done once all deleted
+     */
+    private boolean deliver(@NotNull UUID uuid, @NotNull String locale, @NotNull List<MessageGroup> page, int remaining) {
+        Player player = plugin.getServer().getPlayer(uuid);
+        if (player == null || page.isEmpty()) {
+            // Gone, keep them for next time
+            return false;
+        }
+        // Fetching again before deleted would load the same messages
+        AtomicInteger deleting = new AtomicInteger(page.size());
+        Runnable onDeleted = () -> {
+            if (deleting.decrementAndGet() == 0) {
+                fetching.remove(uuid);
+            }
+        };
+        for (MessageGroup group : page) {
+            Util.debugLog("Accepted the msg for player " + player.getName() + " : " + group.json);
+            String text = group.message.getMessage(locale);
+            if (group.count > 1) {
+                text = plugin.text().of(player, "shop-message-repeated", text, group.count).forLocale();
+            }
+            if (group.hoverItem != null) {
+                plugin.getQuickChat().sendItemHologramChat(player, text, group.hoverItem);
+            } else {
+                MsgUtil.sendDirectMessage(player, text);
+            }
+            plugin.getDatabaseHelper().removeMessages(uuid, group.json, group.newestTime, onDeleted, e -> {
+                plugin.getLogger().log(Level.WARNING, "Could not delete the delivered transaction messages of " + uuid + ".", e);
+                onDeleted.run();
+            });
+        }
+        if (remaining > 0) {
+            plugin.text().of(player, "shop-message-more", remaining).send();
+        }
+        return true;
+    }
+
+    private static class MessageGroup {
+        private final String json;
+        private final ShopTransactionMessageContainer message;
+        /* Loaded newest first, so the first one is the newest */
+        private final long newestTime;
+        private int count = 1;
+        @Nullable
+        private ItemStack hoverItem;
+
+        private MessageGroup(@NotNull String json, long newestTime) {
+            this.json = json;
+            this.message = ShopTransactionMessageContainer.fromJson(json);
+            this.newestTime = newestTime;
+        }
+    }
+}
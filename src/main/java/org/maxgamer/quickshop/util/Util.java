@@ -27,7 +27,6 @@ import de.themoep.minedown.MineDownParser;
 import io.papermc.lib.PaperLib;
 import lombok.Getter;
 import lombok.Setter;
-import lombok.SneakyThrows;
 import net.md_5.bungee.api.chat.BaseComponent;
 import net.md_5.bungee.api.chat.TranslatableComponent;
 import net.md_5.bungee.chat.ComponentSerializer;
@@ -69,19 +68,19 @@ import org.maxgamer.quickshop.QuickShop;
 import org.maxgamer.quickshop.api.shop.AbstractDisplayItem;
 import org.maxgamer.quickshop.api.shop.Shop;
 import org.maxgamer.quickshop.database.MySQLCore;
-import org.yaml.snakeyaml.DumperOptions;
-import org.yaml.snakeyaml.Yaml;
+import org.maxgamer.quickshop.shop.ShopBackup;
+import org.maxgamer.quickshop.util.serialize.ItemCodecs;
+import org.maxgamer.quickshop.util.serialize.YamlItemCodec;
 
-import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.sql.SQLException;
 import java.text.DecimalFormat;
 import java.time.Instant;
 import java.time.LocalDate;
@@ -123,7 +122,6 @@ public class Util {
 
     private static final ThreadLocal<MineDown> MINEDOWN = ThreadLocal.withInitial(() -> new MineDown(""));
     private static int BYPASSED_CUSTOM_STACKSIZE = -1;
-    private static Yaml yaml = null;
     private volatile static Boolean devMode = null;
     @Setter
     private static QuickShop plugin;
@@ -358,7 +356,7 @@ public class Util {
     }
 
     /**
-     * Covert YAML string to ItemStack.
+     * Covert serialized string to ItemStack, both YAML and the other registered formats are supported.
      *
      * @param config serialized ItemStack
      * @return ItemStack iStack
@@ -366,55 +364,7 @@ public class Util {
      */
     @Nullable
     public static ItemStack deserialize(@NotNull String config) throws InvalidConfigurationException {
-        if (yaml == null) {
-            DumperOptions yamlOptions = new DumperOptions();
-            yamlOptions.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
-            yamlOptions.setIndent(2);
-            yaml = new Yaml(yamlOptions); //Caching it!
-        }
-        YamlConfiguration yamlConfiguration = new YamlConfiguration();
-        Map<Object, Object> root = yaml.load(config);
-        //noinspection unchecked
-        Map<String, Object> item = (Map<String, Object>) root.get("item");
-        int itemDataVersion = Integer.parseInt(String.valueOf(item.getOrDefault("v", "0")));
-        try {
-            // Try load the itemDataVersion to do some checks.
-            //noinspection deprecation
-            if (itemDataVersion > Bukkit.getUnsafe().getDataVersion()) {
-                Util.debugLog("WARNING: DataVersion not matched with ItemStack: " + config);
-                // okay we need some things to do
-                if (plugin.getConfig().getBoolean("shop.force-load-downgrade-items.enable")) {
-                    // okay it enabled
-                    Util.debugLog("QuickShop is trying force loading " + config);
-                    if (plugin.getConfig().getInt("shop.force-load-downgrade-items.method") == 0) { // Mode 0
-                        //noinspection deprecation
-                        item.put("v", Bukkit.getUnsafe().getDataVersion() - 1);
-                    } else { // Mode other
-                        //noinspection deprecation
-                        item.put("v", Bukkit.getUnsafe().getDataVersion());
-                    }
-                    // Okay we have hacked the dataVersion, now put it back
-                    root.put("item", item);
-                    config = yaml.dump(root);
-                    Util.debugLog("Updated, we will try load as hacked ItemStack: " + config);
-                } else {
-                    plugin
-                            .getLogger()
-                            .warning(
-                                    "Cannot load ItemStack "
-                                            + config
-                                            + " because it saved from higher Minecraft server version, the action will fail and you will receive a exception, PLELASE DON'T REPORT TO QUICKSHOP!");
-                    plugin
-                            .getLogger()
-                            .warning(
-                                    "You can try force load this ItemStack by our hacked ItemStack read util(shop.force-load-downgrade-items), but beware, the data may corrupt if you load on this lower Minecraft server version, Please backup your world and database before enable!");
-                }
-            }
-            yamlConfiguration.loadFromString(config);
-            return yamlConfiguration.getItemStack("item");
-        } catch (Exception e) {
-            throw new InvalidConfigurationException("Exception in deserialize item", e);
-        }
+        return ItemCodecs.decode(config);
     }
 
     @NotNull
@@ -733,6 +683,10 @@ public class Util {
         RESTRICTED_PRICES.clear();
         CUSTOM_STACKSIZE.clear();
         devMode = plugin.getConfig().getBoolean("dev-mode");
+        String itemCodec = plugin.getConfig().getString("shop.item-codec", YamlItemCodec.NAME);
+        if (!ItemCodecs.setEncoder(itemCodec)) {
+            plugin.getLogger().warning("Invalid shop.item-codec: " + itemCodec + ", using " + ItemCodecs.getEncoder().getName() + " instead.");
+        }
 
         for (String s : plugin.getConfig().getStringList("shop-blocks")) {
             Material mat = Material.matchMaterial(s.toUpperCase());
@@ -1290,16 +1244,14 @@ public class Util {
     }
 
     /**
-     * Covert ItemStack to YAML string.
+     * Covert ItemStack to string by the codec selected in config shop.item-codec.
      *
      * @param iStack target ItemStack
      * @return String serialized itemStack
      */
     @NotNull
     public static String serialize(@NotNull ItemStack iStack) {
-        YamlConfiguration cfg = new YamlConfiguration();
-        cfg.set("item", iStack);
-        return cfg.saveToString();
+        return ItemCodecs.encode(iStack);
     }
 
     /**
@@ -1347,29 +1299,41 @@ public class Util {
         return ComponentSerializer.toString(components);
     }
 
-    @SneakyThrows
+    /**
+     * Export all shops into a backup file asynchronously
+     *
+     * @param backupName The file name without extension, null for default name
+     */
     public static void makeExportBackup(@Nullable String backupName) {
         if (StringUtils.isEmpty(backupName)) {
-            backupName = "export.txt";
-        }
-        File file = new File(plugin.getDataFolder(), backupName + ".txt");
-        if (file.exists()) {
-            Files.move(file.toPath(), new File(file.getParentFile(), file.getName() + UUID.randomUUID().toString().replace("-", "")).toPath());
-        }
-        file.createNewFile();
-
-        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
-            StringBuilder finalReport = new StringBuilder();
-            plugin.getShopLoader()
-                    .getOriginShopsInDatabase()
-                    .forEach((shop -> finalReport.append(shop).append("\n")));
-            try (BufferedWriter outputStream = new BufferedWriter(new FileWriter(file, false))) {
-                outputStream.write(finalReport.toString());
-            } catch (IOException exception) {
-                plugin.getLogger().log(Level.WARNING, "Backup failed", exception);
-            }
+            backupName = "export";
+        }
+        File file = new File(plugin.getDataFolder(), backupName + ShopBackup.FILE_EXTENSION);
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> makeExportBackupNow(file));
+    }
 
-        });
+    /**
+     * Export all shops into the backup file on current thread, the existing file will be renamed.
+     * It waits for the database writer, so don't call it from main thread.
+     *
+     * @param file The backup file
+     * @return true if succeed
+     */
+    public static boolean makeExportBackupNow(@NotNull File file) {
+        ensureThread(true);
+        // Write everything still in queue and buffers, so the backup is up to date
+        plugin.getDatabaseManager().flush();
+        try {
+            if (file.exists()) {
+                Files.move(file.toPath(), new File(file.getParentFile(), file.getName() + UUID.randomUUID().toString().replace("-", "")).toPath());
+            }
+            int exported = ShopBackup.export(plugin, file);
+            plugin.getLogger().info("Exported " + exported + " shop(s) to " + file.getName());
+            return true;
+        } catch (IOException | SQLException exception) {
+            plugin.getLogger().log(Level.WARNING, "Backup failed", exception);
+            return false;
+        }
     }
 
 
@@ -144,31 +144,14 @@ public class QuickShopItemMatcherImpl implements ItemMatcher, Reloadable {
             return false; // One of them is null (Can't be both, see above)
         }
 
-        requireStack = requireStack.clone();
-        requireStack.setAmount(1);
-        givenStack = givenStack.clone();
-        givenStack.setAmount(1);
-        if (plugin.getNbtapi() != null) {
-            try {
-                NBTItem nbtItemOriginal = new NBTItem(requireStack);
-                NBTItem nbtItemTester = new NBTItem(givenStack);
-                String tagOriginal = nbtItemOriginal.getString("shopItemId");
-                String tagTester = nbtItemTester.getString("shopItemId");
-                if (StringUtils.isNotEmpty(tagOriginal) && StringUtils.isNotEmpty(tagTester) && tagOriginal.equals(tagTester)) {
-                    return true;
-                }
-            } catch (Exception e) {
-                plugin.disableNBTAPI();
-                plugin.getLogger().log(Level.WARNING, "NBTAPI support is broken, dsiable and fallback... (You can safely ignore this)", e);
-                Util.debugLog("NBTAPI is broken, error: " + e.getMessage() + "\n stacktrace:  \n" + Arrays.toString(e.getStackTrace()));
-            }
+        // Amount is ignored by isSimilar, so there is no need to clone and reset the amount
+        String tagOriginal = getShopItemId(requireStack);
+        if (StringUtils.isNotEmpty(tagOriginal) && tagOriginal.equals(getShopItemId(givenStack))) {
+            return true;
         }
-        if (workType == 1) {
+        if (workType == 1 || workType == 2) {
             return requireStack.isSimilar(givenStack);
         }
-        if (workType == 2) {
-            return requireStack.equals(givenStack);
-        }
 
         if (!typeMatches(requireStack, givenStack)) {
             return false;
@@ -194,6 +177,101 @@ public class QuickShopItemMatcherImpl implements ItemMatcher, Reloadable {
         return requireStack.getType().equals(givenStack.getType());
     }
 
+    /**
+     * Compile the ItemStack as a prototype, the returned matcher gives the same results as
+     * matches(prototype, givenStack), but everything about the prototype is only prepared once
+     * and no ItemStack will be cloned.
+     *
+     * @param prototype The original ItemStack, should not be modified after compiled
+     * @return The compiled matcher
+     */
+    @NotNull
+    public PrototypeMatcher compile(@NotNull ItemStack prototype) {
+        return new PrototypeMatcher(prototype);
+    }
+
+    @Nullable
+    private String getShopItemId(@NotNull ItemStack stack) {
+        if (plugin.getNbtapi() == null) {
+            return null;
+        }
+        try {
+            return new NBTItem(stack).getString("shopItemId");
+        } catch (Exception e) {
+            plugin.disableNBTAPI();
+            plugin.getLogger().log(Level.WARNING, "NBTAPI support is broken, dsiable and fallback... (You can safely ignore this)", e);
+            Util.debugLog("NBTAPI is broken, error: " + e.getMessage() + "\n stacktrace:  \n" + Arrays.toString(e.getStackTrace()));
+            return null;
+        }
+    }
+
+    /**
+     * A matcher compiled from a prototype ItemStack, checks cheap properties first and
+     * only reads the meta of given stack when both having meta.
+     * It becomes invalid after the matcher reloaded.
+     */
+    public class PrototypeMatcher {
+        private final ItemStack prototype;
+        private final ItemMetaMatcher compiledBy;
+        private final int compiledWorkType;
+        @Nullable
+        private final String shopItemId;
+        private final boolean hasItemMeta;
+        @Nullable
+        private final ItemMeta prototypeMeta;
+
+        private PrototypeMatcher(@NotNull ItemStack prototype) {
+            this.prototype = prototype;
+            this.compiledBy = itemMetaMatcher;
+            this.compiledWorkType = workType;
+            String tag = getShopItemId(prototype);
+            this.shopItemId = StringUtils.isNotEmpty(tag) ? tag : null;
+            this.hasItemMeta = prototype.hasItemMeta();
+            this.prototypeMeta = hasItemMeta ? prototype.getItemMeta() : null;
+        }
+
+        /**
+         * Check if this matcher still represents the given ItemMatcher
+         *
+         * @param itemMatcher The ItemMatcher in use
+         * @return true if still valid
+         */
+        public boolean isValid(@NotNull ItemMatcher itemMatcher) {
+            return itemMatcher == QuickShopItemMatcherImpl.this && compiledBy == itemMetaMatcher;
+        }
+
+        /**
+         * Tests the ItemStack matches the prototype
+         *
+         * @param givenStack The ItemStack will test matches with prototype
+         * @return The result of tests
+         */
+        public boolean matches(@Nullable ItemStack givenStack) {
+            if (givenStack == null) {
+                return false;
+            }
+            // Only need to read the tag of given stack when the prototype having one
+            if (shopItemId != null && plugin.getNbtapi() != null && shopItemId.equals(getShopItemId(givenStack))) {
+                return true;
+            }
+            if (prototype.getType() != givenStack.getType()) {
+                return false;
+            }
+            // Amount is ignored by isSimilar, so there is no need to clone and reset the amount
+            if (compiledWorkType == 1 || compiledWorkType == 2) {
+                return prototype.isSimilar(givenStack);
+            }
+            if (hasItemMeta != givenStack.hasItemMeta()) {
+                return false;
+            }
+            if (!hasItemMeta) {
+                return true;
+            }
+            // Similar stacks always pass every meta matcher, so isSimilar is not required here
+            return compiledBy.matches(Objects.requireNonNull(prototypeMeta), givenStack);
+        }
+    }
+
     /**
      * Callback for reloading
      *
@@ -210,6 +288,18 @@ public class QuickShopItemMatcherImpl implements ItemMatcher, Reloadable {
         private final List<Matcher> matcherList = new ArrayList<>();
 
         public ItemMetaMatcher(@NotNull ConfigurationSection itemMatcherConfig, @NotNull QuickShopItemMatcherImpl itemMatcher) {
+            // Cheap checks go first, so mismatching items are rejected earlier
+            if (!"v1_13_R1".equals(ReflectFactory.getNMSVersion()) && !"v1_13_R2".equals(ReflectFactory.getNMSVersion())) {
+                addIfEnable(itemMatcherConfig, "custommodeldata", ((meta1, meta2) -> {
+                    if (meta1.hasCustomModelData() != meta2.hasCustomModelData()) {
+                        return false;
+                    }
+                    if (meta1.hasCustomModelData()) {
+                        return meta1.getCustomModelData() == meta2.getCustomModelData();
+                    }
+                    return true;
+                }));
+            }
 
             addIfEnable(itemMatcherConfig, "damage", (meta1, meta2) -> {
                 if (meta1 instanceof Damageable != meta2 instanceof Damageable) {
@@ -523,15 +613,6 @@ public class QuickShopItemMatcherImpl implements ItemMatcher, Reloadable {
                 return true;
             }));
             if (!"v1_13_R1".equals(ReflectFactory.getNMSVersion()) && !"v1_13_R2".equals(ReflectFactory.getNMSVersion())) {
-                addIfEnable(itemMatcherConfig, "custommodeldata", ((meta1, meta2) -> {
-                    if (meta1.hasCustomModelData() != meta2.hasCustomModelData()) {
-                        return false;
-                    }
-                    if (meta1.hasCustomModelData()) {
-                        return meta1.getCustomModelData() == meta2.getCustomModelData();
-                    }
-                    return true;
-                }));
                 if (!"v1_14_R1".equals(ReflectFactory.getNMSVersion())) {
                     addIfEnable(itemMatcherConfig, "suspiciousStew", ((meta1, meta2) -> {
                         if ((meta1 instanceof SuspiciousStewMeta) != (meta2 instanceof SuspiciousStewMeta)) {
@@ -567,7 +648,10 @@ public class QuickShopItemMatcherImpl implements ItemMatcher, Reloadable {
             if (!requireStack.hasItemMeta()) {
                 return true; // Passed check. no meta need to check.
             }
-            ItemMeta meta1 = requireStack.getItemMeta();
+            return matches(requireStack.getItemMeta(), givenStack);
+        }
+
+        boolean matches(ItemMeta meta1, ItemStack givenStack) {
             ItemMeta meta2 = givenStack.getItemMeta();
             //If givenStack don't have meta, try to generate one
             if (meta2 == null) {
@@ -584,10 +668,6 @@ public class QuickShopItemMatcherImpl implements ItemMatcher, Reloadable {
             return true;
         }
 
-        private boolean rootMatches(ItemMeta meta1, ItemMeta meta2) {
-            return (meta1.hashCode() == meta2.hashCode());
-        }
-
 
         interface Matcher {
             /**
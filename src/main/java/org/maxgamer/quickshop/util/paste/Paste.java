@@ -31,6 +31,8 @@ import org.maxgamer.quickshop.QuickShop;
 import org.maxgamer.quickshop.api.database.WarpedResultSet;
 import org.maxgamer.quickshop.api.economy.AbstractEconomy;
 import org.maxgamer.quickshop.api.economy.EconomyCore;
+import org.maxgamer.quickshop.database.DatabaseConnectionPool;
+import org.maxgamer.quickshop.database.MySQLCore;
 import org.maxgamer.quickshop.economy.Economy_Vault;
 import org.maxgamer.quickshop.util.MsgUtil;
 import org.maxgamer.quickshop.util.ReflectFactory;
@@ -241,6 +243,23 @@ public class Paste {
             finalReport.append("\t\tTotal Loading Time: ").append(stats.totalLoadTime()).append("\n");
         }
 
+        if (plugin.getDatabaseManager().getDatabase() instanceof MySQLCore) {
+            DatabaseConnectionPool pool = ((MySQLCore) plugin.getDatabaseManager().getDatabase()).getPool();
+            finalReport.append("\tDatabase Connection Pool:\n");
+            finalReport.append("\t\tMin/Max      Size: ").append(pool.getMinSize()).append("/").append(pool.getMaxSize()).append("\n");
+            finalReport.append("\t\tActive      Count: ").append(pool.getActiveCount()).append("\n");
+            finalReport.append("\t\tIdle        Count: ").append(pool.getIdleCount()).append("\n");
+            finalReport.append("\t\tTotal       Count: ").append(pool.getTotalCount()).append("\n");
+            finalReport.append("\t\tWaiting     Count: ").append(pool.getWaitingCount()).append("\n");
+            finalReport.append("\t\t--------------------------").append("\n");
+            finalReport.append("\t\tCreated     Count: ").append(pool.getCreatedCount()).append("\n");
+            finalReport.append("\t\tTimeout     Count: ").append(pool.getTimeoutCount()).append("\n");
+            finalReport.append("\t\tLeak        Count: ").append(pool.getLeakCount()).append("\n");
+            finalReport.append("\t\t--------------------------").append("\n");
+            finalReport.append("\t\tWait Time Histogram:\n");
+            pool.getWaitTimeHistogram().forEach((bucket, count) -> finalReport.append("\t\t\t").append(bucket).append(": ").append(count).append("\n"));
+        }
+
         finalReport.append("================================================\n");
         finalReport.append("Configurations:\n");
         try {
@@ -0,0 +1,303 @@
+/*
+ * This file is a part of project QuickShop, the name is BinaryItemCodec.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.util.serialize;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.serialization.ConfigurationSerializable;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact format based on the Bukkit serialization map of the item,
+ * the map is written as tagged binary values and encoded by Base64.
+ * <p>
+ * Layout: {@link #PREFIX}, then Base64 of [format version (byte), data version (int), item map].
+ * Nested serializable objects (like ItemMeta) keep their alias, so they are rebuilt by ConfigurationSerialization
+ * as same as YAML does.
+ */
+public class BinaryItemCodec implements ItemCodec {
+    public static final String NAME = "binary";
+    public static final String PREFIX = "qsb:";
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_DEPTH = 64;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_FLOAT = 5;
+    private static final byte TYPE_SHORT = 6;
+    private static final byte TYPE_BYTE = 7;
+    private static final byte TYPE_BOOLEAN = 8;
+    private static final byte TYPE_LIST = 9;
+    private static final byte TYPE_MAP = 10;
+    private static final byte TYPE_SERIALIZABLE = 11;
+
+    @Override
+    public @NotNull String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean canDecode(@NotNull String serialized) {
+        return serialized.startsWith(PREFIX);
+    }
+
+    @Override
+    public @NotNull String encode(@NotNull ItemStack item) throws UnsupportedOperationException {
+        //noinspection deprecation
+        return encodeMap(item.serialize(), Bukkit.getUnsafe().getDataVersion());
+    }
+
+    @Override
+    public @Nullable ItemStack decode(@NotNull String serialized) throws InvalidConfigurationException {
+        Decoded decoded = decodeMap(serialized);
+        try {
+            ItemCodecs.fixDataVersion(decoded.item, decoded.dataVersion, serialized);
+            return ItemStack.deserialize(decoded.item);
+        } catch (Exception e) {
+            throw new InvalidConfigurationException("Exception in deserialize item", e);
+        }
+    }
+
+    /**
+     * Encode the serialization map of an item
+     *
+     * @param item        The map from {@link ItemStack#serialize()}
+     * @param dataVersion The data version of the server
+     * @return The encoded string
+     * @throws UnsupportedOperationException If the map contains a value can't be encoded, the caller should fallback to YAML
+     */
+    @NotNull
+    String encodeMap(@NotNull Map<String, Object> item, int dataVersion) throws UnsupportedOperationException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(dataVersion);
+            writeMap(out, item, 0);
+        } catch (IOException e) {
+            throw new UnsupportedOperationException("Cannot encode item " + item, e);
+        }
+        return PREFIX + Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Decode the serialization map of an item, without upgrading it or building the ItemStack
+     *
+     * @param serialized The encoded string
+     * @return The map and the data version it was encoded with
+     * @throws InvalidConfigurationException If the string is not a valid encoded item
+     */
+    @NotNull
+    Decoded decodeMap(@NotNull String serialized) throws InvalidConfigurationException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(serialized.substring(PREFIX.length()))))) {
+            int format = in.readUnsignedByte();
+            if (format != FORMAT_VERSION) {
+                throw new InvalidConfigurationException("Unsupported binary item format " + format);
+            }
+            int dataVersion = in.readInt();
+            return new Decoded(dataVersion, readMap(in, 0));
+        } catch (InvalidConfigurationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new InvalidConfigurationException("Exception in deserialize item", e);
+        }
+    }
+
+    private void writeValue(@NotNull DataOutputStream out, @Nullable Object value, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Item data is nested too deep");
+        }
+        if (value == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(TYPE_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof ConfigurationSerializable) {
+            out.writeByte(TYPE_SERIALIZABLE);
+            writeString(out, ConfigurationSerialization.getAlias(((ConfigurationSerializable) value).getClass()));
+            writeMap(out, ((ConfigurationSerializable) value).serialize(), depth + 1);
+        } else if (value instanceof Map) {
+            out.writeByte(TYPE_MAP);
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey(), depth + 1);
+                writeValue(out, entry.getValue(), depth + 1);
+            }
+        } else if (value instanceof Collection) {
+            out.writeByte(TYPE_LIST);
+            Collection<?> collection = (Collection<?>) value;
+            out.writeInt(collection.size());
+            for (Object element : collection) {
+                writeValue(out, element, depth + 1);
+            }
+        } else {
+            // Let the caller fallback to YAML
+            throw new IOException("Unsupported value type " + value.getClass().getName());
+        }
+    }
+
+    private void writeMap(@NotNull DataOutputStream out, @NotNull Map<String, Object> map, int depth) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeValue(out, entry.getValue(), depth + 1);
+        }
+    }
+
+    private void writeString(@NotNull DataOutputStream out, @NotNull String string) throws IOException {
+        // writeUTF is limited to 64KB, book pages may be longer
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Nullable
+    private Object readValue(@NotNull DataInputStream in, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Item data is nested too deep");
+        }
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_INT:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_FLOAT:
+                return in.readFloat();
+            case TYPE_SHORT:
+                return in.readShort();
+            case TYPE_BYTE:
+                return in.readByte();
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_SERIALIZABLE: {
+                String alias = readString(in);
+                Map<String, Object> map = new LinkedHashMap<>();
+                map.put(ConfigurationSerialization.SERIALIZED_TYPE_KEY, alias);
+                map.putAll(readMap(in, depth + 1));
+                ConfigurationSerializable object = ConfigurationSerialization.deserializeObject(map);
+                if (object == null) {
+                    throw new IOException("Cannot deserialize object " + alias);
+                }
+                return object;
+            }
+            case TYPE_MAP: {
+                int size = readSize(in);
+                Map<Object, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put(readValue(in, depth + 1), readValue(in, depth + 1));
+                }
+                return map;
+            }
+            case TYPE_LIST: {
+                int size = readSize(in);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in, depth + 1));
+                }
+                return list;
+            }
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    @NotNull
+    private Map<String, Object> readMap(@NotNull DataInputStream in, int depth) throws IOException {
+        int size = readSize(in);
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(readString(in), readValue(in, depth + 1));
+        }
+        return map;
+    }
+
+    @NotNull
+    private String readString(@NotNull DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readSize(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readSize(@NotNull DataInputStream in) throws IOException {
+        int size = in.readInt();
+        // Every element takes one byte at least
+        if (size < 0 || size > in.available()) {
+            throw new IOException("Corrupted item data, invalid size " + size);
+        }
+        return size;
+    }
+
+    static class Decoded {
+        final int dataVersion;
+        final Map<String, Object> item;
+
+        private Decoded(int dataVersion, @NotNull Map<String, Object> item) {
+            this.dataVersion = dataVersion;
+            this.item = item;
+        }
+    }
+}
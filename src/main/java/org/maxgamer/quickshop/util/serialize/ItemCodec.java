@@ -0,0 +1,67 @@
+/*
+ * This file is a part of project QuickShop, the name is ItemCodec.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.util.serialize;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Converts ItemStack to string and back, register it by {@link ItemCodecs#register(ItemCodec)}.
+ * Implementations must be thread-safe, items are decoded by the shop loader workers in parallel.
+ */
+public interface ItemCodec {
+    /**
+     * Gets the codec name, used in config shop.item-codec
+     *
+     * @return The name
+     */
+    @NotNull
+    String getName();
+
+    /**
+     * Check if the string is produced by this codec
+     *
+     * @param serialized The serialized item
+     * @return Can be decoded
+     */
+    boolean canDecode(@NotNull String serialized);
+
+    /**
+     * Serialize the item
+     *
+     * @param item The item
+     * @return The serialized item
+     * @throws UnsupportedOperationException The item can't be represented by this codec
+     */
+    @NotNull
+    String encode(@NotNull ItemStack item) throws UnsupportedOperationException;
+
+    /**
+     * Deserialize the item
+     *
+     * @param serialized The serialized item
+     * @return The item
+     * @throws InvalidConfigurationException Failed to deserialize
+     */
+    @Nullable
+    ItemStack decode(@NotNull String serialized) throws InvalidConfigurationException;
+}
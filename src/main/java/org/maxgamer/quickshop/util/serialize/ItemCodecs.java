@@ -0,0 +1,178 @@
+/*
+ * This file is a part of project QuickShop, the name is ItemCodecs.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.util.serialize;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.maxgamer.quickshop.QuickShop;
+import org.maxgamer.quickshop.util.Util;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The registered item codecs, items are always encoded by the selected codec,
+ * and decoded by the first codec which recognized the string, YAML is the fallback for both.
+ */
+public final class ItemCodecs {
+    private static final ItemCodec YAML = new YamlItemCodec();
+    private static final List<ItemCodec> CODECS = new CopyOnWriteArrayList<>();
+    private static volatile ItemCodec encoder = YAML;
+
+    static {
+        register(new BinaryItemCodec());
+    }
+
+    private ItemCodecs() {
+    }
+
+    /**
+     * Register a codec, it will be used to decode the strings it recognized
+     *
+     * @param codec The codec
+     */
+    public static void register(@NotNull ItemCodec codec) {
+        CODECS.removeIf(registered -> registered.getName().equalsIgnoreCase(codec.getName()));
+        CODECS.add(codec);
+    }
+
+    /**
+     * Gets the registered codec
+     *
+     * @param name The codec name
+     * @return The codec, null if not found
+     */
+    @Nullable
+    public static ItemCodec getCodec(@NotNull String name) {
+        if (YAML.getName().equalsIgnoreCase(name)) {
+            return YAML;
+        }
+        for (ItemCodec codec : CODECS) {
+            if (codec.getName().equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Select the codec to encode items
+     *
+     * @param name The codec name
+     * @return false if the codec not found, the selection won't change
+     */
+    public static boolean setEncoder(@NotNull String name) {
+        ItemCodec codec = getCodec(name);
+        if (codec == null) {
+            return false;
+        }
+        encoder = codec;
+        return true;
+    }
+
+    @NotNull
+    public static ItemCodec getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * Encode the item by the selected codec, fallback to YAML if the item can't be represented by it
+     *
+     * @param item The item
+     * @return The serialized item
+     */
+    @NotNull
+    public static String encode(@NotNull ItemStack item) {
+        ItemCodec codec = encoder;
+        if (codec != YAML) {
+            try {
+                return codec.encode(item);
+            } catch (UnsupportedOperationException e) {
+                Util.debugLog("Codec " + codec.getName() + " cannot encode the item, using YAML instead: " + e.getMessage());
+            }
+        }
+        return YAML.encode(item);
+    }
+
+    /**
+     * Decode the item by the codec which produced the string
+     *
+     * @param serialized The serialized item
+     * @return The item
+     * @throws InvalidConfigurationException Failed to deserialize
+     */
+    @Nullable
+    public static ItemStack decode(@NotNull String serialized) throws InvalidConfigurationException {
+        for (ItemCodec codec : CODECS) {
+            if (codec.canDecode(serialized)) {
+                return codec.decode(serialized);
+            }
+        }
+        return YAML.decode(serialized);
+    }
+
+    /**
+     * Check the data version of the serialized item, and hack it if the item saved from higher Minecraft version
+     * and shop.force-load-downgrade-items enabled.
+     *
+     * @param item               The serialized item map
+     * @param defaultDataVersion The data version to use if the map doesn't contain it
+     * @param serialized         The serialized item, for logging
+     * @return true if the data version changed
+     */
+    static boolean fixDataVersion(@NotNull Map<String, Object> item, int defaultDataVersion, @NotNull String serialized) {
+        QuickShop plugin = QuickShop.getInstance();
+        int itemDataVersion = Integer.parseInt(String.valueOf(item.getOrDefault("v", defaultDataVersion)));
+        // Try load the itemDataVersion to do some checks.
+        //noinspection deprecation
+        if (itemDataVersion <= Bukkit.getUnsafe().getDataVersion()) {
+            return false;
+        }
+        Util.debugLog("WARNING: DataVersion not matched with ItemStack: " + serialized);
+        // okay we need some things to do
+        if (plugin.getConfig().getBoolean("shop.force-load-downgrade-items.enable")) {
+            // okay it enabled
+            Util.debugLog("QuickShop is trying force loading " + serialized);
+            if (plugin.getConfig().getInt("shop.force-load-downgrade-items.method") == 0) { // Mode 0
+                //noinspection deprecation
+                item.put("v", Bukkit.getUnsafe().getDataVersion() - 1);
+            } else { // Mode other
+                //noinspection deprecation
+                item.put("v", Bukkit.getUnsafe().getDataVersion());
+            }
+            return true;
+        }
+        plugin
+                .getLogger()
+                .warning(
+                        "Cannot load ItemStack "
+                                + serialized
+                                + " because it saved from higher Minecraft server version, the action will fail and you will receive a exception, PLELASE DON'T REPORT TO QUICKSHOP!");
+        plugin
+                .getLogger()
+                .warning(
+                        "You can try force load this ItemStack by our hacked ItemStack read util(shop.force-load-downgrade-items), but beware, the data may corrupt if you load on this lower Minecraft server version, Please backup your world and database before enable!");
+        return false;
+    }
+}
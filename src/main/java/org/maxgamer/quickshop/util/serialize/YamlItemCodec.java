@@ -0,0 +1,84 @@
+/*
+ * This file is a part of project QuickShop, the name is YamlItemCodec.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.util.serialize;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.maxgamer.quickshop.util.Util;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+import java.util.Map;
+
+/**
+ * The original YAML format, readable by every QuickShop version.
+ * It can decode anything, so it is always the last one to try.
+ */
+public class YamlItemCodec implements ItemCodec {
+    public static final String NAME = "yaml";
+    // Yaml isn't thread-safe, shops may be deserialized by the loader workers in parallel
+    private static final ThreadLocal<Yaml> YAML = ThreadLocal.withInitial(() -> {
+        DumperOptions yamlOptions = new DumperOptions();
+        yamlOptions.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        yamlOptions.setIndent(2);
+        return new Yaml(yamlOptions);
+    });
+
+    @Override
+    public @NotNull String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean canDecode(@NotNull String serialized) {
+        return true;
+    }
+
+    @Override
+    public @NotNull String encode(@NotNull ItemStack item) {
+        YamlConfiguration cfg = new YamlConfiguration();
+        cfg.set("item", item);
+        return cfg.saveToString();
+    }
+
+    @Override
+    public @Nullable ItemStack decode(@NotNull String serialized) throws InvalidConfigurationException {
+        Yaml yaml = YAML.get();
+        YamlConfiguration yamlConfiguration = new YamlConfiguration();
+        try {
+            Map<Object, Object> root = yaml.load(serialized);
+            //noinspection unchecked
+            Map<String, Object> item = (Map<String, Object>) root.get("item");
+            if (ItemCodecs.fixDataVersion(item, 0, serialized)) {
+                // Okay we have hacked the dataVersion, now put it back
+                root.put("item", item);
+                serialized = yaml.dump(root);
+                Util.debugLog("Updated, we will try load as hacked ItemStack: " + serialized);
+            }
+            yamlConfiguration.loadFromString(serialized);
+            return yamlConfiguration.getItemStack("item");
+        } catch (Exception e) {
+            throw new InvalidConfigurationException("Exception in deserialize item", e);
+        }
+    }
+}
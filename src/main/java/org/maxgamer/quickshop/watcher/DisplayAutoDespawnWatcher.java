@@ -19,7 +19,6 @@
 
 package org.maxgamer.quickshop.watcher;
 
-import lombok.AllArgsConstructor;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.World;
@@ -34,10 +33,30 @@ import org.maxgamer.quickshop.util.reload.ReloadResult;
 import org.maxgamer.quickshop.util.reload.ReloadStatus;
 import org.maxgamer.quickshop.util.reload.Reloadable;
 
-@AllArgsConstructor
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Despawn the displays which no player nearby, and spawn them back when a player comes.
+ * <p>
+ * Runs every tick, every display-check-time ticks a new round is started: the players are bucketed into a grid once,
+ * then the loaded shops are checked in order until the time budget of the tick used up, the rest continues in next tick.
+ */
 public class DisplayAutoDespawnWatcher extends BukkitRunnable implements Reloadable {
     private final QuickShop plugin;
+    /* Player positions (x, y, z) by world and grid cell, the cell is as wide as the range, so only 3x3 cells need to check */
+    private final Map<World, Map<Long, List<double[]>>> playerGrid = new HashMap<>();
     private int range;
+    private double rangeSquared;
+    private int interval;
+    private long budgetNanos;
+    private List<Shop> pendingShops = Collections.emptyList();
+    private int cursor;
+    private int ticksUntilNextRound;
 
     public DisplayAutoDespawnWatcher(@NotNull QuickShop plugin) {
         this.plugin = plugin;
@@ -45,45 +64,112 @@ public class DisplayAutoDespawnWatcher extends BukkitRunnable implements Reloada
         init();
     }
 
+    private static long cellKey(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
     private void init() {
-        this.range = plugin.getConfig().getInt("shop.display-despawn-range");
+        this.range = Math.max(1, plugin.getConfig().getInt("shop.display-despawn-range"));
+        this.rangeSquared = (double) range * range;
+        this.interval = Math.max(1, plugin.getConfig().getInt("shop.display-check-time"));
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, plugin.getConfig().getInt("shop.display-despawn-time-budget", 2)));
     }
 
     @Override
     public ReloadResult reloadModule() {
         init();
+        // The grid cell size is changed with the range
+        finishRound();
         return ReloadResult.builder().status(ReloadStatus.SUCCESS).build();
     }
 
     @Override
     public void run() {
-        for (Shop shop : plugin.getShopManager().getLoadedShops()) {
-            //Shop may be deleted or unloaded when iterating
-            if (shop.isDeleted() || !shop.isLoaded() || shop.isDisableDisplay()) {
-                continue;
+        if (cursor >= pendingShops.size()) {
+            if (--ticksUntilNextRound > 0) {
+                return;
             }
-            Location location = shop.getLocation();
-            World world = shop.getLocation().getWorld(); //Cache this, because it will took some time.
-            AbstractDisplayItem displayItem = shop.getDisplay();
-            if (displayItem != null) {
-                // Check the range has player?
-                boolean anyPlayerInRegion = false;
-                for (Player player : Bukkit.getOnlinePlayers()) {
-                    if ((player.getWorld() == world) && (player.getLocation().distance(location) <= range)) {
-                        anyPlayerInRegion = true;
-                        break;
-                    }
+            ticksUntilNextRound = interval;
+            startRound();
+        }
+        long deadline = System.nanoTime() + budgetNanos;
+        while (cursor < pendingShops.size()) {
+            check(pendingShops.get(cursor++));
+            // nanoTime isn't free, check the budget every 32 shops
+            if ((cursor & 31) == 0 && System.nanoTime() > deadline) {
+                return;
+            }
+        }
+        finishRound();
+    }
+
+    private void startRound() {
+        playerGrid.clear();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            Location location = player.getLocation();
+            int cellX = Math.floorDiv(location.getBlockX(), range);
+            int cellZ = Math.floorDiv(location.getBlockZ(), range);
+            playerGrid.computeIfAbsent(location.getWorld(), world -> new HashMap<>())
+                    .computeIfAbsent(cellKey(cellX, cellZ), key -> new ArrayList<>(2))
+                    .add(new double[]{location.getX(), location.getY(), location.getZ()});
+        }
+        pendingShops = new ArrayList<>(plugin.getShopManager().getLoadedShops());
+        cursor = 0;
+    }
+
+    private void finishRound() {
+        pendingShops = Collections.emptyList();
+        cursor = 0;
+        // Don't hold the worlds
+        playerGrid.clear();
+    }
+
+    private void check(@NotNull Shop shop) {
+        //Shop may be deleted or unloaded when iterating
+        if (shop.isDeleted() || !shop.isLoaded() || shop.isDisableDisplay()) {
+            return;
+        }
+        AbstractDisplayItem displayItem = shop.getDisplay();
+        if (displayItem == null) {
+            return;
+        }
+        if (isAnyPlayerInRange(shop.getLocation())) {
+            if (!displayItem.isSpawned()) {
+                Util.debugLog("Respawning the shop " + shop + " the display, cause it was despawned and a player close to it");
+                displayItem.spawn();
+            }
+        } else if (displayItem.isSpawned()) {
+            displayItem.remove();
+        }
+    }
+
+    private boolean isAnyPlayerInRange(@NotNull Location location) {
+        Map<Long, List<double[]>> cells = playerGrid.get(location.getWorld());
+        if (cells == null) {
+            return false;
+        }
+        double x = location.getX();
+        double y = location.getY();
+        double z = location.getZ();
+        int cellX = Math.floorDiv(location.getBlockX(), range);
+        int cellZ = Math.floorDiv(location.getBlockZ(), range);
+        for (int offsetX = -1; offsetX <= 1; offsetX++) {
+            for (int offsetZ = -1; offsetZ <= 1; offsetZ++) {
+                List<double[]> players = cells.get(cellKey(cellX + offsetX, cellZ + offsetZ));
+                if (players == null) {
+                    continue;
                 }
-                if (anyPlayerInRegion) {
-                    if (!displayItem.isSpawned()) {
-                        Util.debugLog("Respawning the shop " + shop + " the display, cause it was despawned and a player close to it");
-                        displayItem.spawn();
+                for (double[] player : players) {
+                    double dx = player[0] - x;
+                    double dy = player[1] - y;
+                    double dz = player[2] - z;
+                    if (dx * dx + dy * dy + dz * dz <= rangeSquared) {
+                        return true;
                     }
-                } else if (displayItem.isSpawned()) {
-                    displayItem.remove();
                 }
             }
         }
+        return false;
     }
 
 }
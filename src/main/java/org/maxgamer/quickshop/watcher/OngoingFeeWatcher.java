@@ -36,6 +36,7 @@ import org.maxgamer.quickshop.util.PlayerFinder;
 import org.maxgamer.quickshop.util.Util;
 import org.maxgamer.quickshop.util.WarningSender;
 
+import java.util.Iterator;
 import java.util.Objects;
 import java.util.UUID;
 
@@ -63,7 +64,9 @@ public class OngoingFeeWatcher extends BukkitRunnable {
         boolean allowLoan = plugin.getConfig().getBoolean("shop.allow-economy-loan");
         boolean ignoreUnlimited = plugin.getConfig().getBoolean("shop.ongoing-fee.ignore-unlimited");
         double gobalCost = plugin.getConfig().getDouble("shop.ongoing-fee.cost-per-shop");
-        for (Shop shop : plugin.getShopManager().getAllShops()) {
+        Iterator<Shop> shops = plugin.getShopManager().getShopIterator();
+        while (shops.hasNext()) {
+            Shop shop = shops.next();
             if ((!shop.isUnlimited() || !ignoreUnlimited) && !shop.isDeleted()) {
                 UUID shopOwner = shop.getOwner();
                 Location location = shop.getLocation();
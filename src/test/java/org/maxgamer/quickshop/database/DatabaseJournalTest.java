@@ -0,0 +1,166 @@
+/*
+ * This file is a part of project QuickShop, the name is DatabaseJournalTest.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class DatabaseJournalTest {
+    private static final String INSERT = "INSERT INTO journaled (id, name, amount, price, enabled, data, note) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private final Logger logger = Logger.getLogger("DatabaseJournalTest");
+    @TempDir
+    File folder;
+    private File file;
+    private DatabaseJournal journal;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        file = new File(folder, "database-journal.bin");
+        journal = new DatabaseJournal(file, logger);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        journal.close();
+    }
+
+    private void reopen() throws IOException {
+        journal.close();
+        journal = new DatabaseJournal(file, logger);
+    }
+
+    private static DatabaseTask insert(int id) {
+        return new DatabaseTask(INSERT, ps -> {
+            ps.setInt(1, id);
+            ps.setString(2, "name-" + id + "-é中");
+            ps.setLong(3, Long.MAX_VALUE - id);
+            ps.setDouble(4, id + 0.25);
+            ps.setBoolean(5, id % 2 == 0);
+            ps.setBytes(6, new byte[]{(byte) id, 0, -1});
+            ps.setNull(7, Types.VARCHAR);
+        });
+    }
+
+    private void append(int from, int to) throws SQLException, IOException {
+        List<DatabaseJournal.Record> records = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            records.add(DatabaseJournal.capture(insert(i)));
+        }
+        journal.append(records);
+    }
+
+    @Test
+    public void testRoundTrip() throws SQLException, IOException {
+        append(0, 10);
+        reopen();
+        DatabaseJournal.Chunk chunk = journal.read(100);
+        assertEquals(10, chunk.getRecords().size());
+
+        try (Connection connection = TestShops.openDatabase()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE journaled (id INTEGER, name TEXT, amount BIGINT, price DOUBLE, enabled BOOLEAN, data BLOB, note TEXT)");
+            }
+            for (DatabaseJournal.Record record : chunk.getRecords()) {
+                assertEquals(INSERT, record.getStatement());
+                record.toTask(e -> fail(e)).run(connection);
+            }
+            try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery("SELECT * FROM journaled ORDER BY id")) {
+                for (int i = 0; i < 10; i++) {
+                    assertTrue(rs.next());
+                    assertEquals(i, rs.getInt("id"));
+                    assertEquals("name-" + i + "-é中", rs.getString("name"));
+                    assertEquals(Long.MAX_VALUE - i, rs.getLong("amount"));
+                    assertEquals(i + 0.25, rs.getDouble("price"));
+                    assertEquals(i % 2 == 0, rs.getBoolean("enabled"));
+                    assertArrayEquals(new byte[]{(byte) i, 0, -1}, rs.getBytes("data"));
+                    assertNull(rs.getString("note"));
+                }
+                assertFalse(rs.next());
+            }
+        }
+    }
+
+    @Test
+    public void testPartiallyReplayedIsKept() throws SQLException, IOException {
+        append(0, 10);
+        DatabaseJournal.Chunk chunk = journal.read(4);
+        assertEquals(4, chunk.getRecords().size());
+        journal.markReplayed(chunk.getEndOffset());
+        reopen();
+
+        assertTrue(journal.hasPending());
+        assertEquals(6, journal.read(100).getRecords().size());
+    }
+
+    @Test
+    public void testTruncatedOnceReplayed() throws SQLException, IOException {
+        append(0, 10);
+        long header = file.length() - journal.getPendingBytes();
+        journal.markReplayed(journal.read(100).getEndOffset());
+
+        assertFalse(journal.hasPending());
+        assertEquals(header, file.length(), "Only the header should be left");
+        reopen();
+        assertFalse(journal.hasPending());
+
+        // Still appendable after truncated
+        append(10, 12);
+        assertEquals(2, journal.read(100).getRecords().size());
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws SQLException, IOException {
+        append(0, 3);
+        long validLength = file.length();
+        journal.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // A record header claiming more bytes than written, like crashed in the middle of appending
+            raf.seek(validLength);
+            raf.writeInt(1000);
+            raf.writeInt(0);
+            raf.write(new byte[10]);
+        }
+        journal = new DatabaseJournal(file, logger);
+
+        assertEquals(validLength, file.length());
+        assertEquals(3, journal.read(100).getRecords().size());
+    }
+}
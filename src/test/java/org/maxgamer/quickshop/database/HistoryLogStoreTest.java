@@ -0,0 +1,157 @@
+/*
+ * This file is a part of project QuickShop, the name is HistoryLogStoreTest.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HistoryLogStoreTest {
+    private final AtomicInteger fullCalls = new AtomicInteger();
+    private Connection database;
+    private HistoryLogStore store;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        database = TestShops.openDatabase();
+        store = new HistoryLogStore(() -> "", false, Logger.getLogger("HistoryLogStoreTest"), fullCalls::incrementAndGet);
+    }
+
+    @AfterEach
+    public void tearDown() throws SQLException {
+        database.close();
+    }
+
+    private static String currentTable() {
+        return "history_" + YearMonth.now(ZoneOffset.UTC).format(DateTimeFormatter.ofPattern("yyyyMM", Locale.ROOT));
+    }
+
+    private void addRecords(int from, int to) {
+        for (int i = from; i < to; i++) {
+            store.add(new TestRecord(i));
+        }
+    }
+
+    /**
+     * Same steps as DatabaseManager does for every commit
+     */
+    private void commit(Connection connection) throws SQLException {
+        store.prepareTables(connection);
+        connection.setAutoCommit(false);
+        try {
+            store.flush(connection);
+            connection.commit();
+            store.onCommitted();
+        } catch (SQLException e) {
+            connection.rollback();
+            store.onRolledBack();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private int countRows() throws SQLException {
+        try (Statement statement = database.createStatement(); ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + currentTable())) {
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+    }
+
+    @Test
+    public void testFailedCommitIsWrittenAtNextRun() throws SQLException {
+        // More than one statement, the first chunks are already executed when the commit fails
+        addRecords(0, 200);
+        Connection failing = TestShops.failingCommits(database, new AtomicInteger(1));
+        assertThrows(SQLException.class, () -> commit(failing));
+        assertEquals(0, countRows());
+        assertEquals(200, store.getPendingAmount(), "Rolled back records should be pending again");
+
+        addRecords(200, 210);
+        commit(failing);
+        assertTrue(store.isEmpty());
+        assertEquals(0, store.getPendingAmount());
+        try (Statement statement = database.createStatement(); ResultSet rs = statement.executeQuery("SELECT data FROM " + currentTable() + " ORDER BY rowid")) {
+            for (int i = 0; i < 210; i++) {
+                assertTrue(rs.next());
+                assertEquals("{\"id\":" + i + "}", rs.getString(1), "Records should keep their order");
+            }
+            assertFalse(rs.next());
+        }
+    }
+
+    @Test
+    public void testRecordsWaitForTheirTable() throws SQLException {
+        addRecords(0, 5);
+        database.setAutoCommit(false);
+        try {
+            // Tables are not prepared out of the transaction yet
+            assertEquals(0, store.flush(database));
+            database.commit();
+            store.onCommitted();
+        } finally {
+            database.setAutoCommit(true);
+        }
+        assertEquals(5, store.getPendingAmount());
+
+        commit(database);
+        assertEquals(5, countRows());
+    }
+
+    @Test
+    public void testOverCapacityRequestsSpillOnce() {
+        store.setCapacity(10);
+        addRecords(0, 10);
+        assertEquals(0, fullCalls.get());
+        addRecords(10, 20);
+        assertEquals(1, fullCalls.get(), "Spill should be requested only once until drained");
+
+        List<DatabaseTask> tasks = store.drainAsTasks();
+        assertEquals(0, store.getPendingAmount());
+        assertEquals(20, tasks.stream().filter(task -> task.getStatement().startsWith("INSERT")).count());
+        addRecords(20, 31);
+        assertEquals(2, fullCalls.get());
+    }
+
+    private static final class TestRecord {
+        private final int id;
+
+        private TestRecord(int id) {
+            this.id = id;
+        }
+    }
+}
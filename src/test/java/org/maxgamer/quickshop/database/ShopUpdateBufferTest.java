@@ -0,0 +1,178 @@
+/*
+ * This file is a part of project QuickShop, the name is ShopUpdateBufferTest.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.database;
+
+import org.bukkit.World;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.maxgamer.quickshop.api.shop.Shop;
+import org.maxgamer.quickshop.api.shop.ShopDataField;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShopUpdateBufferTest {
+    private final World world = TestShops.world("world");
+    private Connection database;
+    private ShopUpdateBuffer buffer;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        database = TestShops.openDatabase();
+        buffer = new ShopUpdateBuffer(() -> "", () -> {
+            throw new UnsupportedOperationException("Items are not written in these tests");
+        }, Logger.getLogger("ShopUpdateBufferTest"));
+    }
+
+    @AfterEach
+    public void tearDown() throws SQLException {
+        database.close();
+    }
+
+    private void insert(TestShops.State state) throws SQLException {
+        try (PreparedStatement ps = database.prepareStatement("INSERT INTO shops (owner, price, itemConfig, x, y, z, world, unlimited, type) VALUES ('owner', ?, 'item', ?, ?, ?, ?, 0, 0)")) {
+            ps.setDouble(1, state.price);
+            ps.setInt(2, state.location.getBlockX());
+            ps.setInt(3, state.location.getBlockY());
+            ps.setInt(4, state.location.getBlockZ());
+            ps.setString(5, "world");
+            ps.executeUpdate();
+        }
+    }
+
+    private double price(int x) throws SQLException {
+        try (Statement statement = database.createStatement(); ResultSet rs = statement.executeQuery("SELECT price FROM shops WHERE x = " + x)) {
+            assertTrue(rs.next());
+            return rs.getDouble(1);
+        }
+    }
+
+    private boolean unlimited(int x) throws SQLException {
+        try (Statement statement = database.createStatement(); ResultSet rs = statement.executeQuery("SELECT unlimited FROM shops WHERE x = " + x)) {
+            assertTrue(rs.next());
+            return rs.getBoolean(1);
+        }
+    }
+
+    /**
+     * Same steps as DatabaseManager does for every commit
+     */
+    private void commit(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            buffer.flush(connection);
+            connection.commit();
+            buffer.onCommitted();
+        } catch (SQLException e) {
+            connection.rollback();
+            buffer.onRolledBack();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    @Test
+    public void testFailedCommitIsWrittenAtNextRun() throws SQLException {
+        TestShops.State state = new TestShops.State(world, 1, 64, 1, 10);
+        insert(state);
+        Shop shop = state.toShop();
+        state.price = 20;
+        shop.setDirty(ShopDataField.PRICE);
+        buffer.schedule(shop);
+
+        Connection failing = TestShops.failingCommits(database, new AtomicInteger(1));
+        assertThrows(SQLException.class, () -> commit(failing));
+        assertEquals(10, price(1));
+        assertFalse(buffer.isEmpty(), "Rolled back shop should be pending again");
+
+        commit(failing);
+        assertEquals(20, price(1));
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testExecutedBatchesAreRestoredOnRollback() throws SQLException {
+        // More than one batch, the first batches are already executed when the commit fails
+        int amount = 1200;
+        TestShops.State[] states = new TestShops.State[amount];
+        for (int i = 0; i < amount; i++) {
+            states[i] = new TestShops.State(world, i, 64, 0, 1);
+            insert(states[i]);
+        }
+        for (TestShops.State state : states) {
+            state.price = 2;
+            Shop shop = state.toShop();
+            shop.setDirty(ShopDataField.PRICE);
+            buffer.schedule(shop);
+        }
+        Connection failing = TestShops.failingCommits(database, new AtomicInteger(1));
+        assertThrows(SQLException.class, () -> commit(failing));
+        assertEquals(amount, buffer.getPendingAmount());
+
+        commit(failing);
+        for (int i = 0; i < amount; i++) {
+            assertEquals(2, price(i), "Shop " + i + " lost its update");
+        }
+    }
+
+    @Test
+    public void testRolledBackColumnsAreMergedWithLaterChanges() throws SQLException {
+        TestShops.State first = new TestShops.State(world, 1, 64, 1, 10);
+        TestShops.State second = new TestShops.State(world, 2, 64, 1, 10);
+        insert(first);
+        insert(second);
+        // Different column sets, so they are written by different batches
+        first.price = 20;
+        first.toShop().setDirty(ShopDataField.PRICE);
+        buffer.schedule(first.toShop());
+        second.unlimited = true;
+        second.toShop().setDirty(ShopDataField.UNLIMITED);
+        buffer.schedule(second.toShop());
+
+        Connection failing = TestShops.failingCommits(database, new AtomicInteger(1));
+        assertThrows(SQLException.class, () -> commit(failing));
+
+        // Only another column changed after the rollback, the rolled back columns must still be written
+        first.unlimited = true;
+        first.toShop().setDirty(ShopDataField.UNLIMITED);
+        buffer.schedule(first.toShop());
+        second.price = 30;
+        second.toShop().setDirty(ShopDataField.PRICE);
+        buffer.schedule(second.toShop());
+        commit(failing);
+
+        assertEquals(20, price(1));
+        assertTrue(unlimited(1));
+        assertEquals(30, price(2));
+        assertTrue(unlimited(2));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * This file is a part of project QuickShop, the name is TestShops.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.database;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+import org.maxgamer.quickshop.api.shop.Shop;
+import org.maxgamer.quickshop.api.shop.ShopDataField;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal shops and connections for the database buffer tests, no server needed
+ */
+final class TestShops {
+    private TestShops() {
+    }
+
+    /**
+     * A SQLite in-memory database with the shops table
+     */
+    @NotNull
+    static Connection openDatabase() throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE shops (owner VARCHAR(255), price DOUBLE, itemConfig TEXT, x INTEGER, y INTEGER, z INTEGER, world VARCHAR(128), unlimited BOOLEAN, type BOOLEAN, PRIMARY KEY (x, y, z, world))");
+        }
+        return connection;
+    }
+
+    /**
+     * Wrap the connection, the next {@code failures} commits fail and roll back instead
+     */
+    @NotNull
+    static Connection failingCommits(@NotNull Connection connection, @NotNull AtomicInteger failures) {
+        return (Connection) Proxy.newProxyInstance(TestShops.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            if ("commit".equals(method.getName()) && failures.getAndDecrement() > 0) {
+                connection.rollback();
+                throw new SQLException("Commit failed for testing");
+            }
+            return method.invoke(connection, args);
+        });
+    }
+
+    @NotNull
+    static World world(@NotNull String name) {
+        return (World) Proxy.newProxyInstance(TestShops.class.getClassLoader(), new Class<?>[]{World.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                    return name;
+                case "hashCode":
+                    return name.hashCode();
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "TestWorld{" + name + "}";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * A shop only supports the methods used by the buffers, price and unlimited can be changed
+     */
+    static final class State {
+        final UUID runtimeId = UUID.randomUUID();
+        final Location location;
+        final Set<ShopDataField> dirty = EnumSet.noneOf(ShopDataField.class);
+        volatile double price;
+        volatile boolean unlimited;
+        volatile boolean deleted;
+
+        State(@NotNull World world, int x, int y, int z, double price) {
+            this.location = new Location(world, x, y, z);
+            this.price = price;
+        }
+
+        @NotNull
+        Shop toShop() {
+            return (Shop) Proxy.newProxyInstance(TestShops.class.getClassLoader(), new Class<?>[]{Shop.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getRuntimeRandomUniqueId":
+                        return runtimeId;
+                    case "getLocation":
+                        return location;
+                    case "getPrice":
+                        return price;
+                    case "isUnlimited":
+                        return unlimited;
+                    case "isDeleted":
+                        return deleted;
+                    case "setDirty":
+                        synchronized (dirty) {
+                            if (args != null && args[0] instanceof ShopDataField) {
+                                dirty.add((ShopDataField) args[0]);
+                            } else {
+                                throw new UnsupportedOperationException("Only the field dirty marks are supported");
+                            }
+                        }
+                        return null;
+                    case "takeDirtyFields":
+                        synchronized (dirty) {
+                            Set<ShopDataField> taken = EnumSet.copyOf(dirty.isEmpty() ? EnumSet.allOf(ShopDataField.class) : dirty);
+                            dirty.clear();
+                            return taken;
+                        }
+                    case "hashCode":
+                        return runtimeId.hashCode();
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return "TestShop{" + location + "}";
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is a part of project QuickShop, the name is ShopPositionIndexTest.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.shop;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ShopPositionIndexTest {
+
+    /**
+     * Find keys sharing the same home slot in the initial table of 8 slots
+     */
+    private static List<Long> collidingKeys(int amount) {
+        List<Long> keys = new ArrayList<>(amount);
+        int home = ShopPositionIndex.LongObjectMap.mix(0) & 7;
+        for (long key = 0; keys.size() < amount; key++) {
+            if ((ShopPositionIndex.LongObjectMap.mix(key) & 7) == home) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    @Test
+    public void testRemoveShiftsTheProbeChainBack() {
+        // Stay below the resize threshold, so they are in one probe chain
+        List<Long> keys = collidingKeys(3);
+        ShopPositionIndex.LongObjectMap map = new ShopPositionIndex.LongObjectMap();
+        for (long key : keys) {
+            map.put(key, "value-" + key);
+        }
+        map.remove(keys.get(0));
+
+        assertEquals(2, map.size());
+        assertNull(map.get(keys.get(0)));
+        // Reachable only if they were shifted back into the hole
+        assertEquals("value-" + keys.get(1), map.get(keys.get(1)));
+        assertEquals("value-" + keys.get(2), map.get(keys.get(2)));
+
+        map.remove(keys.get(1));
+        assertEquals("value-" + keys.get(2), map.get(keys.get(2)));
+        map.put(keys.get(0), "again");
+        assertEquals("again", map.get(keys.get(0)));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        Random random = new Random(20240601L);
+        ShopPositionIndex.LongObjectMap map = new ShopPositionIndex.LongObjectMap();
+        Map<Long, Object> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            // Small key space, so removes and overwrites hit existing keys and chains wrap around the table
+            long key = random.nextInt(2048) - 1024L;
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                Object value = i;
+                map.put(key, value);
+                expected.put(key, value);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = -1024; key < 1024; key++) {
+            assertEquals(expected.get(key), map.get(key), "Key " + key);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * This file is a part of project QuickShop, the name is BinaryItemCodecTest.java
+ *  Copyright (C) PotatoCraft Studio and contributors
+ *
+ *  This program is free software: you can redistribute it and/or modify it
+ *  under the terms of the GNU General Public License as published by the
+ *  Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but WITHOUT
+ *  ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ *  FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ *  for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package org.maxgamer.quickshop.util.serialize;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.serialization.ConfigurationSerializable;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+import org.bukkit.configuration.serialization.SerializableAs;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BinaryItemCodecTest {
+    private final BinaryItemCodec codec = new BinaryItemCodec();
+
+    @BeforeAll
+    public static void registerSerializable() {
+        ConfigurationSerialization.registerClass(TestMeta.class);
+    }
+
+    @NotNull
+    private static Map<String, Object> sampleItem() {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("v", 3953);
+        item.put("type", "WRITTEN_BOOK");
+        item.put("amount", 16);
+        item.put("long", Long.MIN_VALUE);
+        item.put("double", 0.1);
+        item.put("float", 1.5f);
+        item.put("short", (short) -2);
+        item.put("byte", (byte) 127);
+        item.put("unbreakable", true);
+        item.put("missing", null);
+        // Longer than the 64KB limit of writeUTF
+        char[] page = new char[70000];
+        Arrays.fill(page, '页');
+        List<Object> pages = new ArrayList<>();
+        pages.add(new String(page));
+        pages.add(Collections.singletonList("nested"));
+        item.put("pages", pages);
+        Map<Object, Object> enchants = new LinkedHashMap<>();
+        enchants.put("minecraft:sharpness", 5);
+        enchants.put(42, "not a string key");
+        item.put("enchants", enchants);
+        item.put("meta", new TestMeta("Named", 7));
+        return item;
+    }
+
+    @Test
+    public void testRoundTrip() throws InvalidConfigurationException {
+        Map<String, Object> item = sampleItem();
+        String encoded = codec.encodeMap(item, 3953);
+        assertTrue(codec.canDecode(encoded));
+
+        BinaryItemCodec.Decoded decoded = codec.decodeMap(encoded);
+        assertEquals(3953, decoded.dataVersion);
+        assertEquals(item, decoded.item);
+        assertEquals(new ArrayList<>(item.keySet()), new ArrayList<>(decoded.item.keySet()), "Keys should keep their order");
+    }
+
+    @Test
+    public void testYamlIsNotDecoded() {
+        assertFalse(codec.canDecode("item:\n  type: STONE\n"));
+    }
+
+    @Test
+    public void testUnsupportedValueIsRejected() {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("type", "STONE");
+        item.put("unknown", new Object());
+        assertThrows(UnsupportedOperationException.class, () -> codec.encodeMap(item, 3953));
+    }
+
+    @Test
+    public void testCorruptedDataIsRejected() {
+        String encoded = codec.encodeMap(sampleItem(), 3953);
+        byte[] bytes = Base64.getDecoder().decode(encoded.substring(BinaryItemCodec.PREFIX.length()));
+        String truncated = BinaryItemCodec.PREFIX + Base64.getEncoder().encodeToString(Arrays.copyOf(bytes, bytes.length / 2));
+        assertThrows(InvalidConfigurationException.class, () -> codec.decodeMap(truncated));
+
+        bytes[0] = 99;
+        String unknownFormat = BinaryItemCodec.PREFIX + Base64.getEncoder().encodeToString(bytes);
+        assertThrows(InvalidConfigurationException.class, () -> codec.decodeMap(unknownFormat));
+    }
+
+    @SerializableAs("QuickShopTestMeta")
+    public static final class TestMeta implements ConfigurationSerializable {
+        private final String name;
+        private final int level;
+
+        public TestMeta(@NotNull String name, int level) {
+            this.name = name;
+            this.level = level;
+        }
+
+        @NotNull
+        public static TestMeta deserialize(@NotNull Map<String, Object> map) {
+            return new TestMeta((String) map.get("name"), (Integer) map.get("level"));
+        }
+
+        @Override
+        public @NotNull Map<String, Object> serialize() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("name", name);
+            map.put("level", level);
+            return map;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TestMeta)) {
+                return false;
+            }
+            TestMeta other = (TestMeta) o;
+            return level == other.level && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, level);
+        }
+    }
+}